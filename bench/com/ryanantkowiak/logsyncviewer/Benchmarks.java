@@ -0,0 +1,704 @@
+package com.ryanantkowiak.logsyncviewer;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import javax.swing.JList;
+
+/**
+ * Measures the throughput of the hot paths of the viewer: indexing, time-stamp
+ * parsing, field extraction, loading, merging, searching, filtering, exporting
+ * and rendering. Each benchmark is run over generated log files for every
+ * combination of the parameters: the number of files, their total size, the
+ * mean line length, whether the files are in time order, and the date format.
+ * The files are written by the LogGenerator.
+ *
+ * Each benchmark is run for a number of warm-up iterations and then measured
+ * over a number of timed iterations, each of which repeats the benchmark for a
+ * fixed time. The results give the operations per second, the bytes allocated
+ * per operation by all threads, and the garbage collections, and can be written
+ * to a JSON file so that they can be compared between builds. Run as:
+ *
+ * Benchmarks [-p name=value,...] [-wi N] [-i N] [-r ms] [-rf file.json] [-dir
+ * path] [benchmark...]
+ *
+ * @author Ryan Antkowiak
+ *
+ */
+public class Benchmarks
+{
+    /**
+     * The parameters and their default values
+     */
+    private static final Map<String, List<String>> DEFAULT_PARAMS = new LinkedHashMap<String, List<String>>();
+
+    /**
+     * The benchmarks, by name
+     */
+    private static final Map<String, Benchmark> BENCHMARKS = new LinkedHashMap<String, Benchmark>();
+
+    /**
+     * The share of lines that are moved out of time order in unsorted files
+     */
+    private static final double OUT_OF_ORDER = 0.02;
+
+    /**
+     * The number of rows rendered by one operation of the render benchmark, about
+     * a screenful
+     */
+    private static final int RENDER_ROWS = 50;
+
+    static
+    {
+        DEFAULT_PARAMS.put("files", Arrays.asList("1", "16"));
+        DEFAULT_PARAMS.put("size", Arrays.asList("20M"));
+        DEFAULT_PARAMS.put("length", Arrays.asList("80", "300"));
+        DEFAULT_PARAMS.put("order", Arrays.asList("sorted", "unsorted"));
+        DEFAULT_PARAMS.put("format", Arrays.asList("MMM dd HH:mm:ss", "yyyy-MM-dd HH:mm:ss.SSS"));
+
+        BENCHMARKS.put("index", data ->
+        {
+            for (final String fileName : data.m_fileNames)
+            {
+                MappedLogFile.open(Paths.get(fileName));
+            }
+        });
+        BENCHMARKS.put("parse", data ->
+        {
+            for (final MappedLogFile file : data.m_files)
+            {
+                for (int i = 0; i < file.getNumLines(); ++i)
+                {
+                    file.parseTimestamp(data.m_parser, i);
+                }
+            }
+        });
+        BENCHMARKS.put("fields", data ->
+        {
+            for (final MappedLogFile file : data.m_files)
+            {
+                FieldIndex.build(file, null);
+            }
+        });
+        BENCHMARKS.put("reload", data ->
+        {
+            final MappedLogFile[] files = new MappedLogFile[data.m_files.length];
+            LogLoader.load(data.m_fileNames, files, data.m_parser);
+            LogMerger.merge(data.m_fileNums, files, data.m_names, null);
+        });
+        BENCHMARKS.put("merge", data -> LogMerger.merge(data.m_fileNums, data.m_files, data.m_names, null));
+        BENCHMARKS.put("searchText", data -> LogSearcher.search(data.m_index, data.m_fileNums, data.m_files,
+                new SearchQuery("timeout", false, false), new LoadProgress(0, 0)));
+        BENCHMARKS.put("searchRegex", data -> LogSearcher.search(data.m_index, data.m_fileNums, data.m_files,
+                new SearchQuery("id=\\d*77\\b", false, true), new LoadProgress(0, 0)));
+        BENCHMARKS.put("filter", data -> FieldFilter.parse("level=ERROR,WARN").evaluate(data.m_index,
+                data.m_fileNums, data.m_names, data.m_files));
+        BENCHMARKS.put("export", data -> new ExportWorker(null, data.m_index, data.m_fileNums, data.m_files,
+                data.m_exportPath, false).doInBackground());
+        BENCHMARKS.put("render", data ->
+        {
+            final int first = data.m_random.nextInt(Math.max(1, data.m_index.getSize() - RENDER_ROWS));
+            final int end = Math.min(data.m_index.getSize(), first + RENDER_ROWS);
+
+            for (int row = first; row < end; ++row)
+            {
+                data.m_renderer.getListCellRendererComponent(data.m_list, data.m_index.getItem(row), row, false,
+                        false);
+                data.m_renderer.setBounds(0, 0, data.m_image.getWidth(), data.m_image.getHeight());
+                data.m_renderer.paint(data.m_graphics);
+            }
+        });
+    }
+
+    /**
+     * An operation to measure
+     */
+    private interface Benchmark
+    {
+        /**
+         * Runs the operation once
+         *
+         * @param data The generated log files to run on
+         * @throws Exception If the operation fails
+         */
+        void run(Dataset data) throws Exception;
+    }
+
+    /**
+     * The generated log files for one combination of the parameters, loaded and
+     * merged as the viewer would
+     */
+    private static class Dataset
+    {
+        /**
+         * The paths of the files
+         */
+        private final List<String> m_fileNames;
+
+        /**
+         * The paths of the files, as an array
+         */
+        private final String[] m_names;
+
+        /**
+         * The FileMap index of each file
+         */
+        private final int[] m_fileNums;
+
+        /**
+         * The data of each file
+         */
+        private final MappedLogFile[] m_files;
+
+        /**
+         * The time-stamp parser for the files' date format
+         */
+        private final TimestampParser m_parser;
+
+        /**
+         * The merged lines of the files
+         */
+        private final MergedIndex m_index;
+
+        /**
+         * The file the export benchmark writes to
+         */
+        private final Path m_exportPath;
+
+        /**
+         * Picks the rows that the render benchmark paints
+         */
+        private final Random m_random = new Random(1);
+
+        /**
+         * The list that the rows are rendered for
+         */
+        private final JList<LogSyncListItem> m_list = new JList<LogSyncListItem>();
+
+        /**
+         * The renderer the rows are painted with
+         */
+        private final LogSyncListItemRenderer m_renderer = new LogSyncListItemRenderer();
+
+        /**
+         * The image the rows are painted on
+         */
+        private final BufferedImage m_image = new BufferedImage(1600, 16, BufferedImage.TYPE_INT_RGB);
+
+        /**
+         * The graphics context of the image
+         */
+        private final Graphics2D m_graphics = m_image.createGraphics();
+
+        /**
+         * Constructor. Loads and merges the files.
+         *
+         * @param fileNames_  The paths of the files
+         * @param parser_     The time-stamp parser for the files' date format
+         * @param exportPath_ The file the export benchmark writes to
+         */
+        private Dataset(final List<String> fileNames_, final TimestampParser parser_, final Path exportPath_)
+        {
+            m_fileNames = fileNames_;
+            m_names = m_fileNames.toArray(new String[m_fileNames.size()]);
+            m_fileNums = new int[m_names.length];
+            m_files = new MappedLogFile[m_names.length];
+            m_parser = parser_;
+            m_exportPath = exportPath_;
+
+            FileMap.reset();
+            LogLoader.load(m_fileNames, m_files, m_parser);
+
+            for (int i = 0; i < m_names.length; ++i)
+            {
+                m_fileNums[i] = FileMap.reserveFile(m_names[i], Color.WHITE);
+                FileMap.setFileData(m_fileNums[i], m_files[i]);
+            }
+
+            m_index = LogMerger.merge(m_fileNums, m_files, m_names, null);
+            m_renderer.setHighlighter(new Highlighter(HighlightRule.parseRules(
+                    "red bold : ERROR\norange : WARN\nbg=yellow : timeout\nblue : session\ngreen : retry")));
+        }
+    }
+
+    /**
+     * The measurements of one benchmark for one combination of the parameters
+     */
+    private static class Result
+    {
+        /**
+         * The name of the benchmark
+         */
+        private final String m_benchmark;
+
+        /**
+         * The parameter values
+         */
+        private final Map<String, String> m_params;
+
+        /**
+         * The operations per second of each measured iteration
+         */
+        private final double[] m_opsPerSecond;
+
+        /**
+         * The lines that each operation visits: every line of the files, or the
+         * rows painted by the render benchmark
+         */
+        private final long m_lines;
+
+        /**
+         * The bytes allocated by all threads per operation, or -1 if the JVM cannot
+         * count them
+         */
+        private final double m_bytesPerOp;
+
+        /**
+         * The number of garbage collections during the measured iterations
+         */
+        private final long m_gcCount;
+
+        /**
+         * The time spent in garbage collection during the measured iterations, in
+         * ms
+         */
+        private final long m_gcTime;
+
+        /**
+         * Constructor
+         *
+         * @param benchmark_    The name of the benchmark
+         * @param params_       The parameter values
+         * @param opsPerSecond_ The operations per second of each measured iteration
+         * @param lines_        The lines that each operation visits
+         * @param bytesPerOp_   The bytes allocated per operation, or -1
+         * @param gcCount_      The number of garbage collections
+         * @param gcTime_       The time spent in garbage collection, in ms
+         */
+        private Result(final String benchmark_, final Map<String, String> params_, final double[] opsPerSecond_,
+                final long lines_, final double bytesPerOp_, final long gcCount_, final long gcTime_)
+        {
+            m_benchmark = benchmark_;
+            m_params = params_;
+            m_opsPerSecond = opsPerSecond_;
+            m_lines = lines_;
+            m_bytesPerOp = bytesPerOp_;
+            m_gcCount = gcCount_;
+            m_gcTime = gcTime_;
+        }
+
+        /**
+         * Returns the mean operations per second
+         *
+         * @return The mean of the measured iterations
+         */
+        private double getScore()
+        {
+            double sum = 0;
+
+            for (final double score : m_opsPerSecond)
+            {
+                sum += score;
+            }
+
+            return sum / m_opsPerSecond.length;
+        }
+
+        /**
+         * Returns the standard deviation of the operations per second
+         *
+         * @return The standard deviation of the measured iterations
+         */
+        private double getStdev()
+        {
+            final double mean = getScore();
+            double sum = 0;
+
+            for (final double score : m_opsPerSecond)
+            {
+                sum += (score - mean) * (score - mean);
+            }
+
+            return (m_opsPerSecond.length > 1) ? Math.sqrt(sum / (m_opsPerSecond.length - 1)) : 0;
+        }
+
+        /**
+         * Returns the result as a JSON object
+         *
+         * @return The JSON text
+         */
+        private String toJson()
+        {
+            final StringBuilder sb = new StringBuilder();
+            sb.append("  {\"benchmark\": ").append(quote(m_benchmark)).append(", \"params\": {");
+
+            String separator = "";
+
+            for (final Map.Entry<String, String> param : m_params.entrySet())
+            {
+                sb.append(separator).append(quote(param.getKey())).append(": ").append(quote(param.getValue()));
+                separator = ", ";
+            }
+
+            sb.append("}, \"unit\": \"ops/s\", \"score\": ").append(getScore());
+            sb.append(", \"scoreStdev\": ").append(getStdev());
+            sb.append(", \"rawData\": ").append(Arrays.toString(m_opsPerSecond));
+            sb.append(", \"linesPerSecond\": ").append(getScore() * m_lines);
+            sb.append(", \"gc.alloc.rate.norm\": ").append(m_bytesPerOp);
+            sb.append(", \"gc.count\": ").append(m_gcCount);
+            sb.append(", \"gc.time\": ").append(m_gcTime).append("}");
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Returns the bytes allocated so far by all live threads
+     *
+     * @return The number of bytes, or -1 if the JVM cannot count them
+     */
+    private static long allocatedBytes()
+    {
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+        if (!(threads instanceof com.sun.management.ThreadMXBean))
+        {
+            return -1;
+        }
+
+        long total = 0;
+
+        for (final long bytes : ((com.sun.management.ThreadMXBean) threads)
+                .getThreadAllocatedBytes(threads.getAllThreadIds()))
+        {
+            total += Math.max(0, bytes);
+        }
+
+        return total;
+    }
+
+    /**
+     * Returns every combination of the parameter values
+     *
+     * @param params The values of each parameter
+     * @return The combinations, each mapping every parameter to a value
+     */
+    private static List<Map<String, String>> combinations(final Map<String, List<String>> params)
+    {
+        List<Map<String, String>> combinations = new ArrayList<Map<String, String>>();
+        combinations.add(new LinkedHashMap<String, String>());
+
+        for (final Map.Entry<String, List<String>> param : params.entrySet())
+        {
+            final List<Map<String, String>> next = new ArrayList<Map<String, String>>();
+
+            for (final Map<String, String> combination : combinations)
+            {
+                for (final String value : param.getValue())
+                {
+                    final Map<String, String> extended = new LinkedHashMap<String, String>(combination);
+                    extended.put(param.getKey(), value);
+                    next.add(extended);
+                }
+            }
+
+            combinations = next;
+        }
+
+        return combinations;
+    }
+
+    /**
+     * Returns the number of garbage collections so far, and the time spent in
+     * them
+     *
+     * @return The number of collections, and the time in ms
+     */
+    private static long[] gcTotals()
+    {
+        final long[] totals = new long[2];
+
+        for (final GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+        {
+            totals[0] += Math.max(0, gc.getCollectionCount());
+            totals[1] += Math.max(0, gc.getCollectionTime());
+        }
+
+        return totals;
+    }
+
+    /**
+     * Writes the log files for a combination of the parameters, unless they were
+     * written by an earlier run. The files are the same for the same parameters.
+     *
+     * @param dir    The directory to write the files in
+     * @param params The parameter values
+     * @return The paths of the files
+     * @throws IOException If a file cannot be written
+     */
+    private static List<String> generate(final Path dir, final Map<String, String> params) throws IOException
+    {
+        final int numFiles = Integer.parseInt(params.get("files"));
+        final int length = Integer.parseInt(params.get("length"));
+        final String prefix = Integer.toHexString(params.toString().hashCode());
+        final LogGenerator generator = new LogGenerator();
+        final List<String> fileNames = new ArrayList<String>();
+
+        generator.setNumFiles(numFiles);
+        generator.setFileSize(LogGenerator.parseSize(params.get("size")) / numFiles);
+        generator.setLineLengths(length / 2, length, length * 4);
+        generator.setDateFormat(params.get("format"));
+        generator.setInterval(25 * numFiles);
+        generator.setUnordered(params.get("order").equals("sorted") ? 0 : OUT_OF_ORDER);
+
+        List<Path> paths = generator.getPaths(dir, prefix);
+
+        if (!paths.stream().allMatch(Files::exists))
+        {
+            paths = generator.generate(dir, prefix);
+        }
+
+        for (final Path path : paths)
+        {
+            fileNames.add(path.toString());
+        }
+
+        return fileNames;
+    }
+
+    /**
+     * Runs the benchmarks
+     *
+     * @param args The options, followed by the names of the benchmarks to run, or
+     *             none to run them all
+     * @throws Exception If the log files cannot be generated, or a benchmark
+     *                   fails
+     */
+    public static void main(final String[] args) throws Exception
+    {
+        final Map<String, List<String>> params = new LinkedHashMap<String, List<String>>(DEFAULT_PARAMS);
+        final List<String> names = new ArrayList<String>();
+        int warmups = 2;
+        int iterations = 5;
+        long iterationTime = 1000;
+        Path resultsFile = null;
+        Path dir = Paths.get(System.getProperty("java.io.tmpdir"), "logsyncviewer-bench");
+
+        for (int i = 0; i < args.length; ++i)
+        {
+            final String arg = args[i];
+
+            if (!arg.startsWith("-"))
+            {
+                if (!BENCHMARKS.containsKey(arg))
+                {
+                    throw new IllegalArgumentException("Unknown benchmark " + arg + "; the benchmarks are "
+                            + BENCHMARKS.keySet());
+                }
+
+                names.add(arg);
+                continue;
+            }
+
+            if (i + 1 >= args.length)
+            {
+                throw new IllegalArgumentException("Missing value for " + arg);
+            }
+
+            final String value = args[++i];
+
+            if (arg.equals("-p"))
+            {
+                final int equals = value.indexOf('=');
+
+                if ((equals < 0) || !params.containsKey(value.substring(0, equals)))
+                {
+                    throw new IllegalArgumentException("Expected name=value,... for -p, where the names are "
+                            + params.keySet());
+                }
+
+                params.put(value.substring(0, equals), Arrays.asList(value.substring(equals + 1).split(",")));
+            }
+            else if (arg.equals("-wi"))
+            {
+                warmups = Integer.parseInt(value);
+            }
+            else if (arg.equals("-i"))
+            {
+                iterations = Math.max(1, Integer.parseInt(value));
+            }
+            else if (arg.equals("-r"))
+            {
+                iterationTime = Long.parseLong(value);
+            }
+            else if (arg.equals("-rf"))
+            {
+                resultsFile = Paths.get(value);
+            }
+            else if (arg.equals("-dir"))
+            {
+                dir = Paths.get(value);
+            }
+            else
+            {
+                throw new IllegalArgumentException("Unknown option " + arg);
+            }
+        }
+
+        if (names.isEmpty())
+        {
+            names.addAll(BENCHMARKS.keySet());
+        }
+
+        Files.createDirectories(dir);
+        System.setProperty("java.awt.headless", "true");
+        System.setProperty("logsyncviewer.index.dir", dir.resolve("index").toString());
+
+        final List<Result> results = new ArrayList<Result>();
+
+        for (final Map<String, String> combination : combinations(params))
+        {
+            final List<String> fileNames = generate(dir, combination);
+            final Dataset data = new Dataset(fileNames, TimestampParser.compile(combination.get("format")),
+                    dir.resolve("export.log"));
+
+            for (final String name : names)
+            {
+                final Result result = measure(name, combination, data, warmups, iterations, iterationTime);
+                results.add(result);
+                System.out.println(String.format(Locale.US, "%-12s %s  %.3f +- %.3f ops/s  %.0f lines/s  %.0f B/op",
+                        name, combination, result.getScore(), result.getStdev(), result.getScore() * result.m_lines,
+                        result.m_bytesPerOp));
+            }
+
+            Files.deleteIfExists(data.m_exportPath);
+        }
+
+        if (resultsFile != null)
+        {
+            final List<String> json = new ArrayList<String>();
+
+            for (final Result result : results)
+            {
+                json.add(result.toJson());
+            }
+
+            Files.write(resultsFile, ("[\n" + String.join(",\n", json) + "\n]\n").getBytes(StandardCharsets.UTF_8));
+        }
+
+        System.exit(0);
+    }
+
+    /**
+     * Runs a benchmark for the warm-up iterations, and then measures it over the
+     * timed iterations
+     *
+     * @param name          The name of the benchmark
+     * @param params        The parameter values
+     * @param data          The log files to run on
+     * @param warmups       The number of warm-up iterations
+     * @param iterations    The number of measured iterations
+     * @param iterationTime The time to repeat the benchmark for in each
+     *                      iteration, in ms
+     * @return The measurements
+     * @throws Exception If the benchmark fails
+     */
+    private static Result measure(final String name, final Map<String, String> params, final Dataset data,
+            final int warmups, final int iterations, final long iterationTime) throws Exception
+    {
+        final Benchmark benchmark = BENCHMARKS.get(name);
+        final double[] opsPerSecond = new double[iterations];
+        long totalOps = 0;
+        long allocated = 0;
+        long gcCount = 0;
+        long gcTime = 0;
+
+        for (int i = 0; i < warmups + iterations; ++i)
+        {
+            final long[] gcBefore = gcTotals();
+            final long allocatedBefore = allocatedBytes();
+            final long start = System.nanoTime();
+            final long deadline = start + (iterationTime * 1000000L);
+            long ops = 0;
+            long now;
+
+            do
+            {
+                benchmark.run(data);
+                ++ops;
+                now = System.nanoTime();
+            }
+            while (now < deadline);
+
+            final long allocatedAfter = allocatedBytes();
+            final long[] gcAfter = gcTotals();
+
+            if (i >= warmups)
+            {
+                opsPerSecond[i - warmups] = ops * 1e9 / (now - start);
+                totalOps += ops;
+                allocated += allocatedAfter - allocatedBefore;
+                gcCount += gcAfter[0] - gcBefore[0];
+                gcTime += gcAfter[1] - gcBefore[1];
+            }
+        }
+
+        final long lines = name.equals("render") ? RENDER_ROWS : data.m_index.getSize();
+        final double bytesPerOp = (allocatedBytes() < 0) ? -1 : ((double) allocated / totalOps);
+
+        return new Result(name, params, opsPerSecond, lines, bytesPerOp, gcCount, gcTime);
+    }
+
+    /**
+     * Returns a string as a quoted JSON string
+     *
+     * @param text The string
+     * @return The JSON string
+     */
+    private static String quote(final String text)
+    {
+        final StringBuilder sb = new StringBuilder("\"");
+
+        for (int i = 0; i < text.length(); ++i)
+        {
+            final char c = text.charAt(i);
+
+            if ((c == '"') || (c == '\\'))
+            {
+                sb.append('\\').append(c);
+            }
+            else if (c < 0x20)
+            {
+                sb.append(String.format("\\u%04x", (int) c));
+            }
+            else
+            {
+                sb.append(c);
+            }
+        }
+
+        return sb.append('"').toString();
+    }
+
+    /**
+     * Constructor (private, all methods are static)
+     */
+    private Benchmarks()
+    {
+    }
+}
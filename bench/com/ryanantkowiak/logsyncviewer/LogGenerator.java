@@ -0,0 +1,784 @@
+package com.ryanantkowiak.logsyncviewer;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Writes synthetic log files for load testing, benchmarks and checking the
+ * merge. The settings control the number and size of the files, the
+ * distribution of the line lengths, the date format, the clock skew between the
+ * files, the share of entries that are out of time order, the share of ERROR
+ * entries followed by a multi-line stack trace, and the share of entries that
+ * repeat the time-stamp of the entry before them.
+ *
+ * The output depends only on the settings and the seed: each file is generated
+ * from its own random stream, so the files are the same however many threads
+ * write them. Files are written in parallel, one per processor, and each
+ * time-stamp is formatted once per second with its milliseconds patched in, so
+ * that corpora of tens of GB can be written in minutes. Run as:
+ *
+ * LogGenerator -dir path [-files N] [-size bytes[K|M|G]] [-seed N] [-format
+ * pattern] [-length min,mean,max] [-skew ms] [-unordered %] [-traces %]
+ * [-duplicates %]
+ *
+ * @author Ryan Antkowiak
+ *
+ */
+public class LogGenerator
+{
+    /**
+     * The size of the buffer each file is written through
+     */
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    /**
+     * The longest time that an out-of-order entry is stamped before the entries
+     * around it, in ms
+     */
+    private static final int MAX_LATENESS = 5000;
+
+    /**
+     * The words the text of the lines is made of
+     */
+    private static final byte[][] WORDS = bytes("request", "handled", "user", "session", "payload", "cache", "miss",
+            "queue", "worker", "connection", "opened", "closed", "retry", "timeout", "latency", "bytes");
+
+    /**
+     * The levels of the entries, in proportion to how often they appear
+     */
+    private static final byte[][] LEVELS = bytes("INFO", "INFO", "INFO", "INFO", "INFO", "INFO", "DEBUG", "DEBUG",
+            "WARN", "ERROR");
+
+    /**
+     * The exceptions that stack traces start with
+     */
+    private static final byte[][] EXCEPTIONS = bytes("java.lang.IllegalStateException: unexpected state",
+            "java.io.IOException: Connection reset by peer", "java.util.concurrent.TimeoutException: timed out",
+            "java.lang.NullPointerException");
+
+    /**
+     * The methods in the frames of stack traces
+     */
+    private static final byte[][] FRAMES = bytes("\tat com.example.server.RequestHandler.handle(RequestHandler.java:",
+            "\tat com.example.server.SessionCache.lookup(SessionCache.java:",
+            "\tat com.example.io.ConnectionPool.acquire(ConnectionPool.java:",
+            "\tat java.util.concurrent.ThreadPoolExecutor.runWorker(ThreadPoolExecutor.java:");
+
+    /**
+     * The bytes written before the number of a file
+     */
+    private static final byte[] HOST = bytes("host")[0];
+
+    /**
+     * The bytes written between the file number and the thread number
+     */
+    private static final byte[] APP = bytes(" app[")[0];
+
+    /**
+     * The bytes written before the id of an entry
+     */
+    private static final byte[] ID = bytes("id=")[0];
+
+    /**
+     * Writes one log file
+     */
+    private class FileGenerator
+    {
+        /**
+         * The position of the file in the corpus
+         */
+        private final int m_fileIndex;
+
+        /**
+         * The random stream the file is generated from
+         */
+        private final SplittableRandom m_random;
+
+        /**
+         * Formats the time-stamps
+         */
+        private final SimpleDateFormat m_format;
+
+        /**
+         * The line being built
+         */
+        private byte[] m_line = new byte[256];
+
+        /**
+         * The length of the line being built
+         */
+        private int m_length = 0;
+
+        /**
+         * The second, in seconds since the epoch, that m_timestampBytes was
+         * formatted for
+         */
+        private long m_formattedSecond = Long.MIN_VALUE;
+
+        /**
+         * The formatted bytes of the start of the second
+         */
+        private byte[] m_timestampBytes = new byte[0];
+
+        /**
+         * The position of the three millisecond digits in m_timestampBytes, -1 if
+         * the format has none, or -2 if they cannot be patched in and each
+         * time-stamp must be formatted
+         */
+        private int m_millisPos = -1;
+
+        /**
+         * Constructor
+         *
+         * @param fileIndex_ The position of the file in the corpus
+         */
+        private FileGenerator(final int fileIndex_)
+        {
+            m_fileIndex = fileIndex_;
+            m_random = new SplittableRandom(m_seed ^ ((fileIndex_ + 1) * 0x9E3779B97F4A7C15L));
+            m_format = new SimpleDateFormat(m_dateFormat, Locale.US);
+            m_format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        }
+
+        /**
+         * Appends bytes to the line
+         *
+         * @param bytes The bytes to append
+         */
+        private void append(final byte[] bytes)
+        {
+            reserve(bytes.length);
+            System.arraycopy(bytes, 0, m_line, m_length, bytes.length);
+            m_length += bytes.length;
+        }
+
+        /**
+         * Appends a character to the line
+         *
+         * @param c The character, which must be ASCII
+         */
+        private void append(final char c)
+        {
+            reserve(1);
+            m_line[m_length++] = (byte) c;
+        }
+
+        /**
+         * Appends a number to the line
+         *
+         * @param number The number, which must not be negative
+         */
+        private void appendNumber(final int number)
+        {
+            int digits = 1;
+
+            for (int n = number; n >= 10; n /= 10)
+            {
+                ++digits;
+            }
+
+            reserve(digits);
+
+            for (int i = m_length + digits - 1, n = number; i >= m_length; --i, n /= 10)
+            {
+                m_line[i] = (byte) ('0' + (n % 10));
+            }
+
+            m_length += digits;
+        }
+
+        /**
+         * Appends a formatted time-stamp to the line
+         *
+         * @param time The time, in ms since the epoch
+         */
+        private void appendTimestamp(final long time)
+        {
+            final long second = Math.floorDiv(time, 1000);
+
+            if (second != m_formattedSecond)
+            {
+                m_timestampBytes = format(second * 1000);
+                m_formattedSecond = second;
+                m_millisPos = -1;
+
+                final byte[] last = format((second * 1000) + 999);
+
+                if (last.length != m_timestampBytes.length)
+                {
+                    m_millisPos = -2;
+                }
+
+                for (int i = 0; (i < last.length) && (m_millisPos != -2); ++i)
+                {
+                    if (last[i] != m_timestampBytes[i])
+                    {
+                        final boolean digits = (i + 3 <= last.length) && (last[i] == '9') && (last[i + 1] == '9')
+                                && (last[i + 2] == '9') && (m_timestampBytes[i + 1] == '0')
+                                && (m_timestampBytes[i + 2] == '0');
+                        m_millisPos = (digits && (m_millisPos == -1)) ? i : -2;
+                        i += 2;
+                    }
+                }
+            }
+
+            if (m_millisPos == -2)
+            {
+                append(format(time));
+                return;
+            }
+
+            final int start = m_length;
+            append(m_timestampBytes);
+
+            if (m_millisPos >= 0)
+            {
+                final int millis = (int) Math.floorMod(time, 1000);
+                m_line[start + m_millisPos] = (byte) ('0' + (millis / 100));
+                m_line[start + m_millisPos + 1] = (byte) ('0' + ((millis / 10) % 10));
+                m_line[start + m_millisPos + 2] = (byte) ('0' + (millis % 10));
+            }
+        }
+
+        /**
+         * Formats a time-stamp
+         *
+         * @param time The time, in ms since the epoch
+         * @return The bytes of the formatted time-stamp
+         */
+        private byte[] format(final long time)
+        {
+            return m_format.format(new Date(time)).getBytes(StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Returns a line length drawn from the distribution: the minimum plus an
+         * exponentially distributed length, so that most lines are short and a few
+         * are long, capped at the maximum
+         *
+         * @return The length of the next line
+         */
+        private int nextLineLength()
+        {
+            final double extra = -Math.log(1 - m_random.nextDouble()) * (m_meanLength - m_minLength);
+            return (int) Math.min(m_maxLength, m_minLength + Math.round(extra));
+        }
+
+        /**
+         * Makes room for more bytes in the line
+         *
+         * @param count The number of bytes to make room for
+         */
+        private void reserve(final int count)
+        {
+            if (m_length + count > m_line.length)
+            {
+                m_line = Arrays.copyOf(m_line, Math.max(m_length + count, m_line.length * 2));
+            }
+        }
+
+        /**
+         * Writes the file
+         *
+         * @param path The path of the file
+         * @return The number of lines written
+         * @throws IOException If the file cannot be written
+         */
+        private long write(final Path path) throws IOException
+        {
+            final long skew = (m_skew > 0) ? m_random.nextLong(-m_skew, m_skew + 1) : 0;
+            long time = m_startTime + skew;
+            long size = 0;
+            long lines = 0;
+
+            try (final OutputStream out = new BufferedOutputStream(Files.newOutputStream(path), BUFFER_SIZE))
+            {
+                while (size < m_fileSize)
+                {
+                    if (m_random.nextDouble() >= m_duplicates)
+                    {
+                        time += 1 + m_random.nextInt(2 * m_interval);
+                    }
+
+                    final boolean late = m_random.nextDouble() < m_unordered;
+                    final byte[] level = LEVELS[m_random.nextInt(LEVELS.length)];
+                    final int target = nextLineLength();
+
+                    m_length = 0;
+                    appendTimestamp(late ? time - 1 - m_random.nextInt(MAX_LATENESS) : time);
+                    append(' ');
+                    append(HOST);
+                    appendNumber(m_fileIndex);
+                    append(APP);
+                    appendNumber(m_random.nextInt(16));
+                    append(']');
+                    append(':');
+                    append(' ');
+                    append(level);
+                    append(' ');
+                    append(ID);
+                    appendNumber(m_random.nextInt(1000000));
+
+                    while (m_length < target)
+                    {
+                        append(' ');
+                        append(WORDS[m_random.nextInt(WORDS.length)]);
+                    }
+
+                    append('\n');
+                    out.write(m_line, 0, m_length);
+                    size += m_length;
+                    ++lines;
+
+                    if ((level == LEVELS[LEVELS.length - 1]) && (m_random.nextDouble() < m_traces))
+                    {
+                        m_length = 0;
+                        append(EXCEPTIONS[m_random.nextInt(EXCEPTIONS.length)]);
+                        append('\n');
+
+                        for (int frames = 5 + m_random.nextInt(36); frames > 0; --frames)
+                        {
+                            append(FRAMES[m_random.nextInt(FRAMES.length)]);
+                            appendNumber(1 + m_random.nextInt(2000));
+                            append(')');
+                            append('\n');
+                            ++lines;
+                        }
+
+                        out.write(m_line, 0, m_length);
+                        size += m_length;
+                        ++lines;
+                    }
+                }
+            }
+
+            return lines;
+        }
+    }
+
+    /**
+     * Returns the bytes of each of the given strings
+     *
+     * @param strings The strings, which must be ASCII
+     * @return The bytes of each string
+     */
+    private static byte[][] bytes(final String... strings)
+    {
+        final byte[][] bytes = new byte[strings.length][];
+
+        for (int i = 0; i < strings.length; ++i)
+        {
+            bytes[i] = strings[i].getBytes(StandardCharsets.US_ASCII);
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Writes a corpus from the command line
+     *
+     * @param args The options
+     * @throws Exception If the options are not valid, or a file cannot be written
+     */
+    public static void main(final String[] args) throws Exception
+    {
+        final LogGenerator generator = new LogGenerator();
+        Path dir = null;
+
+        for (int i = 0; i < args.length; i += 2)
+        {
+            final String option = args[i];
+
+            if (i + 1 >= args.length)
+            {
+                throw new IllegalArgumentException("Missing value for " + option);
+            }
+
+            final String value = args[i + 1];
+
+            if (option.equals("-dir"))
+            {
+                dir = Paths.get(value);
+            }
+            else if (option.equals("-files"))
+            {
+                generator.setNumFiles(Integer.parseInt(value));
+            }
+            else if (option.equals("-size"))
+            {
+                generator.setFileSize(parseSize(value));
+            }
+            else if (option.equals("-seed"))
+            {
+                generator.setSeed(Long.parseLong(value));
+            }
+            else if (option.equals("-format"))
+            {
+                generator.setDateFormat(value);
+            }
+            else if (option.equals("-length"))
+            {
+                final String[] lengths = value.split(",");
+
+                if (lengths.length != 3)
+                {
+                    throw new IllegalArgumentException("Expected min,mean,max for -length");
+                }
+
+                generator.setLineLengths(Integer.parseInt(lengths[0]), Integer.parseInt(lengths[1]),
+                        Integer.parseInt(lengths[2]));
+            }
+            else if (option.equals("-skew"))
+            {
+                generator.setSkew(Long.parseLong(value));
+            }
+            else if (option.equals("-unordered"))
+            {
+                generator.setUnordered(Double.parseDouble(value) / 100);
+            }
+            else if (option.equals("-traces"))
+            {
+                generator.setTraces(Double.parseDouble(value) / 100);
+            }
+            else if (option.equals("-duplicates"))
+            {
+                generator.setDuplicates(Double.parseDouble(value) / 100);
+            }
+            else
+            {
+                throw new IllegalArgumentException("Unknown option " + option);
+            }
+        }
+
+        if (dir == null)
+        {
+            throw new IllegalArgumentException("The -dir option is required");
+        }
+
+        final long start = System.nanoTime();
+
+        for (final Path path : generator.generate(dir, "log"))
+        {
+            System.out.println(path + " " + Files.size(path));
+        }
+
+        System.out.println("Written in " + ((System.nanoTime() - start) / 1000000) + " ms");
+    }
+
+    /**
+     * Parses a size in bytes, with an optional K, M or G suffix
+     *
+     * @param text The size
+     * @return The number of bytes
+     * @throws NumberFormatException If the text is not a size
+     */
+    static long parseSize(final String text)
+    {
+        final String upper = text.trim().toUpperCase();
+        final int unit = "KMG".indexOf(upper.isEmpty() ? ' ' : upper.charAt(upper.length() - 1));
+        final String number = (unit >= 0) ? upper.substring(0, upper.length() - 1) : upper;
+
+        return Long.parseLong(number) << (10 * (unit + 1));
+    }
+
+    /**
+     * The seed the corpus is generated from
+     */
+    private long m_seed = 1;
+
+    /**
+     * The number of files to write
+     */
+    private int m_numFiles = 4;
+
+    /**
+     * The size of each file, in bytes; each file ends with the first entry that
+     * reaches it
+     */
+    private long m_fileSize = 16L << 20;
+
+    /**
+     * The SimpleDateFormat pattern of the time-stamps
+     */
+    private String m_dateFormat = "MMM dd HH:mm:ss";
+
+    /**
+     * The shortest line length
+     */
+    private int m_minLength = 60;
+
+    /**
+     * The mean line length
+     */
+    private int m_meanLength = 120;
+
+    /**
+     * The longest line length
+     */
+    private int m_maxLength = 2000;
+
+    /**
+     * The time of the first entry, before skew, in ms since the epoch
+     */
+    private long m_startTime = 1567641600000L;
+
+    /**
+     * The mean time between entries, in ms
+     */
+    private int m_interval = 20;
+
+    /**
+     * The largest difference between the clock of a file and the true time, in ms
+     */
+    private long m_skew = 0;
+
+    /**
+     * The share of entries that are stamped earlier than the entries around them
+     */
+    private double m_unordered = 0;
+
+    /**
+     * The share of ERROR entries that are followed by a stack trace
+     */
+    private double m_traces = 0;
+
+    /**
+     * The share of entries that repeat the time-stamp of the entry before them
+     */
+    private double m_duplicates = 0;
+
+    /**
+     * Constructor. Creates a generator with the default settings: four files of
+     * 16 MB in the default date format, in time order, with no skew, stack
+     * traces or repeated time-stamps.
+     */
+    public LogGenerator()
+    {
+    }
+
+    /**
+     * Writes the files of the corpus in parallel. Each file is written under a
+     * temporary name and renamed once it is complete.
+     *
+     * @param dir    The directory to write the files in
+     * @param prefix The start of the file names
+     * @return The paths of the files, in order
+     * @throws IOException If a file cannot be written
+     */
+    public List<Path> generate(final Path dir, final String prefix) throws IOException
+    {
+        Files.createDirectories(dir);
+
+        final ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        final List<Path> paths = getPaths(dir, prefix);
+        final List<Future<Long>> futures = new ArrayList<Future<Long>>();
+
+        try
+        {
+            for (int f = 0; f < m_numFiles; ++f)
+            {
+                final int fileIndex = f;
+                final Path path = paths.get(f);
+                final Path partial = dir.resolve(String.format("%s-%04d.tmp", prefix, f));
+
+                futures.add(pool.submit(() ->
+                {
+                    final long lines = new FileGenerator(fileIndex).write(partial);
+                    Files.move(partial, path, StandardCopyOption.REPLACE_EXISTING);
+                    return lines;
+                }));
+            }
+
+            for (final Future<Long> future : futures)
+            {
+                future.get();
+            }
+        }
+        catch (final ExecutionException e)
+        {
+            if (e.getCause() instanceof IOException)
+            {
+                throw (IOException) e.getCause();
+            }
+
+            throw new IllegalStateException(e.getCause());
+        }
+        catch (final InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted");
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+
+        return paths;
+    }
+
+    /**
+     * Returns the paths that generate() writes the files to
+     *
+     * @param dir    The directory the files are written in
+     * @param prefix The start of the file names
+     * @return The paths of the files, in order
+     */
+    public List<Path> getPaths(final Path dir, final String prefix)
+    {
+        final List<Path> paths = new ArrayList<Path>();
+
+        for (int f = 0; f < m_numFiles; ++f)
+        {
+            paths.add(dir.resolve(String.format("%s-%04d.log", prefix, f)));
+        }
+
+        return paths;
+    }
+
+    /**
+     * Sets the SimpleDateFormat pattern of the time-stamps
+     *
+     * @param dateFormat The pattern
+     * @throws IllegalArgumentException If the pattern is not valid
+     */
+    public void setDateFormat(final String dateFormat)
+    {
+        new SimpleDateFormat(dateFormat, Locale.US);
+        m_dateFormat = dateFormat;
+    }
+
+    /**
+     * Sets the share of entries that repeat the time-stamp of the entry before
+     * them
+     *
+     * @param duplicates The share, from 0 to 1
+     */
+    public void setDuplicates(final double duplicates)
+    {
+        m_duplicates = duplicates;
+    }
+
+    /**
+     * Sets the size of each file
+     *
+     * @param fileSize The size in bytes; each file ends with the first entry that
+     *                 reaches it
+     */
+    public void setFileSize(final long fileSize)
+    {
+        m_fileSize = fileSize;
+    }
+
+    /**
+     * Sets the mean time between the entries of a file
+     *
+     * @param interval The mean time, in ms
+     */
+    public void setInterval(final int interval)
+    {
+        m_interval = Math.max(1, interval);
+    }
+
+    /**
+     * Sets the distribution of the line lengths: each line is the minimum length
+     * plus an exponentially distributed length with the given mean, capped at the
+     * maximum. Lines are never shorter than their time-stamp, level and id.
+     *
+     * @param minLength  The shortest line length
+     * @param meanLength The mean line length
+     * @param maxLength  The longest line length
+     * @throws IllegalArgumentException If the lengths are not in order
+     */
+    public void setLineLengths(final int minLength, final int meanLength, final int maxLength)
+    {
+        if ((minLength < 0) || (meanLength < minLength) || (maxLength < meanLength))
+        {
+            throw new IllegalArgumentException("Expected 0 <= min <= mean <= max line length");
+        }
+
+        m_minLength = minLength;
+        m_meanLength = meanLength;
+        m_maxLength = maxLength;
+    }
+
+    /**
+     * Sets the number of files to write
+     *
+     * @param numFiles The number of files
+     */
+    public void setNumFiles(final int numFiles)
+    {
+        m_numFiles = numFiles;
+    }
+
+    /**
+     * Sets the seed the corpus is generated from
+     *
+     * @param seed The seed
+     */
+    public void setSeed(final long seed)
+    {
+        m_seed = seed;
+    }
+
+    /**
+     * Sets the largest clock skew between the files. Each file's clock is offset
+     * from the true time by a random amount up to the skew, either way.
+     *
+     * @param skew The largest skew, in ms
+     */
+    public void setSkew(final long skew)
+    {
+        m_skew = Math.max(0, skew);
+    }
+
+    /**
+     * Sets the time of the first entry of each file, before skew
+     *
+     * @param startTime The time, in ms since the epoch
+     */
+    public void setStartTime(final long startTime)
+    {
+        m_startTime = startTime;
+    }
+
+    /**
+     * Sets the share of ERROR entries that are followed by a stack trace of 5 to
+     * 40 lines without time-stamps
+     *
+     * @param traces The share, from 0 to 1
+     */
+    public void setTraces(final double traces)
+    {
+        m_traces = traces;
+    }
+
+    /**
+     * Sets the share of entries that are stamped up to five seconds earlier than
+     * the entries around them
+     *
+     * @param unordered The share, from 0 to 1
+     */
+    public void setUnordered(final double unordered)
+    {
+        m_unordered = unordered;
+    }
+}
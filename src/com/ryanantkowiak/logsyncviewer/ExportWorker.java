@@ -0,0 +1,264 @@
+package com.ryanantkowiak.logsyncviewer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.zip.GZIPOutputStream;
+
+import javax.swing.SwingWorker;
+
+/**
+ * Writes the merged log entries to a file in the background, off the Event
+ * Dispatch Thread, optionally compressed with gzip. The bytes of each line are
+ * copied as they are in its source file, line terminator included.
+ *
+ * Consecutive rows that are consecutive lines of one file are a single range of
+ * that file's bytes. Short ranges are gathered into a fixed-size buffer, which
+ * is written out whenever it fills; a range at least as long as the buffer is
+ * written straight from the mapped file. The output is never held in memory as
+ * a whole, however large the merged log is.
+ *
+ * @author Ryan Antkowiak
+ *
+ */
+public class ExportWorker extends SwingWorker<Void, Void>
+{
+    /**
+     * The size of the buffer that short ranges are gathered in
+     */
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    /**
+     * The number of rows written between checks for cancellation
+     */
+    private static final int PROGRESS_ROWS = 1 << 16;
+
+    /**
+     * The bytes written after a last line that has no line terminator
+     */
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * Writes out the bytes gathered in a buffer, and empties it
+     *
+     * @param buffer The buffer
+     * @param out    The channel to write to
+     * @throws IOException If the write fails
+     */
+    private static void flush(final ByteBuffer buffer, final WritableByteChannel out) throws IOException
+    {
+        buffer.flip();
+
+        while (buffer.hasRemaining())
+        {
+            out.write(buffer);
+        }
+
+        buffer.clear();
+    }
+
+    /**
+     * The viewer that is told when the export finishes
+     */
+    private final LogSyncViewer m_logSyncViewer;
+
+    /**
+     * The merged index of the rows to write
+     */
+    private final MergedIndex m_index;
+
+    /**
+     * The data of each file, by FileMap index
+     */
+    private final MappedLogFile[] m_files;
+
+    /**
+     * The file to write to
+     */
+    private final Path m_path;
+
+    /**
+     * True to compress the output with gzip
+     */
+    private final boolean m_gzip;
+
+    /**
+     * Constructor
+     *
+     * @param lsv      The viewer that is told when the export finishes
+     * @param index    The merged index of the rows to write
+     * @param fileNums The FileMap index of each file in the merged index
+     * @param files    The data of each file
+     * @param path     The file to write to
+     * @param gzip     True to compress the output with gzip
+     */
+    public ExportWorker(final LogSyncViewer lsv, final MergedIndex index, final int[] fileNums,
+            final MappedLogFile[] files, final Path path, final boolean gzip)
+    {
+        int maxFileNum = -1;
+
+        for (final int fileNum : fileNums)
+        {
+            maxFileNum = Math.max(maxFileNum, fileNum);
+        }
+
+        m_logSyncViewer = lsv;
+        m_index = index;
+        m_files = new MappedLogFile[maxFileNum + 1];
+        m_path = path;
+        m_gzip = gzip;
+
+        for (int i = 0; i < fileNums.length; ++i)
+        {
+            m_files[fileNums[i]] = files[i];
+        }
+    }
+
+    /**
+     * Writes the rows to the file, reporting progress as a percentage of the rows
+     * written. The partly written file is deleted if the export is cancelled or
+     * fails.
+     *
+     * @return null
+     * @throws IOException If the file cannot be written
+     */
+    @Override
+    protected Void doInBackground() throws IOException
+    {
+        final int size = m_index.getSize();
+        final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        boolean complete = false;
+
+        try (final FileChannel channel = FileChannel.open(m_path, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))
+        {
+            final GZIPOutputStream gzip = m_gzip
+                    ? new GZIPOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE)
+                    : null;
+            final WritableByteChannel out = (gzip != null) ? Channels.newChannel(gzip) : channel;
+            int nextCheck = PROGRESS_ROWS;
+            int row = 0;
+
+            while (row < size)
+            {
+                final long entry = m_index.getEntry(row);
+                final int fileNum = MergedIndex.fileOf(entry);
+                final int first = MergedIndex.lineOf(entry);
+                final MappedLogFile file = m_files[fileNum];
+                int end = first + 1;
+
+                while ((row + end - first < size) && (end < file.getNumLines())
+                        && (m_index.getEntry(row + end - first) == MergedIndex.pack(fileNum, end)))
+                {
+                    ++end;
+                }
+
+                final long start = file.getLineStart(first);
+                final long length = file.getLineStart(end) - start;
+                final boolean terminated = (length > 0) && (file.byteAt(start + length - 1) == '\n');
+
+                if (length >= buffer.capacity())
+                {
+                    flush(buffer, out);
+                    file.transferTo(start, length, out);
+                }
+                else
+                {
+                    if (length > buffer.remaining())
+                    {
+                        flush(buffer, out);
+                    }
+
+                    file.readBytes(start, buffer.array(), buffer.position(), (int) length);
+                    buffer.position(buffer.position() + (int) length);
+                }
+
+                if (!terminated)
+                {
+                    if (LINE_SEPARATOR.length > buffer.remaining())
+                    {
+                        flush(buffer, out);
+                    }
+
+                    buffer.put(LINE_SEPARATOR);
+                }
+
+                row += end - first;
+
+                if (row >= nextCheck)
+                {
+                    if (isCancelled())
+                    {
+                        return null;
+                    }
+
+                    setProgress((int) (100L * row / size));
+                    nextCheck = row + PROGRESS_ROWS;
+                }
+            }
+
+            flush(buffer, out);
+
+            if (gzip != null)
+            {
+                gzip.finish();
+            }
+
+            complete = !isCancelled();
+        }
+        finally
+        {
+            if (!complete)
+            {
+                Files.deleteIfExists(m_path);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Tells the viewer that the export has finished, on the Event Dispatch Thread
+     */
+    @Override
+    protected void done()
+    {
+        String error = null;
+
+        try
+        {
+            get();
+        }
+        catch (final CancellationException e)
+        {
+        }
+        catch (final ExecutionException e)
+        {
+            error = String.valueOf(e.getCause().getMessage());
+        }
+        catch (final InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        m_logSyncViewer.exportFinished(this, error);
+    }
+
+    /**
+     * Returns the file that is written to
+     *
+     * @return The path of the file
+     */
+    public Path getPath()
+    {
+        return m_path;
+    }
+}
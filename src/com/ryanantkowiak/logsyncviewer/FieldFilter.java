@@ -0,0 +1,532 @@
+package com.ryanantkowiak.logsyncviewer;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+/**
+ * A filter on the file, level and fields of the log entries, such as
+ * "level=ERROR,WARN and (thread=main or file=app.log)". Terms are written as
+ * field=value or field!=value, with a comma-separated list of values that may
+ * be "quoted", and are combined with and, or, not and parentheses; and binds
+ * more tightly than or.
+ *
+ * A filter is evaluated from the FieldIndex of each file without reading any
+ * text: each term becomes a bitset of the file's lines, the bitsets are combined
+ * with bitwise operations, and the merged index is then scanned once for the
+ * rows whose lines are set. The FieldIndex of a file is built the first time a
+ * filter that needs it is evaluated, so that loading files does not pay for it.
+ *
+ * @author Ryan Antkowiak
+ *
+ */
+public class FieldFilter
+{
+    /**
+     * Node type for a single field=value term
+     */
+    private static final int TERM = 0;
+
+    /**
+     * Node type for terms that must all match
+     */
+    private static final int AND = 1;
+
+    /**
+     * Node type for terms of which any must match
+     */
+    private static final int OR = 2;
+
+    /**
+     * Reads a filter from its tokens by recursive descent
+     */
+    private static class Parser
+    {
+        /**
+         * The tokens of the filter; quoted values keep their leading quote
+         */
+        private final List<String> m_tokens;
+
+        /**
+         * The position of the next token
+         */
+        private int m_pos = 0;
+
+        /**
+         * Constructor
+         *
+         * @param tokens_ The tokens of the filter
+         */
+        private Parser(final List<String> tokens_)
+        {
+            m_tokens = tokens_;
+        }
+
+        /**
+         * Moves past the next token if it is one of the given keywords
+         *
+         * @param keywords The keywords to accept, in lower case
+         * @return true if the next token was accepted
+         */
+        private boolean accept(final String... keywords)
+        {
+            if (m_pos < m_tokens.size())
+            {
+                for (final String keyword : keywords)
+                {
+                    if (m_tokens.get(m_pos).equalsIgnoreCase(keyword))
+                    {
+                        ++m_pos;
+                        return true;
+                    }
+                }
+            }
+
+            return false;
+        }
+
+        /**
+         * Reads terms joined by and
+         *
+         * @return The filter
+         */
+        private FieldFilter readAnd()
+        {
+            final List<FieldFilter> children = new ArrayList<FieldFilter>();
+            children.add(readUnary());
+
+            while (accept("and", "&&"))
+            {
+                children.add(readUnary());
+            }
+
+            return (children.size() == 1) ? children.get(0) : new FieldFilter(AND, children, null, null, false);
+        }
+
+        /**
+         * Reads terms joined by or
+         *
+         * @return The filter
+         */
+        private FieldFilter readOr()
+        {
+            final List<FieldFilter> children = new ArrayList<FieldFilter>();
+            children.add(readAnd());
+
+            while (accept("or", "||"))
+            {
+                children.add(readAnd());
+            }
+
+            return (children.size() == 1) ? children.get(0) : new FieldFilter(OR, children, null, null, false);
+        }
+
+        /**
+         * Reads a single field=value term
+         *
+         * @return The filter
+         */
+        private FieldFilter readTerm()
+        {
+            final String field = word("a field name").toLowerCase();
+            final boolean negate = accept("!=");
+
+            if (!negate && !accept("="))
+            {
+                throw new IllegalArgumentException("Expected = or != after \"" + field + "\"");
+            }
+
+            if (!field.equals("file") && !FieldIndex.getFieldNames().contains(field))
+            {
+                throw new IllegalArgumentException("Unknown field \"" + field + "\"; the fields are file, "
+                        + String.join(", ", FieldIndex.getFieldNames()));
+            }
+
+            final Set<String> values = new HashSet<String>();
+
+            do
+            {
+                final String value = word("a value");
+
+                if (field.equals(FieldIndex.LEVEL) && !value.isEmpty())
+                {
+                    final String level = FieldIndex.getLevel(value);
+
+                    if (level == null)
+                    {
+                        throw new IllegalArgumentException("Unknown level \"" + value + "\"");
+                    }
+
+                    values.add(level);
+                }
+                else
+                {
+                    values.add(value);
+                }
+            }
+            while (accept(","));
+
+            return new FieldFilter(TERM, new ArrayList<FieldFilter>(), field, values, negate);
+        }
+
+        /**
+         * Reads a term, a negated term, or a filter in parentheses
+         *
+         * @return The filter
+         */
+        private FieldFilter readUnary()
+        {
+            if (accept("not", "!"))
+            {
+                final FieldFilter child = readUnary();
+                return new FieldFilter(child.m_type, child.m_children, child.m_field, child.m_values,
+                        !child.m_negate);
+            }
+
+            if (accept("("))
+            {
+                final FieldFilter filter = readOr();
+
+                if (!accept(")"))
+                {
+                    throw new IllegalArgumentException("Expected )");
+                }
+
+                return filter;
+            }
+
+            return readTerm();
+        }
+
+        /**
+         * Reads the next token as a field name or value
+         *
+         * @param what The description of what is expected, for the error message
+         * @return The text of the token, without quotes
+         * @throws IllegalArgumentException If there is no word at the position
+         */
+        private String word(final String what)
+        {
+            final String token = (m_pos < m_tokens.size()) ? m_tokens.get(m_pos) : "";
+
+            if (token.startsWith("\""))
+            {
+                ++m_pos;
+                return token.substring(1);
+            }
+
+            if (token.isEmpty() || "()=!=,".contains(token))
+            {
+                throw new IllegalArgumentException("Expected " + what
+                        + (token.isEmpty() ? " at the end" : " before \"" + token + "\""));
+            }
+
+            ++m_pos;
+            return token;
+        }
+    }
+
+    /**
+     * Returns true if the line of a packed merged index entry is set
+     *
+     * @param lines The bitset of matching lines of each file, by FileMap index
+     * @param entry The packed file index and line number
+     * @return true if the entry matches
+     */
+    private static boolean isSet(final long[][] lines, final long entry)
+    {
+        final int fileNum = MergedIndex.fileOf(entry);
+        final int lineNum = MergedIndex.lineOf(entry);
+
+        return (fileNum < lines.length) && (lines[fileNum] != null)
+                && ((lines[fileNum][lineNum >>> 6] & (1L << lineNum)) != 0);
+    }
+
+    /**
+     * Parses a filter from its text
+     *
+     * @param text The text of the filter
+     * @return The filter
+     * @throws IllegalArgumentException If the text is not a valid filter
+     */
+    public static FieldFilter parse(final String text)
+    {
+        final Parser parser = new Parser(tokenize(text));
+        final FieldFilter filter = parser.readOr();
+
+        if (parser.m_pos < parser.m_tokens.size())
+        {
+            throw new IllegalArgumentException("Unexpected \"" + parser.m_tokens.get(parser.m_pos) + "\"");
+        }
+
+        return filter;
+    }
+
+    /**
+     * Splits the text of a filter into tokens: parentheses, =, !=, commas, quoted
+     * values and words
+     *
+     * @param text The text of the filter
+     * @return The tokens; a quoted value is returned with its leading quote only
+     * @throws IllegalArgumentException If a quoted value is not closed
+     */
+    private static List<String> tokenize(final String text)
+    {
+        final List<String> tokens = new ArrayList<String>();
+        int i = 0;
+
+        while (i < text.length())
+        {
+            final char c = text.charAt(i);
+
+            if (Character.isWhitespace(c))
+            {
+                ++i;
+            }
+            else if ((c == '(') || (c == ')') || (c == '=') || (c == ','))
+            {
+                tokens.add(String.valueOf(c));
+                ++i;
+            }
+            else if (text.startsWith("!=", i))
+            {
+                tokens.add("!=");
+                i += 2;
+            }
+            else if (c == '!')
+            {
+                tokens.add("!");
+                ++i;
+            }
+            else if (c == '"')
+            {
+                final int end = text.indexOf('"', i + 1);
+
+                if (end < 0)
+                {
+                    throw new IllegalArgumentException("Unclosed quote");
+                }
+
+                tokens.add(text.substring(i, end));
+                i = end + 1;
+            }
+            else
+            {
+                int end = i + 1;
+
+                while ((end < text.length()) && !Character.isWhitespace(text.charAt(end))
+                        && ("()=,\"".indexOf(text.charAt(end)) < 0) && !text.startsWith("!=", end))
+                {
+                    ++end;
+                }
+
+                tokens.add(text.substring(i, end));
+                i = end;
+            }
+        }
+
+        return tokens;
+    }
+
+    /**
+     * The node type: TERM, AND or OR
+     */
+    private final int m_type;
+
+    /**
+     * The filters that are combined, for AND and OR
+     */
+    private final List<FieldFilter> m_children;
+
+    /**
+     * The field of a TERM
+     */
+    private final String m_field;
+
+    /**
+     * The values of a TERM, any of which matches
+     */
+    private final Set<String> m_values;
+
+    /**
+     * True if the node matches the lines that it would otherwise not match
+     */
+    private final boolean m_negate;
+
+    /**
+     * Constructor
+     *
+     * @param type_     The node type
+     * @param children_ The filters that are combined, for AND and OR
+     * @param field_    The field of a TERM
+     * @param values_   The values of a TERM
+     * @param negate_   True if the node is negated
+     */
+    private FieldFilter(final int type_, final List<FieldFilter> children_, final String field_,
+            final Set<String> values_, final boolean negate_)
+    {
+        m_type = type_;
+        m_children = children_;
+        m_field = field_;
+        m_values = values_;
+        m_negate = negate_;
+    }
+
+    /**
+     * Finds the rows of a merged index that the filter matches. The fields of
+     * files that have not been indexed yet are extracted first, in parallel on the
+     * worker pool.
+     *
+     * @param index     The merged index
+     * @param fileNums  The FileMap index of each file in the merged index
+     * @param fileNames The path of each file
+     * @param files     The data of each file
+     * @return The matching rows, in ascending order
+     */
+    public int[] evaluate(final MergedIndex index, final int[] fileNums, final String[] fileNames,
+            final MappedLogFile[] files)
+    {
+        if (usesFields())
+        {
+            final List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+
+            for (final MappedLogFile file : files)
+            {
+                if (file.getFields() == null)
+                {
+                    tasks.add(() ->
+                    {
+                        file.setFields(FieldIndex.build(file, null));
+                        return null;
+                    });
+                }
+            }
+
+            LogSearcher.runAll(tasks);
+        }
+
+        int maxFileNum = -1;
+
+        for (final int fileNum : fileNums)
+        {
+            maxFileNum = Math.max(maxFileNum, fileNum);
+        }
+
+        final long[][] lines = new long[maxFileNum + 1][];
+
+        for (int i = 0; i < fileNums.length; ++i)
+        {
+            lines[fileNums[i]] = getLines(fileNames[i], files[i]);
+        }
+
+        final int size = index.getSize();
+        int count = 0;
+
+        for (int row = 0; row < size; ++row)
+        {
+            if (isSet(lines, index.getEntry(row)))
+            {
+                ++count;
+            }
+        }
+
+        final int[] rows = new int[count];
+        int n = 0;
+
+        for (int row = 0; (row < size) && (n < count); ++row)
+        {
+            if (isSet(lines, index.getEntry(row)))
+            {
+                rows[n++] = row;
+            }
+        }
+
+        return rows;
+    }
+
+    /**
+     * Returns the lines of a file that the filter matches
+     *
+     * @param fileName The path of the file
+     * @param file     The data of the file
+     * @return Bit i is set if line i matches
+     */
+    private long[] getLines(final String fileName, final MappedLogFile file)
+    {
+        final int numLines = file.getNumLines();
+        long[] bits;
+
+        if (m_type == TERM)
+        {
+            final FieldIndex fields = file.getFields();
+
+            if (m_field.equals("file"))
+            {
+                final boolean match = m_values.contains(fileName)
+                        || m_values.contains(String.valueOf(Paths.get(fileName).getFileName()));
+                bits = match ? FieldIndex.allLines(numLines) : new long[(numLines + 63) >>> 6];
+            }
+            else if ((fields == null) || (fields.getNumLines() != numLines))
+            {
+                bits = m_values.contains("") ? FieldIndex.allLines(numLines) : new long[(numLines + 63) >>> 6];
+            }
+            else
+            {
+                bits = fields.getLines(m_field, m_values);
+            }
+        }
+        else
+        {
+            bits = m_children.get(0).getLines(fileName, file);
+
+            for (int c = 1; c < m_children.size(); ++c)
+            {
+                final long[] other = m_children.get(c).getLines(fileName, file);
+
+                for (int i = 0; i < bits.length; ++i)
+                {
+                    bits[i] = (m_type == AND) ? (bits[i] & other[i]) : (bits[i] | other[i]);
+                }
+            }
+        }
+
+        if (m_negate)
+        {
+            final long[] all = FieldIndex.allLines(numLines);
+
+            for (int i = 0; i < bits.length; ++i)
+            {
+                bits[i] = all[i] & ~bits[i];
+            }
+        }
+
+        return bits;
+    }
+
+    /**
+     * Returns true if the filter has a term on the level or a field, which needs
+     * the FieldIndex of each file
+     *
+     * @return true if any term is not on the file name
+     */
+    private boolean usesFields()
+    {
+        if (m_type == TERM)
+        {
+            return !m_field.equals("file");
+        }
+
+        for (final FieldFilter child : m_children)
+        {
+            if (child.usesFields())
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
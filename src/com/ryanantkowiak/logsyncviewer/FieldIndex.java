@@ -0,0 +1,657 @@
+package com.ryanantkowiak.logsyncviewer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * The level and the configured fields of every line of a log file, extracted
+ * the first time a FieldFilter needs them and stored as dictionary-encoded
+ * columns: each column holds a small code per line, and a dictionary of the
+ * distinct values. Filters on a field are answered as bitsets of lines, found
+ * from the codes without reading the text of the file again.
+ *
+ * The level is the first upper case level word near the start of a line, such
+ * as INFO or ERROR. The other fields are defined one per line as "name : regex"
+ * in ~/.logsyncviewer/fields.txt, or the file given by the
+ * logsyncviewer.fields.file system property; the first group of the regex, or
+ * the whole match if it has none, is the field's value. Without a fields file,
+ * the thread is taken from the first [bracketed] text.
+ *
+ * @author Ryan Antkowiak
+ *
+ */
+public class FieldIndex
+{
+    /**
+     * The name of the level field
+     */
+    public static final String LEVEL = "level";
+
+    /**
+     * The file that the field definitions are read from
+     */
+    private static final Path FIELDS_FILE = Paths.get(System.getProperty("logsyncviewer.fields.file",
+            Paths.get(System.getProperty("user.home"), ".logsyncviewer", "fields.txt").toString()));
+
+    /**
+     * The field definitions that are used without a fields file
+     */
+    private static final String DEFAULT_FIELDS = "thread : \\[([^\\]]+)\\]";
+
+    /**
+     * The level words, and the level that each one stands for
+     */
+    private static final Map<String, String> LEVEL_WORDS = levelWords();
+
+    /**
+     * The configured fields, by name, in the order they were defined
+     */
+    private static final Map<String, Pattern> FIELDS = readFields();
+
+    /**
+     * The number of bytes at the start of each line that fields are extracted from
+     */
+    private static final int SCAN_LENGTH = 1024;
+
+    /**
+     * The number of lines processed between progress reports
+     */
+    private static final int PROGRESS_BLOCK_SIZE = 1 << 16;
+
+    /**
+     * The bytes of a line, read as ISO-8859-1 characters so that a regex can be
+     * matched against them without decoding. Byte offsets and character offsets
+     * are the same, so matched values are decoded as UTF-8 afterwards.
+     */
+    private static class LineText implements CharSequence
+    {
+        /**
+         * The bytes of the line
+         */
+        private final byte[] m_bytes;
+
+        /**
+         * The number of bytes of the line
+         */
+        private int m_length = 0;
+
+        /**
+         * Constructor
+         *
+         * @param bytes_ The buffer that holds the bytes of the line
+         */
+        private LineText(final byte[] bytes_)
+        {
+            m_bytes = bytes_;
+        }
+
+        /**
+         * Returns the character at the given index
+         *
+         * @param index The index of the character
+         * @return The character
+         */
+        @Override
+        public char charAt(final int index)
+        {
+            return (char) (m_bytes[index] & 0xFF);
+        }
+
+        /**
+         * Returns the number of characters
+         *
+         * @return The length of the line
+         */
+        @Override
+        public int length()
+        {
+            return m_length;
+        }
+
+        /**
+         * Returns a sub-sequence of the line
+         *
+         * @param start The start index, inclusive
+         * @param end   The end index, exclusive
+         * @return The sub-sequence
+         */
+        @Override
+        public CharSequence subSequence(final int start, final int end)
+        {
+            return new String(m_bytes, start, end - start, StandardCharsets.ISO_8859_1);
+        }
+
+        /**
+         * Returns the line as a string
+         *
+         * @return The text of the line
+         */
+        @Override
+        public String toString()
+        {
+            return new String(m_bytes, 0, m_length, StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    /**
+     * One dictionary-encoded column. Codes are stored a byte per line while there
+     * are at most 256 distinct values, and an int per line after that. Code 0 is
+     * the empty value, for lines that do not have the field.
+     */
+    private static class Column
+    {
+        /**
+         * The distinct values, by code
+         */
+        private final List<String> m_values;
+
+        /**
+         * The code of each distinct value
+         */
+        private final Map<String, Integer> m_codes;
+
+        /**
+         * The code of each line, while there are at most 256 values, or null
+         */
+        private byte[] m_byteCodes;
+
+        /**
+         * The code of each line, once there are more than 256 values, or null
+         */
+        private int[] m_intCodes;
+
+        /**
+         * Constructor for an empty column
+         *
+         * @param numLines_ The number of lines
+         */
+        private Column(final int numLines_)
+        {
+            m_values = new ArrayList<String>();
+            m_codes = new HashMap<String, Integer>();
+            m_byteCodes = new byte[numLines_];
+            m_intCodes = null;
+
+            m_values.add("");
+            m_codes.put("", 0);
+        }
+
+        /**
+         * Constructor for a copy of a column, resized to a number of lines
+         *
+         * @param other     The column to copy
+         * @param numLines_ The number of lines
+         */
+        private Column(final Column other, final int numLines_)
+        {
+            m_values = new ArrayList<String>(other.m_values);
+            m_codes = new HashMap<String, Integer>(other.m_codes);
+            m_byteCodes = (other.m_byteCodes != null) ? Arrays.copyOf(other.m_byteCodes, numLines_) : null;
+            m_intCodes = (other.m_intCodes != null) ? Arrays.copyOf(other.m_intCodes, numLines_) : null;
+        }
+
+        /**
+         * Returns the code of a line
+         *
+         * @param line The line number
+         * @return The code of the line's value
+         */
+        private int get(final int line)
+        {
+            return (m_byteCodes != null) ? (m_byteCodes[line] & 0xFF) : m_intCodes[line];
+        }
+
+        /**
+         * Returns the number of bytes of heap used by the codes
+         *
+         * @return The size of the codes, in bytes
+         */
+        private long getHeapSize()
+        {
+            return (m_byteCodes != null) ? m_byteCodes.length : (4L * m_intCodes.length);
+        }
+
+        /**
+         * Sets the value of a line, adding it to the dictionary if it is new
+         *
+         * @param line  The line number
+         * @param value The value of the line
+         */
+        private void set(final int line, final String value)
+        {
+            Integer code = m_codes.get(value);
+
+            if (code == null)
+            {
+                code = m_values.size();
+                m_values.add(value);
+                m_codes.put(value, code);
+
+                if ((code > 0xFF) && (m_byteCodes != null))
+                {
+                    m_intCodes = new int[m_byteCodes.length];
+
+                    for (int i = 0; i < m_byteCodes.length; ++i)
+                    {
+                        m_intCodes[i] = m_byteCodes[i] & 0xFF;
+                    }
+
+                    m_byteCodes = null;
+                }
+            }
+
+            if (m_byteCodes != null)
+            {
+                m_byteCodes[line] = (byte) (int) code;
+            }
+            else
+            {
+                m_intCodes[line] = code;
+            }
+        }
+    }
+
+    /**
+     * Returns a bitset with the bits of all of the lines of a file set
+     *
+     * @param numLines The number of lines
+     * @return The bitset of all lines
+     */
+    static long[] allLines(final int numLines)
+    {
+        final long[] bits = new long[(numLines + 63) >>> 6];
+        Arrays.fill(bits, -1L);
+
+        if ((numLines & 63) != 0)
+        {
+            bits[bits.length - 1] = (1L << numLines) - 1;
+        }
+
+        return bits;
+    }
+
+    /**
+     * Extracts the level and the configured fields of every line of a file
+     *
+     * @param file     The file to index
+     * @param progress The progress of the load to check for cancellation, or null
+     * @return The field index of the file
+     * @throws java.util.concurrent.CancellationException If the load is cancelled
+     */
+    public static FieldIndex build(final MappedLogFile file, final LoadProgress progress)
+    {
+        final FieldIndex fields = new FieldIndex(file.getNumLines());
+        fields.extract(file, 0, progress);
+        return fields;
+    }
+
+    /**
+     * Returns the names of the fields that are extracted, starting with the level
+     *
+     * @return The field names
+     */
+    public static List<String> getFieldNames()
+    {
+        final List<String> names = new ArrayList<String>();
+        names.add(LEVEL);
+        names.addAll(FIELDS.keySet());
+        return names;
+    }
+
+    /**
+     * Returns the level that a level word stands for
+     *
+     * @param word The level word, in any case
+     * @return The level, or null if the word is not a level
+     */
+    public static String getLevel(final String word)
+    {
+        return LEVEL_WORDS.get(word.toUpperCase());
+    }
+
+    /**
+     * Finds the level of a line: the first upper case word near the start of the
+     * line that is a level word
+     *
+     * @param bytes  The bytes of the line
+     * @param length The number of bytes
+     * @return The level, or "" if the line has none
+     */
+    private static String levelOf(final byte[] bytes, final int length)
+    {
+        int i = 0;
+
+        while (i < length)
+        {
+            if ((bytes[i] < 'A') || (bytes[i] > 'Z') || ((i > 0) && Character.isLetterOrDigit(bytes[i - 1])))
+            {
+                ++i;
+                continue;
+            }
+
+            int end = i + 1;
+
+            while ((end < length) && (bytes[end] >= 'A') && (bytes[end] <= 'Z'))
+            {
+                ++end;
+            }
+
+            if (((end - i) >= 4) && ((end - i) <= 8)
+                    && ((end == length) || !Character.isLetterOrDigit(bytes[end])))
+            {
+                final String level = LEVEL_WORDS.get(new String(bytes, i, end - i, StandardCharsets.ISO_8859_1));
+
+                if (level != null)
+                {
+                    return level;
+                }
+            }
+
+            i = end;
+        }
+
+        return "";
+    }
+
+    /**
+     * Returns the map of level words to the levels they stand for
+     *
+     * @return The level words
+     */
+    private static Map<String, String> levelWords()
+    {
+        final Map<String, String> words = new HashMap<String, String>();
+        words.put("TRACE", "TRACE");
+        words.put("DEBUG", "DEBUG");
+        words.put("INFO", "INFO");
+        words.put("WARN", "WARN");
+        words.put("WARNING", "WARN");
+        words.put("ERROR", "ERROR");
+        words.put("SEVERE", "ERROR");
+        words.put("FATAL", "FATAL");
+        words.put("CRITICAL", "FATAL");
+        return words;
+    }
+
+    /**
+     * Parses field definitions, one "name : regex" per line. Blank lines and lines
+     * starting with # are ignored.
+     *
+     * @param text The text of the definitions
+     * @return The field patterns, by name
+     * @throws IllegalArgumentException If a definition is not valid
+     */
+    static Map<String, Pattern> parseFields(final String text)
+    {
+        final Map<String, Pattern> fields = new LinkedHashMap<String, Pattern>();
+        final String[] lines = text.split("\\r?\\n");
+
+        for (int i = 0; i < lines.length; ++i)
+        {
+            final String line = lines[i].trim();
+            final int colon = line.indexOf(':');
+
+            if (line.isEmpty() || line.startsWith("#"))
+            {
+                continue;
+            }
+
+            final String name = (colon > 0) ? line.substring(0, colon).trim().toLowerCase() : "";
+
+            if (name.isEmpty() || !name.matches("\\w+") || name.equals(LEVEL) || name.equals("file"))
+            {
+                throw new IllegalArgumentException("Line " + (i + 1) + ": Expected \"name : regex\"");
+            }
+
+            try
+            {
+                fields.put(name, Pattern.compile(line.substring(colon + 1).trim()));
+            }
+            catch (final PatternSyntaxException e)
+            {
+                throw new IllegalArgumentException("Line " + (i + 1) + ": " + e.getDescription());
+            }
+        }
+
+        return fields;
+    }
+
+    /**
+     * Reads the field definitions from the fields file, or the default
+     * definitions if there is none or it is not valid
+     *
+     * @return The field patterns, by name
+     */
+    private static Map<String, Pattern> readFields()
+    {
+        try
+        {
+            if (Files.exists(FIELDS_FILE))
+            {
+                return parseFields(new String(Files.readAllBytes(FIELDS_FILE), StandardCharsets.UTF_8));
+            }
+        }
+        catch (final IOException | IllegalArgumentException e)
+        {
+        }
+
+        return parseFields(DEFAULT_FIELDS);
+    }
+
+    /**
+     * The columns, by field name, starting with the level
+     */
+    private final Map<String, Column> m_columns;
+
+    /**
+     * The number of lines that have been indexed
+     */
+    private int m_numLines;
+
+    /**
+     * Constructor for an index with empty columns
+     *
+     * @param numLines_ The number of lines
+     */
+    private FieldIndex(final int numLines_)
+    {
+        m_columns = new LinkedHashMap<String, Column>();
+        m_numLines = numLines_;
+
+        for (final String name : getFieldNames())
+        {
+            m_columns.put(name, new Column(numLines_));
+        }
+    }
+
+    /**
+     * Constructor for a copy of an index, resized to a number of lines
+     *
+     * @param other     The index to copy
+     * @param numLines_ The number of lines
+     */
+    private FieldIndex(final FieldIndex other, final int numLines_)
+    {
+        m_columns = new LinkedHashMap<String, Column>();
+        m_numLines = numLines_;
+
+        for (final Entry<String, Column> entry : other.m_columns.entrySet())
+        {
+            m_columns.put(entry.getKey(), new Column(entry.getValue(), numLines_));
+        }
+    }
+
+    /**
+     * Returns the field index of a file that has been extended with appended
+     * lines. The codes of the kept lines are copied, and only the new lines are
+     * extracted.
+     *
+     * @param file The extended file
+     * @param keep The number of lines at the start of the file that are unchanged
+     * @return The field index of the extended file
+     */
+    public FieldIndex extend(final MappedLogFile file, final int keep)
+    {
+        final FieldIndex fields = new FieldIndex(this, file.getNumLines());
+        fields.extract(file, keep, null);
+        return fields;
+    }
+
+    /**
+     * Extracts the level and fields of the lines of a file, from a given line to
+     * the end
+     *
+     * @param file     The file to index
+     * @param first    The first line to extract
+     * @param progress The progress of the load to check for cancellation, or null
+     */
+    private void extract(final MappedLogFile file, final int first, final LoadProgress progress)
+    {
+        final byte[] bytes = new byte[SCAN_LENGTH];
+        final LineText text = new LineText(bytes);
+        final Column level = m_columns.get(LEVEL);
+        final List<Column> columns = new ArrayList<Column>();
+        final List<Matcher> matchers = new ArrayList<Matcher>();
+
+        for (final Entry<String, Pattern> field : FIELDS.entrySet())
+        {
+            columns.add(m_columns.get(field.getKey()));
+            matchers.add(field.getValue().matcher(text));
+        }
+
+        for (int line = first; line < m_numLines; ++line)
+        {
+            final long start = file.getLineStart(line);
+            final int length = (int) Math.min(SCAN_LENGTH, file.getLineEnd(line) - start);
+
+            file.readBytes(start, bytes, 0, length);
+            text.m_length = length;
+            level.set(line, levelOf(bytes, length));
+
+            for (int f = 0; f < matchers.size(); ++f)
+            {
+                final Matcher matcher = matchers.get(f).reset(text);
+
+                if (matcher.find())
+                {
+                    final int group = Math.min(1, matcher.groupCount());
+                    final int valueStart = matcher.start(group);
+
+                    if (valueStart >= 0)
+                    {
+                        columns.get(f).set(line, new String(bytes, valueStart, matcher.end(group) - valueStart,
+                                StandardCharsets.UTF_8));
+                    }
+                }
+            }
+
+            if ((progress != null) && ((line % PROGRESS_BLOCK_SIZE) == 0))
+            {
+                progress.checkCancelled();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of bytes of heap used by the index. The dictionaries are
+     * not counted.
+     *
+     * @return The size of the index, in bytes
+     */
+    public long getHeapSize()
+    {
+        long size = 0;
+
+        for (final Column column : m_columns.values())
+        {
+            size += column.getHeapSize();
+        }
+
+        return size;
+    }
+
+    /**
+     * Returns the lines whose field has one of the given values, as a bitset
+     *
+     * @param field  The name of the field
+     * @param values The values to look for; "" stands for lines without the field
+     * @return Bit i is set if line i has one of the values. Lines of a field that
+     *         is not extracted have no value.
+     */
+    public long[] getLines(final String field, final Collection<String> values)
+    {
+        final long[] bits = new long[(m_numLines + 63) >>> 6];
+        final Column column = m_columns.get(field);
+
+        if (column == null)
+        {
+            return values.contains("") ? allLines(m_numLines) : bits;
+        }
+
+        final boolean[] wanted = new boolean[column.m_values.size()];
+        boolean any = false;
+
+        for (final String value : values)
+        {
+            final Integer code = column.m_codes.get(value);
+
+            if (code != null)
+            {
+                wanted[code] = true;
+                any = true;
+            }
+        }
+
+        if (!any)
+        {
+            return bits;
+        }
+
+        for (int line = 0; line < m_numLines; ++line)
+        {
+            if (wanted[column.get(line)])
+            {
+                bits[line >>> 6] |= 1L << line;
+            }
+        }
+
+        return bits;
+    }
+
+    /**
+     * Returns the number of lines in the index
+     *
+     * @return The number of lines
+     */
+    public int getNumLines()
+    {
+        return m_numLines;
+    }
+
+    /**
+     * Returns the value of a field of a line
+     *
+     * @param field The name of the field
+     * @param line  The line number
+     * @return The value, or "" if the line does not have the field
+     */
+    public String getValue(final String field, final int line)
+    {
+        final Column column = m_columns.get(field);
+        return (column != null) ? column.m_values.get(column.get(line)) : "";
+    }
+}
@@ -1,13 +1,17 @@
 package com.ryanantkowiak.logsyncviewer;
 
 import java.awt.Color;
-import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 
 public class FileMap
 {
@@ -17,9 +21,9 @@ public class FileMap
     private static List<String> FILE_NAME_LIST = new ArrayList<String>();
 
     /**
-     * List of arrays of log file data
+     * List of the memory-mapped log file data
      */
-    private static List<String[]> FILE_DATA_LIST = new ArrayList<String[]>();
+    private static List<MappedLogFile> FILE_DATA_LIST = new ArrayList<MappedLogFile>();
 
     /**
      * List of colors for corresponding log files
@@ -27,9 +31,45 @@ public class FileMap
     private static List<Color> FILE_COLOR_LIST = new ArrayList<Color>();
 
     /**
-     * Map of filenames to the cached log data
+     * The number of times the list of files has been reset; file indexes handed
+     * out before a reset no longer refer to their files
      */
-    private static Map<String, String[]> CACHE_DATA = new HashMap<String, String[]>();
+    private static int GENERATION = 0;
+
+    /**
+     * The most heap, in bytes, that the indexes of cached files may use before
+     * files that are not displayed are evicted. Set with the
+     * logsyncviewer.cache.bytes system property; defaults to half of the maximum
+     * heap size.
+     */
+    private static final long CACHE_BUDGET = Long.getLong("logsyncviewer.cache.bytes",
+            Runtime.getRuntime().maxMemory() / 2);
+
+    /**
+     * Map of filenames to the cached log data, in least recently used order
+     */
+    private static Map<String, MappedLogFile> CACHE_DATA = new LinkedHashMap<String, MappedLogFile>(16, 0.75f, true);
+
+    /**
+     * Map of filenames to the heap size that was accounted for their cached data
+     */
+    private static Map<String, Long> CACHE_SIZES = new HashMap<String, Long>();
+
+    /**
+     * The total heap size of the cached data, in bytes
+     */
+    private static long CACHE_BYTES = 0;
+
+    /**
+     * Set of filenames that are currently displayed, which are never evicted
+     */
+    private static Set<String> DISPLAYED_FILES = new HashSet<String>();
+
+    /**
+     * Set of filenames whose data must be re-read from disk the next time they are
+     * loaded
+     */
+    private static Set<String> STALE_FILES = new HashSet<String>();
 
     /**
      * Adds data from a file to the cache
@@ -40,32 +80,26 @@ public class FileMap
      */
     public static int addFile(final String fileName, final Color fileColor)
     {
-        if (FILE_NAME_LIST.contains(fileName))
+        if (FILE_NAME_LIST.contains(fileName) && (getLoadedFile(FILE_NAME_LIST.indexOf(fileName)) != null))
         {
             return FILE_NAME_LIST.indexOf(fileName);
         }
 
         try
         {
-            String[] fileData;
+            MappedLogFile fileData;
 
-            if (CACHE_DATA.containsKey(fileName))
+            if (CACHE_DATA.containsKey(fileName) && !STALE_FILES.contains(fileName))
             {
                 fileData = CACHE_DATA.get(fileName);
             }
             else
             {
-                final List<String> lines = Files.readAllLines(Paths.get(fileName));
-                fileData = lines.toArray(new String[0]);
+                fileData = MappedLogFile.open(Paths.get(fileName));
             }
 
-            FILE_NAME_LIST.add(fileName);
-            FILE_DATA_LIST.add(fileData);
-            FILE_COLOR_LIST.add(fileColor);
-
-            CACHE_DATA.put(fileName, fileData);
-
-            final int index = FILE_NAME_LIST.size() - 1;
+            final int index = reserveFile(fileName, fileColor);
+            setFileData(index, fileData);
             return index;
         }
         catch (final Exception e)
@@ -85,6 +119,35 @@ public class FileMap
         return FILE_NAME_LIST.contains(fileName);
     }
 
+    /**
+     * Evicts the least recently used files that are not displayed, until the
+     * cached data fits in the cache budget. An evicted file is read again the next
+     * time it is loaded.
+     */
+    private static void evict()
+    {
+        final Iterator<Entry<String, MappedLogFile>> it = CACHE_DATA.entrySet().iterator();
+
+        while ((CACHE_BYTES > CACHE_BUDGET) && it.hasNext())
+        {
+            final String fileName = it.next().getKey();
+
+            if (!DISPLAYED_FILES.contains(fileName))
+            {
+                it.remove();
+                CACHE_BYTES -= CACHE_SIZES.remove(fileName);
+                STALE_FILES.remove(fileName);
+
+                final int fileNum = FILE_NAME_LIST.indexOf(fileName);
+
+                if (fileNum >= 0)
+                {
+                    FILE_DATA_LIST.set(fileNum, null);
+                }
+            }
+        }
+    }
+
     /**
      * Returns the color that corresponds to the given file index
      *
@@ -106,7 +169,18 @@ public class FileMap
      */
     public static String getFileData(final int fileNum, final int lineNum)
     {
-        return (FILE_DATA_LIST.get(fileNum))[lineNum];
+        return FILE_DATA_LIST.get(fileNum).getLine(lineNum);
+    }
+
+    /**
+     * Returns the length, in bytes, of the longest line for a given file index
+     *
+     * @param fileNum The given file index
+     * @return The length of the longest log entry line in the given file index
+     */
+    public static int getFileMaxLineLength(final int fileNum)
+    {
+        return FILE_DATA_LIST.get(fileNum).getMaxLineLength();
     }
 
     /**
@@ -128,7 +202,49 @@ public class FileMap
      */
     public static int getFileNumLines(final int fileNum)
     {
-        return FILE_DATA_LIST.get(fileNum).length;
+        return FILE_DATA_LIST.get(fileNum).getNumLines();
+    }
+
+    /**
+     * Returns the number of times the list of files has been reset
+     *
+     * @return The generation of the file indexes
+     */
+    public static int getGeneration()
+    {
+        return GENERATION;
+    }
+
+    /**
+     * Returns the memory-mapped log file for the given file index, if it has been
+     * loaded and is not stale
+     *
+     * @param fileNum The given file index
+     * @return The mapped log file, or null if it must be (re-)loaded from disk
+     */
+    public static MappedLogFile getLoadedFile(final int fileNum)
+    {
+        final String fileName = FILE_NAME_LIST.get(fileNum);
+
+        if (STALE_FILES.contains(fileName))
+        {
+            return null;
+        }
+
+        // Marks the file as recently used
+        CACHE_DATA.get(fileName);
+        return FILE_DATA_LIST.get(fileNum);
+    }
+
+    /**
+     * Returns the memory-mapped log file for the given file index
+     *
+     * @param fileNum The given file index
+     * @return The mapped log file that corresponds to the index
+     */
+    public static MappedLogFile getMappedFile(final int fileNum)
+    {
+        return FILE_DATA_LIST.get(fileNum);
     }
 
     /**
@@ -143,22 +259,19 @@ public class FileMap
         long numLogEntries = 0;
         long numBytes = 0;
 
-        for (final Entry<String, String[]> entry : CACHE_DATA.entrySet())
+        for (final Entry<String, MappedLogFile> entry : CACHE_DATA.entrySet())
         {
-            final String[] value = entry.getValue();
-
-            numLogEntries += value.length;
+            final MappedLogFile value = entry.getValue();
 
-            for (final String line : value)
-            {
-                numBytes += line.length();
-            }
+            numLogEntries += value.getNumLines();
+            numBytes += value.getSize();
         }
 
         final StringBuilder sb = new StringBuilder(System.lineSeparator() + System.lineSeparator());
         sb.append("Files Cached: " + numCachedFiles + System.lineSeparator());
         sb.append("Log Entries:  " + String.format("%,d", numLogEntries) + System.lineSeparator());
         sb.append("Bytes Cached: " + String.format("%,d", numBytes) + System.lineSeparator());
+        sb.append("Index Memory: " + String.format("%,d of %,d", CACHE_BYTES, CACHE_BUDGET) + System.lineSeparator());
 
         return sb.toString();
     }
@@ -169,45 +282,89 @@ public class FileMap
     public static void purge()
     {
         reset();
-        CACHE_DATA = new HashMap<String, String[]>();
+        CACHE_DATA = new LinkedHashMap<String, MappedLogFile>(16, 0.75f, true);
+        CACHE_SIZES = new HashMap<String, Long>();
+        CACHE_BYTES = 0;
+        STALE_FILES = new HashSet<String>();
+        DISPLAYED_FILES = new HashSet<String>();
     }
 
     /**
-     * Refresh the FileMap cache. Reloads all log files from disk.
+     * Refresh the FileMap cache. Marks all log files as stale, so that they are
+     * re-read from disk the next time they are loaded. The current data stays
+     * available until it is replaced.
      */
     public static void refresh()
     {
-        for (int i = 0 ; i < FILE_NAME_LIST.size() ; ++i)
-        {
-            final String fileName = FILE_NAME_LIST.get(i);
-            
-            try
-            {
-                String[] fileData;
+        STALE_FILES.addAll(FILE_NAME_LIST);
+        STALE_FILES.addAll(CACHE_DATA.keySet());
+    }
 
-                final List<String> lines = Files.readAllLines(Paths.get(fileName));
-                fileData = lines.toArray(new String[0]);
+    /**
+     * Adds a file to the list of loaded files without loading its data. If the
+     * file's data is cached it is used, otherwise the data must be set with
+     * setFileData() once it has been loaded.
+     *
+     * @param fileName  The path of the file to add
+     * @param fileColor The color to use for the file
+     * @return The index of the file
+     */
+    public static int reserveFile(final String fileName, final Color fileColor)
+    {
+        if (FILE_NAME_LIST.contains(fileName))
+        {
+            return FILE_NAME_LIST.indexOf(fileName);
+        }
 
-                FILE_DATA_LIST.set(i, fileData);
-                CACHE_DATA.put(fileName, fileData);
+        FILE_NAME_LIST.add(fileName);
+        FILE_DATA_LIST.add(CACHE_DATA.get(fileName));
+        FILE_COLOR_LIST.add(fileColor);
 
-            }
-            catch (final Exception e)
-            {
-                FILE_DATA_LIST.set(i, new String [0]);
-                CACHE_DATA.put(fileName, new String [0]);
-            }
-        }
+        return FILE_NAME_LIST.size() - 1;
     }
-    
+
     /**
      * Reset the FileMap cache. Resets the list of files, file data, and color data.
      */
     public static void reset()
     {
         FILE_NAME_LIST = new ArrayList<String>();
-        FILE_DATA_LIST = new ArrayList<String[]>();
+        FILE_DATA_LIST = new ArrayList<MappedLogFile>();
         FILE_COLOR_LIST = new ArrayList<Color>();
+        ++GENERATION;
+    }
+
+    /**
+     * Sets the files that are currently displayed, and evicts other files if the
+     * cache is over its budget. Displayed files are never evicted.
+     *
+     * @param fileNames The paths of the displayed files
+     */
+    public static void setDisplayedFiles(final Collection<String> fileNames)
+    {
+        DISPLAYED_FILES = new HashSet<String>(fileNames);
+        evict();
+    }
+
+    /**
+     * Sets the data of a file that has been loaded from disk, and evicts other
+     * files if the cache is over its budget
+     *
+     * @param fileNum  The file index
+     * @param fileData The loaded file data
+     */
+    public static void setFileData(final int fileNum, final MappedLogFile fileData)
+    {
+        final String fileName = FILE_NAME_LIST.get(fileNum);
+        final long size = fileData.getHeapSize();
+        final Long oldSize = CACHE_SIZES.put(fileName, size);
+
+        CACHE_BYTES += size - ((oldSize != null) ? oldSize : 0);
+
+        FILE_DATA_LIST.set(fileNum, fileData);
+        CACHE_DATA.put(fileName, fileData);
+        STALE_FILES.remove(fileName);
+        evict();
     }
 
     /**
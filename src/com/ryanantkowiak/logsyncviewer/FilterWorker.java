@@ -0,0 +1,229 @@
+package com.ryanantkowiak.logsyncviewer;
+
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+
+import javax.swing.SwingWorker;
+
+/**
+ * Builds the rows of the filtered view in the background, off the Event
+ * Dispatch Thread: the rows that match the search and the field filter, plus the
+ * given number of rows of context before and after each of them
+ *
+ * @author Ryan Antkowiak
+ *
+ */
+public class FilterWorker extends SwingWorker<int[], Void>
+{
+    /**
+     * Returns the rows that are in both of two ascending lists of rows
+     *
+     * @param a The first list of rows
+     * @param b The second list of rows
+     * @return The common rows, in ascending order
+     */
+    private static int[] intersect(final int[] a, final int[] b)
+    {
+        final int[] rows = new int[Math.min(a.length, b.length)];
+        int n = 0;
+
+        for (int i = 0, j = 0; (i < a.length) && (j < b.length);)
+        {
+            if (a[i] < b[j])
+            {
+                ++i;
+            }
+            else if (a[i] > b[j])
+            {
+                ++j;
+            }
+            else
+            {
+                rows[n++] = a[i];
+                ++i;
+                ++j;
+            }
+        }
+
+        return Arrays.copyOf(rows, n);
+    }
+
+    /**
+     * The viewer that receives the result
+     */
+    private final LogSyncViewer m_logSyncViewer;
+
+    /**
+     * The merged index that the rows refer to
+     */
+    private final MergedIndex m_index;
+
+    /**
+     * The rows that match the search, in ascending order, or null to show every
+     * row that matches the field filter
+     */
+    private final int[] m_hits;
+
+    /**
+     * The filter on the file, level and fields of the rows, or null
+     */
+    private final FieldFilter m_fieldFilter;
+
+    /**
+     * The FileMap index of each file in the merged index
+     */
+    private final int[] m_fileNums;
+
+    /**
+     * The path of each file in the merged index
+     */
+    private final String[] m_fileNames;
+
+    /**
+     * The data of each file in the merged index
+     */
+    private final MappedLogFile[] m_files;
+
+    /**
+     * The number of rows of context to show before and after each match
+     */
+    private final int m_context;
+
+    /**
+     * The reason the build failed, or null if it did not fail
+     */
+    private String m_errorMessage = null;
+
+    /**
+     * Constructor
+     *
+     * @param lsv         The viewer that receives the result
+     * @param index       The merged index that the rows refer to
+     * @param hits        The rows that match the search, in ascending order, or
+     *                    null if there is no search
+     * @param fieldFilter The filter on the file, level and fields, or null
+     * @param fileNums    The FileMap index of each file in the merged index
+     * @param fileNames   The path of each file
+     * @param files       The data of each file
+     * @param context     The number of rows of context to show around each match
+     */
+    public FilterWorker(final LogSyncViewer lsv, final MergedIndex index, final int[] hits,
+            final FieldFilter fieldFilter, final int[] fileNums, final String[] fileNames,
+            final MappedLogFile[] files, final int context)
+    {
+        m_logSyncViewer = lsv;
+        m_index = index;
+        m_hits = hits;
+        m_fieldFilter = fieldFilter;
+        m_fileNums = fileNums;
+        m_fileNames = fileNames;
+        m_files = files;
+        m_context = context;
+    }
+
+    /**
+     * Finds the rows that match the field filter, and merges the ranges of
+     * context around the matches into the rows to show. The rows are counted
+     * first, so that the result is allocated only once.
+     *
+     * @return The rows to show, in ascending order
+     */
+    @Override
+    protected int[] doInBackground()
+    {
+        int[] hits = m_hits;
+
+        if (m_fieldFilter != null)
+        {
+            final int[] rows = m_fieldFilter.evaluate(m_index, m_fileNums, m_fileNames, m_files);
+            hits = (hits != null) ? intersect(hits, rows) : rows;
+        }
+
+        final int size = m_index.getSize();
+        long count = 0;
+        int next = 0;
+
+        for (int h = 0; h < hits.length; ++h)
+        {
+            final int first = Math.max(next, hits[h] - m_context);
+            final int end = (int) Math.min(size, (long) hits[h] + m_context + 1);
+
+            if (end > first)
+            {
+                count += end - first;
+                next = end;
+            }
+
+            if (((h & 0xFFFF) == 0) && isCancelled())
+            {
+                return null;
+            }
+        }
+
+        final int[] rows = new int[(int) count];
+        int n = 0;
+        next = 0;
+
+        for (final int hit : hits)
+        {
+            final int end = (int) Math.min(size, (long) hit + m_context + 1);
+
+            for (int row = Math.max(next, hit - m_context); row < end; ++row)
+            {
+                rows[n++] = row;
+            }
+
+            next = Math.max(next, end);
+        }
+
+        return rows;
+    }
+
+    /**
+     * Delivers the result to the viewer on the Event Dispatch Thread
+     */
+    @Override
+    protected void done()
+    {
+        int[] rows = null;
+
+        try
+        {
+            rows = get();
+        }
+        catch (final CancellationException e)
+        {
+        }
+        catch (final ExecutionException e)
+        {
+            m_errorMessage = String.valueOf(e.getCause());
+        }
+        catch (final InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        m_logSyncViewer.filterFinished(this, rows);
+    }
+
+    /**
+     * Returns the reason the build failed
+     *
+     * @return The reason for the failure, or null if the build did not fail
+     */
+    public String getErrorMessage()
+    {
+        return m_errorMessage;
+    }
+
+    /**
+     * Returns the merged index that the rows refer to
+     *
+     * @return The merged index
+     */
+    public MergedIndex getIndex()
+    {
+        return m_index;
+    }
+}
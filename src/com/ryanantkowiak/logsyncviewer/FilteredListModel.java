@@ -0,0 +1,126 @@
+package com.ryanantkowiak.logsyncviewer;
+
+import javax.swing.AbstractListModel;
+
+/**
+ * Data model for the filtered view, which shows only the merged rows that
+ * match the search, along with the rows of context around them. The model is an
+ * array of row numbers over the merged index, so it costs 4 bytes per shown row
+ * and no copy of the log entries.
+ *
+ * @author Ryan Antkowiak
+ *
+ */
+public class FilteredListModel extends AbstractListModel<LogSyncListItem>
+{
+    /**
+     * Version of serialized data (required from parent classes)
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The merged index that the rows refer to
+     */
+    private MergedIndex m_index = new MergedIndex(0);
+
+    /**
+     * The merged rows that are shown, in ascending order
+     */
+    private int[] m_rows = new int[0];
+
+    /**
+     * Removes all of the rows
+     */
+    public void clear()
+    {
+        setRows(new MergedIndex(0), new int[0]);
+    }
+
+    /**
+     * Returns the log entry at the given position
+     *
+     * @param index The position in the filtered view
+     * @return The log entry
+     */
+    @Override
+    public LogSyncListItem getElementAt(final int index)
+    {
+        return m_index.getItem(m_rows[index]);
+    }
+
+    /**
+     * Returns the merged index that the rows refer to
+     *
+     * @return The merged index
+     */
+    public MergedIndex getIndex()
+    {
+        return m_index;
+    }
+
+    /**
+     * Moves the shown rows to a merged index that new rows were merged into. The
+     * new rows are not shown until the rows are replaced.
+     *
+     * @param index        The merged index after merging
+     * @param insertedRows The rows of the new index that were added, in ascending
+     *                     order
+     */
+    public void followRows(final MergedIndex index, final int[] insertedRows)
+    {
+        setRows(index, LogMerger.shiftRows(m_rows, insertedRows));
+    }
+
+    /**
+     * Returns the merged row shown at the given position
+     *
+     * @param index The position in the filtered view
+     * @return The row in the merged index
+     */
+    public int getRow(final int index)
+    {
+        return m_rows[index];
+    }
+
+    /**
+     * Returns the number of rows shown
+     *
+     * @return The number of rows
+     */
+    @Override
+    public int getSize()
+    {
+        return m_rows.length;
+    }
+
+    /**
+     * Replaces the rows that are shown. Rows past the end of the new rows are
+     * reported as removed, so that the view's selection stays in range.
+     *
+     * @param index The merged index that the rows refer to
+     * @param rows  The merged rows to show, in ascending order
+     */
+    public void setRows(final MergedIndex index, final int[] rows)
+    {
+        final int oldSize = m_rows.length;
+        final int newSize = rows.length;
+
+        m_index = index;
+        m_rows = rows;
+
+        if (newSize < oldSize)
+        {
+            fireIntervalRemoved(this, newSize, oldSize - 1);
+        }
+
+        if (Math.min(oldSize, newSize) > 0)
+        {
+            fireContentsChanged(this, 0, Math.min(oldSize, newSize) - 1);
+        }
+
+        if (newSize > oldSize)
+        {
+            fireIntervalAdded(this, oldSize, newSize - 1);
+        }
+    }
+}
@@ -0,0 +1,313 @@
+package com.ryanantkowiak.logsyncviewer;
+
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+
+import javax.swing.SwingWorker;
+
+/**
+ * Checks the displayed log files for lines that have been appended since they
+ * were loaded, off the Event Dispatch Thread. Only the appended bytes of each
+ * file are read, and the new lines are merged into the existing merged index.
+ * A file that has been truncated or replaced, as happens when a log is rotated,
+ * is read again from the start and its rows are merged in again. It is given a
+ * trigram index as LogLoader would; its FieldIndex is built by the next
+ * FieldFilter that needs it, as for any loaded file.
+ *
+ * @author Ryan Antkowiak
+ *
+ */
+public class FollowWorker extends SwingWorker<FollowWorker.Result, Void>
+{
+    /**
+     * The merged log entries after following the files
+     */
+    public static class Result
+    {
+        /**
+         * The merged log entries, including the new lines
+         */
+        private final MergedIndex m_index;
+
+        /**
+         * The new data of each file, or null for files that have not changed
+         */
+        private final MappedLogFile[] m_files;
+
+        /**
+         * The row of each added log entry in ascending order, or null if rows were
+         * also removed
+         */
+        private final int[] m_insertedRows;
+
+        /**
+         * Constructor
+         *
+         * @param index_        The merged log entries
+         * @param files_        The new data of each file
+         * @param insertedRows_ The row of each added log entry, or null
+         */
+        private Result(final MergedIndex index_, final MappedLogFile[] files_, final int[] insertedRows_)
+        {
+            m_index = index_;
+            m_files = files_;
+            m_insertedRows = insertedRows_;
+        }
+
+        /**
+         * Returns the new data of each file
+         *
+         * @return The new data of each file, or null for files that have not
+         *         changed
+         */
+        public MappedLogFile[] getFiles()
+        {
+            return m_files;
+        }
+
+        /**
+         * Returns the merged log entries
+         *
+         * @return The merged log entries, including the new lines
+         */
+        public MergedIndex getIndex()
+        {
+            return m_index;
+        }
+
+        /**
+         * Returns the row of each added log entry
+         *
+         * @return The rows in ascending order, or null if rows were also removed
+         */
+        public int[] getInsertedRows()
+        {
+            return m_insertedRows;
+        }
+    }
+
+    /**
+     * The model that receives the result
+     */
+    private final LogSyncListModel m_model;
+
+    /**
+     * The merged index that the new lines are merged into
+     */
+    private final MergedIndex m_base;
+
+    /**
+     * The FileMap index of each file
+     */
+    private final int[] m_fileNums;
+
+    /**
+     * The path of each file
+     */
+    private final String[] m_fileNames;
+
+    /**
+     * The currently loaded data of each file
+     */
+    private final MappedLogFile[] m_files;
+
+    /**
+     * The time-stamp parser to use
+     */
+    private final TimestampParser m_parser;
+
+    /**
+     * The reason the check failed, or null if it did not fail
+     */
+    private String m_errorMessage = null;
+
+    /**
+     * Constructor
+     *
+     * @param model     The model that receives the result
+     * @param base      The merged index that the new lines are merged into
+     * @param fileNums  The FileMap index of each file
+     * @param fileNames The path of each file
+     * @param files     The currently loaded data of each file
+     * @param parser    The time-stamp parser to use
+     */
+    public FollowWorker(final LogSyncListModel model, final MergedIndex base, final int[] fileNums,
+            final String[] fileNames, final MappedLogFile[] files, final TimestampParser parser)
+    {
+        m_model = model;
+        m_base = base;
+        m_fileNums = fileNums;
+        m_fileNames = fileNames;
+        m_files = files;
+        m_parser = parser;
+    }
+
+    /**
+     * Reads the appended lines of each file and merges them on a background
+     * thread
+     *
+     * @return The merged result, or null if no file has changed
+     */
+    @Override
+    protected Result doInBackground()
+    {
+        final MappedLogFile[] updated = new MappedLogFile[m_files.length];
+        final boolean[] rescanned = new boolean[m_files.length];
+        final int[] firstLines = new int[m_files.length];
+        int numUpdated = 0;
+        int numRescanned = 0;
+
+        for (int i = 0; i < m_files.length; ++i)
+        {
+            try
+            {
+                MappedLogFile file = m_files[i].extend(Paths.get(m_fileNames[i]), m_parser);
+                final int lastLine = m_files[i].getNumLines() - 1;
+                final long[] oldTimestamps = m_files[i].getTimestamps();
+                final long[] newTimestamps = (file != null) ? file.getTimestamps() : null;
+
+                if ((lastLine >= 0) && (oldTimestamps != null) && (newTimestamps != null)
+                        && (oldTimestamps[lastLine] != newTimestamps[lastLine]))
+                {
+                    // The last line was incomplete, and its time-stamp has changed now
+                    // that it is complete, so its row must move
+                    rescanned[i] = true;
+                    ++numRescanned;
+                }
+                else if (file == null)
+                {
+                    file = MappedLogFile.open(Paths.get(m_fileNames[i]));
+                    file.prepareRun(m_parser);
+
+                    if (TrigramIndex.isEnabled())
+                    {
+                        file.setTrigrams(TrigramIndex.build(file, null));
+                    }
+
+                    if (m_files[i].getNumLines() > 0)
+                    {
+                        rescanned[i] = true;
+                        ++numRescanned;
+                    }
+                }
+                else
+                {
+                    firstLines[i] = m_files[i].getNumLines();
+                }
+
+                if (file != m_files[i])
+                {
+                    updated[i] = file;
+                    ++numUpdated;
+                }
+            }
+            catch (final NoSuchFileException e)
+            {
+                // The log is being rotated and has not been created again yet, so it is
+                // checked again on the next tick
+            }
+            catch (final IOException e)
+            {
+                m_errorMessage = m_fileNames[i] + ": " + e;
+            }
+        }
+
+        if (numUpdated == 0)
+        {
+            return null;
+        }
+
+        final int[] rescannedNums = new int[numRescanned];
+        final int[] addedNums = new int[numUpdated];
+        final MappedLogFile[] addedFiles = new MappedLogFile[numUpdated];
+        final String[] addedNames = new String[numUpdated];
+        final int[] addedFirstLines = new int[numUpdated];
+        int r = 0;
+        int n = 0;
+
+        for (int i = 0; i < m_files.length; ++i)
+        {
+            if (updated[i] != null)
+            {
+                if (rescanned[i])
+                {
+                    rescannedNums[r++] = m_fileNums[i];
+                }
+
+                addedNums[n] = m_fileNums[i];
+                addedFiles[n] = updated[i];
+                addedNames[n] = m_fileNames[i];
+                addedFirstLines[n] = firstLines[i];
+                ++n;
+            }
+        }
+
+        final MergedIndex base = (numRescanned > 0) ? LogMerger.remove(m_base, rescannedNums) : m_base;
+        final MergedIndex added = LogMerger.merge(addedNums, addedFiles, addedNames, addedFirstLines, null);
+        final int[] insertedRows = (numRescanned > 0) ? null : new int[added.getSize()];
+        final MergedIndex merged = LogMerger.mergeInto(base, added, m_fileNums, m_fileNames, insertedRows);
+
+        return new Result(merged, updated, insertedRows);
+    }
+
+    /**
+     * Delivers the result to the model on the Event Dispatch Thread
+     */
+    @Override
+    protected void done()
+    {
+        Result result = null;
+
+        try
+        {
+            result = get();
+        }
+        catch (final CancellationException e)
+        {
+        }
+        catch (final ExecutionException e)
+        {
+            m_errorMessage = String.valueOf(e.getCause());
+        }
+        catch (final InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        m_model.followUpdated(this, result);
+    }
+
+    /**
+     * Returns the merged index that the new lines are merged into
+     *
+     * @return The base merged index
+     */
+    public MergedIndex getBase()
+    {
+        return m_base;
+    }
+
+    /**
+     * Returns the reason the check failed, such as a file that can no longer be
+     * read
+     *
+     * @return The reason for the failure, or null if the check did not fail
+     */
+    public String getErrorMessage()
+    {
+        return m_errorMessage;
+    }
+
+    /**
+     * Returns the FileMap index of each file
+     *
+     * @return The FileMap indexes
+     */
+    public int[] getFileNums()
+    {
+        return m_fileNums;
+    }
+}
@@ -0,0 +1,476 @@
+package com.ryanantkowiak.logsyncviewer;
+
+import java.io.BufferedOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Merges log files into time-stamp order without the user interface, writing
+ * the merged lines to standard output. Run as:
+ *
+ * --merge [--format PATTERN] [--from TIME] [--to TIME] [--grep TEXT | --regex
+ * PATTERN] [--match-case] FILE...
+ *
+ * Each file is read through its own fixed-size buffer, and the files are
+ * combined with a heap-based k-way merge, so the memory used depends on the
+ * number of files and not on their size. Unlike the viewer, which sorts every
+ * line, the merge streams: each file is taken to be in time order, and a line
+ * without a time-stamp stays after the line above it, so that multi-line
+ * entries such as stack traces are kept together. Ties in time-stamp are broken
+ * by file name, as in the viewer. Lines are written with their bytes and line
+ * terminators unchanged.
+ *
+ * @author Ryan Antkowiak
+ *
+ */
+public class HeadlessMerge
+{
+    /**
+     * The initial size of each file's read buffer; it grows only to hold a line
+     * longer than itself
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * The size of the buffer that the merged lines are written through
+     */
+    private static final int OUTPUT_BUFFER_SIZE = 1 << 20;
+
+    /**
+     * The bytes written after a last line that has no line terminator
+     */
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * The command line usage, printed when the arguments are not valid
+     */
+    private static final String USAGE = "Usage: --merge [--format PATTERN] [--from TIME] [--to TIME]"
+            + " [--grep TEXT | --regex PATTERN] [--match-case] FILE...";
+
+    /**
+     * A log file being read a line at a time
+     */
+    private static class Input
+    {
+        /**
+         * The channel the file is read from
+         */
+        private final FileChannel m_channel;
+
+        /**
+         * The offset just past the last byte to read
+         */
+        private final long m_end;
+
+        /**
+         * The rank of the file's name, used to break ties in time-stamp
+         */
+        private final int m_rank;
+
+        /**
+         * The time-stamp parser to read each line with
+         */
+        private final TimestampParser m_parser;
+
+        /**
+         * The buffer the file is read into
+         */
+        private byte[] m_buffer = new byte[BUFFER_SIZE];
+
+        /**
+         * The offset in the file of the next byte to read into the buffer
+         */
+        private long m_readPos;
+
+        /**
+         * The number of bytes of the file in the buffer
+         */
+        private int m_dataEnd = 0;
+
+        /**
+         * The start of the current line in the buffer
+         */
+        private int m_lineStart = 0;
+
+        /**
+         * The end of the current line's text in the buffer, before its terminator
+         */
+        private int m_textEnd = 0;
+
+        /**
+         * The end of the current line in the buffer, after its terminator
+         */
+        private int m_lineEnd = 0;
+
+        /**
+         * The time-stamp of the current line, or of the nearest line above it that
+         * has one
+         */
+        private long m_timestamp = Long.MIN_VALUE;
+
+        /**
+         * Constructor
+         *
+         * @param channel_ The channel the file is read from
+         * @param start_   The offset of the first byte to read
+         * @param end_     The offset just past the last byte to read
+         * @param rank_    The rank of the file's name
+         * @param parser_  The time-stamp parser to read each line with
+         */
+        private Input(final FileChannel channel_, final long start_, final long end_, final int rank_,
+                final TimestampParser parser_)
+        {
+            m_channel = channel_;
+            m_readPos = start_;
+            m_end = end_;
+            m_rank = rank_;
+            m_parser = parser_;
+        }
+
+        /**
+         * Returns true if the current line of this file sorts before the current
+         * line of another
+         *
+         * @param other The other file
+         * @return true if this file's line is merged first
+         */
+        private boolean before(final Input other)
+        {
+            if (m_timestamp != other.m_timestamp)
+            {
+                return m_timestamp < other.m_timestamp;
+            }
+
+            return m_rank < other.m_rank;
+        }
+
+        /**
+         * Moves to the next line of the file, reading more of the file as needed
+         *
+         * @return false if there are no more lines
+         * @throws IOException If the file could not be read
+         */
+        private boolean next() throws IOException
+        {
+            int start = m_lineEnd;
+            int scan = start;
+            int newline = -1;
+
+            while (true)
+            {
+                while ((scan < m_dataEnd) && (m_buffer[scan] != '\n'))
+                {
+                    ++scan;
+                }
+
+                if ((scan < m_dataEnd) || (m_readPos >= m_end))
+                {
+                    newline = (scan < m_dataEnd) ? scan : -1;
+                    break;
+                }
+
+                if (start > 0)
+                {
+                    System.arraycopy(m_buffer, start, m_buffer, 0, m_dataEnd - start);
+                    m_dataEnd -= start;
+                    scan -= start;
+                    start = 0;
+                }
+                else if (m_dataEnd == m_buffer.length)
+                {
+                    m_buffer = Arrays.copyOf(m_buffer, m_buffer.length * 2);
+                }
+
+                final int length = (int) Math.min(m_buffer.length - m_dataEnd, m_end - m_readPos);
+                final int n = m_channel.read(ByteBuffer.wrap(m_buffer, m_dataEnd, length), m_readPos);
+
+                if (n < 0)
+                {
+                    m_readPos = m_end;
+                }
+                else
+                {
+                    m_readPos += n;
+                    m_dataEnd += n;
+                }
+            }
+
+            if (start >= m_dataEnd)
+            {
+                return false;
+            }
+
+            m_lineStart = start;
+            m_lineEnd = (newline >= 0) ? (newline + 1) : m_dataEnd;
+            m_textEnd = (newline >= 0) ? newline : m_dataEnd;
+
+            if ((m_textEnd > m_lineStart) && (m_buffer[m_textEnd - 1] == '\r'))
+            {
+                --m_textEnd;
+            }
+
+            final long timestamp = m_parser.parse(m_buffer, m_lineStart, m_textEnd - m_lineStart);
+
+            if (timestamp != TimestampParser.NONE)
+            {
+                m_timestamp = timestamp;
+            }
+
+            return true;
+        }
+    }
+
+    /**
+     * Merges the lines of the files, in time-stamp order, into the output
+     *
+     * @param inputs The files, each positioned on its first line
+     * @param query  The query that lines must match to be written, or null
+     * @param out    The stream to write the lines to
+     * @throws IOException If a file could not be read, or the output written
+     */
+    private static void merge(final List<Input> inputs, final SearchQuery query, final OutputStream out)
+            throws IOException
+    {
+        final Input[] heap = inputs.toArray(new Input[inputs.size()]);
+        int heapSize = heap.length;
+
+        for (int i = (heapSize / 2) - 1; i >= 0; --i)
+        {
+            siftDown(heap, heapSize, i);
+        }
+
+        while (heapSize > 0)
+        {
+            final Input input = heap[0];
+            final int textLength = input.m_textEnd - input.m_lineStart;
+
+            if ((query == null) || query.matches(input.m_buffer, input.m_lineStart, textLength))
+            {
+                out.write(input.m_buffer, input.m_lineStart, input.m_lineEnd - input.m_lineStart);
+
+                if (input.m_buffer[input.m_lineEnd - 1] != '\n')
+                {
+                    out.write(LINE_SEPARATOR);
+                }
+            }
+
+            if (!input.next())
+            {
+                heap[0] = heap[--heapSize];
+            }
+
+            siftDown(heap, heapSize, 0);
+        }
+    }
+
+    /**
+     * Runs the merge from the command line arguments that follow "--merge"
+     *
+     * @param args The options and files to merge
+     * @return The exit status: 0 on success, 1 if a file could not be read or
+     *         the output written, 2 if the arguments are not valid
+     */
+    public static int run(final String[] args)
+    {
+        String format = LogSyncListItem.getDateFormat();
+        String from = "";
+        String to = "";
+        String text = null;
+        boolean regex = false;
+        boolean matchCase = false;
+        final List<String> fileNames = new ArrayList<String>();
+
+        try
+        {
+            for (int i = 0; i < args.length; ++i)
+            {
+                final String arg = args[i];
+
+                if (arg.equals("--match-case"))
+                {
+                    matchCase = true;
+                }
+                else if (!arg.startsWith("--"))
+                {
+                    fileNames.add(arg);
+                }
+                else if (i + 1 >= args.length)
+                {
+                    throw new IllegalArgumentException("Missing value for " + arg);
+                }
+                else if (arg.equals("--format"))
+                {
+                    format = args[++i];
+                }
+                else if (arg.equals("--from"))
+                {
+                    from = args[++i];
+                }
+                else if (arg.equals("--to"))
+                {
+                    to = args[++i];
+                }
+                else if (arg.equals("--grep") || arg.equals("--regex"))
+                {
+                    text = args[++i];
+                    regex = arg.equals("--regex");
+                }
+                else
+                {
+                    throw new IllegalArgumentException("Unknown option " + arg);
+                }
+            }
+
+            if (fileNames.isEmpty())
+            {
+                throw new IllegalArgumentException("No files to merge");
+            }
+
+            final TimestampParser parser = TimestampParser.compile(format);
+            final TimeRange range = TimeRange.parse(from, to, parser);
+            final SearchQuery query = (text != null) ? new SearchQuery(text, matchCase, regex) : null;
+
+            return run(fileNames, parser, range, query);
+        }
+        catch (final PatternSyntaxException e)
+        {
+            System.err.println("Invalid pattern: " + e.getDescription());
+        }
+        catch (final IllegalArgumentException e)
+        {
+            System.err.println(e.getMessage());
+        }
+
+        System.err.println(USAGE);
+        return 2;
+    }
+
+    /**
+     * Merges the files to standard output
+     *
+     * @param fileNames The paths of the files to merge
+     * @param parser    The time-stamp parser to read each line with
+     * @param range     The range of time-stamps to write
+     * @param query     The query that lines must match to be written, or null
+     * @return The exit status: 0 on success, 1 on failure
+     */
+    private static int run(final List<String> fileNames, final TimestampParser parser, final TimeRange range,
+            final SearchQuery query)
+    {
+        final int[] ranks = LogMerger.rankFileNames(fileNames.toArray(new String[fileNames.size()]));
+        final List<FileChannel> channels = new ArrayList<FileChannel>();
+        final List<Input> inputs = new ArrayList<Input>();
+        String fileName = null;
+
+        try
+        {
+            for (int i = 0; i < fileNames.size(); ++i)
+            {
+                fileName = fileNames.get(i);
+
+                final Path path = Paths.get(fileName);
+                final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+                channels.add(channel);
+
+                final long[] offsets = range.isAll() ? new long[] { 0, channel.size() }
+                        : MappedLogFile.findRange(path, range, parser);
+                final Input input = new Input(channel, offsets[0], offsets[1], ranks[i], parser);
+
+                if (input.next())
+                {
+                    inputs.add(input);
+                }
+            }
+
+            fileName = null;
+
+            final OutputStream out = new BufferedOutputStream(new FileOutputStream(FileDescriptor.out),
+                    OUTPUT_BUFFER_SIZE);
+            merge(inputs, query, out);
+            out.flush();
+            return 0;
+        }
+        catch (final IOException e)
+        {
+            System.err.println(((fileName != null) ? fileName + ": " : "") + e.getMessage());
+        }
+        catch (final CancellationException e)
+        {
+            System.err.println(e.getMessage());
+        }
+        finally
+        {
+            for (final FileChannel channel : channels)
+            {
+                try
+                {
+                    channel.close();
+                }
+                catch (final IOException e)
+                {
+                }
+            }
+        }
+
+        return 1;
+    }
+
+    /**
+     * Restores the heap order below a position of the heap
+     *
+     * @param heap     The files, as a binary min-heap on their current lines
+     * @param heapSize The number of files in the heap
+     * @param pos      The position to sift down from
+     */
+    private static void siftDown(final Input[] heap, final int heapSize, final int pos)
+    {
+        int i = pos;
+
+        while (true)
+        {
+            final int left = (2 * i) + 1;
+            final int right = left + 1;
+            int smallest = i;
+
+            if ((left < heapSize) && heap[left].before(heap[smallest]))
+            {
+                smallest = left;
+            }
+
+            if ((right < heapSize) && heap[right].before(heap[smallest]))
+            {
+                smallest = right;
+            }
+
+            if (smallest == i)
+            {
+                return;
+            }
+
+            final Input swap = heap[i];
+            heap[i] = heap[smallest];
+            heap[smallest] = swap;
+            i = smallest;
+        }
+    }
+
+    /**
+     * Constructor (private, all methods are static)
+     */
+    private HeadlessMerge()
+    {
+    }
+}
@@ -0,0 +1,363 @@
+package com.ryanantkowiak.logsyncviewer;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * A user-defined rule that highlights a literal text wherever it appears in a
+ * log entry, with a text color, background color and font style.
+ *
+ * Rules are written one per line, as the options followed by a colon and the
+ * text to highlight, for example "red bold : ERROR". The options are a color
+ * name or #RRGGBB for the text, bg= followed by a color for the background,
+ * bold, italic, and case to match case. The rules are kept in
+ * ~/.logsyncviewer/highlights.txt, or the file given by the
+ * logsyncviewer.highlight.file system property.
+ *
+ * @author Ryan Antkowiak
+ *
+ */
+public class HighlightRule
+{
+    /**
+     * The file that the rules are kept in
+     */
+    private static final Path RULES_FILE = Paths.get(System.getProperty("logsyncviewer.highlight.file",
+            Paths.get(System.getProperty("user.home"), ".logsyncviewer", "highlights.txt").toString()));
+
+    /**
+     * The colors that can be given by name
+     */
+    private static final Map<String, Color> NAMED_COLORS = namedColors();
+
+    /**
+     * Returns the name or #RRGGBB form of a color
+     *
+     * @param color The color
+     * @return The text form of the color
+     */
+    private static String colorName(final Color color)
+    {
+        for (final Entry<String, Color> entry : NAMED_COLORS.entrySet())
+        {
+            if (entry.getValue().equals(color))
+            {
+                return entry.getKey();
+            }
+        }
+
+        return String.format("#%06X", color.getRGB() & 0xFFFFFF);
+    }
+
+    /**
+     * Returns the map of color names to colors
+     *
+     * @return The named colors
+     */
+    private static Map<String, Color> namedColors()
+    {
+        final Map<String, Color> colors = new LinkedHashMap<String, Color>();
+        colors.put("black", Color.BLACK);
+        colors.put("blue", Color.BLUE);
+        colors.put("cyan", Color.CYAN);
+        colors.put("darkgray", Color.DARK_GRAY);
+        colors.put("gray", Color.GRAY);
+        colors.put("green", Color.GREEN);
+        colors.put("lightgray", Color.LIGHT_GRAY);
+        colors.put("magenta", Color.MAGENTA);
+        colors.put("orange", Color.ORANGE);
+        colors.put("pink", Color.PINK);
+        colors.put("red", Color.RED);
+        colors.put("white", Color.WHITE);
+        colors.put("yellow", Color.YELLOW);
+        return colors;
+    }
+
+    /**
+     * Parses a color name or #RRGGBB value
+     *
+     * @param text The text form of the color
+     * @return The color
+     * @throws IllegalArgumentException If the color is not known
+     */
+    private static Color parseColor(final String text)
+    {
+        final Color named = NAMED_COLORS.get(text.toLowerCase());
+
+        if (named != null)
+        {
+            return named;
+        }
+
+        try
+        {
+            return Color.decode(text);
+        }
+        catch (final NumberFormatException e)
+        {
+            throw new IllegalArgumentException("Unknown color \"" + text + "\"");
+        }
+    }
+
+    /**
+     * Parses a rule from its text form
+     *
+     * @param line The text form of the rule
+     * @return The rule
+     * @throws IllegalArgumentException If the rule is not valid
+     */
+    public static HighlightRule parseRule(final String line)
+    {
+        final int colon = line.indexOf(':');
+
+        if (colon < 0)
+        {
+            throw new IllegalArgumentException("Expected \"options : text\"");
+        }
+
+        final String text = line.substring(colon + 1).trim();
+
+        if (text.isEmpty())
+        {
+            throw new IllegalArgumentException("No text to highlight");
+        }
+
+        Color foreground = null;
+        Color background = null;
+        int fontStyle = Font.PLAIN;
+        boolean matchCase = false;
+
+        for (final String option : line.substring(0, colon).trim().split("\\s+"))
+        {
+            if (option.isEmpty())
+            {
+                continue;
+            }
+            else if (option.equalsIgnoreCase("bold"))
+            {
+                fontStyle |= Font.BOLD;
+            }
+            else if (option.equalsIgnoreCase("italic"))
+            {
+                fontStyle |= Font.ITALIC;
+            }
+            else if (option.equalsIgnoreCase("case"))
+            {
+                matchCase = true;
+            }
+            else if (option.toLowerCase().startsWith("bg="))
+            {
+                background = parseColor(option.substring(3));
+            }
+            else
+            {
+                foreground = parseColor(option);
+            }
+        }
+
+        return new HighlightRule(text, matchCase, foreground, background, fontStyle);
+    }
+
+    /**
+     * Parses rules from their text form, one per line. Blank lines are ignored.
+     *
+     * @param text The text form of the rules
+     * @return The rules, in order
+     * @throws IllegalArgumentException If a rule is not valid
+     */
+    public static List<HighlightRule> parseRules(final String text)
+    {
+        final List<HighlightRule> rules = new ArrayList<HighlightRule>();
+        final String[] lines = text.split("\\r?\\n");
+
+        for (int i = 0; i < lines.length; ++i)
+        {
+            if (lines[i].trim().isEmpty())
+            {
+                continue;
+            }
+
+            try
+            {
+                rules.add(parseRule(lines[i]));
+            }
+            catch (final IllegalArgumentException e)
+            {
+                throw new IllegalArgumentException("Line " + (i + 1) + ": " + e.getMessage());
+            }
+        }
+
+        return rules;
+    }
+
+    /**
+     * Reads the text form of the saved rules
+     *
+     * @return The text of the rules file, or an empty string if there is none
+     * @throws IOException If the rules file could not be read
+     */
+    public static String readRulesFile() throws IOException
+    {
+        if (!Files.exists(RULES_FILE))
+        {
+            return "";
+        }
+
+        return new String(Files.readAllBytes(RULES_FILE), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Saves the text form of the rules
+     *
+     * @param text The text of the rules
+     * @throws IOException If the rules file could not be written
+     */
+    public static void writeRulesFile(final String text) throws IOException
+    {
+        Files.createDirectories(RULES_FILE.toAbsolutePath().getParent());
+        Files.write(RULES_FILE, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * The text to highlight
+     */
+    private final String m_text;
+
+    /**
+     * True if the text must match case
+     */
+    private final boolean m_matchCase;
+
+    /**
+     * The color of the highlighted text, or null to leave it unchanged
+     */
+    private final Color m_foreground;
+
+    /**
+     * The background color of the highlighted text, or null to leave it unchanged
+     */
+    private final Color m_background;
+
+    /**
+     * The font style added to the log font for the highlighted text, such as
+     * Font.BOLD or Font.ITALIC
+     */
+    private final int m_fontStyle;
+
+    /**
+     * Constructor
+     *
+     * @param text_       The text to highlight
+     * @param matchCase_  True if the text must match case
+     * @param foreground_ The color of the highlighted text, or null
+     * @param background_ The background color of the highlighted text, or null
+     * @param fontStyle_  The font style added for the highlighted text
+     */
+    public HighlightRule(final String text_, final boolean matchCase_, final Color foreground_,
+            final Color background_, final int fontStyle_)
+    {
+        m_text = text_;
+        m_matchCase = matchCase_;
+        m_foreground = foreground_;
+        m_background = background_;
+        m_fontStyle = fontStyle_;
+    }
+
+    /**
+     * Returns the background color of the highlighted text
+     *
+     * @return The background color, or null to leave it unchanged
+     */
+    public Color getBackground()
+    {
+        return m_background;
+    }
+
+    /**
+     * Returns the font style added to the log font for the highlighted text
+     *
+     * @return The font style
+     */
+    public int getFontStyle()
+    {
+        return m_fontStyle;
+    }
+
+    /**
+     * Returns the color of the highlighted text
+     *
+     * @return The text color, or null to leave it unchanged
+     */
+    public Color getForeground()
+    {
+        return m_foreground;
+    }
+
+    /**
+     * Returns the text to highlight
+     *
+     * @return The text
+     */
+    public String getText()
+    {
+        return m_text;
+    }
+
+    /**
+     * Returns true if the text must match case
+     *
+     * @return true if the rule is case sensitive
+     */
+    public boolean isMatchCase()
+    {
+        return m_matchCase;
+    }
+
+    /**
+     * Returns the text form of the rule
+     *
+     * @return The rule as "options : text"
+     */
+    @Override
+    public String toString()
+    {
+        final StringBuilder sb = new StringBuilder();
+
+        if (m_foreground != null)
+        {
+            sb.append(colorName(m_foreground)).append(' ');
+        }
+
+        if (m_background != null)
+        {
+            sb.append("bg=").append(colorName(m_background)).append(' ');
+        }
+
+        if ((m_fontStyle & Font.BOLD) != 0)
+        {
+            sb.append("bold ");
+        }
+
+        if ((m_fontStyle & Font.ITALIC) != 0)
+        {
+            sb.append("italic ");
+        }
+
+        if (m_matchCase)
+        {
+            sb.append("case ");
+        }
+
+        return sb.append(": ").append(m_text).toString();
+    }
+}
@@ -0,0 +1,378 @@
+package com.ryanantkowiak.logsyncviewer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds where the highlight rules match in the text of log entries. The texts
+ * of all of the rules are compiled into a single Aho-Corasick automaton, so
+ * finding every match in a line takes one pass over the line, however many
+ * rules there are. The automaton works on lower case characters; rules that
+ * match case check each match against their own text.
+ *
+ * The matches of recently displayed rows are cached, so repainting the rows on
+ * screen does not match them again. Used on the Event Dispatch Thread only.
+ *
+ * @author Ryan Antkowiak
+ *
+ */
+public class Highlighter
+{
+    /**
+     * The result for a line that no rule matches
+     */
+    private static final int[] NO_RUNS = new int[0];
+
+    /**
+     * The number of rows whose matches are cached
+     */
+    private static final int CACHE_SIZE = 4096;
+
+    /**
+     * The matches of a row, with the text they were found in
+     */
+    private static class CachedRuns
+    {
+        /**
+         * The text of the row
+         */
+        private final String m_text;
+
+        /**
+         * The highlighted runs of the row
+         */
+        private final int[] m_runs;
+
+        /**
+         * Constructor
+         *
+         * @param text_ The text of the row
+         * @param runs_ The highlighted runs of the row
+         */
+        private CachedRuns(final String text_, final int[] runs_)
+        {
+            m_text = text_;
+            m_runs = runs_;
+        }
+    }
+
+    /**
+     * The rules, in order of priority
+     */
+    private final List<HighlightRule> m_rules;
+
+    /**
+     * The number of states in the automaton; state 0 is the root
+     */
+    private int m_numStates = 1;
+
+    /**
+     * The failure link of each state: the state for the longest proper suffix of
+     * its text that is also in the automaton
+     */
+    private final int[] m_fail;
+
+    /**
+     * The first rule whose text ends at each state, or -1
+     */
+    private final int[] m_output;
+
+    /**
+     * The next rule with the same text as each rule, or -1
+     */
+    private final int[] m_nextRule;
+
+    /**
+     * The nearest state along the failure links of each state that has an output,
+     * or 0
+     */
+    private final int[] m_dictLink;
+
+    /**
+     * The transitions of the automaton, as an open-addressing hash table of
+     * (state, character) keys, each stored plus one so that 0 marks an empty slot
+     */
+    private final long[] m_keys;
+
+    /**
+     * The target state of each transition in m_keys
+     */
+    private final int[] m_targets;
+
+    /**
+     * The cached matches of recently displayed rows, by packed file and line
+     */
+    private final Map<Long, CachedRuns> m_cache = new LinkedHashMap<Long, CachedRuns>(16, 0.75f, true)
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<Long, CachedRuns> eldest)
+        {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    /**
+     * Constructor. Compiles the rules into the automaton.
+     *
+     * @param rules The rules, in order of priority
+     */
+    public Highlighter(final List<HighlightRule> rules)
+    {
+        m_rules = new ArrayList<HighlightRule>(rules);
+        m_nextRule = new int[m_rules.size()];
+
+        int totalLength = 0;
+
+        for (final HighlightRule rule : m_rules)
+        {
+            totalLength += rule.getText().length();
+        }
+
+        m_output = new int[totalLength + 1];
+        m_fail = new int[totalLength + 1];
+        m_dictLink = new int[totalLength + 1];
+        m_keys = new long[Integer.highestOneBit(Math.max(1, totalLength)) * 4];
+        m_targets = new int[m_keys.length];
+
+        Arrays.fill(m_output, -1);
+
+        final char[] edge = new char[totalLength + 1];
+        final List<List<Integer>> children = new ArrayList<List<Integer>>();
+        children.add(new ArrayList<Integer>());
+
+        for (int r = 0; r < m_rules.size(); ++r)
+        {
+            final String text = m_rules.get(r).getText();
+            int state = 0;
+
+            for (int i = 0; i < text.length(); ++i)
+            {
+                final char c = Character.toLowerCase(text.charAt(i));
+                int next = next(state, c);
+
+                if (next < 0)
+                {
+                    next = m_numStates++;
+                    putTransition(state, c, next);
+                    edge[next] = c;
+                    children.get(state).add(next);
+                    children.add(new ArrayList<Integer>());
+                }
+
+                state = next;
+            }
+
+            m_nextRule[r] = m_output[state];
+            m_output[state] = r;
+        }
+
+        final int[] queue = new int[m_numStates];
+        int head = 0;
+        int tail = 0;
+
+        for (final int child : children.get(0))
+        {
+            queue[tail++] = child;
+        }
+
+        while (head < tail)
+        {
+            final int state = queue[head++];
+
+            for (final int child : children.get(state))
+            {
+                int fail = m_fail[state];
+
+                while ((fail != 0) && (next(fail, edge[child]) < 0))
+                {
+                    fail = m_fail[fail];
+                }
+
+                final int target = next(fail, edge[child]);
+                m_fail[child] = ((target >= 0) && (target != child)) ? target : 0;
+                m_dictLink[child] = (m_output[m_fail[child]] >= 0) ? m_fail[child] : m_dictLink[m_fail[child]];
+                queue[tail++] = child;
+            }
+        }
+    }
+
+    /**
+     * Returns the highlighted runs of a log entry's text. Each run is three ints:
+     * the start and end of the run in the text, and the index of the rule that
+     * highlights it. The runs are in order and do not overlap; where matches
+     * overlap, the earlier rule wins.
+     *
+     * @param item The log entry
+     * @param text The text of the log entry
+     * @return The highlighted runs
+     */
+    public int[] getRuns(final LogSyncListItem item, final String text)
+    {
+        if (m_rules.isEmpty())
+        {
+            return NO_RUNS;
+        }
+
+        final Long key = MergedIndex.pack(item.getFileNum(), item.getLineNum());
+        final CachedRuns cached = m_cache.get(key);
+
+        if ((cached != null) && cached.m_text.equals(text))
+        {
+            return cached.m_runs;
+        }
+
+        final int[] runs = match(text);
+        m_cache.put(key, new CachedRuns(text, runs));
+        return runs;
+    }
+
+    /**
+     * Returns the rule with the given index
+     *
+     * @param index The index of the rule, as given in a run
+     * @return The rule
+     */
+    public HighlightRule getRule(final int index)
+    {
+        return m_rules.get(index);
+    }
+
+    /**
+     * Finds every match of the rules in a line of text
+     *
+     * @param text The text of the line
+     * @return The highlighted runs, as described by getRuns()
+     */
+    private int[] match(final String text)
+    {
+        int[] ruleAt = null;
+        int state = 0;
+
+        for (int i = 0; i < text.length(); ++i)
+        {
+            final char c = Character.toLowerCase(text.charAt(i));
+            int next = next(state, c);
+
+            while ((next < 0) && (state != 0))
+            {
+                state = m_fail[state];
+                next = next(state, c);
+            }
+
+            state = (next < 0) ? 0 : next;
+
+            for (int s = (m_output[state] >= 0) ? state : m_dictLink[state]; s != 0; s = m_dictLink[s])
+            {
+                for (int r = m_output[s]; r >= 0; r = m_nextRule[r])
+                {
+                    final HighlightRule rule = m_rules.get(r);
+                    final int length = rule.getText().length();
+                    final int start = i + 1 - length;
+
+                    if (rule.isMatchCase() && !text.regionMatches(start, rule.getText(), 0, length))
+                    {
+                        continue;
+                    }
+
+                    if (ruleAt == null)
+                    {
+                        ruleAt = new int[text.length()];
+                        Arrays.fill(ruleAt, Integer.MAX_VALUE);
+                    }
+
+                    for (int p = start; p <= i; ++p)
+                    {
+                        ruleAt[p] = Math.min(ruleAt[p], r);
+                    }
+                }
+            }
+        }
+
+        if (ruleAt == null)
+        {
+            return NO_RUNS;
+        }
+
+        int[] runs = new int[12];
+        int n = 0;
+
+        for (int start = 0; start < ruleAt.length;)
+        {
+            int end = start + 1;
+
+            while ((end < ruleAt.length) && (ruleAt[end] == ruleAt[start]))
+            {
+                ++end;
+            }
+
+            if (ruleAt[start] != Integer.MAX_VALUE)
+            {
+                if (n + 3 > runs.length)
+                {
+                    runs = Arrays.copyOf(runs, runs.length * 2);
+                }
+
+                runs[n++] = start;
+                runs[n++] = end;
+                runs[n++] = ruleAt[start];
+            }
+
+            start = end;
+        }
+
+        return Arrays.copyOf(runs, n);
+    }
+
+    /**
+     * Returns the target of a transition of the automaton
+     *
+     * @param state The state to move from
+     * @param c     The lower case character to move on
+     * @return The target state, or -1 if there is no transition
+     */
+    private int next(final int state, final char c)
+    {
+        final int slot = slot(((long) state << 16) | c);
+        return (m_keys[slot] != 0) ? m_targets[slot] : -1;
+    }
+
+    /**
+     * Adds a transition to the automaton
+     *
+     * @param state  The state to move from
+     * @param c      The lower case character to move on
+     * @param target The state to move to
+     */
+    private void putTransition(final int state, final char c, final int target)
+    {
+        final long key = ((long) state << 16) | c;
+        final int slot = slot(key);
+
+        m_keys[slot] = key + 1;
+        m_targets[slot] = target;
+    }
+
+    /**
+     * Returns the slot of a transition in the hash table
+     *
+     * @param key The transition's (state, character) key
+     * @return The slot that holds the key, or the empty slot where it would go
+     */
+    private int slot(final long key)
+    {
+        final int mask = m_keys.length - 1;
+        int slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+
+        while ((m_keys[slot] != 0) && (m_keys[slot] != key + 1))
+        {
+            slot = (slot + 1) & mask;
+        }
+
+        return slot;
+    }
+}
@@ -0,0 +1,594 @@
+package com.ryanantkowiak.logsyncviewer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Keeps a compact index of each large log file on disk, so that reopening the
+ * same file does not have to scan, parse and sort it again. The index holds the
+ * line offsets, the parsed time-stamps and sort order, the date format they
+ * were parsed with, and the file's trigram index if it has one. It is stored in
+ * a local cache directory, keyed by the file's path, and is only used if the
+ * file's size, modification time and content fingerprint still match. On
+ * reopen, the index file is memory-mapped and its arrays are copied out in
+ * bulk.
+ *
+ * The cache directory is ~/.logsyncviewer/index, or the directory given by the
+ * logsyncviewer.index.dir system property. Each index that is used has its
+ * modification time updated, and after each store the least recently used
+ * indexes are deleted once the directory grows past MAX_CACHE_SIZE, as are
+ * indexes that have not been used for MAX_AGE_DAYS.
+ *
+ * @author Ryan Antkowiak
+ *
+ */
+public class IndexCache
+{
+    /**
+     * Identifies an index file, and the version of its layout
+     */
+    private static final long MAGIC = (0x4C5356494458L << 16) | 2;
+
+    /**
+     * Files smaller than this are not worth caching, since indexing them is
+     * faster than reading an index
+     */
+    private static final long MIN_FILE_SIZE = 1L << 20;
+
+    /**
+     * The maximum number of bytes mapped at once
+     */
+    private static final int REGION_SIZE = 1 << 26;
+
+    /**
+     * The size of the buffer that an index file is written through
+     */
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    /**
+     * The total size of the index files above which the least recently used ones
+     * are deleted
+     */
+    private static final long MAX_CACHE_SIZE = 4L << 30;
+
+    /**
+     * The number of days after which an index file that has not been used is
+     * deleted
+     */
+    private static final long MAX_AGE_DAYS = 30;
+
+    /**
+     * The directory that holds the index files
+     */
+    private static final Path CACHE_DIR = Paths.get(System.getProperty("logsyncviewer.index.dir",
+            Paths.get(System.getProperty("user.home"), ".logsyncviewer", "index").toString()));
+
+    /**
+     * The write buffer of each thread, so that concurrent stores on the worker pool
+     * each allocate one small direct buffer once
+     */
+    private static final ThreadLocal<ByteBuffer> BUFFER = ThreadLocal
+            .withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE));
+
+    /**
+     * Writes out and clears the contents of a buffer
+     *
+     * @param channel The index file
+     * @param buffer  The buffer to write
+     * @throws IOException If the index file could not be written
+     */
+    private static void flush(final FileChannel channel, final ByteBuffer buffer) throws IOException
+    {
+        buffer.flip();
+
+        while (buffer.hasRemaining())
+        {
+            channel.write(buffer);
+        }
+
+        buffer.clear();
+    }
+
+    /**
+     * Returns the path of the index file for a log file
+     *
+     * @param path The path of the log file
+     * @return The path of its index file
+     */
+    private static Path indexPath(final Path path)
+    {
+        try
+        {
+            final byte[] digest = MessageDigest.getInstance("SHA-1")
+                    .digest(path.toAbsolutePath().toString().getBytes(StandardCharsets.UTF_8));
+            final StringBuilder sb = new StringBuilder();
+
+            for (int i = 0; i < 10; ++i)
+            {
+                sb.append(String.format("%02x", digest[i]));
+            }
+
+            return CACHE_DIR.resolve(sb.toString() + ".idx");
+        }
+        catch (final NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Opens a log file using its saved index, if there is one that is still up to
+     * date
+     *
+     * @param path The path of the log file
+     * @return The mapped log file with its index restored, or null if there is no
+     *         usable index
+     */
+    public static MappedLogFile load(final Path path)
+    {
+        final Path indexPath = indexPath(path);
+
+        try (final FileChannel channel = FileChannel.open(indexPath, StandardOpenOption.READ))
+        {
+            final BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+
+            if (attributes.size() < MIN_FILE_SIZE)
+            {
+                return null;
+            }
+
+            final ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    Math.min(channel.size(), REGION_SIZE));
+
+            if ((header.getLong() != MAGIC) || (header.getLong() != attributes.size())
+                    || (header.getLong() != attributes.lastModifiedTime().toMillis()))
+            {
+                return null;
+            }
+
+            final long fingerprint = header.getLong();
+            final int numLines = header.getInt();
+            final int maxLineLength = header.getInt();
+            final boolean hasOrder = header.getInt() != 0;
+            final int trigramLines = header.getInt();
+            final String pattern = readString(header);
+            final String storedPath = readString(header);
+
+            if (!path.toAbsolutePath().toString().equals(storedPath))
+            {
+                return null;
+            }
+
+            long position = header.position();
+
+            final long[] lineStarts = new long[numLines + 1];
+            position = readLongs(channel, position, lineStarts);
+
+            long[] timestamps = null;
+            int[] order = null;
+
+            if (pattern.length() > 0)
+            {
+                timestamps = new long[numLines];
+                position = readLongs(channel, position, timestamps);
+
+                if (hasOrder)
+                {
+                    order = new int[numLines];
+                    position = readInts(channel, position, order);
+                }
+            }
+
+            TrigramIndex trigrams = null;
+
+            if (trigramLines >= 0)
+            {
+                final int[] counts = new int[TrigramIndex.NUM_KEYS];
+                final int[] offsets = new int[TrigramIndex.NUM_KEYS + 1];
+
+                position = readInts(channel, position, counts);
+                position = readInts(channel, position, offsets);
+
+                final byte[] postings = new byte[offsets[TrigramIndex.NUM_KEYS]];
+                position = readBytes(channel, position, postings);
+
+                trigrams = TrigramIndex.restore(trigramLines, counts, offsets, postings);
+            }
+
+            final MappedLogFile file = MappedLogFile.restore(path, lineStarts, maxLineLength, timestamps, order,
+                    (pattern.length() > 0) ? pattern : null);
+
+            file.setTrigrams(trigrams);
+
+            if (file.getFingerprint() != fingerprint)
+            {
+                return null;
+            }
+
+            Files.setLastModifiedTime(indexPath, FileTime.fromMillis(System.currentTimeMillis()));
+            return file;
+        }
+        catch (final IOException | RuntimeException e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Deletes the index files that have not been used for MAX_AGE_DAYS, and the
+     * least recently used ones past MAX_CACHE_SIZE. The most recently used index
+     * is always kept. Temporary files left by a store that did not finish are
+     * deleted once they are a day old. Failures are ignored.
+     */
+    private static void prune()
+    {
+        final long now = System.currentTimeMillis();
+        final List<Path> paths = new ArrayList<Path>();
+
+        try (final Stream<Path> list = Files.list(CACHE_DIR))
+        {
+            list.forEach(paths::add);
+        }
+        catch (final IOException | RuntimeException e)
+        {
+            return;
+        }
+
+        final Map<Path, BasicFileAttributes> indexes = new HashMap<Path, BasicFileAttributes>();
+
+        for (final Path path : paths)
+        {
+            try
+            {
+                final BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                final String name = path.getFileName().toString();
+
+                if (name.endsWith(".idx"))
+                {
+                    indexes.put(path, attributes);
+                }
+                else if (name.endsWith(".tmp")
+                        && ((now - attributes.lastModifiedTime().toMillis()) > TimeUnit.DAYS.toMillis(1)))
+                {
+                    Files.deleteIfExists(path);
+                }
+            }
+            catch (final IOException | RuntimeException e)
+            {
+            }
+        }
+
+        final List<Path> byUse = new ArrayList<Path>(indexes.keySet());
+        long total = 0;
+
+        byUse.sort((a, b) -> indexes.get(b).lastModifiedTime().compareTo(indexes.get(a).lastModifiedTime()));
+
+        for (int i = 0; i < byUse.size(); ++i)
+        {
+            final BasicFileAttributes attributes = indexes.get(byUse.get(i));
+            final long age = now - attributes.lastModifiedTime().toMillis();
+
+            total += attributes.size();
+
+            if ((i > 0) && ((total > MAX_CACHE_SIZE) || (age > TimeUnit.DAYS.toMillis(MAX_AGE_DAYS))))
+            {
+                try
+                {
+                    Files.deleteIfExists(byUse.get(i));
+                    total -= attributes.size();
+                }
+                catch (final IOException | RuntimeException e)
+                {
+                }
+            }
+        }
+    }
+
+    /**
+     * Copies bytes out of the index file in bulk
+     *
+     * @param channel  The index file
+     * @param position The offset in the index file of the first byte
+     * @param dest     The array to fill
+     * @return The offset in the index file just past the last byte
+     * @throws IOException If the index file could not be read
+     */
+    private static long readBytes(final FileChannel channel, final long position, final byte[] dest)
+            throws IOException
+    {
+        long pos = position;
+        int done = 0;
+
+        while (done < dest.length)
+        {
+            final int n = Math.min(dest.length - done, REGION_SIZE);
+            final MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, pos, n);
+
+            region.get(dest, done, n);
+            done += n;
+            pos += n;
+        }
+
+        return pos;
+    }
+
+    /**
+     * Copies ints out of the index file in bulk
+     *
+     * @param channel  The index file
+     * @param position The offset in the index file of the first int
+     * @param dest     The array to fill
+     * @return The offset in the index file just past the last int
+     * @throws IOException If the index file could not be read
+     */
+    private static long readInts(final FileChannel channel, final long position, final int[] dest) throws IOException
+    {
+        long pos = position;
+        int done = 0;
+
+        while (done < dest.length)
+        {
+            final int n = Math.min(dest.length - done, REGION_SIZE / 4);
+            final MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, pos, 4L * n);
+
+            region.asIntBuffer().get(dest, done, n);
+            done += n;
+            pos += 4L * n;
+        }
+
+        return pos;
+    }
+
+    /**
+     * Copies longs out of the index file in bulk
+     *
+     * @param channel  The index file
+     * @param position The offset in the index file of the first long
+     * @param dest     The array to fill
+     * @return The offset in the index file just past the last long
+     * @throws IOException If the index file could not be read
+     */
+    private static long readLongs(final FileChannel channel, final long position, final long[] dest)
+            throws IOException
+    {
+        long pos = position;
+        int done = 0;
+
+        while (done < dest.length)
+        {
+            final int n = Math.min(dest.length - done, REGION_SIZE / 8);
+            final MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, pos, 8L * n);
+
+            region.asLongBuffer().get(dest, done, n);
+            done += n;
+            pos += 8L * n;
+        }
+
+        return pos;
+    }
+
+    /**
+     * Reads a length-prefixed UTF-8 string from the index file header
+     *
+     * @param header The index file header
+     * @return The string
+     */
+    private static String readString(final ByteBuffer header)
+    {
+        final byte[] bytes = new byte[header.getInt()];
+        header.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Saves the index of a log file, replacing any earlier index of it. Small
+     * files are not saved. Failures are ignored, since the cache is only an
+     * optimization.
+     *
+     * @param path The path of the log file
+     * @param file The mapped log file, with its run prepared
+     */
+    public static void store(final Path path, final MappedLogFile file)
+    {
+        if (file.getSize() < MIN_FILE_SIZE)
+        {
+            return;
+        }
+
+        final Path indexPath = indexPath(path);
+        Path tempPath = null;
+
+        try
+        {
+            final BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+
+            if (attributes.size() != file.getSize())
+            {
+                return;
+            }
+
+            final String pattern;
+            final long[] timestamps;
+            final int[] order;
+            final TrigramIndex trigrams;
+
+            synchronized (file)
+            {
+                pattern = file.getRunPattern();
+                timestamps = file.getTimestamps();
+                order = file.getRunOrder();
+                trigrams = file.getTrigrams();
+            }
+
+            final byte[] patternBytes = ((pattern != null) ? pattern : "").getBytes(StandardCharsets.UTF_8);
+            final byte[] pathBytes = path.toAbsolutePath().toString().getBytes(StandardCharsets.UTF_8);
+
+            Files.createDirectories(CACHE_DIR);
+            tempPath = Files.createTempFile(CACHE_DIR, "index", ".tmp");
+
+            try (final FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.WRITE))
+            {
+                final ByteBuffer buffer = BUFFER.get();
+
+                buffer.clear();
+                buffer.putLong(MAGIC);
+                buffer.putLong(file.getSize());
+                buffer.putLong(attributes.lastModifiedTime().toMillis());
+                buffer.putLong(file.getFingerprint());
+                buffer.putInt(file.getNumLines());
+                buffer.putInt(file.getMaxLineLength());
+                buffer.putInt(((pattern != null) && (order != null)) ? 1 : 0);
+                buffer.putInt((trigrams != null) ? trigrams.getNumLines() : -1);
+                buffer.putInt(patternBytes.length);
+                buffer.put(patternBytes);
+                buffer.putInt(pathBytes.length);
+                buffer.put(pathBytes);
+
+                writeLongs(channel, buffer, file.getLineStarts());
+
+                if (pattern != null)
+                {
+                    writeLongs(channel, buffer, timestamps);
+
+                    if (order != null)
+                    {
+                        writeInts(channel, buffer, order);
+                    }
+                }
+
+                if (trigrams != null)
+                {
+                    writeInts(channel, buffer, trigrams.getCounts());
+                    writeInts(channel, buffer, trigrams.getOffsets());
+                    writeBytes(channel, buffer, trigrams.getPostings());
+                }
+
+                flush(channel, buffer);
+            }
+
+            Files.move(tempPath, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            prune();
+        }
+        catch (final IOException | RuntimeException e)
+        {
+            if (tempPath != null)
+            {
+                try
+                {
+                    Files.deleteIfExists(tempPath);
+                }
+                catch (final IOException e2)
+                {
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes an array of bytes to the index file through a buffer
+     *
+     * @param channel The index file
+     * @param buffer  The buffer to write through
+     * @param values  The bytes to write
+     * @throws IOException If the index file could not be written
+     */
+    private static void writeBytes(final FileChannel channel, final ByteBuffer buffer, final byte[] values)
+            throws IOException
+    {
+        int done = 0;
+
+        while (done < values.length)
+        {
+            if (!buffer.hasRemaining())
+            {
+                flush(channel, buffer);
+            }
+
+            final int n = Math.min(values.length - done, buffer.remaining());
+
+            buffer.put(values, done, n);
+            done += n;
+        }
+    }
+
+    /**
+     * Writes an array of ints to the index file through a buffer
+     *
+     * @param channel The index file
+     * @param buffer  The buffer to write through
+     * @param values  The ints to write
+     * @throws IOException If the index file could not be written
+     */
+    private static void writeInts(final FileChannel channel, final ByteBuffer buffer, final int[] values)
+            throws IOException
+    {
+        int done = 0;
+
+        while (done < values.length)
+        {
+            if (buffer.remaining() < 4)
+            {
+                flush(channel, buffer);
+            }
+
+            final int n = Math.min(values.length - done, buffer.remaining() / 4);
+
+            buffer.asIntBuffer().put(values, done, n);
+            buffer.position(buffer.position() + (4 * n));
+            done += n;
+        }
+    }
+
+    /**
+     * Writes an array of longs to the index file through a buffer
+     *
+     * @param channel The index file
+     * @param buffer  The buffer to write through
+     * @param values  The longs to write
+     * @throws IOException If the index file could not be written
+     */
+    private static void writeLongs(final FileChannel channel, final ByteBuffer buffer, final long[] values)
+            throws IOException
+    {
+        int done = 0;
+
+        while (done < values.length)
+        {
+            if (buffer.remaining() < 8)
+            {
+                flush(channel, buffer);
+            }
+
+            final int n = Math.min(values.length - done, buffer.remaining() / 8);
+
+            buffer.asLongBuffer().put(values, done, n);
+            buffer.position(buffer.position() + (8 * n));
+            done += n;
+        }
+    }
+
+    /**
+     * Constructor (private, all methods are static)
+     */
+    private IndexCache()
+    {
+    }
+}
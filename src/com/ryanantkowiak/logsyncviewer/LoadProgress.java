@@ -0,0 +1,220 @@
+package com.ryanantkowiak.logsyncviewer;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks the progress of a load of log files, and carries the request to cancel
+ * it. The counters are updated by the loading threads and may be read at any
+ * time from the Event Dispatch Thread. Searches use the same class to count the
+ * lines searched and to be cancelled.
+ *
+ * @author Ryan Antkowiak
+ *
+ */
+public class LoadProgress
+{
+    /**
+     * The total number of bytes in the files being loaded
+     */
+    private final long m_bytesTotal;
+
+    /**
+     * The number of files being loaded
+     */
+    private final int m_filesTotal;
+
+    /**
+     * The number of bytes that have been read and split into lines
+     */
+    private final AtomicLong m_bytesRead = new AtomicLong();
+
+    /**
+     * The number of files that have finished loading
+     */
+    private final AtomicInteger m_filesLoaded = new AtomicInteger();
+
+    /**
+     * The number of lines whose time-stamps have been parsed
+     */
+    private final AtomicLong m_linesParsed = new AtomicLong();
+
+    /**
+     * The number of lines that have been merged into the final view
+     */
+    private final AtomicLong m_linesMerged = new AtomicLong();
+
+    /**
+     * The number of lines in the final merge, or 0 before the merge starts
+     */
+    private volatile long m_linesToMerge = 0;
+
+    /**
+     * True once the load has been cancelled
+     */
+    private volatile boolean m_cancelled = false;
+
+    /**
+     * Constructor
+     *
+     * @param filesTotal_ The number of files being loaded
+     * @param bytesTotal_ The total number of bytes in the files being loaded
+     */
+    public LoadProgress(final int filesTotal_, final long bytesTotal_)
+    {
+        m_filesTotal = filesTotal_;
+        m_bytesTotal = bytesTotal_;
+    }
+
+    /**
+     * Adds to the number of bytes that have been read
+     *
+     * @param bytes The number of bytes read
+     */
+    public void addBytesRead(final long bytes)
+    {
+        m_bytesRead.addAndGet(bytes);
+    }
+
+    /**
+     * Adds to the number of lines that have been merged
+     *
+     * @param lines The number of lines merged
+     */
+    public void addLinesMerged(final long lines)
+    {
+        m_linesMerged.addAndGet(lines);
+    }
+
+    /**
+     * Adds to the number of lines whose time-stamps have been parsed
+     *
+     * @param lines The number of lines parsed
+     */
+    public void addLinesParsed(final long lines)
+    {
+        m_linesParsed.addAndGet(lines);
+    }
+
+    /**
+     * Requests that the load be cancelled
+     */
+    public void cancel()
+    {
+        m_cancelled = true;
+    }
+
+    /**
+     * Throws if the load has been cancelled. Called periodically by the loading
+     * threads.
+     *
+     * @throws CancellationException If the load has been cancelled
+     */
+    public void checkCancelled()
+    {
+        if (m_cancelled)
+        {
+            throw new CancellationException();
+        }
+    }
+
+    /**
+     * Records that a file has finished loading
+     */
+    public void fileLoaded()
+    {
+        m_filesLoaded.incrementAndGet();
+    }
+
+    /**
+     * Returns the number of bytes that have been read
+     *
+     * @return The number of bytes read
+     */
+    public long getBytesRead()
+    {
+        return m_bytesRead.get();
+    }
+
+    /**
+     * Returns the total number of bytes in the files being loaded
+     *
+     * @return The total number of bytes
+     */
+    public long getBytesTotal()
+    {
+        return m_bytesTotal;
+    }
+
+    /**
+     * Returns the number of files that have finished loading
+     *
+     * @return The number of files loaded
+     */
+    public int getFilesLoaded()
+    {
+        return m_filesLoaded.get();
+    }
+
+    /**
+     * Returns the number of files being loaded
+     *
+     * @return The number of files
+     */
+    public int getFilesTotal()
+    {
+        return m_filesTotal;
+    }
+
+    /**
+     * Returns the number of lines that have been merged into the final view
+     *
+     * @return The number of lines merged
+     */
+    public long getLinesMerged()
+    {
+        return m_linesMerged.get();
+    }
+
+    /**
+     * Returns the number of lines whose time-stamps have been parsed
+     *
+     * @return The number of lines parsed
+     */
+    public long getLinesParsed()
+    {
+        return m_linesParsed.get();
+    }
+
+    /**
+     * Returns the number of lines in the final merge
+     *
+     * @return The number of lines to merge, or 0 before the merge starts
+     */
+    public long getLinesToMerge()
+    {
+        return m_linesToMerge;
+    }
+
+    /**
+     * Returns true if the load has been cancelled
+     *
+     * @return true if cancelled
+     */
+    public boolean isCancelled()
+    {
+        return m_cancelled;
+    }
+
+    /**
+     * Records the start of the final merge
+     *
+     * @param lines The number of lines that will be merged
+     */
+    public void mergeStarted(final long lines)
+    {
+        m_linesMerged.set(0);
+        m_linesToMerge = lines;
+    }
+}
@@ -0,0 +1,408 @@
+package com.ryanantkowiak.logsyncviewer;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+
+import javax.swing.SwingWorker;
+
+/**
+ * Loads and merges a set of log files in the background, off the Event Dispatch
+ * Thread. While the files are loading, the files that have finished so far are
+ * merged and published as partial results, so that the view can show them
+ * before the whole load is done. A load can also change the files of an
+ * existing merged index, filtering out the rows of removed files and merging
+ * in the new files' rows, instead of merging every file again.
+ *
+ * @author Ryan Antkowiak
+ *
+ */
+public class LoadWorker extends SwingWorker<LoadWorker.Result, LoadWorker.Result>
+{
+    /**
+     * The minimum time between partial results, in ns
+     */
+    private static final long PUBLISH_INTERVAL = 500L * 1000 * 1000;
+
+    /**
+     * The merged log entries of the files that have been loaded so far
+     */
+    public static class Result
+    {
+        /**
+         * The merged log entries
+         */
+        private final MergedIndex m_index;
+
+        /**
+         * The data of each file that was loaded, or null for files that are not
+         * loaded
+         */
+        private final MappedLogFile[] m_files;
+
+        /**
+         * The FileMap index of each file whose rows are in the merged log entries
+         */
+        private final int[] m_indexFileNums;
+
+        /**
+         * Constructor
+         *
+         * @param index_         The merged log entries
+         * @param files_         The data of each file that was loaded
+         * @param indexFileNums_ The FileMap index of each file in the entries
+         */
+        private Result(final MergedIndex index_, final MappedLogFile[] files_, final int[] indexFileNums_)
+        {
+            m_index = index_;
+            m_files = files_;
+            m_indexFileNums = indexFileNums_;
+        }
+
+        /**
+         * Returns the data of each file that was loaded
+         *
+         * @return The data of each file, or null for files that are not loaded
+         */
+        public MappedLogFile[] getFiles()
+        {
+            return m_files;
+        }
+
+        /**
+         * Returns the merged log entries
+         *
+         * @return The merged log entries
+         */
+        public MergedIndex getIndex()
+        {
+            return m_index;
+        }
+
+        /**
+         * Returns the FileMap index of each file whose rows are in the merged log
+         * entries
+         *
+         * @return The FileMap indexes
+         */
+        public int[] getIndexFileNums()
+        {
+            return m_indexFileNums;
+        }
+    }
+
+    /**
+     * The model that receives the results
+     */
+    private final LogSyncListModel m_model;
+
+    /**
+     * The paths of the files to load
+     */
+    private final List<String> m_fileNames;
+
+    /**
+     * The FileMap index of each file
+     */
+    private final int[] m_fileNums;
+
+    /**
+     * The already-loaded data of each file, or null for files to read from disk
+     */
+    private final MappedLogFile[] m_files;
+
+    /**
+     * The time-stamp parser to use
+     */
+    private final TimestampParser m_parser;
+
+    /**
+     * The range of time-stamps to load from each file
+     */
+    private final TimeRange m_range;
+
+    /**
+     * The progress of this load
+     */
+    private final LoadProgress m_progress;
+
+    /**
+     * The merged index that the loaded files are merged into, or null to merge
+     * the loaded files on their own
+     */
+    private final MergedIndex m_base;
+
+    /**
+     * The FileMap index of each file in the base index that is kept
+     */
+    private final int[] m_baseFileNums;
+
+    /**
+     * The path of each file in the base index that is kept
+     */
+    private final String[] m_baseFileNames;
+
+    /**
+     * The FileMap index of each file whose rows are removed from the base index
+     */
+    private final int[] m_removedFileNums;
+
+    /**
+     * The merged rows of the loaded files that have been merged so far, without
+     * the base index, or null if none have; used only by the background thread
+     */
+    private MergedIndex m_merged = null;
+
+    /**
+     * Whether each file's rows are in m_merged; used only by the background
+     * thread
+     */
+    private final boolean[] m_isMerged;
+
+    /**
+     * The reason the load failed, or null if it did not fail
+     */
+    private String m_errorMessage = null;
+
+    /**
+     * Constructor
+     *
+     * @param model     The model that receives the results
+     * @param fileNames The paths of the files to load
+     * @param fileNums  The FileMap index of each file
+     * @param files     The already-loaded data of each file, or null for files to
+     *                  read from disk
+     * @param parser    The time-stamp parser to use
+     * @param range     The range of time-stamps to load from each file
+     * @param progress  The progress of this load
+     */
+    public LoadWorker(final LogSyncListModel model, final List<String> fileNames, final int[] fileNums,
+            final MappedLogFile[] files, final TimestampParser parser, final TimeRange range,
+            final LoadProgress progress)
+    {
+        this(model, fileNames, fileNums, files, parser, range, progress, null, new int[0], new String[0],
+                new int[0]);
+    }
+
+    /**
+     * Constructor for a load that changes the files of an existing merged index.
+     * The rows of the removed files are filtered out of the base index, and the
+     * loaded files are merged into it, without re-merging the kept files.
+     *
+     * @param model           The model that receives the results
+     * @param fileNames       The paths of the files to load
+     * @param fileNums        The FileMap index of each file
+     * @param files           The already-loaded data of each file, or null for
+     *                        files to read from disk
+     * @param parser          The time-stamp parser to use
+     * @param range           The range of time-stamps to load from each file
+     * @param progress        The progress of this load
+     * @param base            The merged index to change, or null
+     * @param baseFileNums    The FileMap index of each kept file in the base
+     * @param baseFileNames   The path of each kept file in the base
+     * @param removedFileNums The FileMap index of each file to remove from the
+     *                        base
+     */
+    public LoadWorker(final LogSyncListModel model, final List<String> fileNames, final int[] fileNums,
+            final MappedLogFile[] files, final TimestampParser parser, final TimeRange range,
+            final LoadProgress progress, final MergedIndex base, final int[] baseFileNums,
+            final String[] baseFileNames, final int[] removedFileNums)
+    {
+        m_model = model;
+        m_fileNames = fileNames;
+        m_fileNums = fileNums;
+        m_files = files;
+        m_parser = parser;
+        m_range = range;
+        m_progress = progress;
+        m_base = base;
+        m_baseFileNums = baseFileNums;
+        m_baseFileNames = baseFileNames;
+        m_removedFileNums = removedFileNums;
+        m_isMerged = new boolean[files.length];
+    }
+
+    /**
+     * Cancels this load. The loading threads stop at their next progress check.
+     */
+    public void cancelLoad()
+    {
+        m_progress.cancel();
+        cancel(false);
+    }
+
+    /**
+     * Loads and merges the files on a background thread
+     *
+     * @return The merged log entries of all of the files
+     */
+    @Override
+    protected Result doInBackground()
+    {
+        final MappedLogFile[] loaded = new MappedLogFile[m_files.length];
+        final long[] lastPublish = new long[] { System.nanoTime() };
+
+        LogLoader.load(m_fileNames, m_files.clone(), m_parser, m_range, m_progress, (position, file) ->
+        {
+            loaded[position] = file;
+
+            final long now = System.nanoTime();
+
+            if ((m_base == null) && ((now - lastPublish[0]) >= PUBLISH_INTERVAL)
+                    && (m_progress.getFilesLoaded() < m_progress.getFilesTotal()))
+            {
+                lastPublish[0] = now;
+                publish(merge(loaded, null));
+            }
+        });
+
+        return merge(loaded, m_progress);
+    }
+
+    /**
+     * Delivers the final result to the model on the Event Dispatch Thread
+     */
+    @Override
+    protected void done()
+    {
+        Result result = null;
+
+        try
+        {
+            result = get();
+        }
+        catch (final CancellationException e)
+        {
+        }
+        catch (final ExecutionException e)
+        {
+            m_errorMessage = String.valueOf(e.getCause());
+        }
+        catch (final InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        m_model.loadUpdated(this, result, true);
+    }
+
+    /**
+     * Returns the reason the load failed, such as running out of memory while
+     * merging
+     *
+     * @return The reason for the failure, or null if the load did not fail
+     */
+    public String getErrorMessage()
+    {
+        return m_errorMessage;
+    }
+
+    /**
+     * Returns the FileMap index of each file
+     *
+     * @return The FileMap indexes
+     */
+    public int[] getFileNums()
+    {
+        return m_fileNums;
+    }
+
+    /**
+     * Returns the progress of this load
+     *
+     * @return The load progress
+     */
+    public LoadProgress getLoadProgress()
+    {
+        return m_progress;
+    }
+
+    /**
+     * Merges the files that have been loaded, into the base index if there is one.
+     * Files that were merged for an earlier partial result are not merged again:
+     * only the files loaded since then are merged, and their rows are merged into
+     * the earlier rows in a single linear pass.
+     *
+     * @param loaded   The data of each file, or null for files not yet loaded
+     * @param progress The progress to report the merge to, or null
+     * @return The merged result
+     */
+    private Result merge(final MappedLogFile[] loaded, final LoadProgress progress)
+    {
+        int numLoaded = 0;
+        int numNew = 0;
+
+        for (int i = 0; i < loaded.length; ++i)
+        {
+            if (loaded[i] != null)
+            {
+                ++numLoaded;
+                numNew += m_isMerged[i] ? 0 : 1;
+            }
+        }
+
+        final int numBase = m_baseFileNums.length;
+        final int[] fileNums = new int[numNew];
+        final MappedLogFile[] files = new MappedLogFile[numNew];
+        final String[] fileNames = new String[numNew];
+        final int[] allFileNums = Arrays.copyOf(m_baseFileNums, numBase + numLoaded);
+        final String[] allFileNames = Arrays.copyOf(m_baseFileNames, numBase + numLoaded);
+        int n = 0;
+        int all = numBase;
+
+        for (int i = 0; i < loaded.length; ++i)
+        {
+            if (loaded[i] != null)
+            {
+                allFileNums[all] = m_fileNums[i];
+                allFileNames[all] = m_fileNames.get(i);
+                ++all;
+
+                if (!m_isMerged[i])
+                {
+                    fileNums[n] = m_fileNums[i];
+                    files[n] = loaded[i];
+                    fileNames[n] = m_fileNames.get(i);
+                    m_isMerged[i] = true;
+                    ++n;
+                }
+            }
+        }
+
+        MergedIndex index = LogMerger.merge(fileNums, files, fileNames, progress);
+
+        if (m_merged != null)
+        {
+            index = LogMerger.mergeInto(m_merged, index, Arrays.copyOfRange(allFileNums, numBase, all),
+                    Arrays.copyOfRange(allFileNames, numBase, all), null);
+        }
+
+        m_merged = index;
+
+        if (m_base != null)
+        {
+            final MergedIndex kept = (m_removedFileNums.length > 0) ? LogMerger.remove(m_base, m_removedFileNums)
+                    : m_base;
+
+            index = (numLoaded > 0) ? LogMerger.mergeInto(kept, index, allFileNums, allFileNames, null) : kept;
+        }
+
+        return new Result(index, loaded.clone(), allFileNums);
+    }
+
+    /**
+     * Delivers the latest partial result to the model on the Event Dispatch
+     * Thread
+     *
+     * @param chunks The partial results published since the last call
+     */
+    @Override
+    protected void process(final List<Result> chunks)
+    {
+        if (!isDone())
+        {
+            m_model.loadUpdated(this, chunks.get(chunks.size() - 1), false);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.ryanantkowiak.logsyncviewer;
+
+/**
+ * Reads the merged entries of a LogSession one at a time, in time-stamp order.
+ * A cursor starts before an entry; each call to next() moves it onto the next
+ * entry, whose time-stamp, source file, line number and text can then be read.
+ * The text of an entry is only read from its file when it is asked for.
+ *
+ * A cursor reads the entries of the load that was complete when it was opened,
+ * even if the session loads again. Each cursor should be used by one thread at
+ * a time; threads reading the same session should open a cursor each.
+ *
+ * @author Ryan Antkowiak
+ *
+ */
+public class LogCursor
+{
+    /**
+     * The merged entries
+     */
+    private final MergedIndex m_index;
+
+    /**
+     * The path of each file, by the file number in the merged entries
+     */
+    private final String[] m_fileNames;
+
+    /**
+     * The data of each file, by the file number in the merged entries
+     */
+    private final MappedLogFile[] m_files;
+
+    /**
+     * The row of the current entry, or one before the next entry if next() has
+     * not been called since the cursor was opened or moved
+     */
+    private int m_row;
+
+    /**
+     * Constructor
+     *
+     * @param index_     The merged entries
+     * @param fileNames_ The path of each file
+     * @param files_     The data of each file
+     * @param row_       The row of the first entry that next() moves onto
+     */
+    LogCursor(final MergedIndex index_, final String[] fileNames_, final MappedLogFile[] files_, final int row_)
+    {
+        m_index = index_;
+        m_fileNames = fileNames_;
+        m_files = files_;
+        m_row = row_ - 1;
+    }
+
+    /**
+     * Returns the row of the current entry, checking that there is one
+     *
+     * @return The row
+     * @throws IllegalStateException If the cursor is not on an entry
+     */
+    private int checkedRow()
+    {
+        if ((m_row < 0) || (m_row >= m_index.getSize()))
+        {
+            throw new IllegalStateException("The cursor is not on an entry");
+        }
+
+        return m_row;
+    }
+
+    /**
+     * Returns the line number of the current entry in its file
+     *
+     * @return The line number, counting from 0 at the start of the lines loaded
+     *         from the file
+     */
+    public int getLineNum()
+    {
+        return m_index.getLineNum(checkedRow());
+    }
+
+    /**
+     * Returns the row of the current entry
+     *
+     * @return The position of the entry among all of the merged entries
+     */
+    public int getRow()
+    {
+        return checkedRow();
+    }
+
+    /**
+     * Returns the number of entries the cursor reads
+     *
+     * @return The number of merged entries
+     */
+    public int getSize()
+    {
+        return m_index.getSize();
+    }
+
+    /**
+     * Returns the path of the file that the current entry is from
+     *
+     * @return The path of the file
+     */
+    public String getSource()
+    {
+        return m_fileNames[m_index.getFileNum(checkedRow())];
+    }
+
+    /**
+     * Returns the text of the current entry
+     *
+     * @return The text of the line, without its line terminator
+     */
+    public String getText()
+    {
+        final int row = checkedRow();
+        return m_files[m_index.getFileNum(row)].getLine(m_index.getLineNum(row));
+    }
+
+    /**
+     * Returns the time-stamp of the current entry
+     *
+     * @return The number of ms since the epoch, or 0 if the line has no
+     *         time-stamp
+     */
+    public long getTimestamp()
+    {
+        return m_index.getTimestamp(checkedRow());
+    }
+
+    /**
+     * Moves to the next entry
+     *
+     * @return true if the cursor is on an entry, false if there are no more
+     */
+    public boolean next()
+    {
+        if (m_row < m_index.getSize())
+        {
+            ++m_row;
+        }
+
+        return m_row < m_index.getSize();
+    }
+
+    /**
+     * Moves the cursor so that the next call to next() moves onto the given row
+     *
+     * @param row The row, from 0 to the number of entries
+     * @throws IndexOutOfBoundsException If the row is out of range
+     */
+    public void seek(final int row)
+    {
+        if ((row < 0) || (row > m_index.getSize()))
+        {
+            throw new IndexOutOfBoundsException("Row " + row + " of " + m_index.getSize());
+        }
+
+        m_row = row - 1;
+    }
+}
@@ -0,0 +1,211 @@
+package com.ryanantkowiak.logsyncviewer;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * Loads log files concurrently on a bounded pool of worker threads. Each file is
+ * mapped, split into lines and time-stamp parsed on its own worker, producing a
+ * run that is ready to be merged, and it is given a trigram index if those are
+ * enabled. The level and fields of its lines are left to be extracted the first
+ * time a FieldFilter needs them. Files with an up-to-date index in the
+ * IndexCache are restored from it instead, and newly built indexes are saved to
+ * it in the background. A load may be limited to a time range, in which case
+ * only that part of each file is indexed, and the index is not cached. Loads can
+ * report their progress and be cancelled part way through.
+ *
+ * @author Ryan Antkowiak
+ *
+ */
+public class LogLoader
+{
+    /**
+     * Counter used to name the worker threads
+     */
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+    /**
+     * The pool of worker threads, one per available processor
+     */
+    private static final ExecutorService POOL = Executors
+            .newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r ->
+            {
+                final Thread t = new Thread(r, "LogLoader-" + THREAD_COUNT.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+
+    /**
+     * Returns the pool of worker threads, which is shared with other work that
+     * runs across the loaded files in parallel
+     *
+     * @return The worker pool
+     */
+    public static ExecutorService getPool()
+    {
+        return POOL;
+    }
+
+    /**
+     * Opens, indexes and time-stamp parses the given files in parallel, and
+     * returns once every file is ready to be merged
+     *
+     * @param fileNames The paths of the files to load
+     * @param files     For each path, the already-mapped file data, or null if the
+     *                  file must be opened. On return, holds the loaded file data,
+     *                  or null for files that could not be read.
+     * @param parser    The time-stamp parser to use
+     */
+    public static void load(final List<String> fileNames, final MappedLogFile[] files, final TimestampParser parser)
+    {
+        load(fileNames, files, parser, TimeRange.ALL, null, null);
+    }
+
+    /**
+     * Opens, indexes and time-stamp parses the given files in parallel, and
+     * returns once every file is ready to be merged. As each file finishes, the
+     * listener is called on the calling thread.
+     *
+     * @param fileNames The paths of the files to load
+     * @param files     For each path, the already-mapped file data, or null if the
+     *                  file must be opened. On return, holds the loaded file data,
+     *                  or null for files that could not be read.
+     * @param parser    The time-stamp parser to use
+     * @param range     The range of time-stamps to load from each file
+     * @param progress  The progress of the load to report to, or null
+     * @param listener  Called with the position and data of each file as it
+     *                  finishes loading (the data is null if the file could not be
+     *                  read), or null
+     * @throws CancellationException If the load is cancelled
+     */
+    public static void load(final List<String> fileNames, final MappedLogFile[] files, final TimestampParser parser,
+            final TimeRange range, final LoadProgress progress, final BiConsumer<Integer, MappedLogFile> listener)
+    {
+        final CompletionService<Integer> completion = new ExecutorCompletionService<Integer>(POOL);
+        final List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+
+        for (int i = 0; i < files.length; ++i)
+        {
+            final int position = i;
+            final String fileName = fileNames.get(i);
+            final MappedLogFile existing = files[i];
+
+            futures.add(completion.submit(() ->
+            {
+                if (progress != null)
+                {
+                    progress.checkCancelled();
+                }
+
+                final Path path = Paths.get(fileName);
+                MappedLogFile file = existing;
+                boolean store = false;
+
+                if ((file != null) && (!range.equals(file.getTimeRange())
+                        || (!range.isAll() && !parser.getPattern().equals(file.getRunPattern()))))
+                {
+                    file = null;
+                }
+
+                if ((file == null) && range.isAll())
+                {
+                    file = IndexCache.load(path);
+                }
+
+                if (file == null)
+                {
+                    file = MappedLogFile.open(path, range, parser, progress);
+                    store = range.isAll();
+                }
+                else if (progress != null)
+                {
+                    progress.addBytesRead(file.getSize());
+                }
+
+                store = store || (range.isAll() && !parser.getPattern().equals(file.getRunPattern()));
+                file.prepareRun(parser, progress);
+
+                if (TrigramIndex.isEnabled() && (file.getTrigrams() == null))
+                {
+                    file.setTrigrams(TrigramIndex.build(file, progress));
+                    store = store || (range.isAll() && (file.getTrigrams() != null));
+                }
+
+                files[position] = file;
+
+                if (store)
+                {
+                    final MappedLogFile stored = file;
+                    POOL.execute(() -> IndexCache.store(path, stored));
+                }
+
+                return position;
+            }));
+        }
+
+        try
+        {
+            for (int i = 0; i < files.length; ++i)
+            {
+                final Future<Integer> done = completion.take();
+                int position = -1;
+
+                try
+                {
+                    position = done.get();
+                }
+                catch (final ExecutionException e)
+                {
+                    if (e.getCause() instanceof CancellationException)
+                    {
+                        throw (CancellationException) e.getCause();
+                    }
+
+                    position = futures.indexOf(done);
+                    files[position] = null;
+                }
+
+                if (progress != null)
+                {
+                    progress.fileLoaded();
+                    progress.checkCancelled();
+                }
+
+                if (listener != null)
+                {
+                    listener.accept(position, files[position]);
+                }
+            }
+        }
+        catch (final InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new CancellationException();
+        }
+        finally
+        {
+            for (final Future<Integer> future : futures)
+            {
+                future.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Constructor (private, all methods are static)
+     */
+    private LogLoader()
+    {
+    }
+}
@@ -0,0 +1,520 @@
+package com.ryanantkowiak.logsyncviewer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Merges the lines of several log files into a single list ordered by
+ * time-stamp. Each file is treated as a run that is usually already in time
+ * order; out-of-order stretches inside a file are sorted locally, and the runs
+ * are then combined with a heap-based k-way merge. Runs that were already
+ * prepared by the LogLoader are merged as-is.
+ *
+ * The resulting order is the same as sorting every line with
+ * LogSyncListItem.compareTo(): by time-stamp, then by file name, then by line
+ * number.
+ *
+ * @author Ryan Antkowiak
+ *
+ */
+public class LogMerger
+{
+    /**
+     * The number of lines merged between progress reports
+     */
+    private static final int PROGRESS_BLOCK_SIZE = 1 << 20;
+
+    /**
+     * Merges all of the lines of the given files into time-stamp order. The
+     * files' runs must already have been prepared with prepareRun().
+     *
+     * @param fileNums  The FileMap index of each file
+     * @param files     The data of each file
+     * @param fileNames The name of each file, used to break ties in time-stamp
+     * @param progress  The progress of the load to report to, or null
+     * @return The log entries of all of the files, in sorted order
+     * @throws java.util.concurrent.CancellationException If the load is cancelled
+     */
+    public static MergedIndex merge(final int[] fileNums, final MappedLogFile[] files, final String[] fileNames,
+            final LoadProgress progress)
+    {
+        return merge(fileNums, files, fileNames, new int[files.length], progress);
+    }
+
+    /**
+     * Merges the lines of the given files from the given line onwards into
+     * time-stamp order. The files' runs must already have been prepared with
+     * prepareRun().
+     *
+     * @param fileNums   The FileMap index of each file
+     * @param files      The data of each file
+     * @param fileNames  The name of each file, used to break ties in time-stamp
+     * @param firstLines The first line of each file to merge
+     * @param progress   The progress of the load to report to, or null
+     * @return The log entries of the files, in sorted order
+     * @throws java.util.concurrent.CancellationException If the load is cancelled
+     */
+    public static MergedIndex merge(final int[] fileNums, final MappedLogFile[] files, final String[] fileNames,
+            final int[] firstLines, final LoadProgress progress)
+    {
+        final int numRuns = files.length;
+        final long[][] timestamps = new long[numRuns][];
+        final int[][] orders = new int[numRuns][];
+        final int[] positions = firstLines.clone();
+        int total = 0;
+
+        for (int r = 0; r < numRuns; ++r)
+        {
+            timestamps[r] = files[r].getTimestamps();
+            orders[r] = (firstLines[r] == 0) ? files[r].getRunOrder()
+                    : sortRun(Arrays.copyOfRange(timestamps[r], firstLines[r], timestamps[r].length));
+            total += timestamps[r].length - firstLines[r];
+        }
+
+        if (progress != null)
+        {
+            progress.mergeStarted(total);
+        }
+
+        final int[] ranks = rankFileNames(fileNames);
+        final int[] heap = new int[numRuns];
+        int heapSize = 0;
+
+        for (int r = 0; r < numRuns; ++r)
+        {
+            if (positions[r] < timestamps[r].length)
+            {
+                heap[heapSize++] = r;
+            }
+        }
+
+        for (int i = (heapSize / 2) - 1; i >= 0; --i)
+        {
+            siftDown(heap, heapSize, i, timestamps, orders, firstLines, positions, ranks);
+        }
+
+        final MergedIndex merged = new MergedIndex(total);
+
+        while (heapSize > 0)
+        {
+            final int r = heap[0];
+            final int lineNum = lineAt(orders[r], firstLines[r], positions[r]);
+
+            merged.add(fileNums[r], lineNum, timestamps[r][lineNum]);
+
+            if ((progress != null) && ((merged.getSize() % PROGRESS_BLOCK_SIZE) == 0))
+            {
+                progress.addLinesMerged(PROGRESS_BLOCK_SIZE);
+                progress.checkCancelled();
+            }
+
+            if (++positions[r] >= timestamps[r].length)
+            {
+                heap[0] = heap[--heapSize];
+            }
+
+            siftDown(heap, heapSize, 0, timestamps, orders, firstLines, positions, ranks);
+        }
+
+        return merged;
+    }
+
+    /**
+     * Merges new rows into an existing merged index, in a single linear pass over
+     * both
+     *
+     * @param base      The existing merged index
+     * @param added     The new rows, in sorted order
+     * @param fileNums  The FileMap index of every file in either index
+     * @param fileNames The name of every file in either index, used to break ties
+     *                  in time-stamp
+     * @param inserted  If not null, receives the row in the result at which each
+     *                  new row was placed
+     * @return The merged index holding the rows of both
+     */
+    public static MergedIndex mergeInto(final MergedIndex base, final MergedIndex added, final int[] fileNums,
+            final String[] fileNames, final int[] inserted)
+    {
+        final int[] ranks = rankFileNames(fileNames);
+        int maxFileNum = 0;
+
+        for (final int fileNum : fileNums)
+        {
+            maxFileNum = Math.max(maxFileNum, fileNum);
+        }
+
+        final int[] rankByFileNum = new int[maxFileNum + 1];
+
+        for (int r = 0; r < fileNums.length; ++r)
+        {
+            rankByFileNum[fileNums[r]] = ranks[r];
+        }
+
+        final MergedIndex merged = new MergedIndex(base.getSize() + added.getSize());
+        int a = 0;
+        int b = 0;
+
+        while ((a < base.getSize()) || (b < added.getSize()))
+        {
+            if ((b < added.getSize())
+                    && ((a >= base.getSize()) || rowLess(added, b, base, a, rankByFileNum)))
+            {
+                if (inserted != null)
+                {
+                    inserted[b] = merged.getSize();
+                }
+
+                merged.add(added.getFileNum(b), added.getLineNum(b), added.getTimestamp(b));
+                ++b;
+            }
+            else
+            {
+                merged.add(base.getFileNum(a), base.getLineNum(a), base.getTimestamp(a));
+                ++a;
+            }
+        }
+
+        return merged;
+    }
+
+    /**
+     * Returns true if the head of run a sorts before the head of run b
+     *
+     * @param a          The first run
+     * @param b          The second run
+     * @param timestamps The time-stamps of every run
+     * @param orders     The sorted line order of every run (null if in file order)
+     * @param firstLines The first line of every run
+     * @param positions  The current position within every run
+     * @param ranks      The rank of every run's file name
+     * @return true if run a's head sorts first
+     */
+    private static boolean headLess(final int a, final int b, final long[][] timestamps, final int[][] orders,
+            final int[] firstLines, final int[] positions, final int[] ranks)
+    {
+        final long tsA = timestamps[a][lineAt(orders[a], firstLines[a], positions[a])];
+        final long tsB = timestamps[b][lineAt(orders[b], firstLines[b], positions[b])];
+
+        if (tsA != tsB)
+        {
+            return tsA < tsB;
+        }
+
+        return ranks[a] < ranks[b];
+    }
+
+    /**
+     * Returns the line number at a position in a run
+     *
+     * @param order     The sorted line order of the run, relative to its first
+     *                  line, or null if the run is already in file order
+     * @param firstLine The first line of the run
+     * @param position  The position within the file
+     * @return The line number
+     */
+    private static int lineAt(final int[] order, final int firstLine, final int position)
+    {
+        return (order == null) ? position : (firstLine + order[position - firstLine]);
+    }
+
+    /**
+     * Ranks the runs by file name, so that ties in time-stamp can be broken
+     * without comparing strings during the merge
+     *
+     * @param fileNames The file name of each run
+     * @return The rank of each run's file name
+     */
+    static int[] rankFileNames(final String[] fileNames)
+    {
+        final List<Integer> byName = new ArrayList<Integer>();
+
+        for (int r = 0; r < fileNames.length; ++r)
+        {
+            byName.add(r);
+        }
+
+        byName.sort((a, b) -> fileNames[a].compareTo(fileNames[b]));
+
+        final int[] ranks = new int[fileNames.length];
+
+        for (int i = 0; i < byName.size(); ++i)
+        {
+            ranks[byName.get(i)] = i;
+        }
+
+        return ranks;
+    }
+
+    /**
+     * Returns a copy of a merged index without the rows of the given files
+     *
+     * @param index    The merged index
+     * @param fileNums The FileMap index of each file whose rows are removed
+     * @return The merged index without the files' rows
+     */
+    public static MergedIndex remove(final MergedIndex index, final int[] fileNums)
+    {
+        final Set<Integer> removed = new HashSet<Integer>();
+
+        for (final int fileNum : fileNums)
+        {
+            removed.add(fileNum);
+        }
+
+        final MergedIndex kept = new MergedIndex(index.getSize());
+        int lastFileNum = -1;
+        boolean lastRemoved = false;
+
+        for (int row = 0; row < index.getSize(); ++row)
+        {
+            final int fileNum = index.getFileNum(row);
+
+            if (fileNum != lastFileNum)
+            {
+                lastFileNum = fileNum;
+                lastRemoved = removed.contains(fileNum);
+            }
+
+            if (!lastRemoved)
+            {
+                kept.add(fileNum, index.getLineNum(row), index.getTimestamp(row));
+            }
+        }
+
+        return kept;
+    }
+
+    /**
+     * Returns true if a row of one merged index sorts before a row of another
+     *
+     * @param x             The index of the first row
+     * @param xRow          The first row
+     * @param y             The index of the second row
+     * @param yRow          The second row
+     * @param rankByFileNum The rank of each file's name, by FileMap index
+     * @return true if the first row sorts first
+     */
+    private static boolean rowLess(final MergedIndex x, final int xRow, final MergedIndex y, final int yRow,
+            final int[] rankByFileNum)
+    {
+        if (x.getTimestamp(xRow) != y.getTimestamp(yRow))
+        {
+            return x.getTimestamp(xRow) < y.getTimestamp(yRow);
+        }
+
+        final int xRank = rankByFileNum[x.getFileNum(xRow)];
+        final int yRank = rankByFileNum[y.getFileNum(yRow)];
+
+        if (xRank != yRank)
+        {
+            return xRank < yRank;
+        }
+
+        return x.getLineNum(xRow) < y.getLineNum(yRow);
+    }
+
+    /**
+     * Moves rows of a merged index to their rows in the index that mergeInto()
+     * returns after merging new rows into it
+     *
+     * @param rows     Rows of the old index, in ascending order
+     * @param inserted The rows at which the new rows were placed, in ascending
+     *                 order, as returned by mergeInto()
+     * @return The same rows in the new index, in ascending order
+     */
+    public static int[] shiftRows(final int[] rows, final int[] inserted)
+    {
+        final int[] shifted = new int[rows.length];
+        int k = 0;
+
+        for (int i = 0; i < rows.length; ++i)
+        {
+            while ((k < inserted.length) && (inserted[k] <= (rows[i] + k)))
+            {
+                ++k;
+            }
+
+            shifted[i] = rows[i] + k;
+        }
+
+        return shifted;
+    }
+
+    /**
+     * Restores the heap property below the given heap slot
+     *
+     * @param heap       The heap of run indexes
+     * @param heapSize   The number of runs in the heap
+     * @param slot       The heap slot to sift down from
+     * @param timestamps The time-stamps of every run
+     * @param orders     The sorted line order of every run
+     * @param firstLines The first line of every run
+     * @param positions  The current position within every run
+     * @param ranks      The rank of every run's file name
+     */
+    private static void siftDown(final int[] heap, final int heapSize, final int slot, final long[][] timestamps,
+            final int[][] orders, final int[] firstLines, final int[] positions, final int[] ranks)
+    {
+        int i = slot;
+
+        while (true)
+        {
+            final int left = (2 * i) + 1;
+
+            if (left >= heapSize)
+            {
+                return;
+            }
+
+            int child = left;
+
+            if (((left + 1) < heapSize)
+                    && headLess(heap[left + 1], heap[left], timestamps, orders, firstLines, positions, ranks))
+            {
+                child = left + 1;
+            }
+
+            if (!headLess(heap[child], heap[i], timestamps, orders, firstLines, positions, ranks))
+            {
+                return;
+            }
+
+            final int tmp = heap[i];
+            heap[i] = heap[child];
+            heap[child] = tmp;
+            i = child;
+        }
+    }
+
+    /**
+     * Sorts the lines of one file by time-stamp. The file is split into its
+     * naturally ascending stretches, which are then merged pairwise, so a file
+     * that is already in time order costs a single linear check and a file with a
+     * few out-of-order stretches costs little more. Lines with equal time-stamps
+     * keep their file order.
+     *
+     * @param timestamps The time-stamp of every line in the file
+     * @return The line numbers in sorted order, or null if the file is already in
+     *         time order
+     */
+    public static int[] sortRun(final long[] timestamps)
+    {
+        final int n = timestamps.length;
+        int[] bounds = new int[16];
+        int numBounds = 0;
+
+        bounds[numBounds++] = 0;
+
+        for (int i = 1; i < n; ++i)
+        {
+            if (timestamps[i] < timestamps[i - 1])
+            {
+                if (numBounds == bounds.length)
+                {
+                    bounds = Arrays.copyOf(bounds, bounds.length * 2);
+                }
+
+                bounds[numBounds++] = i;
+            }
+        }
+
+        if (numBounds == 1)
+        {
+            return null;
+        }
+
+        int[] order = new int[n];
+        int[] tmp = new int[n];
+
+        for (int i = 0; i < n; ++i)
+        {
+            order[i] = i;
+        }
+
+        int numRuns = numBounds;
+
+        while (numRuns > 1)
+        {
+            int newRuns = 0;
+
+            for (int r = 0; r < numRuns; r += 2)
+            {
+                final int lo = bounds[r];
+                final int mid = ((r + 1) < numRuns) ? bounds[r + 1] : n;
+                final int hi = ((r + 2) < numRuns) ? bounds[r + 2] : n;
+
+                int a = lo;
+                int b = mid;
+                int k = lo;
+
+                while ((a < mid) && (b < hi))
+                {
+                    tmp[k++] = (timestamps[order[b]] < timestamps[order[a]]) ? order[b++] : order[a++];
+                }
+
+                while (a < mid)
+                {
+                    tmp[k++] = order[a++];
+                }
+
+                while (b < hi)
+                {
+                    tmp[k++] = order[b++];
+                }
+
+                bounds[newRuns++] = lo;
+            }
+
+            final int[] swap = order;
+            order = tmp;
+            tmp = swap;
+            numRuns = newRuns;
+        }
+
+        return order;
+    }
+
+    /**
+     * Returns the rows that are in either of two ascending lists of rows
+     *
+     * @param a The first list of rows
+     * @param b The second list of rows
+     * @return The rows of both, in ascending order and without duplicates
+     */
+    public static int[] unionRows(final int[] a, final int[] b)
+    {
+        final int[] rows = new int[a.length + b.length];
+        int i = 0;
+        int j = 0;
+        int n = 0;
+
+        while ((i < a.length) || (j < b.length))
+        {
+            if ((j >= b.length) || ((i < a.length) && (a[i] < b[j])))
+            {
+                rows[n++] = a[i++];
+            }
+            else
+            {
+                if ((i < a.length) && (a[i] == b[j]))
+                {
+                    ++i;
+                }
+
+                rows[n++] = b[j++];
+            }
+        }
+
+        return Arrays.copyOf(rows, n);
+    }
+
+    /**
+     * Constructor (private, all methods are static)
+     */
+    private LogMerger()
+    {
+    }
+}
@@ -0,0 +1,371 @@
+package com.ryanantkowiak.logsyncviewer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+
+/**
+ * Searches the loaded log files for a query in parallel, on the LogLoader's
+ * pool of worker threads. Each file is split into blocks of lines that are
+ * matched on separate workers, recording the matching lines of each file in a
+ * bit set. Files with a trigram index only have the candidate lines from the
+ * index checked, along with any lines added after the index was built. The
+ * matches are then mapped to the rows of the merged index, giving a sorted
+ * array of the rows that match. A query that refines an earlier one only has
+ * the earlier matches checked.
+ *
+ * @author Ryan Antkowiak
+ *
+ */
+public class LogSearcher
+{
+    /**
+     * The number of lines or rows processed by each task. A multiple of 64, so
+     * that tasks never share a word of a bit set.
+     */
+    private static final int BLOCK_SIZE = 1 << 16;
+
+    /**
+     * Adds tasks that check the candidate lines given by a file's trigram index.
+     * The candidates are split into blocks that never share a word of the bit
+     * set.
+     *
+     * @param tasks      The tasks to add to
+     * @param file       The file to search
+     * @param bits       The bit set of the file's matching lines
+     * @param candidates The candidate line numbers in ascending order
+     * @param end        The line number after the last candidate to check, a
+     *                   multiple of 64
+     * @param query      The query to search for
+     * @param progress   The progress of the search
+     */
+    private static void addCandidateTasks(final List<Callable<Void>> tasks, final MappedLogFile file,
+            final long[] bits, final int[] candidates, final int end, final SearchQuery query,
+            final LoadProgress progress)
+    {
+        int count = Arrays.binarySearch(candidates, end);
+        count = (count >= 0) ? count : -(count + 1);
+
+        for (int start = 0; start < count;)
+        {
+            int stop = Math.min(count, start + BLOCK_SIZE);
+
+            while ((stop < count) && ((candidates[stop] >>> 6) == (candidates[stop - 1] >>> 6)))
+            {
+                ++stop;
+            }
+
+            final int first = start;
+            final int last = stop;
+
+            tasks.add(() ->
+            {
+                progress.checkCancelled();
+
+                for (int c = first; c < last; ++c)
+                {
+                    final int line = candidates[c];
+
+                    if (query.matches(file, line))
+                    {
+                        bits[line >>> 6] |= 1L << line;
+                    }
+                }
+
+                return null;
+            });
+
+            start = stop;
+        }
+    }
+
+    /**
+     * Adds tasks that check every line of a file from a given line on, in blocks
+     * of BLOCK_SIZE lines
+     *
+     * @param tasks    The tasks to add to
+     * @param file     The file to search
+     * @param bits     The bit set of the file's matching lines
+     * @param from     The first line to check, a multiple of 64
+     * @param query    The query to search for
+     * @param progress The progress of the search
+     */
+    private static void addScanTasks(final List<Callable<Void>> tasks, final MappedLogFile file, final long[] bits,
+            final int from, final SearchQuery query, final LoadProgress progress)
+    {
+        for (int start = from; start < file.getNumLines(); start += BLOCK_SIZE)
+        {
+            final int first = start;
+            final int end = Math.min(file.getNumLines(), start + BLOCK_SIZE);
+
+            tasks.add(() ->
+            {
+                progress.checkCancelled();
+
+                for (int line = first; line < end; ++line)
+                {
+                    if (query.matches(file, line))
+                    {
+                        bits[line >>> 6] |= 1L << line;
+                    }
+                }
+
+                progress.addLinesParsed(end - first);
+                return null;
+            });
+        }
+    }
+
+    /**
+     * Joins the matching rows found by each task into a single array
+     *
+     * @param rangeHits The matching rows of each task, in order
+     * @return All of the matching rows
+     */
+    private static int[] concat(final int[][] rangeHits)
+    {
+        int total = 0;
+
+        for (final int[] hits : rangeHits)
+        {
+            total += hits.length;
+        }
+
+        final int[] allHits = new int[total];
+        int n = 0;
+
+        for (final int[] hits : rangeHits)
+        {
+            System.arraycopy(hits, 0, allHits, n, hits.length);
+            n += hits.length;
+        }
+
+        return allHits;
+    }
+
+    /**
+     * Returns the rows among the given rows that match a query. Used when the
+     * query refines an earlier one, so that only the earlier matches have to be
+     * checked instead of every line, and to check only the lines appended to
+     * followed files.
+     *
+     * @param index    The merged index to search
+     * @param fileNums The FileMap index of each file in the merged index
+     * @param files    The data of each file in the merged index
+     * @param rows     The rows to check, in ascending order
+     * @param query    The query to search for
+     * @param progress The progress of the search, which counts the rows checked
+     *                 and carries the request to cancel it
+     * @return The matching rows, in ascending order
+     * @throws CancellationException If the search is cancelled
+     */
+    public static int[] refine(final MergedIndex index, final int[] fileNums, final MappedLogFile[] files,
+            final int[] rows, final SearchQuery query, final LoadProgress progress)
+    {
+        int maxFileNum = 0;
+
+        for (final int fileNum : fileNums)
+        {
+            maxFileNum = Math.max(maxFileNum, fileNum);
+        }
+
+        final MappedLogFile[] byFileNum = new MappedLogFile[maxFileNum + 1];
+
+        for (int f = 0; f < files.length; ++f)
+        {
+            byFileNum[fileNums[f]] = files[f];
+        }
+
+        final int numRanges = (rows.length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        final int[][] rangeHits = new int[numRanges][];
+        final List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+
+        for (int r = 0; r < numRanges; ++r)
+        {
+            final int range = r;
+
+            tasks.add(() ->
+            {
+                progress.checkCancelled();
+
+                final int first = range * BLOCK_SIZE;
+                final int end = Math.min(rows.length, first + BLOCK_SIZE);
+                final int[] hits = new int[end - first];
+                int numHits = 0;
+
+                for (int i = first; i < end; ++i)
+                {
+                    final long entry = index.getEntry(rows[i]);
+                    final int fileNum = MergedIndex.fileOf(entry);
+
+                    if ((fileNum < byFileNum.length) && (byFileNum[fileNum] != null)
+                            && query.matches(byFileNum[fileNum], MergedIndex.lineOf(entry)))
+                    {
+                        hits[numHits++] = rows[i];
+                    }
+                }
+
+                progress.addLinesParsed(end - first);
+                rangeHits[range] = Arrays.copyOf(hits, numHits);
+                return null;
+            });
+        }
+
+        runAll(tasks);
+        return concat(rangeHits);
+    }
+
+    /**
+     * Runs tasks on the worker pool and waits for all of them to finish. Tasks are
+     * waited for in the order they finish, so that the first failure, such as a
+     * regular expression that timed out, is thrown at once; the tasks that have
+     * not started yet are then cancelled.
+     *
+     * @param tasks The tasks to run
+     * @throws CancellationException If the search is cancelled or times out
+     */
+    static void runAll(final List<Callable<Void>> tasks)
+    {
+        final CompletionService<Void> completion = new ExecutorCompletionService<Void>(LogLoader.getPool());
+        final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+
+        for (final Callable<Void> task : tasks)
+        {
+            futures.add(completion.submit(task));
+        }
+
+        try
+        {
+            for (int i = 0; i < futures.size(); ++i)
+            {
+                completion.take().get();
+            }
+        }
+        catch (final ExecutionException e)
+        {
+            if (e.getCause() instanceof CancellationException)
+            {
+                throw (CancellationException) e.getCause();
+            }
+
+            throw new IllegalStateException(e.getCause());
+        }
+        catch (final InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new CancellationException();
+        }
+        finally
+        {
+            for (final Future<Void> future : futures)
+            {
+                future.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Returns the rows of a merged index whose lines match a query
+     *
+     * @param index    The merged index to search
+     * @param fileNums The FileMap index of each file in the merged index
+     * @param files    The data of each file in the merged index
+     * @param query    The query to search for
+     * @param progress The progress of the search, which counts the lines searched
+     *                 and carries the request to cancel it
+     * @return The matching rows, in ascending order
+     * @throws CancellationException If the search is cancelled
+     */
+    public static int[] search(final MergedIndex index, final int[] fileNums, final MappedLogFile[] files,
+            final SearchQuery query, final LoadProgress progress)
+    {
+        int maxFileNum = 0;
+
+        for (final int fileNum : fileNums)
+        {
+            maxFileNum = Math.max(maxFileNum, fileNum);
+        }
+
+        final long[][] matches = new long[maxFileNum + 1][];
+        final List<Callable<Void>> matchTasks = new ArrayList<Callable<Void>>();
+
+        for (int f = 0; f < files.length; ++f)
+        {
+            final MappedLogFile file = files[f];
+            final long[] bits = new long[(file.getNumLines() + 63) / 64];
+            final TrigramIndex trigrams = query.isRegex() ? null : file.getTrigrams();
+            final int[] candidates = (trigrams != null) ? trigrams.candidates(query.getText(), query.isMatchCase())
+                    : null;
+            int scanFrom = 0;
+
+            matches[fileNums[f]] = bits;
+
+            if (candidates != null)
+            {
+                scanFrom = Math.min(trigrams.getNumLines(), file.getNumLines()) & ~63;
+                addCandidateTasks(matchTasks, file, bits, candidates, scanFrom, query, progress);
+                progress.addLinesParsed(scanFrom);
+            }
+
+            addScanTasks(matchTasks, file, bits, scanFrom, query, progress);
+        }
+
+        runAll(matchTasks);
+
+        final int numRanges = (index.getSize() + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        final int[][] rangeHits = new int[numRanges][];
+        final List<Callable<Void>> mapTasks = new ArrayList<Callable<Void>>();
+
+        for (int r = 0; r < numRanges; ++r)
+        {
+            final int range = r;
+
+            mapTasks.add(() ->
+            {
+                progress.checkCancelled();
+
+                final int first = range * BLOCK_SIZE;
+                final int end = Math.min(index.getSize(), first + BLOCK_SIZE);
+                int[] hits = new int[16];
+                int numHits = 0;
+
+                for (int row = first; row < end; ++row)
+                {
+                    final long entry = index.getEntry(row);
+                    final int fileNum = MergedIndex.fileOf(entry);
+                    final int line = MergedIndex.lineOf(entry);
+
+                    if ((fileNum < matches.length) && (matches[fileNum] != null)
+                            && ((matches[fileNum][line >>> 6] & (1L << line)) != 0))
+                    {
+                        if (numHits == hits.length)
+                        {
+                            hits = Arrays.copyOf(hits, hits.length * 2);
+                        }
+
+                        hits[numHits++] = row;
+                    }
+                }
+
+                rangeHits[range] = Arrays.copyOf(hits, numHits);
+                return null;
+            });
+        }
+
+        runAll(mapTasks);
+        return concat(rangeHits);
+    }
+
+    /**
+     * Constructor (private, all methods are static)
+     */
+    private LogSearcher()
+    {
+    }
+}
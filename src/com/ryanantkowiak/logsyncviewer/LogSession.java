@@ -0,0 +1,198 @@
+package com.ryanantkowiak.logsyncviewer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A set of log files merged into time-stamp order, apart from the user
+ * interface. Unlike the viewer, which keeps its files in the FileMap and its
+ * date format in LogSyncListItem, a session holds its own files, and is given
+ * the date format and time range with each load, so that any number of
+ * sessions can be used side by side in one JVM. Sessions share only the
+ * loading threads and the IndexCache. The merged entries are read with
+ * LogCursors.
+ *
+ * A session may be used from several threads. Loads run one at a time, and
+ * each replaces the session's entries as a whole when it completes; cursors
+ * that are already open keep reading the entries they were opened on.
+ *
+ * @author Ryan Antkowiak
+ *
+ */
+public class LogSession
+{
+    /**
+     * The files and merged entries of a completed load, which are not changed
+     * once published
+     */
+    private static class Snapshot
+    {
+        /**
+         * The path of each file
+         */
+        private final String[] m_fileNames;
+
+        /**
+         * The data of each file
+         */
+        private final MappedLogFile[] m_files;
+
+        /**
+         * The merged entries; the file number of each row is its file's position
+         * in m_files
+         */
+        private final MergedIndex m_index;
+
+        /**
+         * Constructor
+         *
+         * @param fileNames_ The path of each file
+         * @param files_     The data of each file
+         * @param index_     The merged entries
+         */
+        private Snapshot(final String[] fileNames_, final MappedLogFile[] files_, final MergedIndex index_)
+        {
+            m_fileNames = fileNames_;
+            m_files = files_;
+            m_index = index_;
+        }
+    }
+
+    /**
+     * The files and merged entries of the last completed load
+     */
+    private volatile Snapshot m_snapshot = new Snapshot(new String[0], new MappedLogFile[0], new MergedIndex(0));
+
+    /**
+     * Constructor. Creates a session with no files.
+     */
+    public LogSession()
+    {
+    }
+
+    /**
+     * Opens a cursor before the first merged entry
+     *
+     * @return The cursor
+     */
+    public LogCursor cursor()
+    {
+        final Snapshot snapshot = m_snapshot;
+        return new LogCursor(snapshot.m_index, snapshot.m_fileNames, snapshot.m_files, 0);
+    }
+
+    /**
+     * Opens a cursor before the first merged entry with a time-stamp at or after
+     * the given time
+     *
+     * @param time The time, in ms since the epoch as returned by the
+     *             TimestampParser
+     * @return The cursor
+     */
+    public LogCursor cursor(final long time)
+    {
+        final Snapshot snapshot = m_snapshot;
+        final MergedIndex index = snapshot.m_index;
+        int lo = 0;
+        int hi = index.getSize();
+
+        while (lo < hi)
+        {
+            final int mid = (lo + hi) >>> 1;
+
+            if (index.getTimestamp(mid) >= time)
+            {
+                hi = mid;
+            }
+            else
+            {
+                lo = mid + 1;
+            }
+        }
+
+        return new LogCursor(index, snapshot.m_fileNames, snapshot.m_files, lo);
+    }
+
+    /**
+     * Returns the paths of the files whose entries are merged
+     *
+     * @return The paths, in the order they were loaded in
+     */
+    public List<String> getFileNames()
+    {
+        return Collections.unmodifiableList(Arrays.asList(m_snapshot.m_fileNames));
+    }
+
+    /**
+     * Returns the number of merged entries
+     *
+     * @return The number of entries
+     */
+    public int getSize()
+    {
+        return m_snapshot.m_index.getSize();
+    }
+
+    /**
+     * Loads and merges the given files, replacing the files of the last load.
+     * Files that were loaded before are reused rather than read again, unless
+     * the date format or time range has changed in a way that needs them to be.
+     *
+     * @param fileNames The paths of the files to load
+     * @param parser    The time-stamp parser to read the files with
+     * @param range     The range of time-stamps to load from each file
+     * @param progress  The progress of the load to report to, or null
+     * @return The paths of the files that could not be read, which are left out
+     * @throws java.util.concurrent.CancellationException If the load is
+     *                                                    cancelled; the session
+     *                                                    is left as it was
+     */
+    public synchronized List<String> load(final List<String> fileNames, final TimestampParser parser,
+            final TimeRange range, final LoadProgress progress)
+    {
+        final Snapshot previous = m_snapshot;
+        final List<String> previousNames = Arrays.asList(previous.m_fileNames);
+        final MappedLogFile[] loaded = new MappedLogFile[fileNames.size()];
+
+        for (int i = 0; i < loaded.length; ++i)
+        {
+            final int position = previousNames.indexOf(fileNames.get(i));
+            loaded[i] = (position >= 0) ? previous.m_files[position] : null;
+        }
+
+        LogLoader.load(fileNames, loaded, parser, range, progress, null);
+
+        final List<String> names = new ArrayList<String>();
+        final List<MappedLogFile> files = new ArrayList<MappedLogFile>();
+        final List<String> failed = new ArrayList<String>();
+
+        for (int i = 0; i < loaded.length; ++i)
+        {
+            if (loaded[i] != null)
+            {
+                names.add(fileNames.get(i));
+                files.add(loaded[i]);
+            }
+            else
+            {
+                failed.add(fileNames.get(i));
+            }
+        }
+
+        final int[] fileNums = new int[files.size()];
+
+        for (int i = 0; i < fileNums.length; ++i)
+        {
+            fileNums[i] = i;
+        }
+
+        final String[] nameArray = names.toArray(new String[names.size()]);
+        final MappedLogFile[] fileArray = files.toArray(new MappedLogFile[files.size()]);
+        final MergedIndex index = LogMerger.merge(fileNums, fileArray, nameArray, progress);
+
+        m_snapshot = new Snapshot(nameArray, fileArray, index);
+        return failed;
+    }
+}
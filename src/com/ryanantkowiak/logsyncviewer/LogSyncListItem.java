@@ -1,15 +1,16 @@
 package com.ryanantkowiak.logsyncviewer;
 
 import java.awt.Color;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 
 /**
  * This class represents the data model for each of the individual log line
  * items. It is defined by indexes into a file cache and the line number of a
- * particular file. This class also caches the time-stamp of the log entry as a
+ * particular file. This class also carries the time-stamp of the log entry as a
  * "long" for optimized comparisons against other log entries.
  *
+ * The loaded log entries are stored in a MergedIndex; items are lightweight
+ * views of an index row that are only created for the rows being displayed.
+ *
  * @author Ryan Antkowiak 
  *
  */
@@ -18,8 +19,13 @@ public class LogSyncListItem implements Comparable<LogSyncListItem>
     /**
      * Static instance of an object that can parse the time-stamp of a log entry
      */
-    private static SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("MMM dd HH:mm:ss");
-    //private static SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("MM/dd/yy HH:mm:ss.SSS");
+    private static volatile TimestampParser DATE_FORMAT = TimestampParser.compile("MMM dd HH:mm:ss");
+    //private static volatile TimestampParser DATE_FORMAT = TimestampParser.compile("MM/dd/yy HH:mm:ss.SSS");
+
+    /**
+     * The range of time-stamps that are loaded from each log file
+     */
+    private static volatile TimeRange TIME_RANGE = TimeRange.ALL;
 
     /**
      * Returns the current format of the time-stamp parser
@@ -28,23 +34,69 @@ public class LogSyncListItem implements Comparable<LogSyncListItem>
      */
     public static String getDateFormat()
     {
-        return DATE_FORMAT.toPattern();
+        return DATE_FORMAT.getPattern();
+    }
+
+    /**
+     * Returns the range of time-stamps that are loaded from each log file
+     *
+     * @return the current time range
+     */
+    public static TimeRange getTimeRange()
+    {
+        return TIME_RANGE;
+    }
+
+    /**
+     * Returns the current time-stamp parser
+     *
+     * @return the current time-stamp parser
+     */
+    public static TimestampParser getTimestampParser()
+    {
+        return DATE_FORMAT;
+    }
+
+    /**
+     * Parses the time-stamp at the start of a line of log text
+     *
+     * @param line The text of the log entry
+     * @return The number of ms since the epoch, or 0 if the line does not start
+     *         with a time-stamp
+     */
+    public static long parseTimestamp(final String line)
+    {
+        final long timeStamp = DATE_FORMAT.parse(line);
+
+        return (timeStamp == TimestampParser.NONE) ? 0 : timeStamp;
     }
 
     /**
      * Sets the format of the time-stamp parser
      *
      * @param newFormat The new string format of the time-stamp parser to use
+     * @throws IllegalArgumentException If the format is not a valid
+     *                                  SimpleDateFormat pattern
      */
     public static void setDateFormat(final String newFormat)
     {
-        DATE_FORMAT = new SimpleDateFormat(newFormat);
+        DATE_FORMAT = TimestampParser.compile(newFormat);
+    }
+
+    /**
+     * Sets the range of time-stamps that are loaded from each log file
+     *
+     * @param range The new time range, or TimeRange.ALL to load whole files
+     */
+    public static void setTimeRange(final TimeRange range)
+    {
+        TIME_RANGE = range;
     }
 
     /**
      * The number of ms since the epoch for this log entry
      */
-    private long m_timeStamp = Long.MAX_VALUE;
+    private final long m_timeStamp;
 
     /**
      * Index into cached list of files for this log entry
@@ -58,15 +110,17 @@ public class LogSyncListItem implements Comparable<LogSyncListItem>
 
     /**
      * Constructor. Crates the LogSyncListItem with the provided file and line
-     * indexes
+     * indexes, and a time-stamp that has already been parsed
      *
-     * @param fileNum_ Index into map of cached files for this log file
-     * @param lineNum_ The line number of this log entry
+     * @param fileNum_   Index into map of cached files for this log file
+     * @param lineNum_   The line number of this log entry
+     * @param timeStamp_ The time-stamp of this log entry
      */
-    public LogSyncListItem(final int fileNum_, final int lineNum_)
+    public LogSyncListItem(final int fileNum_, final int lineNum_, final long timeStamp_)
     {
         m_fileNum = fileNum_;
         m_lineNum = lineNum_;
+        m_timeStamp = timeStamp_;
     }
 
     /**
@@ -111,6 +165,26 @@ public class LogSyncListItem implements Comparable<LogSyncListItem>
         return FileMap.getFileColor(m_fileNum);
     }
 
+    /**
+     * Returns the index of this log entry's file in the FileMap
+     *
+     * @return The file index
+     */
+    public int getFileNum()
+    {
+        return m_fileNum;
+    }
+
+    /**
+     * Returns the line number of this log entry in its file
+     *
+     * @return The line number
+     */
+    public int getLineNum()
+    {
+        return m_lineNum;
+    }
+
     /**
      * Returns the textual data of this log entry
      *
@@ -128,26 +202,6 @@ public class LogSyncListItem implements Comparable<LogSyncListItem>
      */
     public long getTimestamp()
     {
-        if (m_timeStamp != Long.MAX_VALUE)
-        {
-            return m_timeStamp;
-        }
-
-        m_timeStamp = 0;
-
-        final String line = getText();
-
-        if (line.length() >= 21)
-        {
-            try
-            {
-                m_timeStamp = DATE_FORMAT.parse(line.substring(0, 21)).getTime();
-            }
-            catch (final ParseException e)
-            {
-            }
-        }
-
         return m_timeStamp;
     }
 
@@ -3,6 +3,13 @@ package com.ryanantkowiak.logsyncviewer;
 import java.awt.Color;
 import java.awt.Component;
 import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Insets;
+import java.awt.Toolkit;
+import java.util.ArrayList;
+import java.util.Map;
 
 import javax.swing.JLabel;
 import javax.swing.JList;
@@ -10,7 +17,8 @@ import javax.swing.ListCellRenderer;
 
 /**
  * Renderer for the log viewer list items. Determines how each list item shoudl
- * be rendered.
+ * be rendered. Text matched by the highlight rules is painted in the rule's
+ * colors and font style.
  *
  * @author Ryan Antkowiak 
  *
@@ -32,6 +40,17 @@ public class LogSyncListItemRenderer extends JLabel implements ListCellRenderer<
      */
     private Font m_font = new Font("Consolas", Font.BOLD, 12);
 
+    /**
+     * Finds the text to highlight in each log entry
+     */
+    private Highlighter m_highlighter = new Highlighter(new ArrayList<HighlightRule>());
+
+    /**
+     * The highlighted runs of the log entry being rendered, as given by
+     * Highlighter.getRuns()
+     */
+    private int[] m_runs = new int[0];
+
     /**
      * Constructor
      */
@@ -52,6 +71,16 @@ public class LogSyncListItemRenderer extends JLabel implements ListCellRenderer<
         }
     }
 
+    /**
+     * Returns the font used for rendering log entries
+     *
+     * @return The font for log entries
+     */
+    public Font getLogFont()
+    {
+        return m_font;
+    }
+
     /**
      * Return a component that has been configured to display the specified value.
      * The value object is the LogSyncListItem from the data model.
@@ -79,12 +108,25 @@ public class LogSyncListItemRenderer extends JLabel implements ListCellRenderer<
             setBackground(value.getColor());
         }
 
+        final String text = value.getText();
+
         setFont(m_font);
-        setText(value.getText());
+        setText(text);
         setToolTipText(value.getToolTip());
+        m_runs = isSelected ? new int[0] : m_highlighter.getRuns(value, text);
         return this;
     }
 
+    /**
+     * Returns the highlighter that finds the text to highlight
+     *
+     * @return The highlighter
+     */
+    public Highlighter getHighlighter()
+    {
+        return m_highlighter;
+    }
+
     /**
      * Increases the font size of the log entries
      */
@@ -93,4 +135,90 @@ public class LogSyncListItemRenderer extends JLabel implements ListCellRenderer<
         m_fontSize += 2;
         m_font = new Font("Consolas", Font.BOLD, m_fontSize);
     }
+
+    /**
+     * Paints the log entry. Entries without highlighted text are painted as a
+     * label; otherwise the text is painted run by run.
+     *
+     * @param g The graphics context to paint with
+     */
+    @Override
+    protected void paintComponent(final Graphics g)
+    {
+        if (m_runs.length == 0)
+        {
+            super.paintComponent(g);
+            return;
+        }
+
+        final Graphics2D g2 = (Graphics2D) g;
+        final Map<?, ?> hints = (Map<?, ?>) Toolkit.getDefaultToolkit().getDesktopProperty("awt.font.desktophints");
+
+        if (hints != null)
+        {
+            g2.addRenderingHints(hints);
+        }
+
+        g2.setColor(getBackground());
+        g2.fillRect(0, 0, getWidth(), getHeight());
+
+        final String text = getText();
+        final Insets insets = getInsets();
+        final FontMetrics metrics = g2.getFontMetrics(m_font);
+        final int baseline = ((getHeight() - metrics.getHeight()) / 2) + metrics.getAscent();
+        int x = insets.left;
+        int pos = 0;
+
+        for (int i = 0; i < m_runs.length; i += 3)
+        {
+            x = paintText(g2, text.substring(pos, m_runs[i]), x, baseline, null);
+            x = paintText(g2, text.substring(m_runs[i], m_runs[i + 1]), x, baseline,
+                    m_highlighter.getRule(m_runs[i + 2]));
+            pos = m_runs[i + 1];
+        }
+
+        paintText(g2, text.substring(pos), x, baseline, null);
+    }
+
+    /**
+     * Paints a run of text in the style of a highlight rule
+     *
+     * @param g2       The graphics context to paint with
+     * @param text     The text to paint
+     * @param x        The position of the start of the text
+     * @param baseline The position of the text's baseline
+     * @param rule     The rule that highlights the text, or null to paint it
+     *                 unchanged
+     * @return The position of the end of the text
+     */
+    private int paintText(final Graphics2D g2, final String text, final int x, final int baseline,
+            final HighlightRule rule)
+    {
+        final Font font = ((rule != null) && (rule.getFontStyle() != Font.PLAIN))
+                ? m_font.deriveFont(m_font.getStyle() | rule.getFontStyle())
+                : m_font;
+        final FontMetrics metrics = g2.getFontMetrics(font);
+        final int width = metrics.stringWidth(text);
+
+        if ((rule != null) && (rule.getBackground() != null))
+        {
+            g2.setColor(rule.getBackground());
+            g2.fillRect(x, 0, width, getHeight());
+        }
+
+        g2.setFont(font);
+        g2.setColor(((rule != null) && (rule.getForeground() != null)) ? rule.getForeground() : getForeground());
+        g2.drawString(text, x, baseline);
+        return x + width;
+    }
+
+    /**
+     * Sets the highlighter that finds the text to highlight
+     *
+     * @param highlighter The highlighter
+     */
+    public void setHighlighter(final Highlighter highlighter)
+    {
+        m_highlighter = highlighter;
+    }
 }
@@ -1,30 +1,126 @@
 package com.ryanantkowiak.logsyncviewer;
 
-import java.awt.Color;
+import java.io.File;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
-import javax.swing.DefaultListModel;
+import javax.swing.AbstractListModel;
 
 /**
- * Data model for the individual log entries
+ * Data model for the individual log entries. The model is read-only and
+ * virtual: rows are answered directly from the MergedIndex, and a list item is
+ * only created when a row is asked for.
  *
  * @author Ryan Antkowiak 
  *
  */
-public class LogSyncListModel extends DefaultListModel<LogSyncListItem>
+public class LogSyncListModel extends AbstractListModel<LogSyncListItem>
 {
     /**
      * Version of serialized data (required from parent classes)
      */
     private static final long serialVersionUID = 1L;
 
+    /**
+     * The largest number of separate blocks of added rows that are reported as
+     * individual events; more than this are reported as a single change
+     */
+    private static final int MAX_INSERT_EVENTS = 1000;
+
     /**
      * Cache of the list of files that are added for loading
      */
     private List<String> m_cachedFileList = null;
 
+    /**
+     * The date format that the cached list of files was sorted with
+     */
+    private String m_cachedDateFormat = null;
+
+    /**
+     * The time range that the cached list of files was loaded with
+     */
+    private TimeRange m_cachedTimeRange = null;
+
+    /**
+     * True if the last load of the cached list of files was cancelled or failed,
+     * so that asking for the same files again loads them rather than doing
+     * nothing
+     */
+    private boolean m_incomplete = false;
+
+    /**
+     * The merged, sorted log entries that back this model
+     */
+    private MergedIndex m_index = new MergedIndex(0);
+
+    /**
+     * The length, in bytes, of the longest line in the loaded files
+     */
+    private int m_maxLineLength = 0;
+
+    /**
+     * The background load that is in progress, or null
+     */
+    private LoadWorker m_worker = null;
+
+    /**
+     * The background check for appended lines that is in progress, or null
+     */
+    private FollowWorker m_followWorker = null;
+
+    /**
+     * The FileMap index of each file whose rows are in the merged index
+     */
+    private int[] m_fileNums = new int[0];
+
+    /**
+     * The path of each file in m_fileNums, recorded along with the file numbers
+     * so that they are not looked up in a FileMap that may have been reset since
+     */
+    private List<String> m_fileNames = new ArrayList<String>();
+
+    /**
+     * The FileMap generation that m_fileNums were handed out in
+     */
+    private int m_fileGeneration = FileMap.getGeneration();
+
+    /**
+     * Handle to the main log viewer instance
+     */
+    private final LogSyncViewer m_logSyncViewer;
+
+    /**
+     * Constructor
+     *
+     * @param lsv The main log viewer instance, which is told about load progress
+     */
+    public LogSyncListModel(final LogSyncViewer lsv)
+    {
+        m_logSyncViewer = lsv;
+    }
+
+    /**
+     * Returns the file names of the given files
+     *
+     * @param fileNums The FileMap index of each file
+     * @return The path of each file
+     */
+    private static List<String> getFileNames(final int[] fileNums)
+    {
+        final List<String> fileNames = new ArrayList<String>();
+
+        for (final int fileNum : fileNums)
+        {
+            fileNames.add(FileMap.getFileName(fileNum));
+        }
+
+        return fileNames;
+    }
+
     /**
      * Compares two lists of strings to see if they are equivalent
      *
@@ -56,87 +152,495 @@ public class LogSyncListModel extends DefaultListModel<LogSyncListItem>
     }
 
     /**
-     * Refreshes the data by re-reading all log files from disk.
+     * Replaces the backing index with one that holds the same rows followed by
+     * additional rows, and notifies listeners of the added interval
+     *
+     * @param index The extended index
      */
-    public void refresh()
+    public void appendRows(final MergedIndex index)
     {
-        FileMap.refresh();
+        final int oldSize = m_index.getSize();
+
+        m_index = index;
+
+        if (index.getSize() > oldSize)
+        {
+            fireIntervalAdded(this, oldSize, index.getSize() - 1);
+        }
+    }
+
+    /**
+     * Cancels the background load, if one is in progress. The files that have been
+     * merged so far stay visible.
+     */
+    public void cancelLoad()
+    {
+        if (m_worker != null)
+        {
+            final LoadWorker worker = m_worker;
+            m_worker = null;
+            m_incomplete = true;
+            worker.cancelLoad();
+            m_logSyncViewer.loadFinished();
+        }
+    }
+
+    /**
+     * Removes every row, cancelling the background load and check for appended
+     * lines. Called before the FileMap is purged, so that the view no longer reads
+     * the purged files.
+     */
+    public void clear()
+    {
+        m_followWorker = null;
+        m_cachedFileList = new ArrayList<String>();
+        m_incomplete = true;
+        clearRows();
+        cancelLoad();
+    }
+
+    /**
+     * Removes every row, and forgets the files of the rows
+     */
+    private void clearRows()
+    {
+        m_fileNums = new int[0];
+        m_fileNames = new ArrayList<String>();
+        m_fileGeneration = FileMap.getGeneration();
+        m_maxLineLength = 0;
+        setIndex(new MergedIndex(0));
+    }
 
-        removeAllElements();
+    /**
+     * Notifies listeners of rows that have been added to the index, with one event
+     * for each block of consecutive rows
+     *
+     * @param rows The added rows, in ascending order
+     */
+    private void fireRowsInserted(final int[] rows)
+    {
+        int numBlocks = 0;
 
-        final List<LogSyncListItem> elementsToAdd = new ArrayList<LogSyncListItem>();
+        for (int i = 0; i < rows.length; ++i)
+        {
+            if ((i == 0) || (rows[i] != (rows[i - 1] + 1)))
+            {
+                ++numBlocks;
+            }
+        }
 
-        for (final String file : m_cachedFileList)
+        if (numBlocks > MAX_INSERT_EVENTS)
         {
-            final Color color = ColorPicker.get(file);
+            fireContentsChanged(this, 0, getSize() - 1);
+            return;
+        }
 
-            final int fileIndex = FileMap.addFile(file, color);
+        int start = 0;
 
-            if (fileIndex != -1)
+        for (int i = 1; i <= rows.length; ++i)
+        {
+            if ((i == rows.length) || (rows[i] != (rows[i - 1] + 1)))
             {
-                final int numLines = FileMap.getFileNumLines(fileIndex);
+                fireIntervalAdded(this, rows[start], rows[i - 1]);
+                start = i;
+            }
+        }
+    }
 
-                for (int i = 0; i < numLines; ++i)
+    /**
+     * Checks the loaded files for appended lines in the background, and merges any
+     * new lines into the view. Does nothing while a load or an earlier check is
+     * in progress.
+     */
+    public void follow()
+    {
+        if ((m_worker != null) || (m_followWorker != null) || (m_fileGeneration != FileMap.getGeneration()))
+        {
+            return;
+        }
+
+        final int[] fileNums = new int[m_fileNums.length];
+        final String[] fileNames = new String[m_fileNums.length];
+        final MappedLogFile[] files = new MappedLogFile[m_fileNums.length];
+        int n = 0;
+
+        for (final int fileNum : m_fileNums)
+        {
+            final MappedLogFile file = FileMap.getLoadedFile(fileNum);
+
+            if (file != null)
+            {
+                fileNums[n] = fileNum;
+                fileNames[n] = FileMap.getFileName(fileNum);
+                files[n] = file;
+                ++n;
+            }
+        }
+
+        if (n == 0)
+        {
+            return;
+        }
+
+        m_followWorker = new FollowWorker(this, m_index, Arrays.copyOf(fileNums, n), Arrays.copyOf(fileNames, n),
+                Arrays.copyOf(files, n), LogSyncListItem.getTimestampParser());
+        m_followWorker.execute();
+    }
+
+    /**
+     * Receives the result of a background check for appended lines. The result is
+     * ignored if the view has been reloaded since the check started.
+     *
+     * @param worker The check that produced the result
+     * @param result The merged result, or null if no file changed or the check
+     *               failed
+     */
+    public void followUpdated(final FollowWorker worker, final FollowWorker.Result result)
+    {
+        if (worker != m_followWorker)
+        {
+            return;
+        }
+
+        m_followWorker = null;
+
+        if (worker.getErrorMessage() != null)
+        {
+            m_logSyncViewer.followFailed(worker.getErrorMessage());
+        }
+
+        if ((result == null) || (worker.getBase() != m_index))
+        {
+            return;
+        }
+
+        final int[] fileNums = worker.getFileNums();
+        final MappedLogFile[] files = result.getFiles();
+
+        for (int i = 0; i < files.length; ++i)
+        {
+            if (files[i] != null)
+            {
+                FileMap.setFileData(fileNums[i], files[i]);
+                m_maxLineLength = Math.max(m_maxLineLength, files[i].getMaxLineLength());
+            }
+        }
+
+        if (result.getInsertedRows() == null)
+        {
+            setIndex(result.getIndex());
+        }
+        else
+        {
+            m_index = result.getIndex();
+            fireRowsInserted(result.getInsertedRows());
+        }
+
+        m_logSyncViewer.followUpdated(worker.getBase(), result.getInsertedRows());
+    }
+
+    /**
+     * Returns the log entry at the given row
+     *
+     * @param index The row of the log entry
+     * @return The log entry
+     */
+    @Override
+    public LogSyncListItem getElementAt(final int index)
+    {
+        return m_index.getItem(index);
+    }
+
+    /**
+     * Returns the FileMap index of each file whose rows are in the model
+     *
+     * @return The FileMap indexes
+     */
+    public int[] getFileNums()
+    {
+        return m_fileNums.clone();
+    }
+
+    /**
+     * Returns the merged index that backs the model. The index is replaced, never
+     * changed, when the model's rows change.
+     *
+     * @return The merged index
+     */
+    public MergedIndex getIndex()
+    {
+        return m_index;
+    }
+
+    /**
+     * Returns the length, in bytes, of the longest line in the loaded files
+     *
+     * @return The length of the longest line
+     */
+    public int getMaxLineLength()
+    {
+        return m_maxLineLength;
+    }
+
+    /**
+     * Returns the number of rows in the model
+     *
+     * @return The number of rows
+     */
+    @Override
+    public int getSize()
+    {
+        return m_index.getSize();
+    }
+
+    /**
+     * Returns true if a background load is in progress
+     *
+     * @return true if loading
+     */
+    public boolean isLoading()
+    {
+        return m_worker != null;
+    }
+
+    /**
+     * Receives a partial or final result from a background load. Results from a
+     * load that has since been cancelled are ignored.
+     *
+     * @param worker   The load that produced the result
+     * @param result   The merged result, or null if the load failed or was
+     *                 cancelled
+     * @param finished True if this is the final result of the load
+     */
+    public void loadUpdated(final LoadWorker worker, final LoadWorker.Result result, final boolean finished)
+    {
+        if (worker != m_worker)
+        {
+            return;
+        }
+
+        if (result != null)
+        {
+            final int[] fileNums = worker.getFileNums();
+            final MappedLogFile[] files = result.getFiles();
+
+            for (int i = 0; i < files.length; ++i)
+            {
+                if (files[i] != null)
                 {
-                    elementsToAdd.add(new LogSyncListItem(fileIndex, i));
+                    FileMap.setFileData(fileNums[i], files[i]);
                 }
             }
+
+            m_fileNums = result.getIndexFileNums();
+            m_fileNames = getFileNames(m_fileNums);
+            m_fileGeneration = FileMap.getGeneration();
+            m_maxLineLength = 0;
+
+            for (final int fileNum : m_fileNums)
+            {
+                m_maxLineLength = Math.max(m_maxLineLength, FileMap.getFileMaxLineLength(fileNum));
+            }
+
+            setIndex(result.getIndex());
         }
 
-        Collections.sort(elementsToAdd);
+        if (finished)
+        {
+            m_worker = null;
+            m_incomplete = (result == null);
+            FileMap.setDisplayedFiles(m_fileNames);
+            m_logSyncViewer.loadFinished();
 
-        for (final LogSyncListItem lsli : elementsToAdd)
+            if (worker.getErrorMessage() != null)
+            {
+                m_logSyncViewer.loadFailed(worker.getErrorMessage());
+            }
+        }
+        else
         {
-            addElement(lsli);
+            m_logSyncViewer.loadUpdated();
         }
+    }
 
-        fireContentsChanged(this, 0, elementsToAdd.size());
+    /**
+     * Refreshes the data by re-reading all log files from disk. The files are
+     * re-read in the background; the current data stays visible until then.
+     */
+    public void refresh()
+    {
+        FileMap.refresh();
+        m_cachedDateFormat = LogSyncListItem.getDateFormat();
+        m_cachedTimeRange = LogSyncListItem.getTimeRange();
+
+        startLoad(m_cachedFileList, false);
     }
     
     /**
      * Reloads the data inside the data model, using the given list of files. Sorts
-     * the data according to time-stamp.
+     * the data according to time-stamp. Files that are not already loaded are
+     * read in the background, cancelling any load that is still in progress. If
+     * only the set of files has changed, the current merged order is changed
+     * incrementally: the rows of removed files are filtered out and the rows of
+     * added files are merged in. If the time range has changed, every file is
+     * loaded again for the new range.
      *
      * @param files The log files to load data from
      */
     public void reload(final List<String> files)
     {
-        if (listsEqual(m_cachedFileList, files))
+        final boolean sameSettings = LogSyncListItem.getDateFormat().equals(m_cachedDateFormat)
+                && LogSyncListItem.getTimeRange().equals(m_cachedTimeRange);
+
+        if (listsEqual(m_cachedFileList, files) && sameSettings && !m_incomplete)
         {
-            fireContentsChanged(this, 0, getSize());
+            fireContentsChanged(this, 0, Math.max(0, getSize() - 1));
             return;
         }
 
         m_cachedFileList = files;
+        m_cachedDateFormat = LogSyncListItem.getDateFormat();
+        m_cachedTimeRange = LogSyncListItem.getTimeRange();
 
-        removeAllElements();
+        startLoad(files, sameSettings && (m_worker == null) && (m_fileNums.length > 0));
+    }
 
-        final List<LogSyncListItem> elementsToAdd = new ArrayList<LogSyncListItem>();
+    /**
+     * Starts loading the given files in the background. Files whose data is
+     * already loaded are merged without being re-read.
+     *
+     * @param files       The log files to load data from
+     * @param incremental True to change the files of the current merged index,
+     *                    rather than merging every file again
+     */
+    private void startLoad(final List<String> files, final boolean incremental)
+    {
+        if (m_worker != null)
+        {
+            final LoadWorker worker = m_worker;
+            m_worker = null;
+            worker.cancelLoad();
+        }
 
-        for (final String file : files)
+        m_followWorker = null;
+        m_incomplete = false;
+
+        if (files.isEmpty())
         {
-            final Color color = ColorPicker.get(file);
+            clearRows();
+            FileMap.setDisplayedFiles(files);
+            m_logSyncViewer.loadFinished();
+            return;
+        }
+
+        if (m_fileGeneration != FileMap.getGeneration())
+        {
+            // The FileMap was reset, so the current rows' file numbers no longer
+            // refer to their files, and every file must be merged again
+            clearRows();
+        }
 
-            final int fileIndex = FileMap.addFile(file, color);
+        final boolean merge = incremental && (m_fileNums.length > 0);
+        final List<String> current = m_fileNames;
+        final List<String> toLoad = new ArrayList<String>();
+        final List<String> keptNames = new ArrayList<String>();
+        final int[] keptNums = new int[m_fileNums.length];
+        final int[] removedNums = new int[m_fileNums.length];
+        int numKept = 0;
+        int numRemoved = 0;
 
-            if (fileIndex != -1)
+        if (merge)
+        {
+            for (int i = 0; i < m_fileNums.length; ++i)
             {
-                final int numLines = FileMap.getFileNumLines(fileIndex);
+                if (files.contains(current.get(i)))
+                {
+                    keptNums[numKept++] = m_fileNums[i];
+                    keptNames.add(current.get(i));
+                }
+                else
+                {
+                    removedNums[numRemoved++] = m_fileNums[i];
+                }
+            }
 
-                for (int i = 0; i < numLines; ++i)
+            for (final String file : files)
+            {
+                if (!current.contains(file))
                 {
-                    elementsToAdd.add(new LogSyncListItem(fileIndex, i));
+                    toLoad.add(file);
                 }
             }
         }
+        else
+        {
+            toLoad.addAll(files);
+        }
+
+        final int[] fileNums = new int[toLoad.size()];
+        final MappedLogFile[] data = new MappedLogFile[toLoad.size()];
+        long totalBytes = 0;
+
+        for (int i = 0; i < toLoad.size(); ++i)
+        {
+            final String file = toLoad.get(i);
+
+            fileNums[i] = FileMap.reserveFile(file, ColorPicker.get(file));
+            data[i] = FileMap.getLoadedFile(fileNums[i]);
+            totalBytes += (data[i] != null) ? data[i].getSize() : new File(file).length();
+        }
+
+        final Set<String> displayed = new HashSet<String>(files);
+        displayed.addAll(current);
+        FileMap.setDisplayedFiles(displayed);
 
-        Collections.sort(elementsToAdd);
+        final LoadProgress progress = new LoadProgress(toLoad.size(), totalBytes);
+        final TimestampParser parser = LogSyncListItem.getTimestampParser();
+        final TimeRange range = LogSyncListItem.getTimeRange();
 
-        for (final LogSyncListItem lsli : elementsToAdd)
+        if (merge)
         {
-            addElement(lsli);
+            final int[] baseNums = Arrays.copyOf(keptNums, numKept);
+
+            m_worker = new LoadWorker(this, toLoad, fileNums, data, parser, range, progress, m_index, baseNums,
+                    keptNames.toArray(new String[numKept]), Arrays.copyOf(removedNums, numRemoved));
+        }
+        else
+        {
+            m_worker = new LoadWorker(this, toLoad, fileNums, data, parser, range, progress);
         }
 
-        fireContentsChanged(this, 0, elementsToAdd.size());
+        m_logSyncViewer.loadStarted(progress);
+        m_worker.execute();
+    }
+
+    /**
+     * Replaces the backing index and notifies listeners: rows past the end of the
+     * new index are reported as removed, rows past the end of the old index as
+     * added, and the rest as changed, so that the list's selection stays in range
+     *
+     * @param index The new index
+     */
+    private void setIndex(final MergedIndex index)
+    {
+        final int oldSize = m_index.getSize();
+        final int newSize = index.getSize();
+
+        m_index = index;
+
+        if (newSize < oldSize)
+        {
+            fireIntervalRemoved(this, newSize, oldSize - 1);
+        }
+
+        if (Math.min(oldSize, newSize) > 0)
+        {
+            fireContentsChanged(this, 0, Math.min(oldSize, newSize) - 1);
+        }
+
+        if (newSize > oldSize)
+        {
+            fireIntervalAdded(this, oldSize, newSize - 1);
+        }
     }
 }
@@ -2,6 +2,10 @@ package com.ryanantkowiak.logsyncviewer;
 
 import java.awt.BorderLayout;
 import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.GridLayout;
+import java.awt.Insets;
 import java.awt.Toolkit;
 import java.awt.datatransfer.Clipboard;
 import java.awt.datatransfer.StringSelection;
@@ -12,24 +16,34 @@ import java.awt.event.ItemEvent;
 import java.awt.event.ItemListener;
 import java.awt.event.KeyEvent;
 import java.io.File;
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.regex.PatternSyntaxException;
 
 import javax.swing.AbstractAction;
 import javax.swing.Action;
+import javax.swing.JButton;
 import javax.swing.JCheckBoxMenuItem;
 import javax.swing.JComponent;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
+import javax.swing.JLabel;
 import javax.swing.JList;
 import javax.swing.JMenu;
 import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
+import javax.swing.JPanel;
+import javax.swing.JProgressBar;
 import javax.swing.JScrollPane;
+import javax.swing.JSplitPane;
+import javax.swing.JTextArea;
+import javax.swing.JTextField;
 import javax.swing.KeyStroke;
+import javax.swing.ProgressMonitor;
+import javax.swing.Timer;
 
 /**
  * The LogSyncViewer class implements the main window that allows the user to
@@ -51,6 +65,11 @@ public class LogSyncViewer implements ActionListener, ItemListener
 
     private static final String DEFAULT_PATH = "C:\\logs\\";
 
+    /**
+     * The time between checks for appended lines while following files, in ms
+     */
+    private static final int FOLLOW_INTERVAL = 1000;
+
     /**
      * Data model of all of the line items to display
      */
@@ -66,6 +85,27 @@ public class LogSyncViewer implements ActionListener, ItemListener
      */
     private JList<LogSyncListItem> m_listView;
 
+    /**
+     * Data model of the rows shown in the filtered view
+     */
+    private final FilteredListModel m_filterModel;
+
+    /**
+     * The Java Swing List UI element for the filtered view, which shows only the
+     * lines that match the search
+     */
+    private JList<LogSyncListItem> m_filterView;
+
+    /**
+     * The scroll pane of the filtered view, shown while the filter is on
+     */
+    private JScrollPane m_filterScrollPane;
+
+    /**
+     * The split pane that holds the full view above the filtered view
+     */
+    private JSplitPane m_splitPane;
+
     /**
      * The search panel at the top of the viewer
      */
@@ -86,6 +126,126 @@ public class LogSyncViewer implements ActionListener, ItemListener
      */
     private JFrame m_frame;
 
+    /**
+     * The status bar at the bottom of the window, shown while files are loading
+     */
+    private JPanel m_statusPanel;
+
+    /**
+     * The progress bar in the status bar
+     */
+    private JProgressBar m_progressBar;
+
+    /**
+     * The text description of the load progress in the status bar
+     */
+    private JLabel m_statusLabel;
+
+    /**
+     * Timer that updates the status bar while files are loading
+     */
+    private Timer m_progressTimer;
+
+    /**
+     * The progress of the load in progress, or null
+     */
+    private LoadProgress m_loadProgress = null;
+
+    /**
+     * True if the selection should be restored when the current load finishes
+     */
+    private boolean m_restoreSelection = false;
+
+    /**
+     * The selected row to restore when the current load finishes
+     */
+    private int m_selectionToRestore = -1;
+
+    /**
+     * Timer that checks the loaded files for appended lines while following files
+     */
+    private Timer m_followTimer;
+
+    /**
+     * The "Follow Files" menu item, unchecked when following stops after an error
+     */
+    private JCheckBoxMenuItem m_followMenuItem;
+
+    /**
+     * True if the last row was visible when the latest check for appended lines
+     * started, so the view should scroll to the new end
+     */
+    private boolean m_followAtEnd = false;
+
+    /**
+     * The background search that is running, or null
+     */
+    private SearchWorker m_searchWorker = null;
+
+    /**
+     * The rows that match the last completed search, in ascending order
+     */
+    private int[] m_searchHits = new int[0];
+
+    /**
+     * The query of the last completed search
+     */
+    private SearchQuery m_searchHitsQuery = null;
+
+    /**
+     * The merged index that the last completed search was run on
+     */
+    private MergedIndex m_searchHitsIndex = null;
+
+    /**
+     * The rows appended to the followed files since the last completed search,
+     * which have not been searched yet, in ascending order, or null if there are
+     * none
+     */
+    private int[] m_searchUnchecked = null;
+
+    /**
+     * True if a find is waiting for the running search to finish
+     */
+    private boolean m_findPending = false;
+
+    /**
+     * The direction of the find that is waiting for the running search
+     */
+    private boolean m_findForward = true;
+
+    /**
+     * True if the find that is waiting for the running search may select the
+     * selected row itself, as a find made while typing does
+     */
+    private boolean m_findIncludeSelected = false;
+
+    /**
+     * The background build of the filtered view's rows that is running, or null
+     */
+    private FilterWorker m_filterWorker = null;
+
+    /**
+     * The filter on the file, level and fields of the rows shown in the filtered
+     * view, or null
+     */
+    private FieldFilter m_fieldFilter = null;
+
+    /**
+     * The text of the field filter, as the user entered it
+     */
+    private String m_fieldFilterText = "";
+
+    /**
+     * The background export that is running, or null
+     */
+    private ExportWorker m_exportWorker = null;
+
+    /**
+     * The dialog that shows the progress of the running export, or null
+     */
+    private ProgressMonitor m_exportMonitor = null;
+
     /**
      * Constructor. Initialized the LogSyncViewer
      *
@@ -107,9 +267,33 @@ public class LogSyncViewer implements ActionListener, ItemListener
             }
         }
 
-        m_listModel = new LogSyncListModel();
+        m_listModel = new LogSyncListModel(this);
+        m_filterModel = new FilteredListModel();
         m_logItemRenderer = new LogSyncListItemRenderer();
         m_searchPanel = new SearchPanel(this);
+
+        try
+        {
+            m_logItemRenderer.setHighlighter(new Highlighter(HighlightRule.parseRules(HighlightRule.readRulesFile())));
+        }
+        catch (final IOException | IllegalArgumentException e)
+        {
+            // The rules are reported when the user next edits them
+        }
+    }
+
+    /**
+     * Returns the position of the first hit at or after a row
+     *
+     * @param hits The matching rows, in ascending order
+     * @param row  The row to look from
+     * @return The position in hits of the first hit at or after the row, or the
+     *         number of hits if there is none
+     */
+    private static int firstHitAtOrAfter(final int[] hits, final int row)
+    {
+        final int pos = Arrays.binarySearch(hits, row);
+        return (pos >= 0) ? pos : -(pos + 1);
     }
 
     /**
@@ -140,6 +324,14 @@ public class LogSyncViewer implements ActionListener, ItemListener
             {
                 menuActionRefresh();
             }
+            else if (menuItem.getText() == "Load Time Range...")
+            {
+                menuActionLoadTimeRange();
+            }
+            else if (menuItem.getText() == "Follow Files")
+            {
+                menuActionFollow(menuItem.isSelected());
+            }
             else if (menuItem.getText() == "Export...")
             {
                 menuActionExport();
@@ -168,6 +360,10 @@ public class LogSyncViewer implements ActionListener, ItemListener
             {
                 menuActionFindNext();
             }
+            else if (menuItem.getText() == "Field Filter...")
+            {
+                menuActionFieldFilter();
+            }
             else if (menuItem.getText() == "Find Previous")
             {
                 menuActionFindPrevious();
@@ -192,6 +388,10 @@ public class LogSyncViewer implements ActionListener, ItemListener
             {
                 menuActionDateTimeFormat();
             }
+            else if (menuItem.getText() == "Highlight Rules...")
+            {
+                menuActionHighlightRules();
+            }
             else if (menuItem.getText() == "About")
             {
                 menuActionAbout();
@@ -213,6 +413,9 @@ public class LogSyncViewer implements ActionListener, ItemListener
         final JMenuItem add = new JMenuItem("Add Files...");
         final JMenuItem close = new JMenuItem("Close Files");
         final JMenuItem refresh = new JMenuItem("Refresh Files");
+        final JCheckBoxMenuItem follow = new JCheckBoxMenuItem("Follow Files", false);
+        m_followMenuItem = follow;
+        final JMenuItem timeRange = new JMenuItem("Load Time Range...");
         final JMenuItem export = new JMenuItem("Export...");
         final JMenuItem exit = new JMenuItem("Exit");
 
@@ -220,6 +423,8 @@ public class LogSyncViewer implements ActionListener, ItemListener
         file.add(add);
         file.add(close);
         file.add(refresh);
+        file.add(follow);
+        file.add(timeRange);
         file.addSeparator();
         file.add(export);
         file.addSeparator();
@@ -229,6 +434,8 @@ public class LogSyncViewer implements ActionListener, ItemListener
         add.addActionListener(this);
         close.addActionListener(this);
         refresh.addActionListener(this);
+        follow.addActionListener(this);
+        timeRange.addActionListener(this);
         export.addActionListener(this);
         exit.addActionListener(this);
 
@@ -236,6 +443,8 @@ public class LogSyncViewer implements ActionListener, ItemListener
         add.setMnemonic(KeyEvent.VK_A);
         close.setMnemonic(KeyEvent.VK_C);
         refresh.setMnemonic(KeyEvent.VK_H);
+        follow.setMnemonic(KeyEvent.VK_F);
+        timeRange.setMnemonic(KeyEvent.VK_T);
         export.setMnemonic(KeyEvent.VK_R);
         exit.setMnemonic(KeyEvent.VK_X);
 
@@ -244,6 +453,7 @@ public class LogSyncViewer implements ActionListener, ItemListener
         close.setAccelerator(
                 KeyStroke.getKeyStroke(KeyEvent.VK_W, Toolkit.getDefaultToolkit().getMenuShortcutKeyMask()));
         refresh.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_F5, 0));
+        follow.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_F5, InputEvent.SHIFT_DOWN_MASK));
         exit.setAccelerator(
                 KeyStroke.getKeyStroke(KeyEvent.VK_Q, Toolkit.getDefaultToolkit().getMenuShortcutKeyMask()));
         export.setAccelerator(
@@ -253,6 +463,8 @@ public class LogSyncViewer implements ActionListener, ItemListener
         add.setToolTipText("Adds additional log files to the set of log files you are already viewing");
         close.setToolTipText("Closes all loaded log files");
         refresh.setToolTipText("Reloads all log file data from disk");
+        follow.setToolTipText("Keeps checking the log files for new lines and adds them as they are written");
+        timeRange.setToolTipText("Loads only the log entries between two time-stamps from each log file");
         export.setToolTipText("Export currently visible log to a new combined log file");
         exit.setToolTipText("Exits the LogSync Viewer prgram");
 
@@ -304,6 +516,15 @@ public class LogSyncViewer implements ActionListener, ItemListener
                 KeyStroke.getKeyStroke(KeyEvent.VK_P, Toolkit.getDefaultToolkit().getMenuShortcutKeyMask()));
         edit.add(findPrev);
 
+        edit.addSeparator();
+
+        final JMenuItem fieldFilter = new JMenuItem("Field Filter...");
+        fieldFilter.addActionListener(this);
+        fieldFilter.setMnemonic(KeyEvent.VK_I);
+        fieldFilter.setAccelerator(
+                KeyStroke.getKeyStroke(KeyEvent.VK_L, Toolkit.getDefaultToolkit().getMenuShortcutKeyMask()));
+        edit.add(fieldFilter);
+
         m_viewMenu = new JMenu("View");
         m_viewMenu.setMnemonic(KeyEvent.VK_V);
         menuBar.add(m_viewMenu);
@@ -335,6 +556,11 @@ public class LogSyncViewer implements ActionListener, ItemListener
         dateFormat.setMnemonic(KeyEvent.VK_T);
         format.add(dateFormat);
 
+        final JMenuItem highlightRules = new JMenuItem("Highlight Rules...");
+        highlightRules.addActionListener(this);
+        highlightRules.setMnemonic(KeyEvent.VK_H);
+        format.add(highlightRules);
+
         final JMenu help = new JMenu("Help");
         help.setMnemonic(KeyEvent.VK_H);
         menuBar.add(help);
@@ -347,6 +573,212 @@ public class LogSyncViewer implements ActionListener, ItemListener
         m_frame.setJMenuBar(menuBar);
     }
 
+    /**
+     * Creates the status bar at the bottom of the log viewer, which shows the
+     * progress of loading files
+     */
+    private void createStatusBar()
+    {
+        m_statusPanel = new JPanel(new BorderLayout(8, 0));
+        m_progressBar = new JProgressBar(0, 1000);
+        m_statusLabel = new JLabel();
+
+        final JButton cancel = new JButton("Cancel");
+        cancel.addActionListener(e -> m_listModel.cancelLoad());
+
+        m_progressBar.setPreferredSize(new Dimension(200, m_progressBar.getPreferredSize().height));
+
+        m_statusPanel.add(m_progressBar, BorderLayout.WEST);
+        m_statusPanel.add(m_statusLabel, BorderLayout.CENTER);
+        m_statusPanel.add(cancel, BorderLayout.EAST);
+        m_statusPanel.setVisible(false);
+
+        m_progressTimer = new Timer(200, e -> updateProgress());
+        m_followTimer = new Timer(FOLLOW_INTERVAL, e -> followFiles());
+    }
+
+    /**
+     * Called by a background export when it finishes. Closes the progress dialog
+     * and reports an error, if there was one.
+     *
+     * @param worker The export that finished
+     * @param error  The reason the export failed, or null if it succeeded or was
+     *               cancelled
+     */
+    public void exportFinished(final ExportWorker worker, final String error)
+    {
+        if (worker != m_exportWorker)
+        {
+            return;
+        }
+
+        m_exportMonitor.close();
+        m_exportMonitor = null;
+        m_exportWorker = null;
+
+        if (error != null)
+        {
+            JOptionPane.showMessageDialog(m_frame, "Could not export to " + worker.getPath() + ":\n" + error,
+                    "Export", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    /**
+     * Called by a background build of the filtered view's rows when it finishes.
+     * Shows the rows in the filtered view.
+     *
+     * @param worker The build that finished
+     * @param rows   The rows to show in ascending order, or null if the build was
+     *               cancelled or failed
+     */
+    public void filterFinished(final FilterWorker worker, final int[] rows)
+    {
+        if (worker != m_filterWorker)
+        {
+            return;
+        }
+
+        m_filterWorker = null;
+
+        if (rows == null)
+        {
+            if (worker.getErrorMessage() != null)
+            {
+                m_searchPanel.setHitCount("Filter failed: " + worker.getErrorMessage());
+            }
+
+            return;
+        }
+
+        m_filterModel.setRows(worker.getIndex(), rows);
+
+        if (!m_filterScrollPane.isVisible())
+        {
+            m_filterScrollPane.setVisible(true);
+            m_splitPane.setDividerLocation(0.5);
+        }
+    }
+
+    /**
+     * Moves the selection to the next or previous row that matches the search
+     * text. If the matches of the current search are not known yet, a background
+     * search is started and the selection moves when it finishes.
+     *
+     * @param forward         True to find the next match, false to find the
+     *                        previous one
+     * @param includeSelected True if the selected row itself may be selected when
+     *                        it matches
+     */
+    private void find(final boolean forward, final boolean includeSelected)
+    {
+        if (m_searchPanel.getSearchText().length() == 0)
+        {
+            return;
+        }
+
+        final SearchQuery query;
+
+        try
+        {
+            query = m_searchPanel.getQuery();
+        }
+        catch (final PatternSyntaxException e)
+        {
+            m_searchPanel.setHitCount("Invalid pattern: " + e.getDescription());
+            return;
+        }
+
+        if (query.equals(m_searchHitsQuery) && (m_searchHitsIndex == m_listModel.getIndex())
+                && (m_searchUnchecked == null))
+        {
+            selectHit(forward, includeSelected);
+            return;
+        }
+
+        m_findPending = true;
+        m_findForward = forward;
+        m_findIncludeSelected = includeSelected;
+        startSearch(query);
+    }
+
+    /**
+     * Called by the data model when a check for appended lines fails. Following
+     * stops, so that the error is shown only once.
+     *
+     * @param error The reason the check failed
+     */
+    public void followFailed(final String error)
+    {
+        m_followTimer.stop();
+        m_followMenuItem.setSelected(false);
+        JOptionPane.showMessageDialog(m_frame, "Stopped following the log files:\n" + error, "Follow",
+                JOptionPane.ERROR_MESSAGE);
+    }
+
+    /**
+     * Checks the loaded files for appended lines, remembering whether the view is
+     * showing the last row so that it can keep up with the new lines
+     */
+    private void followFiles()
+    {
+        final int size = m_listModel.getSize();
+
+        m_followAtEnd = (size == 0) || (m_listView.getLastVisibleIndex() >= (size - 1));
+        m_listModel.follow();
+    }
+
+    /**
+     * Called by the data model when lines appended to the followed files have been
+     * added to the view. When the lines were only added, the search matches and
+     * the filtered view are moved to the new rows and only the new lines are
+     * searched, so that a search that takes longer than the follow interval is
+     * not started again on every check.
+     *
+     * @param oldIndex     The merged index before the lines were added
+     * @param insertedRows The rows that were added, in ascending order, or null if
+     *                     rows were also removed
+     */
+    public void followUpdated(final MergedIndex oldIndex, final int[] insertedRows)
+    {
+        final MergedIndex index = m_listModel.getIndex();
+
+        updateCellSize();
+
+        if (m_followAtEnd && (m_listModel.getSize() > 0))
+        {
+            m_listView.ensureIndexIsVisible(m_listModel.getSize() - 1);
+        }
+
+        if (m_searchWorker != null)
+        {
+            m_searchWorker.follow(oldIndex, index, insertedRows);
+        }
+
+        if ((insertedRows != null) && (m_searchHitsIndex == oldIndex))
+        {
+            m_searchHits = LogMerger.shiftRows(m_searchHits, insertedRows);
+            m_searchUnchecked = (m_searchUnchecked != null)
+                    ? LogMerger.unionRows(LogMerger.shiftRows(m_searchUnchecked, insertedRows), insertedRows)
+                    : insertedRows;
+            m_searchHitsIndex = index;
+        }
+
+        if ((insertedRows != null) && (m_filterModel.getIndex() == oldIndex))
+        {
+            m_filterModel.followRows(index, insertedRows);
+        }
+
+        if (m_searchPanel.isFilter() || (m_fieldFilter != null))
+        {
+            updateFilter();
+        }
+        else if ((m_searchUnchecked != null) && (m_searchHitsIndex == index)
+                && (m_searchPanel.getSearchText().length() > 0))
+        {
+            startSearch(m_searchHitsQuery);
+        }
+    }
+
     /**
      * Returns the menu item that corresponds to one of the toggle-files in the View
      * menu
@@ -370,6 +802,15 @@ public class LogSyncViewer implements ActionListener, ItemListener
         return null;
     }
 
+    /**
+     * Called by the search panel when the filter is turned on or off, or its
+     * number of context lines changes
+     */
+    public void handleFilterChanged()
+    {
+        updateFilter();
+    }
+
     /**
      * Hides the search panel
      */
@@ -378,6 +819,31 @@ public class LogSyncViewer implements ActionListener, ItemListener
         m_searchPanel.hideSearchPanel();
     }
 
+    /**
+     * Called by the search panel shortly after the search text or options stop
+     * changing. Searches for the new text in the background and selects its first
+     * match at or after the selected row. When the new text extends the text of
+     * the last search, only that search's matches are checked.
+     */
+    public void handleSearchChanged()
+    {
+        if (m_searchPanel.getSearchText().length() == 0)
+        {
+            if (m_searchWorker != null)
+            {
+                m_searchWorker.cancelSearch();
+                m_searchWorker = null;
+            }
+
+            m_findPending = false;
+            m_searchPanel.setHitCount("");
+            updateFilter();
+            return;
+        }
+
+        find(true, true);
+    }
+
     /**
      * Handles the item state change event. This handles the case when a file is
      * toggled on/off in the View menu.
@@ -390,6 +856,69 @@ public class LogSyncViewer implements ActionListener, ItemListener
         reload();
     }
 
+    /**
+     * Called by the data model when a background load fails, after
+     * loadFinished(). The rows merged before the failure stay visible.
+     *
+     * @param error The reason the load failed
+     */
+    public void loadFailed(final String error)
+    {
+        JOptionPane.showMessageDialog(m_frame, "Could not load the log files:\n" + error, "Load",
+                JOptionPane.ERROR_MESSAGE);
+    }
+
+    /**
+     * Called by the data model when a background load finishes or is cancelled
+     */
+    public void loadFinished()
+    {
+        m_loadProgress = null;
+        m_progressTimer.stop();
+        m_statusPanel.setVisible(false);
+        updateCellSize();
+
+        if (m_restoreSelection)
+        {
+            m_restoreSelection = false;
+
+            if (m_selectionToRestore < m_listModel.getSize())
+            {
+                m_listView.setSelectedIndex(m_selectionToRestore);
+            }
+            else
+            {
+                m_listView.setSelectedIndex(m_listModel.getSize());
+            }
+        }
+
+        if (m_searchPanel.isFilter() || (m_fieldFilter != null))
+        {
+            updateFilter();
+        }
+    }
+
+    /**
+     * Called by the data model when a background load starts
+     *
+     * @param progress The progress of the load
+     */
+    public void loadStarted(final LoadProgress progress)
+    {
+        m_loadProgress = progress;
+        updateProgress();
+        m_statusPanel.setVisible(true);
+        m_progressTimer.start();
+    }
+
+    /**
+     * Called by the data model when a background load shows a partial result
+     */
+    public void loadUpdated()
+    {
+        updateCellSize();
+    }
+
     /**
      * Handles the user selecting the "About" menu item
      */
@@ -525,36 +1054,89 @@ public class LogSyncViewer implements ActionListener, ItemListener
     }
 
     /**
-     * Handles the user selecting the "Export" menu item
+     * Handles the user selecting the "Export" menu item. The merged log is written
+     * in the background; a file name ending in .gz is compressed with gzip.
      */
     private void menuActionExport()
     {
-        if (m_listModel.getSize() > 0)
+        if ((m_listModel.getSize() == 0) || (m_exportWorker != null))
+        {
+            return;
+        }
+
+        final JFileChooser jfc = new JFileChooser(DEFAULT_PATH);
+        jfc.setDialogTitle("Export combined log to file");
+        jfc.setFileSelectionMode(JFileChooser.SAVE_DIALOG);
+        jfc.setMultiSelectionEnabled(false);
+        final int retVal = jfc.showSaveDialog(m_frame);
+
+        if (retVal != JFileChooser.APPROVE_OPTION)
+        {
+            return;
+        }
+
+        final File outputFile = jfc.getSelectedFile();
+        final int[] fileNums = m_listModel.getFileNums();
+        final MappedLogFile[] files = new MappedLogFile[fileNums.length];
+
+        for (int i = 0; i < fileNums.length; ++i)
         {
-            final JFileChooser jfc = new JFileChooser(DEFAULT_PATH);
-            jfc.setDialogTitle("Export combined log to file");
-            jfc.setFileSelectionMode(JFileChooser.SAVE_DIALOG);
-            jfc.setMultiSelectionEnabled(false);
-            final int retVal = jfc.showSaveDialog(m_frame);
+            files[i] = FileMap.getMappedFile(fileNums[i]);
+        }
 
-            if (retVal == JFileChooser.APPROVE_OPTION)
+        final ExportWorker worker = new ExportWorker(this, m_listModel.getIndex(), fileNums, files,
+                outputFile.toPath(), outputFile.getName().toLowerCase().endsWith(".gz"));
+        final ProgressMonitor monitor = new ProgressMonitor(m_frame, "Exporting to " + outputFile, null, 0, 100);
+
+        worker.addPropertyChangeListener(e ->
+        {
+            if (e.getPropertyName().equals("progress"))
             {
-                final File outputFile = jfc.getSelectedFile();
-                final StringBuilder sb = new StringBuilder();
+                monitor.setProgress(worker.getProgress());
 
-                for (int i = 0; i < m_listModel.getSize(); ++i)
+                if (monitor.isCanceled())
                 {
-                    sb.append(m_listModel.getElementAt(i).getText() + System.lineSeparator());
+                    worker.cancel(false);
                 }
+            }
+        });
 
-                try
-                {
-                    Files.write(Paths.get(outputFile.toString()), sb.toString().getBytes());
-                }
-                catch (final Exception e)
-                {
-                }
+        m_exportWorker = worker;
+        m_exportMonitor = monitor;
+        worker.execute();
+    }
+
+    /**
+     * Handles the user selecting the "Field Filter..." menu item. The filtered
+     * view shows the rows that match the filter, and the search too if its filter
+     * is on. An empty filter turns the field filter off.
+     */
+    private void menuActionFieldFilter()
+    {
+        final JTextField text = new JTextField(m_fieldFilterText, 40);
+        final JPanel panel = new JPanel(new BorderLayout(0, 8));
+        panel.add(new JLabel("<html>Show only the log entries that match, for example:<br>"
+                + "level=ERROR,WARN and (thread=main or file=app.log)<br>"
+                + "Fields: file, " + String.join(", ", FieldIndex.getFieldNames())
+                + ". Combine with and, or, not, != and parentheses.</html>"), BorderLayout.NORTH);
+        panel.add(text, BorderLayout.CENTER);
+
+        while (JOptionPane.showConfirmDialog(m_frame, panel, "Field Filter", JOptionPane.OK_CANCEL_OPTION,
+                JOptionPane.PLAIN_MESSAGE) == JOptionPane.OK_OPTION)
+        {
+            try
+            {
+                m_fieldFilter = text.getText().trim().isEmpty() ? null : FieldFilter.parse(text.getText());
             }
+            catch (final IllegalArgumentException e)
+            {
+                JOptionPane.showMessageDialog(m_frame, e.getMessage(), "Field Filter", JOptionPane.ERROR_MESSAGE);
+                continue;
+            }
+
+            m_fieldFilterText = text.getText().trim();
+            updateFilter();
+            return;
         }
     }
 
@@ -578,112 +1160,89 @@ public class LogSyncViewer implements ActionListener, ItemListener
      */
     public void menuActionFindNext()
     {
-        final int listSize = m_listView.getModel().getSize();
-
-        if ((listSize > 0) && (m_searchPanel.getSearchText().length() > 0))
-        {
-            int startIndex = m_listView.getSelectedIndex();
-            if (startIndex == -1)
-            {
-                startIndex = 0;
-            }
+        find(true, false);
+    }
 
-            for (int i = startIndex + 1; i < listSize; ++i)
-            {
-                if (m_searchPanel.isMatchCase()
-                        && m_listView.getModel().getElementAt(i).toString().contains(m_searchPanel.getSearchText()))
-                {
-                    m_listView.setSelectedIndex(i);
-                    m_listView.ensureIndexIsVisible(i);
-                    return;
-                }
-                else if ((!m_searchPanel.isMatchCase()) && m_listView.getModel().getElementAt(i).toString()
-                        .toLowerCase().contains(m_searchPanel.getSearchText().toLowerCase()))
-                {
-                    m_listView.setSelectedIndex(i);
-                    m_listView.ensureIndexIsVisible(i);
-                    return;
-                }
-            }
+    /**
+     * Handles the user selecting the "Find Previous" menu item
+     */
+    public void menuActionFindPrevious()
+    {
+        find(false, false);
+    }
 
-            if (m_searchPanel.isWrap())
-            {
-                for (int i = 0; i < (startIndex - 1); ++i)
-                {
-                    if (m_searchPanel.isMatchCase()
-                            && m_listView.getModel().getElementAt(i).toString().contains(m_searchPanel.getSearchText()))
-                    {
-                        m_listView.setSelectedIndex(i);
-                        m_listView.ensureIndexIsVisible(i);
-                        return;
-                    }
-                    else if ((!m_searchPanel.isMatchCase()) && m_listView.getModel().getElementAt(i).toString()
-                            .toLowerCase().contains(m_searchPanel.getSearchText().toLowerCase()))
-                    {
-                        m_listView.setSelectedIndex(i);
-                        m_listView.ensureIndexIsVisible(i);
-                        return;
-                    }
-                }
-            }
+    /**
+     * Handles the user toggling the "Follow Files" menu item
+     *
+     * @param enabled True if files should be followed
+     */
+    private void menuActionFollow(final boolean enabled)
+    {
+        if (enabled)
+        {
+            m_followTimer.start();
+        }
+        else
+        {
+            m_followTimer.stop();
         }
     }
 
     /**
-     * Handles the user selecting the "Find Previous" menu item
+     * Handles the user selecting the "Highlight Rules..." menu item. The rules
+     * are edited as text, one per line, and saved when they are all valid.
      */
-    public void menuActionFindPrevious()
+    private void menuActionHighlightRules()
     {
-        final int listSize = m_listView.getModel().getSize();
+        final JTextArea textArea = new JTextArea(15, 60);
+        textArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+
+        try
+        {
+            textArea.setText(HighlightRule.readRulesFile());
+        }
+        catch (final IOException e)
+        {
+            JOptionPane.showMessageDialog(m_frame, "Could not read highlight rules: " + e.getMessage(),
+                    "Highlight Rules", JOptionPane.ERROR_MESSAGE);
+        }
 
-        if ((listSize > 0) && (m_searchPanel.getSearchText().length() > 0))
+        final JPanel panel = new JPanel(new BorderLayout(0, 8));
+        panel.add(new JLabel("<html>One rule per line, as \"options : text\", for example \"red bold : ERROR\".<br>"
+                + "Options: a color name or #RRGGBB, bg=color, bold, italic, case. "
+                + "Earlier rules take priority.</html>"), BorderLayout.NORTH);
+        panel.add(new JScrollPane(textArea), BorderLayout.CENTER);
+
+        while (JOptionPane.showConfirmDialog(m_frame, panel, "Highlight Rules", JOptionPane.OK_CANCEL_OPTION,
+                JOptionPane.PLAIN_MESSAGE) == JOptionPane.OK_OPTION)
         {
-            int startIndex = m_listView.getSelectedIndex();
-            if (startIndex == -1)
+            final List<HighlightRule> rules;
+
+            try
             {
-                startIndex = listSize;
+                rules = HighlightRule.parseRules(textArea.getText());
             }
-
-            for (int i = startIndex - 1; i > 0; --i)
+            catch (final IllegalArgumentException e)
             {
-                if (m_searchPanel.isMatchCase()
-                        && m_listView.getModel().getElementAt(i).toString().contains(m_searchPanel.getSearchText()))
-                {
-                    m_listView.setSelectedIndex(i);
-                    m_listView.ensureIndexIsVisible(i);
-                    return;
-                }
-                else if ((!m_searchPanel.isMatchCase()) && m_listView.getModel().getElementAt(i).toString()
-                        .toLowerCase().contains(m_searchPanel.getSearchText().toLowerCase()))
-                {
-                    m_listView.setSelectedIndex(i);
-                    m_listView.ensureIndexIsVisible(i);
-                    return;
-                }
+                JOptionPane.showMessageDialog(m_frame, e.getMessage(), "Highlight Rules", JOptionPane.ERROR_MESSAGE);
+                continue;
             }
 
-            if (m_searchPanel.isWrap())
+            try
             {
-                for (int i = listSize - 1; i > startIndex; --i)
-                {
-                    if (m_searchPanel.isMatchCase()
-                            && m_listView.getModel().getElementAt(i).toString().contains(m_searchPanel.getSearchText()))
-                    {
-                        m_listView.setSelectedIndex(i);
-                        m_listView.ensureIndexIsVisible(i);
-                        return;
-                    }
-                    else if ((!m_searchPanel.isMatchCase()) && m_listView.getModel().getElementAt(i).toString()
-                            .toLowerCase().contains(m_searchPanel.getSearchText().toLowerCase()))
-                    {
-                        m_listView.setSelectedIndex(i);
-                        m_listView.ensureIndexIsVisible(i);
-                        return;
-                    }
-                }
+                HighlightRule.writeRulesFile(textArea.getText());
+            }
+            catch (final IOException e)
+            {
+                JOptionPane.showMessageDialog(m_frame, "Could not save highlight rules: " + e.getMessage(),
+                        "Highlight Rules", JOptionPane.ERROR_MESSAGE);
             }
-        }
 
+            m_logItemRenderer.setHighlighter(new Highlighter(rules));
+            m_listView.repaint();
+            m_filterView.repaint();
+            return;
+        }
     }
 
     /**
@@ -695,6 +1254,46 @@ public class LogSyncViewer implements ActionListener, ItemListener
         reload();
     }
 
+    /**
+     * Handles the user selecting the "Load Time Range..." menu item. Leaving both
+     * time-stamps empty loads whole files again.
+     */
+    private void menuActionLoadTimeRange()
+    {
+        final TimeRange current = LogSyncListItem.getTimeRange();
+        final JTextField from = new JTextField(current.getFromText(), 24);
+        final JTextField to = new JTextField(current.getToText(), 24);
+
+        final JPanel fields = new JPanel(new GridLayout(2, 2, 4, 4));
+        fields.add(new JLabel("From:"));
+        fields.add(from);
+        fields.add(new JLabel("To:"));
+        fields.add(to);
+
+        final JPanel panel = new JPanel(new BorderLayout(0, 8));
+        panel.add(new JLabel("<html>Enter time-stamps in the format " + LogSyncListItem.getDateFormat()
+                + ".<br>Leave either one empty to load from the start or to the end.</html>"), BorderLayout.NORTH);
+        panel.add(fields, BorderLayout.CENTER);
+
+        while (JOptionPane.showConfirmDialog(m_frame, panel, "Load Time Range", JOptionPane.OK_CANCEL_OPTION,
+                JOptionPane.PLAIN_MESSAGE) == JOptionPane.OK_OPTION)
+        {
+            try
+            {
+                LogSyncListItem.setTimeRange(
+                        TimeRange.parse(from.getText(), to.getText(), LogSyncListItem.getTimestampParser()));
+            }
+            catch (final IllegalArgumentException e)
+            {
+                JOptionPane.showMessageDialog(m_frame, e.getMessage(), "Load Time Range", JOptionPane.ERROR_MESSAGE);
+                continue;
+            }
+
+            reload();
+            return;
+        }
+    }
+
     /**
      * Handles the user selecting the "Open" menu item
      */
@@ -710,6 +1309,8 @@ public class LogSyncViewer implements ActionListener, ItemListener
 
         if (retVal == JFileChooser.APPROVE_OPTION)
         {
+            m_listModel.clear();
+            m_filterModel.clear();
             ColorPicker.reset();
             FileMap.purge();
 
@@ -740,17 +1341,9 @@ public class LogSyncViewer implements ActionListener, ItemListener
      */
     private void menuActionRefresh()
     {
-        final int selectedIndex = m_listView.getSelectedIndex();
+        m_selectionToRestore = m_listView.getSelectedIndex();
+        m_restoreSelection = true;
         m_listModel.refresh();
-        
-        if (selectedIndex < m_listModel.getSize())
-        {
-            m_listView.setSelectedIndex(selectedIndex);
-        }
-        else
-        {
-            m_listView.setSelectedIndex(m_listModel.getSize());
-        }
     }
     
     /**
@@ -823,6 +1416,7 @@ public class LogSyncViewer implements ActionListener, ItemListener
         }
 
         m_listModel.reload(files);
+        updateCellSize();
     }
 
     /**
@@ -865,19 +1459,321 @@ public class LogSyncViewer implements ActionListener, ItemListener
                 .put(KeyStroke.getKeyStroke(KeyEvent.VK_F3, InputEvent.SHIFT_DOWN_MASK), "FindPrev");
         m_listView.getActionMap().put("FindPrev", findPrevAction);
 
+        m_filterView = new JList<LogSyncListItem>();
+        m_filterView.setModel(m_filterModel);
+        m_filterView.setCellRenderer(m_logItemRenderer);
+        m_filterView.addListSelectionListener(e ->
+        {
+            final int selected = m_filterView.getSelectedIndex();
+
+            if (!e.getValueIsAdjusting() && (selected >= 0) && (selected < m_filterModel.getSize()))
+            {
+                final int row = m_filterModel.getRow(selected);
+
+                if (row < m_listModel.getSize())
+                {
+                    m_listView.setSelectedIndex(row);
+                    m_listView.ensureIndexIsVisible(row);
+                }
+            }
+        });
+
+        m_filterScrollPane = new JScrollPane(m_filterView);
+        m_filterScrollPane.setVisible(false);
+        m_splitPane = new JSplitPane(JSplitPane.VERTICAL_SPLIT, new JScrollPane(m_listView), m_filterScrollPane);
+        m_splitPane.setResizeWeight(0.5);
+
         m_frame = new JFrame("LogSync Viewer");
         m_frame.setMinimumSize(new Dimension(800, 200));
         m_frame.setSize(800, 600);
 
         createMenu();
+        createStatusBar();
 
         m_frame.getContentPane().setLayout(new BorderLayout());
         m_frame.getContentPane().add(m_searchPanel, BorderLayout.NORTH);
-        m_frame.getContentPane().add(new JScrollPane(m_listView), BorderLayout.CENTER);
+        m_frame.getContentPane().add(m_splitPane, BorderLayout.CENTER);
+        m_frame.getContentPane().add(m_statusPanel, BorderLayout.SOUTH);
 
         m_frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
 
         reload();
         m_frame.setVisible(true);
     }
+
+    /**
+     * Called by a background search when it finishes. Stores the matching rows and
+     * moves the selection if a find is waiting for them.
+     *
+     * @param worker The search that finished
+     * @param hits   The matching rows in ascending order, or null if the search
+     *               failed or was cancelled
+     */
+    public void searchFinished(final SearchWorker worker, final int[] hits)
+    {
+        if (worker != m_searchWorker)
+        {
+            return;
+        }
+
+        m_searchWorker = null;
+
+        if (hits == null)
+        {
+            m_findPending = false;
+            m_searchPanel.setHitCount((worker.getErrorMessage() != null) ? worker.getErrorMessage() : "");
+            return;
+        }
+
+        final int[] appended = worker.getAppendedRows();
+
+        m_searchHits = (appended != null) ? LogMerger.shiftRows(hits, appended) : hits;
+        m_searchHitsQuery = worker.getQuery();
+        m_searchHitsIndex = worker.getResultIndex();
+        m_searchUnchecked = appended;
+        m_searchPanel.setHitCount(String.format("%,d matches", m_searchHits.length));
+
+        if ((appended != null) && (m_searchHitsIndex == m_listModel.getIndex()))
+        {
+            // Lines were appended to the followed files while searching, so they are
+            // searched before the filtered view or a pending find use the matches
+            startSearch(m_searchHitsQuery);
+            return;
+        }
+
+        if (m_searchPanel.isFilter())
+        {
+            updateFilter();
+        }
+
+        if (m_findPending)
+        {
+            m_findPending = false;
+            selectHit(m_findForward, m_findIncludeSelected);
+        }
+    }
+
+    /**
+     * Selects the next or previous matching row after or before the selected row,
+     * wrapping around if the search panel says so
+     *
+     * @param forward         True to select the next match, false to select the
+     *                        previous one
+     * @param includeSelected True if the selected row itself may be selected when
+     *                        it matches
+     */
+    private void selectHit(final boolean forward, final boolean includeSelected)
+    {
+        final int[] hits = m_searchHits;
+
+        if (hits.length == 0)
+        {
+            return;
+        }
+
+        final int selected = m_listView.getSelectedIndex();
+        int row = -1;
+
+        if (forward)
+        {
+            final int pos = firstHitAtOrAfter(hits, (includeSelected && (selected >= 0)) ? selected : (selected + 1));
+
+            if (pos < hits.length)
+            {
+                row = hits[pos];
+            }
+            else if (m_searchPanel.isWrap())
+            {
+                row = hits[0];
+            }
+        }
+        else
+        {
+            final int start = (selected == -1) ? m_listModel.getSize() : selected;
+            final int pos = firstHitAtOrAfter(hits, (includeSelected && (selected >= 0)) ? (start + 1) : start) - 1;
+
+            if (pos >= 0)
+            {
+                row = hits[pos];
+            }
+            else if (m_searchPanel.isWrap())
+            {
+                row = hits[hits.length - 1];
+            }
+        }
+
+        if (row >= 0)
+        {
+            m_listView.setSelectedIndex(row);
+            m_listView.ensureIndexIsVisible(row);
+        }
+    }
+
+    /**
+     * Starts a background search of the merged log entries, cancelling any search
+     * that is still running for a different query. If the query refines the last
+     * completed search, only that search's matches are checked, and if it is the
+     * same query, only the lines appended to the followed files since.
+     *
+     * @param query The query to search for
+     */
+    private void startSearch(final SearchQuery query)
+    {
+        if (m_searchWorker != null)
+        {
+            if (m_searchWorker.getQuery().equals(query)
+                    && (m_searchWorker.getResultIndex() == m_listModel.getIndex()))
+            {
+                return;
+            }
+
+            m_searchWorker.cancelSearch();
+        }
+
+        final int[] fileNums = m_listModel.getFileNums();
+        final MappedLogFile[] files = new MappedLogFile[fileNums.length];
+
+        for (int i = 0; i < fileNums.length; ++i)
+        {
+            files[i] = FileMap.getMappedFile(fileNums[i]);
+        }
+
+        final boolean current = (m_searchHitsQuery != null) && (m_searchHitsIndex == m_listModel.getIndex());
+        int[] refineRows = null;
+        int[] knownHits = null;
+
+        if (current && (m_searchUnchecked != null) && query.equals(m_searchHitsQuery))
+        {
+            refineRows = m_searchUnchecked;
+            knownHits = m_searchHits;
+        }
+        else if (current && query.refines(m_searchHitsQuery))
+        {
+            refineRows = (m_searchUnchecked != null) ? LogMerger.unionRows(m_searchHits, m_searchUnchecked)
+                    : m_searchHits;
+        }
+
+        m_searchWorker = new SearchWorker(this, m_listModel.getIndex(), fileNums, files, query, refineRows,
+                knownHits);
+
+        if (knownHits == null)
+        {
+            m_searchPanel.setHitCount("Searching...");
+        }
+
+        m_searchWorker.execute();
+    }
+
+    /**
+     * Sets a fixed cell size on the list view, based on the current font and the
+     * longest loaded line, so that the list does not measure every row
+     */
+    private void updateCellSize()
+    {
+        final FontMetrics metrics = m_listView.getFontMetrics(m_logItemRenderer.getLogFont());
+        final Insets insets = m_logItemRenderer.getInsets();
+        final long width = ((long) metrics.charWidth('W') * m_listModel.getMaxLineLength()) + insets.left
+                + insets.right + 8;
+
+        m_listView.setFixedCellHeight(metrics.getHeight() + insets.top + insets.bottom);
+        m_listView.setFixedCellWidth((int) Math.min(Short.MAX_VALUE, width));
+        m_filterView.setFixedCellHeight(m_listView.getFixedCellHeight());
+        m_filterView.setFixedCellWidth(m_listView.getFixedCellWidth());
+    }
+
+    /**
+     * Brings the filtered view up to date with the search panel and the field
+     * filter. While either filter is on, the view shows the rows that match both
+     * plus their context, running the search first if its matches are not known
+     * for the current rows. Rows of an older merged index are cleared right away,
+     * since their files may no longer be loaded.
+     */
+    private void updateFilter()
+    {
+        if (m_filterWorker != null)
+        {
+            m_filterWorker.cancel(false);
+            m_filterWorker = null;
+        }
+
+        if (m_filterModel.getIndex() != m_listModel.getIndex())
+        {
+            m_filterModel.clear();
+        }
+
+        final boolean searchFilter = m_searchPanel.isFilter() && (m_searchPanel.getSearchText().length() > 0);
+
+        if (!searchFilter && (m_fieldFilter == null))
+        {
+            m_filterModel.clear();
+            m_filterScrollPane.setVisible(false);
+            m_splitPane.revalidate();
+            return;
+        }
+
+        if (searchFilter)
+        {
+            final SearchQuery query;
+
+            try
+            {
+                query = m_searchPanel.getQuery();
+            }
+            catch (final PatternSyntaxException e)
+            {
+                m_searchPanel.setHitCount("Invalid pattern: " + e.getDescription());
+                return;
+            }
+
+            if (!query.equals(m_searchHitsQuery) || (m_searchHitsIndex != m_listModel.getIndex())
+                    || (m_searchUnchecked != null))
+            {
+                startSearch(query);
+                return;
+            }
+        }
+
+        final int[] fileNums = m_listModel.getFileNums();
+        final String[] fileNames = new String[fileNums.length];
+        final MappedLogFile[] files = new MappedLogFile[fileNums.length];
+
+        for (int i = 0; i < fileNums.length; ++i)
+        {
+            fileNames[i] = FileMap.getFileName(fileNums[i]);
+            files[i] = FileMap.getMappedFile(fileNums[i]);
+        }
+
+        m_filterWorker = new FilterWorker(this, m_listModel.getIndex(), searchFilter ? m_searchHits : null,
+                m_fieldFilter, fileNums, fileNames, files, m_searchPanel.getContextLines());
+        m_filterWorker.execute();
+    }
+
+    /**
+     * Updates the status bar with the progress of the load in progress
+     */
+    private void updateProgress()
+    {
+        final LoadProgress progress = m_loadProgress;
+
+        if (progress == null)
+        {
+            return;
+        }
+
+        if (progress.getLinesToMerge() > 0)
+        {
+            final double fraction = (double) progress.getLinesMerged() / progress.getLinesToMerge();
+            m_progressBar.setValue((int) (1000 * fraction));
+            m_statusLabel.setText(String.format(" Merging %,d log entries: %d%%", progress.getLinesToMerge(),
+                    (int) (100 * fraction)));
+        }
+        else
+        {
+            final double fraction = (double) progress.getBytesRead() / Math.max(1, progress.getBytesTotal());
+            m_progressBar.setValue((int) (1000 * Math.min(1.0, fraction)));
+            m_statusLabel.setText(String.format(" Loading %d of %d files: %,d of %,d KB read, %,d lines parsed",
+                    progress.getFilesLoaded(), progress.getFilesTotal(), progress.getBytesRead() / 1024,
+                    progress.getBytesTotal() / 1024, progress.getLinesParsed()));
+        }
+    }
 }
@@ -2,6 +2,7 @@ package com.ryanantkowiak.logsyncviewer;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -16,10 +17,17 @@ public class Main
     /**
      * Main program entry point
      *
-     * @param args Contains an optional list of initial files to open
+     * @param args Contains an optional list of initial files to open, or
+     *             "--merge" followed by the options and files to merge to
+     *             standard output without the user interface
      */
     public static void main(final String[] args)
     {
+        if ((args.length > 0) && args[0].equals("--merge"))
+        {
+            System.exit(HeadlessMerge.run(Arrays.copyOfRange(args, 1, args.length)));
+        }
+
         final List<String> validFiles = new ArrayList<String>();
 
         for (final String a : args)
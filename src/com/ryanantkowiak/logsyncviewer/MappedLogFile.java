@@ -0,0 +1,1054 @@
+package com.ryanantkowiak.logsyncviewer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * A log file that is memory-mapped from disk. Only the byte offset of the start
+ * of each line is kept on the heap; the text of a line is decoded on demand from
+ * the mapped bytes.
+ *
+ * A file may be opened for a time range only, in which case just the lines in
+ * that range are indexed. The range is found by binary search over the byte
+ * offsets of the file, parsing the time-stamp of the line at each probe, so the
+ * rest of the file is never read.
+ *
+ * A followed log that grows is read into memory instead of being mapped, when
+ * it is no larger than MAX_COPY_SIZE, sharing the regions of its previous copy
+ * that are complete. A log that is rotated by copying and truncating it would
+ * otherwise shrink under the mapping, and reading the bytes that are gone faults
+ * with an InternalError; on Windows, a mapping stops the file from being
+ * truncated or deleted at all. A larger log, or one that has not grown since it
+ * was opened, stays mapped, and the mapping is released only when the file is
+ * garbage collected.
+ *
+ * @author Ryan Antkowiak
+ *
+ */
+public class MappedLogFile
+{
+    /**
+     * The base-2 logarithm of the maximum number of bytes in each mapped region of
+     * the file
+     */
+    private static final int CHUNK_SHIFT = 30;
+
+    /**
+     * The base-2 logarithm of the maximum number of bytes in each region of a file
+     * that is read into memory
+     */
+    private static final int COPY_CHUNK_SHIFT = 20;
+
+    /**
+     * The largest followed file that is read into memory instead of being mapped
+     */
+    private static final long MAX_COPY_SIZE = 1L << 27;
+
+    /**
+     * The number of bytes or lines processed between progress reports
+     */
+    private static final int PROGRESS_BLOCK_SIZE = 1 << 20;
+
+    /**
+     * The number of bytes at the start of the file that are checksummed to detect
+     * a file that has been replaced or rewritten
+     */
+    private static final int HEAD_SIZE = 4096;
+
+    /**
+     * Returns a log file with no lines, used in place of a file that could not be
+     * read
+     *
+     * @return An empty log file
+     */
+    public static MappedLogFile empty()
+    {
+        return new MappedLogFile();
+    }
+
+    /**
+     * Finds the bytes of the given file that hold a time range, by the same
+     * binary search that open() uses for a time range, without indexing the file
+     *
+     * @param path   The path of the log file
+     * @param range  The range of time-stamps to find
+     * @param parser The time-stamp parser to find the range with
+     * @return The offsets of the start and the end of the range
+     * @throws IOException If the file could not be read
+     */
+    static long[] findRange(final Path path, final TimeRange range, final TimestampParser parser)
+            throws IOException
+    {
+        final MappedLogFile file = new MappedLogFile();
+        file.map(path);
+        return file.findRange(range, parser);
+    }
+
+    /**
+     * Memory-maps and indexes the given file
+     *
+     * @param path The path of the log file to open
+     * @return The mapped log file
+     * @throws IOException If the file could not be read
+     */
+    public static MappedLogFile open(final Path path) throws IOException
+    {
+        return open(path, null);
+    }
+
+    /**
+     * Memory-maps and indexes the given file, reporting progress as it goes
+     *
+     * @param path     The path of the log file to open
+     * @param progress The progress of the load to report to, or null
+     * @return The mapped log file
+     * @throws IOException If the file could not be read
+     * @throws java.util.concurrent.CancellationException If the load is cancelled
+     */
+    public static MappedLogFile open(final Path path, final LoadProgress progress) throws IOException
+    {
+        final MappedLogFile file = new MappedLogFile();
+        file.map(path);
+        file.index(new long[(int) Math.max(16, Math.min(1 << 20, file.m_size / 64))], 0, 0, file.m_size, 0,
+                progress);
+        file.m_headChecksum = file.headChecksum(file.m_headLength);
+        return file;
+    }
+
+    /**
+     * Memory-maps the given file and indexes only the lines in a time range. The
+     * first and last lines of the range are found by binary search, assuming that
+     * the file is in time order; lines without a time-stamp belong to the entry
+     * above them.
+     *
+     * @param path     The path of the log file to open
+     * @param range    The range of time-stamps to index
+     * @param parser   The time-stamp parser to find the range with
+     * @param progress The progress of the load to report to, or null
+     * @return The mapped log file
+     * @throws IOException If the file could not be read
+     * @throws java.util.concurrent.CancellationException If the load is cancelled
+     */
+    public static MappedLogFile open(final Path path, final TimeRange range, final TimestampParser parser,
+            final LoadProgress progress) throws IOException
+    {
+        if (range.isAll())
+        {
+            return open(path, progress);
+        }
+
+        final MappedLogFile file = new MappedLogFile();
+        file.map(path);
+
+        final long[] offsets = file.findRange(range, parser);
+        final long start = offsets[0];
+        final long length = offsets[1] - start;
+
+        if (progress != null)
+        {
+            progress.addBytesRead(file.m_size - length);
+        }
+
+        file.index(new long[(int) Math.max(16, Math.min(1 << 20, length / 64))], 0, start, start + length, 0,
+                progress);
+        file.m_headChecksum = file.headChecksum(file.m_headLength);
+        file.m_range = range;
+        return file;
+    }
+
+    /**
+     * Memory-maps the given file and restores its index from previously saved
+     * line offsets and time-stamps, instead of scanning and parsing the file
+     *
+     * @param path          The path of the log file to open
+     * @param lineStarts    The start offset of each line, followed by the end of
+     *                      the indexed data
+     * @param maxLineLength The length of the longest line
+     * @param timestamps    The time-stamp of each line, or null if not parsed
+     * @param runOrder      The line numbers in time-stamp order, or null if the
+     *                      file is in time order
+     * @param runPattern    The date format the time-stamps were parsed with, or
+     *                      null if not parsed
+     * @return The mapped log file
+     * @throws IOException If the file could not be read, or does not match the
+     *                     index
+     */
+    static MappedLogFile restore(final Path path, final long[] lineStarts, final int maxLineLength,
+            final long[] timestamps, final int[] runOrder, final String runPattern) throws IOException
+    {
+        final MappedLogFile file = new MappedLogFile();
+        file.map(path);
+
+        if (lineStarts[lineStarts.length - 1] != file.m_size)
+        {
+            throw new IOException("Index does not match " + path);
+        }
+
+        file.m_lineStarts = lineStarts;
+        file.m_numLines = lineStarts.length - 1;
+        file.m_maxLineLength = maxLineLength;
+        file.m_timestamps = timestamps;
+        file.m_runOrder = runOrder;
+        file.m_runPattern = runPattern;
+        file.m_headChecksum = file.headChecksum(file.m_headLength);
+        return file;
+    }
+
+    /**
+     * The mapped or copied regions of the file, each 2^m_chunkShift bytes except
+     * for the last
+     */
+    private ByteBuffer[] m_chunks = new ByteBuffer[0];
+
+    /**
+     * The base-2 logarithm of the size of the regions: CHUNK_SHIFT if the file is
+     * mapped, or COPY_CHUNK_SHIFT if it was read into memory
+     */
+    private int m_chunkShift = CHUNK_SHIFT;
+
+    /**
+     * The size of the file in bytes
+     */
+    private long m_size = 0;
+
+    /**
+     * Byte offsets of the start of each line. The entry after the last line holds
+     * the end of the indexed data.
+     */
+    private long[] m_lineStarts = new long[] { 0 };
+
+    /**
+     * The number of lines in the file
+     */
+    private int m_numLines = 0;
+
+    /**
+     * The length, in bytes, of the longest line in the file
+     */
+    private int m_maxLineLength = 0;
+
+    /**
+     * The time-stamp of each line, parsed with m_runPattern
+     */
+    private long[] m_timestamps = null;
+
+    /**
+     * The line numbers in time-stamp order, or null if the file is already in
+     * time order
+     */
+    private int[] m_runOrder = null;
+
+    /**
+     * The date format pattern that m_timestamps was parsed with
+     */
+    private String m_runPattern = null;
+
+    /**
+     * The trigram index of the file's first lines, or null if it has none
+     */
+    private TrigramIndex m_trigrams = null;
+
+    /**
+     * The level and fields of each line, or null if they have not been extracted
+     */
+    private FieldIndex m_fields = null;
+
+    /**
+     * The time range that the indexed lines were limited to
+     */
+    private TimeRange m_range = TimeRange.ALL;
+
+    /**
+     * The file system's key for the file, used to detect that the path now names a
+     * different file, or null if the file system has none
+     */
+    private Object m_fileKey = null;
+
+    /**
+     * The number of bytes at the start of the file covered by m_headChecksum
+     */
+    private int m_headLength = 0;
+
+    /**
+     * The checksum of the first m_headLength bytes of the file
+     */
+    private long m_headChecksum = 0;
+
+    /**
+     * Constructor (use open() or empty() to create instances)
+     */
+    private MappedLogFile()
+    {
+    }
+
+    /**
+     * Returns the byte at the given offset in the file
+     *
+     * @param offset The offset of the byte in the file
+     * @return The byte at the given offset
+     */
+    public byte byteAt(final long offset)
+    {
+        return m_chunks[(int) (offset >>> m_chunkShift)].get((int) (offset & ((1L << m_chunkShift) - 1)));
+    }
+
+    /**
+     * Reads the whole file into memory, in regions of 2^COPY_CHUNK_SHIFT bytes. The
+     * complete regions of an earlier copy are shared instead of being read again,
+     * except for the first, which holds the bytes that are checked to detect a
+     * replaced file. If the file is truncated while it is read, only the bytes
+     * that were read are kept.
+     *
+     * @param path The path of the file to read
+     * @param old  An earlier version of the file, which may share its regions if it
+     *             was copied too
+     * @throws IOException If the file could not be read
+     */
+    private void copy(final Path path, final MappedLogFile old) throws IOException
+    {
+        try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+        {
+            m_size = channel.size();
+            m_fileKey = Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+            m_chunkShift = COPY_CHUNK_SHIFT;
+
+            final long chunkSize = 1L << COPY_CHUNK_SHIFT;
+            final int numChunks = (int) ((m_size + chunkSize - 1) >>> COPY_CHUNK_SHIFT);
+            final int numShared = (old.m_chunkShift == COPY_CHUNK_SHIFT)
+                    ? (int) Math.min(numChunks, old.m_size >>> COPY_CHUNK_SHIFT)
+                    : 0;
+
+            m_chunks = Arrays.copyOf(old.m_chunks, numChunks);
+
+            for (int c = 0; c < numChunks; ++c)
+            {
+                if ((c > 0) && (c < numShared))
+                {
+                    continue;
+                }
+
+                final long position = c * chunkSize;
+                final ByteBuffer chunk = ByteBuffer.allocate((int) Math.min(chunkSize, m_size - position));
+                boolean truncated = false;
+
+                while (chunk.hasRemaining() && !truncated)
+                {
+                    truncated = channel.read(chunk, position + chunk.position()) < 0;
+                }
+
+                chunk.flip();
+                m_chunks[c] = chunk;
+
+                if (truncated)
+                {
+                    m_chunks = Arrays.copyOf(m_chunks, c + 1);
+                    m_size = position + chunk.limit();
+                    break;
+                }
+            }
+
+            m_headLength = (int) Math.min(HEAD_SIZE, m_size);
+        }
+    }
+
+    /**
+     * Returns this file extended with the lines that have been appended to it on
+     * disk since it was indexed. Only the appended bytes are scanned for line
+     * breaks, and only the appended lines are time-stamp parsed. A last line that
+     * had no line terminator is scanned again, since it may have been completed.
+     * A file that is no larger than MAX_COPY_SIZE is read into memory rather than
+     * mapped, so that it can be truncated safely.
+     *
+     * @param path   The path of the log file
+     * @param parser The time-stamp parser to prepare the run with
+     * @return This file if it has not grown or was opened for a time range, a new
+     *         file that extends this one if lines were appended, or null if the
+     *         file was truncated or replaced and must be read again from the start
+     * @throws IOException If the file could not be read
+     */
+    public MappedLogFile extend(final Path path, final TimestampParser parser) throws IOException
+    {
+        if (!m_range.isAll())
+        {
+            return this;
+        }
+
+        final BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+
+        if (((m_fileKey != null) && !m_fileKey.equals(attributes.fileKey())) || (attributes.size() < m_size))
+        {
+            return null;
+        }
+
+        if (attributes.size() == m_size)
+        {
+            return this;
+        }
+
+        final MappedLogFile file = new MappedLogFile();
+
+        if (attributes.size() <= MAX_COPY_SIZE)
+        {
+            file.copy(path, this);
+        }
+        else
+        {
+            file.map(path);
+        }
+
+        if ((file.m_size < m_size) || (file.headChecksum(m_headLength) != m_headChecksum))
+        {
+            return null;
+        }
+
+        final int keep = ((m_numLines > 0) && (file.byteAt(m_size - 1) != '\n')) ? (m_numLines - 1) : m_numLines;
+
+        file.index(Arrays.copyOf(m_lineStarts, keep + 16), keep, m_lineStarts[keep], file.m_size, m_maxLineLength,
+                null);
+        file.m_headChecksum = file.headChecksum(file.m_headLength);
+
+        if (keep == m_numLines)
+        {
+            file.m_trigrams = getTrigrams();
+        }
+
+        final FieldIndex fields = getFields();
+
+        if (fields != null)
+        {
+            file.m_fields = fields.extend(file, keep);
+        }
+
+        final long[] oldTimestamps;
+        final int[] oldOrder;
+        final String oldPattern;
+
+        synchronized (this)
+        {
+            oldTimestamps = m_timestamps;
+            oldOrder = m_runOrder;
+            oldPattern = m_runPattern;
+        }
+
+        if (!parser.getPattern().equals(oldPattern))
+        {
+            file.prepareRun(parser);
+            return file;
+        }
+
+        final long[] timestamps = Arrays.copyOf(oldTimestamps, file.m_numLines);
+        boolean inOrder = (oldOrder == null);
+
+        // Starts at the old last line if it was re-indexed, since its time-stamp was
+        // parsed from the partial line
+        for (int i = keep; i < file.m_numLines; ++i)
+        {
+            timestamps[i] = file.parseTimestamp(parser, i);
+            inOrder = inOrder && ((i == 0) || (timestamps[i] >= timestamps[i - 1]));
+        }
+
+        file.m_timestamps = timestamps;
+        file.m_runOrder = inOrder ? null : LogMerger.sortRun(timestamps);
+        file.m_runPattern = oldPattern;
+        return file;
+    }
+
+    /**
+     * Finds the bytes of the file that hold a time range
+     *
+     * @param range  The range of time-stamps to find
+     * @param parser The time-stamp parser to find the range with
+     * @return The offsets of the start and the end of the range
+     */
+    private long[] findRange(final TimeRange range, final TimestampParser parser)
+    {
+        final long start = (range.getFrom() == Long.MIN_VALUE) ? 0 : findTime(parser, range.getFrom(), false);
+        final long end = (range.getTo() == Long.MAX_VALUE) ? m_size : findTime(parser, range.getTo(), true);
+
+        return new long[] { start, Math.max(start, end) };
+    }
+
+    /**
+     * Finds the start of a time range by binary search over the byte offsets of
+     * the file. Each probe moves to the first line at or after the probed offset
+     * that starts with a time-stamp, and compares its time-stamp with the given
+     * time.
+     *
+     * @param parser The time-stamp parser to use
+     * @param time   The time to look for
+     * @param after  False to find the first line at or after the time, true to
+     *               find the first line after it
+     * @return The offset of the start of the line, or the size of the file if
+     *         there is none
+     */
+    private long findTime(final TimestampParser parser, final long time, final boolean after)
+    {
+        long lo = 0;
+        long hi = m_size;
+
+        while (lo < hi)
+        {
+            final long mid = (lo + hi) >>> 1;
+            final long start = nextTimestampedLine(parser, mid);
+            final long timestamp = (start < m_size) ? parser.parse(this, start, lineEnd(start)) : Long.MAX_VALUE;
+
+            if (after ? (timestamp > time) : (timestamp >= time))
+            {
+                hi = mid;
+            }
+            else
+            {
+                lo = mid + 1;
+            }
+        }
+
+        return nextTimestampedLine(parser, lo);
+    }
+
+    /**
+     * Returns the level and fields of each line
+     *
+     * @return The field index, or null if the fields have not been extracted
+     */
+    public synchronized FieldIndex getFields()
+    {
+        return m_fields;
+    }
+
+    /**
+     * Returns a checksum of the first and last few KB of the file, used to check
+     * that a saved index still belongs to the file's contents
+     *
+     * @return The content fingerprint
+     */
+    long getFingerprint()
+    {
+        final int length = (int) Math.min(HEAD_SIZE, m_size);
+        final byte[] bytes = new byte[2 * length];
+
+        readBytes(0, bytes, 0, length);
+        readBytes(m_size - length, bytes, length, length);
+
+        final CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        return (m_size << 32) ^ crc.getValue();
+    }
+
+    /**
+     * Returns the number of bytes of heap used by the index of this file, and by
+     * its text if it was read into memory. Mapped text is not counted.
+     *
+     * @return The size of the index, in bytes
+     */
+    public synchronized long getHeapSize()
+    {
+        long size = 8L * m_lineStarts.length;
+
+        if (m_chunkShift == COPY_CHUNK_SHIFT)
+        {
+            size += m_size;
+        }
+
+        if (m_timestamps != null)
+        {
+            size += 8L * m_timestamps.length;
+        }
+
+        if (m_runOrder != null)
+        {
+            size += 4L * m_runOrder.length;
+        }
+
+        if (m_trigrams != null)
+        {
+            size += m_trigrams.getHeapSize();
+        }
+
+        if (m_fields != null)
+        {
+            size += m_fields.getHeapSize();
+        }
+
+        return size;
+    }
+
+    /**
+     * Returns the text of the given line, without its line terminator
+     *
+     * @param lineNum The line number
+     * @return The text of the line
+     */
+    public String getLine(final int lineNum)
+    {
+        final long start = getLineStart(lineNum);
+        final int length = (int) (getLineEnd(lineNum) - start);
+        final byte[] bytes = new byte[length];
+        readBytes(start, bytes, 0, length);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the byte offset just past the text of the given line, excluding its
+     * line terminator
+     *
+     * @param lineNum The line number
+     * @return The end offset of the line text
+     */
+    public long getLineEnd(final int lineNum)
+    {
+        final long start = m_lineStarts[lineNum];
+        long end = m_lineStarts[lineNum + 1];
+
+        if ((end > start) && (byteAt(end - 1) == '\n'))
+        {
+            --end;
+        }
+
+        if ((end > start) && (byteAt(end - 1) == '\r'))
+        {
+            --end;
+        }
+
+        return end;
+    }
+
+    /**
+     * Returns the byte offset of the start of the given line
+     *
+     * @param lineNum The line number
+     * @return The start offset of the line
+     */
+    public long getLineStart(final int lineNum)
+    {
+        return m_lineStarts[lineNum];
+    }
+
+    /**
+     * Returns the start offset of each line, followed by the end of the indexed
+     * data. The array must not be modified.
+     *
+     * @return The line start offsets
+     */
+    long[] getLineStarts()
+    {
+        return m_lineStarts;
+    }
+
+    /**
+     * Returns the length, in bytes, of the longest line in the file
+     *
+     * @return The length of the longest line
+     */
+    public int getMaxLineLength()
+    {
+        return m_maxLineLength;
+    }
+
+    /**
+     * Returns the number of lines in the file
+     *
+     * @return The number of lines
+     */
+    public int getNumLines()
+    {
+        return m_numLines;
+    }
+
+    /**
+     * Returns the line numbers of the file in time-stamp order, as prepared by
+     * prepareRun()
+     *
+     * @return The sorted line numbers, or null if the file is already in time
+     *         order
+     */
+    public synchronized int[] getRunOrder()
+    {
+        return m_runOrder;
+    }
+
+    /**
+     * Returns the date format pattern that the run was prepared with
+     *
+     * @return The date format pattern, or null if the run is not prepared
+     */
+    public synchronized String getRunPattern()
+    {
+        return m_runPattern;
+    }
+
+    /**
+     * Returns the size of the file in bytes
+     *
+     * @return The size of the file
+     */
+    public long getSize()
+    {
+        return m_size;
+    }
+
+    /**
+     * Returns the time range that the indexed lines were limited to
+     *
+     * @return The time range, or TimeRange.ALL if the whole file is indexed
+     */
+    public TimeRange getTimeRange()
+    {
+        return m_range;
+    }
+
+    /**
+     * Returns the time-stamp of every line, as prepared by prepareRun()
+     *
+     * @return The time-stamps, indexed by line number
+     */
+    public synchronized long[] getTimestamps()
+    {
+        return m_timestamps;
+    }
+
+    /**
+     * Returns the trigram index of the file's first lines
+     *
+     * @return The trigram index, or null if the file has none
+     */
+    public synchronized TrigramIndex getTrigrams()
+    {
+        return m_trigrams;
+    }
+
+    /**
+     * Returns the checksum of the bytes at the start of the file
+     *
+     * @param length The number of bytes to checksum
+     * @return The checksum of the first length bytes
+     */
+    private long headChecksum(final int length)
+    {
+        final byte[] head = new byte[length];
+        readBytes(0, head, 0, length);
+
+        final CRC32 crc = new CRC32();
+        crc.update(head, 0, length);
+        return crc.getValue();
+    }
+
+    /**
+     * Builds the table of line start offsets by scanning the mapped bytes for line
+     * feeds, continuing from lines that are already known
+     *
+     * @param knownStarts The start offsets of the lines already known, with room
+     *                    for at least one more entry
+     * @param knownLines  The number of lines already known
+     * @param scanFrom    The offset to start scanning from, which is the start of
+     *                    the first line that is not known
+     * @param scanTo      The offset to stop scanning at, which is the end of the
+     *                    indexed data
+     * @param knownMax    The length of the longest line already known
+     * @param progress    The progress of the load to report to, or null
+     */
+    private void index(final long[] knownStarts, final int knownLines, final long scanFrom, final long scanTo,
+            final long knownMax, final LoadProgress progress)
+    {
+        long[] starts = knownStarts;
+        int numLines = knownLines;
+        long lineStart = scanFrom;
+        long maxLength = knownMax;
+
+        final int lastChunk = (int) Math.min(m_chunks.length, ((scanTo - 1) >>> m_chunkShift) + 1);
+
+        for (int c = (int) (scanFrom >>> m_chunkShift); c < lastChunk; ++c)
+        {
+            final ByteBuffer chunk = m_chunks[c];
+            final long base = (long) c << m_chunkShift;
+            final int limit = (int) Math.min(chunk.limit(), scanTo - base);
+            final int first = (int) Math.max(0, scanFrom - base);
+
+            for (int block = first; block < limit; block += PROGRESS_BLOCK_SIZE)
+            {
+                final int blockEnd = Math.min(limit, block + PROGRESS_BLOCK_SIZE);
+
+                for (int i = block; i < blockEnd; ++i)
+                {
+                    if (chunk.get(i) == '\n')
+                    {
+                        if (numLines + 1 >= starts.length)
+                        {
+                            starts = Arrays.copyOf(starts, (int) Math.min(Integer.MAX_VALUE - 8, starts.length * 2L));
+                        }
+
+                        starts[numLines++] = lineStart;
+                        maxLength = Math.max(maxLength, base + i - lineStart);
+                        lineStart = base + i + 1;
+                    }
+                }
+
+                if (progress != null)
+                {
+                    progress.addBytesRead(blockEnd - block);
+                    progress.checkCancelled();
+                }
+            }
+        }
+
+        if (lineStart < scanTo)
+        {
+            starts[numLines++] = lineStart;
+            maxLength = Math.max(maxLength, scanTo - lineStart);
+        }
+
+        starts[numLines] = scanTo;
+
+        m_lineStarts = Arrays.copyOf(starts, numLines + 1);
+        m_numLines = numLines;
+        m_maxLineLength = (int) Math.min(Integer.MAX_VALUE, maxLength);
+    }
+
+    /**
+     * Returns the offset of the end of the text of a line, excluding its line
+     * terminator
+     *
+     * @param start The offset of the start of the line
+     * @return The end offset of the line text
+     */
+    private long lineEnd(final long start)
+    {
+        long end = start;
+
+        while ((end < m_size) && (byteAt(end) != '\n'))
+        {
+            ++end;
+        }
+
+        if ((end > start) && (byteAt(end - 1) == '\r'))
+        {
+            --end;
+        }
+
+        return end;
+    }
+
+    /**
+     * Maps the whole file into memory, in regions of at most 2^CHUNK_SHIFT bytes
+     *
+     * @param path The path of the file to map
+     * @throws IOException If the file could not be mapped
+     */
+    private void map(final Path path) throws IOException
+    {
+        try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+        {
+            m_size = channel.size();
+            m_headLength = (int) Math.min(HEAD_SIZE, m_size);
+            m_fileKey = Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+
+            final long chunkSize = 1L << CHUNK_SHIFT;
+            final int numChunks = (int) ((m_size + chunkSize - 1) >>> CHUNK_SHIFT);
+            m_chunks = new ByteBuffer[numChunks];
+
+            for (int c = 0; c < numChunks; ++c)
+            {
+                final long position = c * chunkSize;
+                m_chunks[c] = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(chunkSize, m_size - position));
+            }
+        }
+    }
+
+    /**
+     * Returns the start of the line after the one that contains an offset
+     *
+     * @param offset The offset in the file
+     * @return The offset of the start of the next line, or the size of the file
+     *         if there is none
+     */
+    private long nextLine(final long offset)
+    {
+        long pos = offset;
+
+        while ((pos < m_size) && (byteAt(pos) != '\n'))
+        {
+            ++pos;
+        }
+
+        return Math.min(m_size, pos + 1);
+    }
+
+    /**
+     * Returns the start of the first line at or after an offset that starts with a
+     * time-stamp
+     *
+     * @param parser The time-stamp parser to use
+     * @param offset The offset to look from
+     * @return The offset of the start of the line, or the size of the file if
+     *         there is none
+     */
+    private long nextTimestampedLine(final TimestampParser parser, final long offset)
+    {
+        long start = ((offset == 0) || (byteAt(offset - 1) == '\n')) ? offset : nextLine(offset);
+
+        while (start < m_size)
+        {
+            if (parser.parse(this, start, lineEnd(start)) != TimestampParser.NONE)
+            {
+                return start;
+            }
+
+            start = nextLine(start);
+        }
+
+        return m_size;
+    }
+
+    /**
+     * Parses the time-stamp at the start of a line
+     *
+     * @param parser  The time-stamp parser to use
+     * @param lineNum The line number
+     * @return The number of ms since the epoch, or 0 if the line does not start
+     *         with a time-stamp
+     */
+    public long parseTimestamp(final TimestampParser parser, final int lineNum)
+    {
+        final long timeStamp = parser.parse(this, getLineStart(lineNum), getLineEnd(lineNum));
+
+        return (timeStamp == TimestampParser.NONE) ? 0 : timeStamp;
+    }
+
+    /**
+     * Parses the time-stamp of every line and sorts the lines into a run that is
+     * ready to be merged. Does nothing if the run was already prepared with the
+     * same date format.
+     *
+     * @param parser The time-stamp parser to use
+     */
+    public void prepareRun(final TimestampParser parser)
+    {
+        prepareRun(parser, null);
+    }
+
+    /**
+     * Parses the time-stamp of every line and sorts the lines into a run that is
+     * ready to be merged, reporting progress as it goes. Does nothing if the run
+     * was already prepared with the same date format.
+     *
+     * @param parser   The time-stamp parser to use
+     * @param progress The progress of the load to report to, or null
+     * @throws java.util.concurrent.CancellationException If the load is cancelled
+     */
+    public synchronized void prepareRun(final TimestampParser parser, final LoadProgress progress)
+    {
+        if (parser.getPattern().equals(m_runPattern))
+        {
+            return;
+        }
+
+        final long[] timestamps = new long[m_numLines];
+
+        for (int block = 0; block < m_numLines; block += PROGRESS_BLOCK_SIZE)
+        {
+            final int blockEnd = Math.min(m_numLines, block + PROGRESS_BLOCK_SIZE);
+
+            for (int i = block; i < blockEnd; ++i)
+            {
+                timestamps[i] = parseTimestamp(parser, i);
+            }
+
+            if (progress != null)
+            {
+                progress.addLinesParsed(blockEnd - block);
+                progress.checkCancelled();
+            }
+        }
+
+        m_timestamps = timestamps;
+        m_runOrder = LogMerger.sortRun(timestamps);
+        m_runPattern = parser.getPattern();
+    }
+
+    /**
+     * Copies a range of the mapped bytes into an array. The range may span more
+     * than one mapped region.
+     *
+     * @param offset  The offset in the file of the first byte to copy
+     * @param dest    The array to copy into
+     * @param destPos The position in the array of the first copied byte
+     * @param length  The number of bytes to copy
+     */
+    public void readBytes(final long offset, final byte[] dest, final int destPos, final int length)
+    {
+        long pos = offset;
+        int copied = 0;
+
+        while (copied < length)
+        {
+            final ByteBuffer chunk = m_chunks[(int) (pos >>> m_chunkShift)].duplicate();
+            final int chunkPos = (int) (pos & ((1L << m_chunkShift) - 1));
+            final int n = Math.min(length - copied, chunk.limit() - chunkPos);
+
+            chunk.position(chunkPos);
+            chunk.get(dest, destPos + copied, n);
+
+            copied += n;
+            pos += n;
+        }
+    }
+
+    /**
+     * Sets the level and fields of each line of the file
+     *
+     * @param fields The field index, or null to remove it
+     */
+    public synchronized void setFields(final FieldIndex fields)
+    {
+        m_fields = fields;
+    }
+
+    /**
+     * Sets the trigram index of the file
+     *
+     * @param trigrams The trigram index, or null to remove it
+     */
+    public synchronized void setTrigrams(final TrigramIndex trigrams)
+    {
+        m_trigrams = trigrams;
+    }
+
+    /**
+     * Writes a range of the mapped bytes to a channel, straight from the mapped
+     * regions. The range may span more than one mapped region.
+     *
+     * @param offset The offset in the file of the first byte to write
+     * @param length The number of bytes to write
+     * @param out    The channel to write to
+     * @throws IOException If the write fails
+     */
+    public void transferTo(final long offset, final long length, final WritableByteChannel out) throws IOException
+    {
+        long pos = offset;
+        final long end = offset + length;
+
+        while (pos < end)
+        {
+            final ByteBuffer chunk = m_chunks[(int) (pos >>> m_chunkShift)].duplicate();
+            final int chunkPos = (int) (pos & ((1L << m_chunkShift) - 1));
+
+            chunk.limit((int) Math.min(chunk.limit(), chunkPos + (end - pos)));
+            chunk.position(chunkPos);
+            pos += chunk.remaining();
+
+            while (chunk.hasRemaining())
+            {
+                out.write(chunk);
+            }
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.ryanantkowiak.logsyncviewer;
+
+import java.util.Arrays;
+
+/**
+ * The merged, time-stamp ordered view of all of the loaded log entries, stored
+ * as primitive arrays. Each row is a packed long holding the file index and line
+ * number, plus a parallel long holding its time-stamp, so a row costs 16 bytes
+ * and no object of its own. LogSyncListItem objects are only created on demand
+ * for the rows that are being displayed.
+ *
+ * @author Ryan Antkowiak
+ *
+ */
+public class MergedIndex
+{
+    /**
+     * Returns the file index of a packed entry
+     *
+     * @param entry The packed entry
+     * @return The FileMap index of the entry's file
+     */
+    public static int fileOf(final long entry)
+    {
+        return (int) (entry >>> 32);
+    }
+
+    /**
+     * Returns the line number of a packed entry
+     *
+     * @param entry The packed entry
+     * @return The line number of the entry
+     */
+    public static int lineOf(final long entry)
+    {
+        return (int) entry;
+    }
+
+    /**
+     * Packs a file index and line number into a single long
+     *
+     * @param fileNum The FileMap index of the file
+     * @param lineNum The line number
+     * @return The packed entry
+     */
+    public static long pack(final int fileNum, final int lineNum)
+    {
+        return (((long) fileNum) << 32) | (lineNum & 0xFFFFFFFFL);
+    }
+
+    /**
+     * The packed file index and line number of each row
+     */
+    private long[] m_entries;
+
+    /**
+     * The time-stamp of each row
+     */
+    private long[] m_timestamps;
+
+    /**
+     * The number of rows
+     */
+    private int m_size = 0;
+
+    /**
+     * Constructor. Creates an empty index.
+     *
+     * @param capacity The number of rows to allocate space for
+     */
+    public MergedIndex(final int capacity)
+    {
+        m_entries = new long[capacity];
+        m_timestamps = new long[capacity];
+    }
+
+    /**
+     * Appends a row to the end of the index
+     *
+     * @param fileNum   The FileMap index of the row's file
+     * @param lineNum   The line number of the row
+     * @param timestamp The time-stamp of the row
+     */
+    public void add(final int fileNum, final int lineNum, final long timestamp)
+    {
+        if (m_size == m_entries.length)
+        {
+            final int newCapacity = Math.max(16, m_entries.length * 2);
+            m_entries = Arrays.copyOf(m_entries, newCapacity);
+            m_timestamps = Arrays.copyOf(m_timestamps, newCapacity);
+        }
+
+        m_entries[m_size] = pack(fileNum, lineNum);
+        m_timestamps[m_size] = timestamp;
+        ++m_size;
+    }
+
+    /**
+     * Returns the packed entry of a row
+     *
+     * @param row The row in the index
+     * @return The packed file index and line number
+     */
+    public long getEntry(final int row)
+    {
+        return m_entries[row];
+    }
+
+    /**
+     * Returns the file index of a row
+     *
+     * @param row The row in the index
+     * @return The FileMap index of the row's file
+     */
+    public int getFileNum(final int row)
+    {
+        return fileOf(m_entries[row]);
+    }
+
+    /**
+     * Returns a list item for a row
+     *
+     * @param row The row in the index
+     * @return A LogSyncListItem that refers to the row's log entry
+     */
+    public LogSyncListItem getItem(final int row)
+    {
+        final long entry = m_entries[row];
+        return new LogSyncListItem(fileOf(entry), lineOf(entry), m_timestamps[row]);
+    }
+
+    /**
+     * Returns the line number of a row
+     *
+     * @param row The row in the index
+     * @return The line number of the row
+     */
+    public int getLineNum(final int row)
+    {
+        return lineOf(m_entries[row]);
+    }
+
+    /**
+     * Returns the number of rows in the index
+     *
+     * @return The number of rows
+     */
+    public int getSize()
+    {
+        return m_size;
+    }
+
+    /**
+     * Returns the time-stamp of a row
+     *
+     * @param row The row in the index
+     * @return The time-stamp of the row
+     */
+    public long getTimestamp(final int row)
+    {
+        return m_timestamps[row];
+    }
+}
@@ -4,15 +4,22 @@ import java.awt.Font;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
+import java.util.regex.PatternSyntaxException;
 
 import javax.swing.JButton;
 import javax.swing.JCheckBox;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
+import javax.swing.JSpinner;
 import javax.swing.JTextField;
+import javax.swing.SpinnerNumberModel;
+import javax.swing.Timer;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 
 /**
- * This class defines the search panel at the top of the log viewer window
+ * This class defines the search panel at the top of the log viewer window. The
+ * search runs as the user types, shortly after the text stops changing.
  *
  * @author Ryan Antkowiak 
  *
@@ -24,6 +31,12 @@ public class SearchPanel extends JPanel implements ActionListener
      */
     private static final long serialVersionUID = 1L;
 
+    /**
+     * The time to wait after the search text or options change before searching,
+     * in ms, so that a search is not started for every keystroke
+     */
+    private static final int SEARCH_DELAY = 250;
+
     /**
      * Handle to the main log viewer instance
      */
@@ -39,11 +52,27 @@ public class SearchPanel extends JPanel implements ActionListener
      */
     private final JCheckBox m_matchCase;
 
+    /**
+     * Check box to indicate if the search text is a regular expression
+     */
+    private final JCheckBox m_regex;
+
     /**
      * Check box to indicate if the search should wrap around
      */
     private final JCheckBox m_wrap;
 
+    /**
+     * Check box to show only the matching lines in the filtered view
+     */
+    private final JCheckBox m_filter;
+
+    /**
+     * Spinner for the number of lines of context to show around each match in the
+     * filtered view
+     */
+    private final JSpinner m_context;
+
     /**
      * Button to find next occurrence of search string
      */
@@ -59,6 +88,16 @@ public class SearchPanel extends JPanel implements ActionListener
      */
     private final JButton m_hide;
 
+    /**
+     * Label that shows the number of matches of the last search
+     */
+    private final JLabel m_hitCount;
+
+    /**
+     * Timer that starts a search once the search text has stopped changing
+     */
+    private final Timer m_searchTimer;
+
     /**
      * Constructor. Initialize the Search Panel display
      *
@@ -72,22 +111,55 @@ public class SearchPanel extends JPanel implements ActionListener
 
         m_textField = new JTextField(25);
         m_matchCase = new JCheckBox("Match-Case");
+        m_regex = new JCheckBox("Regex");
         m_wrap = new JCheckBox("Wrap");
+        m_filter = new JCheckBox("Filter");
+        m_context = new JSpinner(new SpinnerNumberModel(0, 0, 1000, 1));
 
         m_textField.setFont(new Font("Consolas", Font.BOLD, 12));
 
         m_findNext = new JButton("Find Next");
         m_findPrev = new JButton("Find Prev");
         m_hide = new JButton("Hide");
+        m_hitCount = new JLabel();
 
         m_findNext.setMnemonic(KeyEvent.VK_N);
         m_findPrev.setMnemonic(KeyEvent.VK_P);
         m_hide.setMnemonic(KeyEvent.VK_D);
 
         m_matchCase.setMnemonic(KeyEvent.VK_C);
+        m_regex.setMnemonic(KeyEvent.VK_R);
         m_wrap.setMnemonic(KeyEvent.VK_W);
+        m_filter.setMnemonic(KeyEvent.VK_L);
+
+        m_searchTimer = new Timer(SEARCH_DELAY, e -> m_logSyncViewer.handleSearchChanged());
+        m_searchTimer.setRepeats(false);
+
+        m_textField.getDocument().addDocumentListener(new DocumentListener()
+        {
+            @Override
+            public void changedUpdate(final DocumentEvent e)
+            {
+            }
+
+            @Override
+            public void insertUpdate(final DocumentEvent e)
+            {
+                m_searchTimer.restart();
+            }
+
+            @Override
+            public void removeUpdate(final DocumentEvent e)
+            {
+                m_searchTimer.restart();
+            }
+        });
 
         m_textField.addActionListener(this);
+        m_matchCase.addActionListener(this);
+        m_regex.addActionListener(this);
+        m_filter.addActionListener(this);
+        m_context.addChangeListener(e -> m_logSyncViewer.handleFilterChanged());
 
         m_findNext.addActionListener(this);
         m_findPrev.addActionListener(this);
@@ -97,10 +169,15 @@ public class SearchPanel extends JPanel implements ActionListener
         add(new JLabel("Find:"));
         add(m_textField);
         add(m_matchCase);
+        add(m_regex);
         add(m_wrap);
+        add(m_filter);
+        add(new JLabel("Context:"));
+        add(m_context);
         add(m_findNext);
         add(m_findPrev);
         add(m_hide);
+        add(m_hitCount);
 
         setOpaque(true);
         setVisible(false);
@@ -132,17 +209,51 @@ public class SearchPanel extends JPanel implements ActionListener
             }
         }
 
+        if ((e.getSource() == m_matchCase) || (e.getSource() == m_regex))
+        {
+            m_searchTimer.restart();
+        }
+
+        if (e.getSource() == m_filter)
+        {
+            m_logSyncViewer.handleFilterChanged();
+        }
+
         if (e.getSource() instanceof JTextField)
         {
             final JTextField jtf = (JTextField) e.getSource();
 
             if (jtf == m_textField)
             {
+                m_searchTimer.stop();
                 m_logSyncViewer.menuActionFindNext();
             }
         }
     }
 
+    /**
+     * Returns the number of lines of context to show around each match in the
+     * filtered view
+     *
+     * @return The number of context lines
+     */
+    public int getContextLines()
+    {
+        return (Integer) m_context.getValue();
+    }
+
+    /**
+     * Returns the query for the current search settings
+     *
+     * @return The search query
+     * @throws PatternSyntaxException If the search text is a regular expression
+     *                                that is not valid
+     */
+    public SearchQuery getQuery()
+    {
+        return new SearchQuery(getSearchText(), isMatchCase(), isRegex());
+    }
+
     /**
      * Returns the value of the search text
      *
@@ -158,10 +269,21 @@ public class SearchPanel extends JPanel implements ActionListener
      */
     public void hideSearchPanel()
     {
+        m_searchTimer.stop();
         m_textField.select(0, 0);
         setVisible(false);
     }
 
+    /**
+     * Returns true if only the matching lines should be shown in the filtered view
+     *
+     * @return true if the filter is on
+     */
+    public boolean isFilter()
+    {
+        return m_filter.isSelected();
+    }
+
     /**
      * Returns true if the search is case sensitive
      *
@@ -172,6 +294,16 @@ public class SearchPanel extends JPanel implements ActionListener
         return m_matchCase.isSelected();
     }
 
+    /**
+     * Returns true if the search text is a regular expression
+     *
+     * @return true for a regular expression search
+     */
+    public boolean isRegex()
+    {
+        return m_regex.isSelected();
+    }
+
     /**
      * Returns true if the search should wrap around
      *
@@ -182,6 +314,16 @@ public class SearchPanel extends JPanel implements ActionListener
         return m_wrap.isSelected();
     }
 
+    /**
+     * Sets the text that describes the number of matches of the last search
+     *
+     * @param text The hit count text
+     */
+    public void setHitCount(final String text)
+    {
+        m_hitCount.setText(text);
+    }
+
     /**
      * Shows the search panel
      */
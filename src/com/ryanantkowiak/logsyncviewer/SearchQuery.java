@@ -0,0 +1,525 @@
+package com.ryanantkowiak.logsyncviewer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * A search entered in the search panel. The query is prepared once, so that
+ * matching a line does not repeat any per-query work such as changing the case
+ * of the search text or compiling a regular expression. Regular expressions are
+ * matched with one reusable Matcher per searching thread, and a match that runs
+ * for too long on a single line stops the search, as a safeguard against
+ * patterns with catastrophic backtracking.
+ *
+ * Plain text is searched for in the raw bytes of each line, copied into a
+ * buffer that each searching thread reuses, using Boyer-Moore-Horspool with a
+ * skip table built once per query. Case is ignored by folding ASCII letters
+ * through a table, so no line is decoded or copied into a String. Lines are
+ * only decoded when the bytes cannot give the answer: for case-insensitive
+ * searches for non-ASCII text, and for lines holding non-ASCII characters that
+ * Unicode case folding could match to a letter of the search text.
+ *
+ * @author Ryan Antkowiak
+ *
+ */
+public class SearchQuery
+{
+    /**
+     * The longest time a regular expression may run on a single line, in ns
+     */
+    private static final long LINE_TIMEOUT = 1000L * 1000 * 1000;
+
+    /**
+     * The number of characters read by a regular expression between checks of the
+     * time
+     */
+    private static final int TIMEOUT_CHECK_INTERVAL = 1 << 14;
+
+    /**
+     * Maps each byte value to itself
+     */
+    private static final byte[] IDENTITY = foldTable(false);
+
+    /**
+     * Maps each byte value to itself, except upper case ASCII letters, which are
+     * mapped to lower case
+     */
+    private static final byte[] ASCII_LOWER = foldTable(true);
+
+    /**
+     * The buffer that each searching thread reads the bytes of lines into
+     */
+    private static final ThreadLocal<byte[]> LINE_BUFFER = ThreadLocal.withInitial(() -> new byte[256]);
+
+    /**
+     * Returns a table that maps each byte value to its folded value
+     *
+     * @param lowerCase True to fold upper case ASCII letters to lower case
+     * @return The table of folded byte values
+     */
+    private static byte[] foldTable(final boolean lowerCase)
+    {
+        final byte[] fold = new byte[256];
+
+        for (int b = 0; b < 256; ++b)
+        {
+            fold[b] = (byte) ((lowerCase && (b >= 'A') && (b <= 'Z')) ? (b - 'A' + 'a') : b);
+        }
+
+        return fold;
+    }
+
+    /**
+     * The text of a line being matched by a regular expression, which stops the
+     * match once it has run for too long
+     */
+    private static class TimedText implements CharSequence
+    {
+        /**
+         * The text of the line
+         */
+        private String m_text = "";
+
+        /**
+         * The time at which the match must stop, from System.nanoTime()
+         */
+        private long m_deadline = 0;
+
+        /**
+         * The number of characters that may be read before the time is checked
+         */
+        private int m_countdown = 0;
+
+        /**
+         * Returns a character of the line, checking the time every so often
+         *
+         * @param index The index of the character
+         * @return The character
+         * @throws CancellationException If the match has run for too long
+         */
+        @Override
+        public char charAt(final int index)
+        {
+            if (--m_countdown <= 0)
+            {
+                m_countdown = TIMEOUT_CHECK_INTERVAL;
+
+                if (System.nanoTime() > m_deadline)
+                {
+                    throw new CancellationException("The regular expression took too long to match");
+                }
+            }
+
+            return m_text.charAt(index);
+        }
+
+        /**
+         * Returns the length of the line
+         *
+         * @return The number of characters
+         */
+        @Override
+        public int length()
+        {
+            return m_text.length();
+        }
+
+        /**
+         * Starts matching a new line
+         *
+         * @param text The text of the line
+         */
+        public void reset(final String text)
+        {
+            m_text = text;
+            m_deadline = System.nanoTime() + LINE_TIMEOUT;
+            m_countdown = TIMEOUT_CHECK_INTERVAL;
+        }
+
+        /**
+         * Returns part of the line
+         *
+         * @param start The index of the first character
+         * @param end   The index after the last character
+         * @return The characters in the range
+         */
+        @Override
+        public CharSequence subSequence(final int start, final int end)
+        {
+            return m_text.subSequence(start, end);
+        }
+
+        /**
+         * Returns the text of the line
+         *
+         * @return The text
+         */
+        @Override
+        public String toString()
+        {
+            return m_text;
+        }
+    }
+
+    /**
+     * The text to search for
+     */
+    private final String m_text;
+
+    /**
+     * True if the search is case sensitive
+     */
+    private final boolean m_matchCase;
+
+    /**
+     * The lower case form of the first character of the search text
+     */
+    private final char m_firstLower;
+
+    /**
+     * The upper case form of the first character of the search text
+     */
+    private final char m_firstUpper;
+
+    /**
+     * True if the search text is a regular expression
+     */
+    private final boolean m_regex;
+
+    /**
+     * The compiled regular expression, or null for a plain text search
+     */
+    private final Pattern m_pattern;
+
+    /**
+     * The Matcher used by each searching thread, reading its line text
+     */
+    private final ThreadLocal<Matcher> m_matcher;
+
+    /**
+     * The line text that each searching thread's Matcher reads
+     */
+    private final ThreadLocal<TimedText> m_timedText = ThreadLocal.withInitial(TimedText::new);
+
+    /**
+     * The UTF-8 bytes of the search text, folded with m_fold, or null if lines
+     * must be decoded to be matched
+     */
+    private final byte[] m_needle;
+
+    /**
+     * The table that line bytes are folded with before they are compared
+     */
+    private final byte[] m_fold;
+
+    /**
+     * The Boyer-Moore-Horspool shift for each folded byte value
+     */
+    private final int[] m_skip = new int[256];
+
+    /**
+     * True if the search ignores case and its text holds i, k or s, which Unicode
+     * case folding also matches to non-ASCII characters (such as the dotless i
+     * and the Kelvin sign), so lines with non-ASCII bytes must be decoded
+     */
+    private final boolean m_checkNonAscii;
+
+    /**
+     * Constructor
+     *
+     * @param text_      The text to search for
+     * @param matchCase_ True if the search is case sensitive
+     * @param regex_     True if the search text is a regular expression
+     * @throws PatternSyntaxException If the search text is not a valid regular
+     *                                expression
+     */
+    public SearchQuery(final String text_, final boolean matchCase_, final boolean regex_)
+    {
+        m_text = text_;
+        m_matchCase = matchCase_;
+        m_regex = regex_;
+        m_pattern = m_regex ? Pattern.compile(m_text, m_matchCase ? 0 : Pattern.CASE_INSENSITIVE) : null;
+        m_matcher = m_regex ? ThreadLocal.withInitial(() -> m_pattern.matcher(m_timedText.get())) : null;
+
+        final char first = m_text.isEmpty() ? 0 : m_text.charAt(0);
+        m_firstLower = Character.toLowerCase(first);
+        m_firstUpper = Character.toUpperCase(first);
+
+        boolean ascii = true;
+        boolean foldsFromNonAscii = false;
+
+        for (int i = 0; i < m_text.length(); ++i)
+        {
+            final char lower = Character.toLowerCase(m_text.charAt(i));
+            ascii = ascii && (m_text.charAt(i) < 0x80);
+            foldsFromNonAscii = foldsFromNonAscii || (lower == 'i') || (lower == 'k') || (lower == 's');
+        }
+
+        m_fold = m_matchCase ? IDENTITY : ASCII_LOWER;
+        m_checkNonAscii = !m_matchCase && foldsFromNonAscii;
+
+        if (m_regex || (!m_matchCase && !ascii) || (m_text.indexOf('\uFFFD') >= 0))
+        {
+            m_needle = null;
+            return;
+        }
+
+        m_needle = m_text.getBytes(StandardCharsets.UTF_8);
+
+        for (int i = 0; i < m_needle.length; ++i)
+        {
+            m_needle[i] = m_fold[m_needle[i] & 0xFF];
+        }
+
+        Arrays.fill(m_skip, Math.max(1, m_needle.length));
+
+        for (int i = 0; i < m_needle.length - 1; ++i)
+        {
+            m_skip[m_needle[i] & 0xFF] = m_needle.length - 1 - i;
+        }
+    }
+
+    /**
+     * Returns true if the bytes of a line contain the search text, compared after
+     * folding with m_fold
+     *
+     * @param bytes  The buffer holding the line
+     * @param offset The offset of the line in the buffer
+     * @param length The length of the line
+     * @return true if the line contains the search text
+     */
+    private boolean containsNeedle(final byte[] bytes, final int offset, final int length)
+    {
+        final byte[] needle = m_needle;
+        final byte[] fold = m_fold;
+        final int last = needle.length - 1;
+
+        if (last < 0)
+        {
+            return true;
+        }
+
+        final int end = offset + length - last;
+
+        for (int pos = offset; pos < end; pos += m_skip[fold[bytes[pos + last] & 0xFF] & 0xFF])
+        {
+            int j = last;
+
+            while (fold[bytes[pos + j] & 0xFF] == needle[j])
+            {
+                if (j == 0)
+                {
+                    return true;
+                }
+
+                --j;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns true if the other object is a query for the same search
+     *
+     * @param obj The object to compare to
+     * @return true if the queries are the same
+     */
+    @Override
+    public boolean equals(final Object obj)
+    {
+        if (!(obj instanceof SearchQuery))
+        {
+            return false;
+        }
+
+        final SearchQuery other = (SearchQuery) obj;
+        return m_text.equals(other.m_text) && (m_matchCase == other.m_matchCase) && (m_regex == other.m_regex);
+    }
+
+    /**
+     * Returns the text to search for
+     *
+     * @return The search text
+     */
+    public String getText()
+    {
+        return m_text;
+    }
+
+    /**
+     * Returns a hash code for the query
+     *
+     * @return The hash code
+     */
+    @Override
+    public int hashCode()
+    {
+        return (31 * m_text.hashCode()) + (m_matchCase ? 1 : 0) + (m_regex ? 2 : 0);
+    }
+
+    /**
+     * Returns true if the search is case sensitive
+     *
+     * @return true if the search must match case
+     */
+    public boolean isMatchCase()
+    {
+        return m_matchCase;
+    }
+
+    /**
+     * Returns true if the search text is a regular expression
+     *
+     * @return true for a regular expression search
+     */
+    public boolean isRegex()
+    {
+        return m_regex;
+    }
+
+    /**
+     * Returns true if a line held in a byte array matches the query. Plain text
+     * is searched for in the bytes without decoding them. May be called from
+     * several threads at once.
+     *
+     * @param bytes  The buffer holding the line
+     * @param offset The offset of the line in the buffer
+     * @param length The length of the line, without its line terminator
+     * @return true if the line contains the search text, or a match of the
+     *         regular expression
+     * @throws CancellationException If a regular expression runs for too long on
+     *                               the line
+     */
+    public boolean matches(final byte[] bytes, final int offset, final int length)
+    {
+        if (m_needle == null)
+        {
+            return matches(new String(bytes, offset, length, StandardCharsets.UTF_8));
+        }
+
+        if (containsNeedle(bytes, offset, length))
+        {
+            return true;
+        }
+
+        if (m_checkNonAscii)
+        {
+            for (int i = offset; i < offset + length; ++i)
+            {
+                if (bytes[i] < 0)
+                {
+                    return matches(new String(bytes, offset, length, StandardCharsets.UTF_8));
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns true if a line of a file matches the query. Plain text is searched
+     * for in the line's bytes without decoding them. May be called from several
+     * threads at once.
+     *
+     * @param file    The file holding the line
+     * @param lineNum The line number
+     * @return true if the line contains the search text, or a match of the
+     *         regular expression
+     * @throws CancellationException If a regular expression runs for too long on
+     *                               the line
+     */
+    public boolean matches(final MappedLogFile file, final int lineNum)
+    {
+        if (m_needle == null)
+        {
+            return matches(file.getLine(lineNum));
+        }
+
+        final long start = file.getLineStart(lineNum);
+        final int length = (int) (file.getLineEnd(lineNum) - start);
+        byte[] bytes = LINE_BUFFER.get();
+
+        if (bytes.length < length)
+        {
+            bytes = new byte[Math.max(length, 2 * bytes.length)];
+            LINE_BUFFER.set(bytes);
+        }
+
+        file.readBytes(start, bytes, 0, length);
+        return matches(bytes, 0, length);
+    }
+
+    /**
+     * Returns true if a line matches the query. May be called from several
+     * threads at once.
+     *
+     * @param line The text of the line
+     * @return true if the line contains the search text, or a match of the
+     *         regular expression
+     * @throws CancellationException If a regular expression runs for too long on
+     *                               the line
+     */
+    public boolean matches(final String line)
+    {
+        if (m_regex)
+        {
+            m_timedText.get().reset(line);
+            return m_matcher.get().reset().find();
+        }
+
+        if (m_matchCase)
+        {
+            return line.contains(m_text);
+        }
+
+        final int length = m_text.length();
+        final int last = line.length() - length;
+
+        for (int i = 0; i <= last; ++i)
+        {
+            final char c = line.charAt(i);
+
+            if (((c == m_firstLower) || (c == m_firstUpper) || (length == 0))
+                    && line.regionMatches(true, i, m_text, 0, length))
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns true if every line that matches this query also matches an earlier
+     * query, such as when more characters have been typed onto the earlier search
+     * text. The matches of this query can then be found among the earlier
+     * query's matches.
+     *
+     * @param previous The earlier query
+     * @return true if this query's matches are a subset of the earlier query's
+     */
+    public boolean refines(final SearchQuery previous)
+    {
+        if (m_regex || previous.m_regex || (!m_matchCase && previous.m_matchCase))
+        {
+            return false;
+        }
+
+        final int length = previous.m_text.length();
+
+        for (int i = 0; i + length <= m_text.length(); ++i)
+        {
+            if (m_text.regionMatches(!previous.m_matchCase, i, previous.m_text, 0, length))
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
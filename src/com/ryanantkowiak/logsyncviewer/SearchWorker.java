@@ -0,0 +1,253 @@
+package com.ryanantkowiak.logsyncviewer;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+
+import javax.swing.SwingWorker;
+
+/**
+ * Searches the merged log entries for a query in the background, off the Event
+ * Dispatch Thread, and delivers the sorted rows that match to the viewer
+ *
+ * @author Ryan Antkowiak
+ *
+ */
+public class SearchWorker extends SwingWorker<int[], Void>
+{
+    /**
+     * The viewer that receives the result
+     */
+    private final LogSyncViewer m_logSyncViewer;
+
+    /**
+     * The merged index being searched
+     */
+    private final MergedIndex m_index;
+
+    /**
+     * The FileMap index of each file in the merged index
+     */
+    private final int[] m_fileNums;
+
+    /**
+     * The data of each file in the merged index
+     */
+    private final MappedLogFile[] m_files;
+
+    /**
+     * The query to search for
+     */
+    private final SearchQuery m_query;
+
+    /**
+     * The rows that matched an earlier query that this query refines, or null to
+     * search every line
+     */
+    private final int[] m_refineRows;
+
+    /**
+     * The rows already known to match, which are added to the rows found, or null
+     */
+    private final int[] m_knownHits;
+
+    /**
+     * The progress of the search
+     */
+    private final LoadProgress m_progress;
+
+    /**
+     * The reason the search failed, or null if it did not fail
+     */
+    private String m_errorMessage = null;
+
+    /**
+     * The newest merged index that the result can be moved to: the searched index,
+     * or an index that lines of followed files were appended to since
+     */
+    private MergedIndex m_resultIndex;
+
+    /**
+     * The rows of the result index that were appended since the search started,
+     * in ascending order, or null if there are none
+     */
+    private int[] m_appendedRows = null;
+
+    /**
+     * Constructor
+     *
+     * @param lsv        The viewer that receives the result
+     * @param index      The merged index to search
+     * @param fileNums   The FileMap index of each file in the merged index
+     * @param files      The data of each file in the merged index
+     * @param query      The query to search for
+     * @param refineRows The rows that matched an earlier query that this query
+     *                   refines, so that only those rows are checked, or null to
+     *                   search every line
+     * @param knownHits  The rows already known to match, such as the matches from
+     *                   before lines were appended to the followed files, or null
+     */
+    public SearchWorker(final LogSyncViewer lsv, final MergedIndex index, final int[] fileNums,
+            final MappedLogFile[] files, final SearchQuery query, final int[] refineRows, final int[] knownHits)
+    {
+        m_logSyncViewer = lsv;
+        m_index = index;
+        m_resultIndex = index;
+        m_fileNums = fileNums;
+        m_files = files;
+        m_query = query;
+        m_refineRows = refineRows;
+        m_knownHits = knownHits;
+
+        long numLines = 0;
+
+        if (m_refineRows != null)
+        {
+            numLines = m_refineRows.length;
+        }
+        else
+        {
+            for (final MappedLogFile file : files)
+            {
+                numLines += file.getNumLines();
+            }
+        }
+
+        m_progress = new LoadProgress(files.length, numLines);
+    }
+
+    /**
+     * Cancels this search. The searching threads stop at their next progress
+     * check.
+     */
+    public void cancelSearch()
+    {
+        m_progress.cancel();
+        cancel(false);
+    }
+
+    /**
+     * Searches the files on the worker pool
+     *
+     * @return The matching rows, in ascending order
+     */
+    @Override
+    protected int[] doInBackground()
+    {
+        final int[] hits;
+
+        if (m_refineRows != null)
+        {
+            hits = LogSearcher.refine(m_index, m_fileNums, m_files, m_refineRows, m_query, m_progress);
+        }
+        else
+        {
+            hits = LogSearcher.search(m_index, m_fileNums, m_files, m_query, m_progress);
+        }
+
+        return (m_knownHits != null) ? LogMerger.unionRows(m_knownHits, hits) : hits;
+    }
+
+    /**
+     * Delivers the result to the viewer on the Event Dispatch Thread
+     */
+    @Override
+    protected void done()
+    {
+        int[] hits = null;
+
+        try
+        {
+            hits = get();
+        }
+        catch (final CancellationException e)
+        {
+        }
+        catch (final ExecutionException e)
+        {
+            m_errorMessage = e.getCause().getMessage();
+        }
+        catch (final InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        m_logSyncViewer.searchFinished(this, hits);
+    }
+
+    /**
+     * Records that lines of followed files were merged into the result index, so
+     * that the search can go on instead of starting again. The new rows are left
+     * to a later search. Nothing is recorded if the old index is not the result
+     * index, or if rows were removed.
+     *
+     * @param oldIndex     The merged index that the lines were merged into
+     * @param newIndex     The merged index after merging
+     * @param insertedRows The rows of the new index that were added, in ascending
+     *                     order, or null if rows were also removed
+     */
+    public void follow(final MergedIndex oldIndex, final MergedIndex newIndex, final int[] insertedRows)
+    {
+        if ((oldIndex != m_resultIndex) || (insertedRows == null))
+        {
+            return;
+        }
+
+        m_appendedRows = (m_appendedRows != null)
+                ? LogMerger.unionRows(LogMerger.shiftRows(m_appendedRows, insertedRows), insertedRows)
+                : insertedRows;
+        m_resultIndex = newIndex;
+    }
+
+    /**
+     * Returns the rows appended to the followed files since the search started
+     *
+     * @return The rows of the result index that were not searched, in ascending
+     *         order, or null if there are none
+     */
+    public int[] getAppendedRows()
+    {
+        return m_appendedRows;
+    }
+
+    /**
+     * Returns the reason the search failed, such as a regular expression that took
+     * too long to match
+     *
+     * @return The reason for the failure, or null if the search did not fail
+     */
+    public String getErrorMessage()
+    {
+        return m_errorMessage;
+    }
+
+    /**
+     * Returns the merged index being searched
+     *
+     * @return The merged index
+     */
+    public MergedIndex getIndex()
+    {
+        return m_index;
+    }
+
+    /**
+     * Returns the query being searched for
+     *
+     * @return The query
+     */
+    public SearchQuery getQuery()
+    {
+        return m_query;
+    }
+
+    /**
+     * Returns the newest merged index that the result can be moved to with
+     * LogMerger.shiftRows() and getAppendedRows()
+     *
+     * @return The result index
+     */
+    public MergedIndex getResultIndex()
+    {
+        return m_resultIndex;
+    }
+}
@@ -0,0 +1,192 @@
+package com.ryanantkowiak.logsyncviewer;
+
+/**
+ * A range of time-stamps that limits which part of each log file is loaded.
+ * Either end may be left open. The times are ms since the epoch, as returned by
+ * the TimestampParser, and the text each end was entered as is kept so that it
+ * can be shown again.
+ *
+ * @author Ryan Antkowiak
+ *
+ */
+public class TimeRange
+{
+    /**
+     * The range that is open at both ends, which loads the whole of each file
+     */
+    public static final TimeRange ALL = new TimeRange(Long.MIN_VALUE, Long.MAX_VALUE, "", "");
+
+    /**
+     * Parses a time range from the text of its start and end, in the given date
+     * format. An empty start or end leaves that end of the range open.
+     *
+     * @param fromText The text of the first time-stamp to load, or ""
+     * @param toText   The text of the last time-stamp to load, or ""
+     * @param parser   The time-stamp parser to read the text with
+     * @return The time range
+     * @throws IllegalArgumentException If the text is not a time-stamp, or the
+     *                                  start is after the end
+     */
+    public static TimeRange parse(final String fromText, final String toText, final TimestampParser parser)
+    {
+        final long from = parseTime(fromText.trim(), parser, Long.MIN_VALUE);
+        final long to = parseTime(toText.trim(), parser, Long.MAX_VALUE);
+
+        if (from > to)
+        {
+            throw new IllegalArgumentException("The start of the range is after its end");
+        }
+
+        if ((from == Long.MIN_VALUE) && (to == Long.MAX_VALUE))
+        {
+            return ALL;
+        }
+
+        return new TimeRange(from, to, fromText.trim(), toText.trim());
+    }
+
+    /**
+     * Parses one end of a time range
+     *
+     * @param text     The text of the time-stamp, or ""
+     * @param parser   The time-stamp parser to read the text with
+     * @param openTime The time to use if the text is empty
+     * @return The number of ms since the epoch
+     * @throws IllegalArgumentException If the text is not a time-stamp
+     */
+    private static long parseTime(final String text, final TimestampParser parser, final long openTime)
+    {
+        if (text.isEmpty())
+        {
+            return openTime;
+        }
+
+        final long time = parser.parse(text);
+
+        if (time == TimestampParser.NONE)
+        {
+            throw new IllegalArgumentException(
+                    "\"" + text + "\" does not match the date format " + parser.getPattern());
+        }
+
+        return time;
+    }
+
+    /**
+     * The first time-stamp to load, or Long.MIN_VALUE if the start is open
+     */
+    private final long m_from;
+
+    /**
+     * The last time-stamp to load, or Long.MAX_VALUE if the end is open
+     */
+    private final long m_to;
+
+    /**
+     * The text the start of the range was entered as
+     */
+    private final String m_fromText;
+
+    /**
+     * The text the end of the range was entered as
+     */
+    private final String m_toText;
+
+    /**
+     * Constructor
+     *
+     * @param from_     The first time-stamp to load
+     * @param to_       The last time-stamp to load
+     * @param fromText_ The text the start of the range was entered as
+     * @param toText_   The text the end of the range was entered as
+     */
+    private TimeRange(final long from_, final long to_, final String fromText_, final String toText_)
+    {
+        m_from = from_;
+        m_to = to_;
+        m_fromText = fromText_;
+        m_toText = toText_;
+    }
+
+    /**
+     * Returns true if the other object is a time range with the same start and
+     * end
+     *
+     * @param obj The object to compare against
+     * @return true if the ranges are the same
+     */
+    @Override
+    public boolean equals(final Object obj)
+    {
+        if (!(obj instanceof TimeRange))
+        {
+            return false;
+        }
+
+        final TimeRange other = (TimeRange) obj;
+        return (m_from == other.m_from) && (m_to == other.m_to);
+    }
+
+    /**
+     * Returns the first time-stamp to load
+     *
+     * @return The number of ms since the epoch, or Long.MIN_VALUE if the start is
+     *         open
+     */
+    public long getFrom()
+    {
+        return m_from;
+    }
+
+    /**
+     * Returns the text the start of the range was entered as
+     *
+     * @return The text of the start, or "" if the start is open
+     */
+    public String getFromText()
+    {
+        return m_fromText;
+    }
+
+    /**
+     * Returns the last time-stamp to load
+     *
+     * @return The number of ms since the epoch, or Long.MAX_VALUE if the end is
+     *         open
+     */
+    public long getTo()
+    {
+        return m_to;
+    }
+
+    /**
+     * Returns the text the end of the range was entered as
+     *
+     * @return The text of the end, or "" if the end is open
+     */
+    public String getToText()
+    {
+        return m_toText;
+    }
+
+    /**
+     * Returns a hash code for the range
+     *
+     * @return The hash code
+     */
+    @Override
+    public int hashCode()
+    {
+        return Long.hashCode(m_from) * 31 + Long.hashCode(m_to);
+    }
+
+    /**
+     * Returns true if the range is open at both ends
+     *
+     * @return true if whole files are loaded
+     */
+    public boolean isAll()
+    {
+        return (m_from == Long.MIN_VALUE) && (m_to == Long.MAX_VALUE);
+    }
+}
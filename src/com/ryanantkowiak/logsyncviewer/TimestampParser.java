@@ -0,0 +1,769 @@
+package com.ryanantkowiak.logsyncviewer;
+
+import java.nio.charset.StandardCharsets;
+import java.text.DateFormatSymbols;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * A time-stamp parser compiled from a SimpleDateFormat pattern. The pattern is
+ * broken into a list of fields and literals once, and each line is then parsed
+ * by reading digits and month, day and AM/PM names straight from the text or
+ * from the raw bytes of a log file, without allocating. Instances are immutable
+ * and may be shared between threads.
+ *
+ * Time-stamps are returned as ms since the epoch, treating the wall-clock time
+ * in the log as UTC so that the order of entries is not disturbed by daylight
+ * saving changes. Fractional seconds ("S") are read as a fraction, so "SSSSSS"
+ * micro-seconds are truncated to ms rather than added as ms. Patterns that use
+ * letters this parser does not handle (time zones, week numbers, eras and so
+ * on) fall back to a per-thread SimpleDateFormat.
+ *
+ * @author Ryan Antkowiak
+ *
+ */
+public class TimestampParser
+{
+    /**
+     * Returned by the parse methods when the text does not start with a
+     * time-stamp
+     */
+    public static final long NONE = Long.MIN_VALUE;
+
+    /**
+     * Element type for literal text in the pattern
+     */
+    private static final int LITERAL = 0;
+
+    /**
+     * Element type for the year ("y")
+     */
+    private static final int YEAR = 1;
+
+    /**
+     * Element type for the numeric month ("M" or "MM")
+     */
+    private static final int MONTH = 2;
+
+    /**
+     * Element type for the month name ("MMM" or longer)
+     */
+    private static final int MONTH_NAME = 3;
+
+    /**
+     * Element type for the day of the month ("d")
+     */
+    private static final int DAY = 4;
+
+    /**
+     * Element type for the hour in the day, 0-23 ("H")
+     */
+    private static final int HOUR_0_23 = 5;
+
+    /**
+     * Element type for the hour in the day, 1-24 ("k")
+     */
+    private static final int HOUR_1_24 = 6;
+
+    /**
+     * Element type for the hour in AM/PM, 0-11 ("K")
+     */
+    private static final int HOUR_0_11 = 7;
+
+    /**
+     * Element type for the hour in AM/PM, 1-12 ("h")
+     */
+    private static final int HOUR_1_12 = 8;
+
+    /**
+     * Element type for the minute ("m")
+     */
+    private static final int MINUTE = 9;
+
+    /**
+     * Element type for the second ("s")
+     */
+    private static final int SECOND = 10;
+
+    /**
+     * Element type for the fraction of a second ("S")
+     */
+    private static final int FRACTION = 11;
+
+    /**
+     * Element type for the AM/PM marker ("a")
+     */
+    private static final int AM_PM = 12;
+
+    /**
+     * Element type for the day name ("E"), which is matched but not used
+     */
+    private static final int DAY_NAME = 13;
+
+    /**
+     * Number of ms in a day
+     */
+    private static final long MS_PER_DAY = 24L * 60 * 60 * 1000;
+
+    /**
+     * Returns the character at a position of a source. The source is either a
+     * CharSequence, a byte array, or a MappedLogFile; bytes are returned as
+     * ISO-8859-1 characters.
+     *
+     * @param source The source text
+     * @param pos    The position of the character
+     * @return The character at the position
+     */
+    private static char charAt(final Object source, final long pos)
+    {
+        if (source instanceof MappedLogFile)
+        {
+            return (char) (((MappedLogFile) source).byteAt(pos) & 0xFF);
+        }
+
+        if (source instanceof byte[])
+        {
+            return (char) (((byte[]) source)[(int) pos] & 0xFF);
+        }
+
+        return ((CharSequence) source).charAt((int) pos);
+    }
+
+    /**
+     * Compiles a SimpleDateFormat pattern into a parser
+     *
+     * @param pattern The SimpleDateFormat pattern
+     * @return The compiled parser
+     * @throws IllegalArgumentException If the pattern is not valid
+     */
+    public static TimestampParser compile(final String pattern)
+    {
+        new SimpleDateFormat(pattern);
+
+        return new TimestampParser(pattern);
+    }
+
+    /**
+     * Returns the number of days since the epoch of a date in the proleptic
+     * Gregorian calendar
+     *
+     * @param year  The year
+     * @param month The month (1-12)
+     * @param day   The day of the month (1-31)
+     * @return The number of days since 1970-01-01
+     */
+    private static long daysFromCivil(final long year, final int month, final int day)
+    {
+        final long y = (month <= 2) ? (year - 1) : year;
+        final long era = ((y >= 0) ? y : (y - 399)) / 400;
+        final long yearOfEra = y - (era * 400);
+        final long dayOfYear = (((153 * (month + ((month > 2) ? -3 : 9))) + 2) / 5) + (day - 1);
+        final long dayOfEra = (yearOfEra * 365) + (yearOfEra / 4) - (yearOfEra / 100) + dayOfYear;
+        return (era * 146097) + dayOfEra - 719468;
+    }
+
+    /**
+     * Returns true if the given pattern letter is one this parser handles itself
+     *
+     * @param letter The pattern letter
+     * @return true if the letter is supported
+     */
+    private static boolean isSupported(final char letter)
+    {
+        return "yMLdHkKhmsSaE".indexOf(letter) >= 0;
+    }
+
+    /**
+     * Finds the longest name that matches the source at the given position,
+     * ignoring case
+     *
+     * @param names  The lower-case names to match
+     * @param source The source text
+     * @param pos    The position to match at
+     * @param end    The end of the source text
+     * @return The index of the longest matching name, or -1 if none match
+     */
+    private static int matchName(final char[][] names, final Object source, final long pos, final long end)
+    {
+        int best = -1;
+
+        for (int n = 0; n < names.length; ++n)
+        {
+            final char[] name = names[n];
+
+            if (((best != -1) && (name.length <= names[best].length)) || ((pos + name.length) > end))
+            {
+                continue;
+            }
+
+            boolean matches = true;
+
+            for (int c = 0; matches && (c < name.length); ++c)
+            {
+                matches = Character.toLowerCase(charAt(source, pos + c)) == name[c];
+            }
+
+            if (matches)
+            {
+                best = n;
+            }
+        }
+
+        return best;
+    }
+
+    /**
+     * Converts an array of names into lower-case char arrays, skipping empty names
+     *
+     * @param names The names to convert
+     * @return The lower-case names
+     */
+    private static char[][] toLowerChars(final String[] names)
+    {
+        final List<char[]> result = new ArrayList<char[]>();
+
+        for (final String name : names)
+        {
+            if ((name != null) && (name.length() > 0))
+            {
+                result.add(name.toLowerCase().toCharArray());
+            }
+        }
+
+        return result.toArray(new char[0][]);
+    }
+
+    /**
+     * Returns the element type for a run of pattern letters
+     *
+     * @param letter The pattern letter
+     * @param count  The number of times the letter is repeated
+     * @return The element type
+     */
+    private static int typeOf(final char letter, final int count)
+    {
+        switch (letter)
+        {
+            case 'y':
+                return YEAR;
+            case 'M':
+            case 'L':
+                return (count <= 2) ? MONTH : MONTH_NAME;
+            case 'd':
+                return DAY;
+            case 'H':
+                return HOUR_0_23;
+            case 'k':
+                return HOUR_1_24;
+            case 'K':
+                return HOUR_0_11;
+            case 'h':
+                return HOUR_1_12;
+            case 'm':
+                return MINUTE;
+            case 's':
+                return SECOND;
+            case 'S':
+                return FRACTION;
+            case 'a':
+                return AM_PM;
+            case 'E':
+                return DAY_NAME;
+            default:
+                return LITERAL;
+        }
+    }
+
+    /**
+     * The pattern this parser was compiled from
+     */
+    private final String m_pattern;
+
+    /**
+     * The type of each element of the pattern
+     */
+    private final int[] m_types;
+
+    /**
+     * The number of pattern letters in each element
+     */
+    private final int[] m_counts;
+
+    /**
+     * True for numeric elements that are directly followed by another numeric
+     * element, and so must read exactly as many digits as pattern letters
+     */
+    private final boolean[] m_fixedWidth;
+
+    /**
+     * The text of each literal element
+     */
+    private final char[][] m_literals;
+
+    /**
+     * Lower-case month names, long names first then short names
+     */
+    private final char[][] m_monthNames;
+
+    /**
+     * The month (0-11) of each entry in m_monthNames
+     */
+    private final int[] m_monthValues;
+
+    /**
+     * Lower-case day names, long and short
+     */
+    private final char[][] m_dayNames;
+
+    /**
+     * Lower-case AM and PM markers
+     */
+    private final char[][] m_amPm;
+
+    /**
+     * The first year of the century that two-digit years are placed in
+     */
+    private final int m_centuryStartYear;
+
+    /**
+     * True if any month or day name contains non-ASCII characters, in which case
+     * raw bytes are decoded before parsing
+     */
+    private final boolean m_nonAsciiNames;
+
+    /**
+     * Per-thread SimpleDateFormat used for patterns this parser cannot compile, or
+     * null if the pattern is compiled
+     */
+    private final ThreadLocal<SimpleDateFormat> m_fallback;
+
+    /**
+     * Constructor (use compile() to create instances)
+     *
+     * @param pattern The SimpleDateFormat pattern
+     */
+    private TimestampParser(final String pattern)
+    {
+        m_pattern = pattern;
+
+        final List<Integer> types = new ArrayList<Integer>();
+        final List<Integer> counts = new ArrayList<Integer>();
+        final List<char[]> literals = new ArrayList<char[]>();
+        boolean supported = true;
+
+        final StringBuilder literal = new StringBuilder();
+        int i = 0;
+
+        while (i < pattern.length())
+        {
+            final char c = pattern.charAt(i);
+
+            if (c == '\'')
+            {
+                if (((i + 1) < pattern.length()) && (pattern.charAt(i + 1) == '\''))
+                {
+                    literal.append('\'');
+                    i += 2;
+                    continue;
+                }
+
+                ++i;
+
+                while (i < pattern.length())
+                {
+                    if (pattern.charAt(i) == '\'')
+                    {
+                        if (((i + 1) < pattern.length()) && (pattern.charAt(i + 1) == '\''))
+                        {
+                            literal.append('\'');
+                            i += 2;
+                            continue;
+                        }
+
+                        break;
+                    }
+
+                    literal.append(pattern.charAt(i++));
+                }
+
+                ++i;
+            }
+            else if (((c >= 'a') && (c <= 'z')) || ((c >= 'A') && (c <= 'Z')))
+            {
+                int count = 1;
+
+                while (((i + count) < pattern.length()) && (pattern.charAt(i + count) == c))
+                {
+                    ++count;
+                }
+
+                if (literal.length() > 0)
+                {
+                    types.add(LITERAL);
+                    counts.add(0);
+                    literals.add(literal.toString().toCharArray());
+                    literal.setLength(0);
+                }
+
+                supported &= isSupported(c);
+                types.add(typeOf(c, count));
+                counts.add(count);
+                literals.add(null);
+                i += count;
+            }
+            else
+            {
+                literal.append(c);
+                ++i;
+            }
+        }
+
+        if (literal.length() > 0)
+        {
+            types.add(LITERAL);
+            counts.add(0);
+            literals.add(literal.toString().toCharArray());
+        }
+
+        final int n = types.size();
+        m_types = new int[n];
+        m_counts = new int[n];
+        m_fixedWidth = new boolean[n];
+        m_literals = literals.toArray(new char[0][]);
+
+        for (int e = 0; e < n; ++e)
+        {
+            m_types[e] = types.get(e);
+            m_counts[e] = counts.get(e);
+        }
+
+        for (int e = 0; (e + 1) < n; ++e)
+        {
+            m_fixedWidth[e] = isNumeric(e) && isNumeric(e + 1);
+        }
+
+        final DateFormatSymbols symbols = DateFormatSymbols.getInstance();
+        final char[][] longMonths = toLowerChars(symbols.getMonths());
+        final char[][] shortMonths = toLowerChars(symbols.getShortMonths());
+
+        m_monthNames = new char[longMonths.length + shortMonths.length][];
+        m_monthValues = new int[m_monthNames.length];
+
+        for (int m = 0; m < longMonths.length; ++m)
+        {
+            m_monthNames[m] = longMonths[m];
+            m_monthValues[m] = m;
+        }
+
+        for (int m = 0; m < shortMonths.length; ++m)
+        {
+            m_monthNames[longMonths.length + m] = shortMonths[m];
+            m_monthValues[longMonths.length + m] = m;
+        }
+
+        final char[][] longDays = toLowerChars(symbols.getWeekdays());
+        final char[][] shortDays = toLowerChars(symbols.getShortWeekdays());
+        m_dayNames = new char[longDays.length + shortDays.length][];
+        System.arraycopy(longDays, 0, m_dayNames, 0, longDays.length);
+        System.arraycopy(shortDays, 0, m_dayNames, longDays.length, shortDays.length);
+
+        m_amPm = toLowerChars(symbols.getAmPmStrings());
+
+        boolean nonAscii = false;
+
+        for (final char[][] names : new char[][][] { m_monthNames, m_dayNames, m_amPm })
+        {
+            for (final char[] name : names)
+            {
+                for (final char ch : name)
+                {
+                    nonAscii |= (ch > 0x7F);
+                }
+            }
+        }
+
+        m_nonAsciiNames = nonAscii;
+        m_centuryStartYear = Calendar.getInstance().get(Calendar.YEAR) - 80;
+
+        if (supported)
+        {
+            m_fallback = null;
+        }
+        else
+        {
+            m_fallback = ThreadLocal.withInitial(() ->
+            {
+                final SimpleDateFormat sdf = new SimpleDateFormat(pattern);
+                sdf.setTimeZone(TimeZone.getTimeZone("UTC"));
+                return sdf;
+            });
+        }
+    }
+
+    /**
+     * Returns the pattern this parser was compiled from
+     *
+     * @return The SimpleDateFormat pattern
+     */
+    public String getPattern()
+    {
+        return m_pattern;
+    }
+
+    /**
+     * Returns true if the given pattern element reads a number
+     *
+     * @param e The index of the pattern element
+     * @return true if the element is numeric
+     */
+    private boolean isNumeric(final int e)
+    {
+        switch (m_types[e])
+        {
+            case LITERAL:
+            case MONTH_NAME:
+            case AM_PM:
+            case DAY_NAME:
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Parses the time-stamp at the start of a byte array range
+     *
+     * @param bytes  The bytes of the log entry
+     * @param offset The offset of the first byte
+     * @param length The number of bytes
+     * @return The number of ms since the epoch, or NONE if the bytes do not start
+     *         with a time-stamp
+     */
+    public long parse(final byte[] bytes, final int offset, final int length)
+    {
+        if ((m_fallback != null) || m_nonAsciiNames)
+        {
+            return parse(new String(bytes, offset, length, StandardCharsets.UTF_8));
+        }
+
+        return parseSource(bytes, offset, offset + length);
+    }
+
+    /**
+     * Parses the time-stamp at the start of a line of text
+     *
+     * @param text The text of the log entry
+     * @return The number of ms since the epoch, or NONE if the text does not
+     *         start with a time-stamp
+     */
+    public long parse(final CharSequence text)
+    {
+        if (m_fallback != null)
+        {
+            final Date date = m_fallback.get().parse(text.toString(), new ParsePosition(0));
+            return (date == null) ? NONE : date.getTime();
+        }
+
+        return parseSource(text, 0, text.length());
+    }
+
+    /**
+     * Parses the time-stamp at the start of a range of a mapped log file
+     *
+     * @param file  The log file
+     * @param start The offset of the start of the log entry
+     * @param end   The offset of the end of the log entry
+     * @return The number of ms since the epoch, or NONE if the entry does not
+     *         start with a time-stamp
+     */
+    public long parse(final MappedLogFile file, final long start, final long end)
+    {
+        if ((m_fallback != null) || m_nonAsciiNames)
+        {
+            final byte[] bytes = new byte[(int) (end - start)];
+            file.readBytes(start, bytes, 0, bytes.length);
+            return parse(new String(bytes, StandardCharsets.UTF_8));
+        }
+
+        return parseSource(file, start, end);
+    }
+
+    /**
+     * Parses the time-stamp at the start of a source
+     *
+     * @param source The source text (CharSequence, byte array or MappedLogFile)
+     * @param start  The position of the start of the text
+     * @param end    The position of the end of the text
+     * @return The number of ms since the epoch, or NONE if the text does not
+     *         start with a time-stamp
+     */
+    private long parseSource(final Object source, final long start, final long end)
+    {
+        long year = 1970;
+        int month = 1;
+        int day = 1;
+        int hour = 0;
+        int minute = 0;
+        int second = 0;
+        int millis = 0;
+        int pm = -1;
+        long pos = start;
+
+        for (int e = 0; e < m_types.length; ++e)
+        {
+            final int type = m_types[e];
+
+            if (type == LITERAL)
+            {
+                final char[] lit = m_literals[e];
+
+                if ((pos + lit.length) > end)
+                {
+                    return NONE;
+                }
+
+                for (int c = 0; c < lit.length; ++c)
+                {
+                    if (charAt(source, pos + c) != lit[c])
+                    {
+                        return NONE;
+                    }
+                }
+
+                pos += lit.length;
+                continue;
+            }
+
+            while ((pos < end) && ((charAt(source, pos) == ' ') || (charAt(source, pos) == '\t')))
+            {
+                ++pos;
+            }
+
+            if (pos >= end)
+            {
+                return NONE;
+            }
+
+            if ((type == MONTH_NAME) || (type == DAY_NAME) || (type == AM_PM))
+            {
+                final char[][] names = (type == MONTH_NAME) ? m_monthNames : ((type == DAY_NAME) ? m_dayNames : m_amPm);
+                final int match = matchName(names, source, pos, end);
+
+                if (match == -1)
+                {
+                    return NONE;
+                }
+
+                if (type == MONTH_NAME)
+                {
+                    month = m_monthValues[match] + 1;
+                }
+                else if (type == AM_PM)
+                {
+                    pm = match;
+                }
+
+                pos += names[match].length;
+                continue;
+            }
+
+            final long maxPos = m_fixedWidth[e] ? Math.min(end, pos + m_counts[e]) : end;
+            final long digitsStart = pos;
+            long value = 0;
+
+            while (pos < maxPos)
+            {
+                final char c = charAt(source, pos);
+
+                if ((c < '0') || (c > '9'))
+                {
+                    break;
+                }
+
+                if (value < 100000000000L)
+                {
+                    value = (value * 10) + (c - '0');
+                }
+
+                ++pos;
+            }
+
+            final int numDigits = (int) (pos - digitsStart);
+
+            if (numDigits == 0)
+            {
+                return NONE;
+            }
+
+            switch (type)
+            {
+                case YEAR:
+                    year = value;
+
+                    if ((m_counts[e] <= 2) && (numDigits == 2))
+                    {
+                        year += (m_centuryStartYear / 100) * 100;
+
+                        if (year < m_centuryStartYear)
+                        {
+                            year += 100;
+                        }
+                    }
+                    break;
+                case MONTH:
+                    month = (int) value;
+                    break;
+                case DAY:
+                    day = (int) value;
+                    break;
+                case HOUR_1_24:
+                    hour = (value == 24) ? 0 : (int) value;
+                    break;
+                case HOUR_1_12:
+                    hour = (value == 12) ? 0 : (int) value;
+                    break;
+                case HOUR_0_23:
+                case HOUR_0_11:
+                    hour = (int) value;
+                    break;
+                case MINUTE:
+                    minute = (int) value;
+                    break;
+                case SECOND:
+                    second = (int) value;
+                    break;
+                case FRACTION:
+                    millis = (int) value;
+
+                    for (int d = numDigits; d < 3; ++d)
+                    {
+                        millis *= 10;
+                    }
+
+                    for (int d = numDigits; d > 3; --d)
+                    {
+                        millis /= 10;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        if (pm == 1)
+        {
+            hour += 12;
+        }
+
+        final long yearOffset = Math.floorDiv(month - 1, 12);
+        final int normalizedMonth = Math.floorMod(month - 1, 12) + 1;
+        final long days = daysFromCivil(year + yearOffset, normalizedMonth, 1) + (day - 1);
+
+        return (days * MS_PER_DAY) + (hour * 3600000L) + (minute * 60000L) + (second * 1000L) + millis;
+    }
+}
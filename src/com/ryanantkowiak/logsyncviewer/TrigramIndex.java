@@ -0,0 +1,550 @@
+package com.ryanantkowiak.logsyncviewer;
+
+import java.util.Arrays;
+
+/**
+ * An optional index of the three-byte sequences (trigrams) in each line of a log
+ * file, used to find the few lines that may contain a search text without
+ * reading the whole file. For each trigram, the index holds a posting list of
+ * the lines that contain it, stored as variable-length deltas. A search takes
+ * the trigrams of its text, intersects their posting lists, and only checks the
+ * candidate lines that remain.
+ *
+ * To keep the index compact, bytes are folded into 64 classes (letters ignore
+ * case), and trigrams that occur in more than one line in DENSE_FRACTION are
+ * not indexed, since they would not narrow a search much.
+ *
+ * The index is built while files are loaded, if the logsyncviewer.trigram.index
+ * system property is true, and is saved with the file's index in the
+ * IndexCache.
+ *
+ * @author Ryan Antkowiak
+ *
+ */
+public class TrigramIndex
+{
+    /**
+     * True if trigram indexes are built for loaded files
+     */
+    private static final boolean ENABLED = Boolean.getBoolean("logsyncviewer.trigram.index");
+
+    /**
+     * Files smaller than this are not indexed, since searching them is fast
+     * anyway
+     */
+    private static final long MIN_FILE_SIZE = 1L << 20;
+
+    /**
+     * Trigrams that occur in more than one line in this many are not indexed
+     */
+    private static final int DENSE_FRACTION = 8;
+
+    /**
+     * The number of bits in a folded byte
+     */
+    private static final int FOLD_BITS = 6;
+
+    /**
+     * The number of distinct trigrams of folded bytes
+     */
+    static final int NUM_KEYS = 1 << (3 * FOLD_BITS);
+
+    /**
+     * The number of lines indexed between progress checks
+     */
+    private static final int PROGRESS_BLOCK_SIZE = 1 << 16;
+
+    /**
+     * The folded class of each byte value: lower case letters, then digits, then
+     * the other byte values spread over the remaining classes
+     */
+    private static final byte[] FOLD = foldTable();
+
+    /**
+     * Builds the trigram index of a file
+     *
+     * @param file     The file to index
+     * @param progress The progress of the load, checked for cancellation, or null
+     * @return The trigram index, or null if the file is too small to be worth
+     *         indexing or its index would be too large
+     * @throws java.util.concurrent.CancellationException If the load is cancelled
+     */
+    public static TrigramIndex build(final MappedLogFile file, final LoadProgress progress)
+    {
+        if (file.getSize() < MIN_FILE_SIZE)
+        {
+            return null;
+        }
+
+        final int numLines = file.getNumLines();
+        final int[] counts = new int[NUM_KEYS];
+        final long[] sizes = new long[NUM_KEYS];
+        final int[] last = new int[NUM_KEYS];
+        final byte[] line = new byte[file.getMaxLineLength()];
+
+        for (int n = 0; n < numLines; ++n)
+        {
+            final int length = readLine(file, n, line);
+            int key = 0;
+
+            for (int i = 0; i < length; ++i)
+            {
+                key = ((key << FOLD_BITS) | FOLD[line[i] & 0xFF]) & (NUM_KEYS - 1);
+
+                if ((i >= 2) && (last[key] != n + 1))
+                {
+                    ++counts[key];
+                    sizes[key] += varIntSize(n + 1 - last[key]);
+                    last[key] = n + 1;
+                }
+            }
+
+            checkProgress(progress, n);
+        }
+
+        final int[] offsets = new int[NUM_KEYS + 1];
+        long total = 0;
+
+        for (int key = 0; key < NUM_KEYS; ++key)
+        {
+            if ((long) counts[key] * DENSE_FRACTION > numLines)
+            {
+                counts[key] = -1;
+            }
+            else
+            {
+                total += sizes[key];
+            }
+
+            if (total > Integer.MAX_VALUE - 8)
+            {
+                return null;
+            }
+
+            offsets[key + 1] = (int) total;
+        }
+
+        final byte[] postings = new byte[(int) total];
+        final int[] positions = Arrays.copyOf(offsets, NUM_KEYS);
+
+        Arrays.fill(last, 0);
+
+        for (int n = 0; n < numLines; ++n)
+        {
+            final int length = readLine(file, n, line);
+            int key = 0;
+
+            for (int i = 0; i < length; ++i)
+            {
+                key = ((key << FOLD_BITS) | FOLD[line[i] & 0xFF]) & (NUM_KEYS - 1);
+
+                if ((i >= 2) && (counts[key] >= 0) && (last[key] != n + 1))
+                {
+                    positions[key] = writeVarInt(postings, positions[key], n + 1 - last[key]);
+                    last[key] = n + 1;
+                }
+            }
+
+            checkProgress(progress, n);
+        }
+
+        return new TrigramIndex(numLines, counts, offsets, postings);
+    }
+
+    /**
+     * Checks for cancellation every PROGRESS_BLOCK_SIZE lines
+     *
+     * @param progress The progress of the load, or null
+     * @param lineNum  The line that was just indexed
+     * @throws java.util.concurrent.CancellationException If the load is cancelled
+     */
+    private static void checkProgress(final LoadProgress progress, final int lineNum)
+    {
+        if ((progress != null) && ((lineNum % PROGRESS_BLOCK_SIZE) == 0))
+        {
+            progress.checkCancelled();
+        }
+    }
+
+    /**
+     * Returns the table of folded byte classes
+     *
+     * @return The folded class of each byte value
+     */
+    private static byte[] foldTable()
+    {
+        final byte[] fold = new byte[256];
+
+        for (int b = 0; b < 256; ++b)
+        {
+            if ((b >= 'a') && (b <= 'z'))
+            {
+                fold[b] = (byte) (b - 'a');
+            }
+            else if ((b >= 'A') && (b <= 'Z'))
+            {
+                fold[b] = (byte) (b - 'A');
+            }
+            else if ((b >= '0') && (b <= '9'))
+            {
+                fold[b] = (byte) (26 + b - '0');
+            }
+            else
+            {
+                fold[b] = (byte) (36 + (b % 28));
+            }
+        }
+
+        return fold;
+    }
+
+    /**
+     * Returns true if trigram indexes are built for loaded files
+     *
+     * @return true if trigram indexing is enabled
+     */
+    public static boolean isEnabled()
+    {
+        return ENABLED;
+    }
+
+    /**
+     * Returns the trigrams of a search text that can be looked up in an index.
+     * Only ASCII text can be looked up, since each of its characters is a single
+     * byte of the line. When case is ignored, trigrams holding i, k or s are left
+     * out, since those letters also match non-ASCII characters (such as the
+     * dotless i and the Kelvin sign) that are not folded with them.
+     *
+     * @param text      The search text
+     * @param matchCase True if the search is case sensitive
+     * @return The trigrams, or null if the text has none that can be looked up
+     */
+    private static int[] keys(final String text, final boolean matchCase)
+    {
+        final int[] keys = new int[Math.max(0, text.length() - 2)];
+        int numKeys = 0;
+        int key = 0;
+        int usable = 0;
+
+        for (int i = 0; i < text.length(); ++i)
+        {
+            final char c = text.charAt(i);
+
+            if (c >= 0x80)
+            {
+                return null;
+            }
+
+            final char lower = Character.toLowerCase(c);
+            usable = (!matchCase && ((lower == 'i') || (lower == 'k') || (lower == 's'))) ? 0 : (usable + 1);
+            key = ((key << FOLD_BITS) | FOLD[c]) & (NUM_KEYS - 1);
+
+            if (usable >= 3)
+            {
+                keys[numKeys++] = key;
+            }
+        }
+
+        return (numKeys > 0) ? Arrays.copyOf(keys, numKeys) : null;
+    }
+
+    /**
+     * Reads the bytes of a line into a buffer
+     *
+     * @param file    The file to read
+     * @param lineNum The line number
+     * @param dest    The buffer, at least as long as the longest line
+     * @return The length of the line
+     */
+    private static int readLine(final MappedLogFile file, final int lineNum, final byte[] dest)
+    {
+        final long start = file.getLineStart(lineNum);
+        final int length = (int) (file.getLineEnd(lineNum) - start);
+
+        file.readBytes(start, dest, 0, length);
+        return length;
+    }
+
+    /**
+     * Returns a trigram index read back from the IndexCache
+     *
+     * @param numLines The number of lines indexed
+     * @param counts   The number of lines holding each trigram, or -1 for
+     *                 trigrams that are not indexed
+     * @param offsets  The offset of each trigram's posting list
+     * @param postings The posting lists
+     * @return The trigram index
+     */
+    static TrigramIndex restore(final int numLines, final int[] counts, final int[] offsets, final byte[] postings)
+    {
+        return new TrigramIndex(numLines, counts, offsets, postings);
+    }
+
+    /**
+     * Returns the number of bytes used to store a value as a variable-length int
+     *
+     * @param value The value
+     * @return The number of bytes
+     */
+    private static int varIntSize(final int value)
+    {
+        int size = 1;
+
+        for (int v = value >>> 7; v != 0; v >>>= 7)
+        {
+            ++size;
+        }
+
+        return size;
+    }
+
+    /**
+     * Writes a value as a variable-length int, seven bits per byte with the high
+     * bit set on all bytes but the last
+     *
+     * @param dest     The array to write into
+     * @param position The position of the first byte
+     * @param value    The value to write
+     * @return The position just past the last byte written
+     */
+    private static int writeVarInt(final byte[] dest, final int position, final int value)
+    {
+        int pos = position;
+        int v = value;
+
+        while ((v & ~0x7F) != 0)
+        {
+            dest[pos++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+
+        dest[pos++] = (byte) v;
+        return pos;
+    }
+
+    /**
+     * The number of lines indexed, from the start of the file
+     */
+    private final int m_numLines;
+
+    /**
+     * The number of lines holding each trigram, or -1 for trigrams that are not
+     * indexed
+     */
+    private final int[] m_counts;
+
+    /**
+     * The offset in m_postings of each trigram's posting list. The entry after the
+     * last trigram holds the end of the posting lists.
+     */
+    private final int[] m_offsets;
+
+    /**
+     * The posting lists, as variable-length deltas between line numbers plus one
+     */
+    private final byte[] m_postings;
+
+    /**
+     * Constructor
+     *
+     * @param numLines_ The number of lines indexed
+     * @param counts_   The number of lines holding each trigram
+     * @param offsets_  The offset of each trigram's posting list
+     * @param postings_ The posting lists
+     */
+    private TrigramIndex(final int numLines_, final int[] counts_, final int[] offsets_, final byte[] postings_)
+    {
+        m_numLines = numLines_;
+        m_counts = counts_;
+        m_offsets = offsets_;
+        m_postings = postings_;
+    }
+
+    /**
+     * Returns the indexed lines that may contain a search text. Every indexed line
+     * that contains the text is returned, but some of the returned lines may not
+     * contain it.
+     *
+     * @param text      The search text
+     * @param matchCase True if the search is case sensitive
+     * @return The candidate line numbers in ascending order, or null if the index
+     *         cannot narrow the search and every line must be checked
+     */
+    public int[] candidates(final String text, final boolean matchCase)
+    {
+        final int[] keys = keys(text, matchCase);
+
+        if (keys == null)
+        {
+            return null;
+        }
+
+        final long[] byCount = new long[keys.length];
+        int numIndexed = 0;
+
+        for (final int key : keys)
+        {
+            if (m_counts[key] >= 0)
+            {
+                byCount[numIndexed++] = ((long) m_counts[key] << 32) | key;
+            }
+        }
+
+        if (numIndexed == 0)
+        {
+            return null;
+        }
+
+        Arrays.sort(byCount, 0, numIndexed);
+
+        int[] lines = new int[0];
+
+        for (int k = 0; k < numIndexed; ++k)
+        {
+            final int key = (int) byCount[k];
+
+            if ((k == 0) || (key != (int) byCount[k - 1]))
+            {
+                lines = (k == 0) ? decode(key) : intersect(lines, key);
+            }
+
+            if (lines.length == 0)
+            {
+                break;
+            }
+        }
+
+        return lines;
+    }
+
+    /**
+     * Returns the lines in the posting list of a trigram
+     *
+     * @param key The trigram
+     * @return The line numbers in ascending order
+     */
+    private int[] decode(final int key)
+    {
+        final int[] lines = new int[m_counts[key]];
+        int pos = m_offsets[key];
+        int line = 0;
+
+        for (int n = 0; n < lines.length; ++n)
+        {
+            int delta = 0;
+
+            for (int shift = 0;; shift += 7)
+            {
+                final byte b = m_postings[pos++];
+                delta |= (b & 0x7F) << shift;
+
+                if (b >= 0)
+                {
+                    break;
+                }
+            }
+
+            line += delta;
+            lines[n] = line - 1;
+        }
+
+        return lines;
+    }
+
+    /**
+     * Returns the counts of lines holding each trigram, for the IndexCache
+     *
+     * @return The line counts, with -1 for trigrams that are not indexed
+     */
+    int[] getCounts()
+    {
+        return m_counts;
+    }
+
+    /**
+     * Returns the number of bytes of heap used by the index
+     *
+     * @return The size of the index, in bytes
+     */
+    public long getHeapSize()
+    {
+        return (4L * m_counts.length) + (4L * m_offsets.length) + m_postings.length;
+    }
+
+    /**
+     * Returns the number of lines indexed. Lines after these, such as lines
+     * appended to a followed file, are not indexed.
+     *
+     * @return The number of indexed lines
+     */
+    public int getNumLines()
+    {
+        return m_numLines;
+    }
+
+    /**
+     * Returns the offsets of the posting lists, for the IndexCache
+     *
+     * @return The posting list offsets
+     */
+    int[] getOffsets()
+    {
+        return m_offsets;
+    }
+
+    /**
+     * Returns the posting lists, for the IndexCache
+     *
+     * @return The posting lists
+     */
+    byte[] getPostings()
+    {
+        return m_postings;
+    }
+
+    /**
+     * Returns the lines that are both in an array and in the posting list of a
+     * trigram. The array is reused for the result.
+     *
+     * @param lines The line numbers in ascending order
+     * @param key   The trigram
+     * @return The line numbers in both, in ascending order
+     */
+    private int[] intersect(final int[] lines, final int key)
+    {
+        final int end = m_offsets[key + 1];
+        int pos = m_offsets[key];
+        int line = 0;
+        int n = 0;
+
+        for (int i = 0; (i < lines.length) && (pos < end); )
+        {
+            int delta = 0;
+
+            for (int shift = 0;; shift += 7)
+            {
+                final byte b = m_postings[pos++];
+                delta |= (b & 0x7F) << shift;
+
+                if (b >= 0)
+                {
+                    break;
+                }
+            }
+
+            line += delta;
+
+            while ((i < lines.length) && (lines[i] < line - 1))
+            {
+                ++i;
+            }
+
+            if ((i < lines.length) && (lines[i] == line - 1))
+            {
+                lines[n++] = lines[i++];
+            }
+        }
+
+        return Arrays.copyOf(lines, n);
+    }
+}
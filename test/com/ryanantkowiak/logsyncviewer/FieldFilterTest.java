@@ -0,0 +1,268 @@
+package com.ryanantkowiak.logsyncviewer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Checks the parsing of FieldFilter expressions and the rows they select, using
+ * the default thread field
+ *
+ * @author Ryan Antkowiak
+ *
+ */
+public class FieldFilterTest
+{
+    /**
+     * The lines of the first test log
+     */
+    private static final String A_LOG = "2020-01-01 00:00:00 [main] INFO started\n"
+            + "2020-01-01 00:00:02 [worker-1] ERROR failed\n"
+            + "\tat com.example.Foo.bar(Foo.java:1)\n"
+            + "2020-01-01 00:00:04 [main] WARNING slow\n";
+
+    /**
+     * The lines of the second test log
+     */
+    private static final String B_LOG = "2020-01-01 00:00:01 [main] DEBUG tick\n"
+            + "2020-01-01 00:00:03 [worker-2] SEVERE boom\n"
+            + "2020-01-01 00:00:05 no thread INFO here\n";
+
+    /**
+     * The date format of the test logs
+     */
+    private static final TimestampParser PARSER = TimestampParser.compile("yyyy-MM-dd HH:mm:ss");
+
+    /**
+     * The directory the test logs are written in
+     */
+    private Path m_dir;
+
+    /**
+     * The paths of the test logs
+     */
+    private String[] m_names;
+
+    /**
+     * The test logs
+     */
+    private MappedLogFile[] m_files;
+
+    /**
+     * The FileMap index of each test log
+     */
+    private final int[] m_fileNums = { 0, 1 };
+
+    /**
+     * The merged index of the test logs
+     */
+    private MergedIndex m_index;
+
+    /**
+     * Makes sure that no fields file is read, so that only the default thread
+     * field is defined
+     */
+    @BeforeClass
+    public static void setUpClass()
+    {
+        System.setProperty("logsyncviewer.fields.file", "no such fields file");
+    }
+
+    /**
+     * Writes, opens and merges the test logs
+     *
+     * @throws IOException If a log cannot be written or read
+     */
+    @Before
+    public void setUp() throws IOException
+    {
+        m_dir = Files.createTempDirectory("fieldfilter");
+        m_names = new String[] { m_dir.resolve("a.log").toString(), m_dir.resolve("b.log").toString() };
+        m_files = new MappedLogFile[m_names.length];
+
+        Files.write(m_dir.resolve("a.log"), A_LOG.getBytes(StandardCharsets.UTF_8));
+        Files.write(m_dir.resolve("b.log"), B_LOG.getBytes(StandardCharsets.UTF_8));
+
+        for (int f = 0; f < m_files.length; ++f)
+        {
+            m_files[f] = MappedLogFile.open(m_dir.resolve(m_names[f]));
+            m_files[f].prepareRun(PARSER);
+        }
+
+        m_index = LogMerger.merge(m_fileNums, m_files, m_names, null);
+    }
+
+    /**
+     * Deletes the test logs
+     *
+     * @throws IOException If a log cannot be deleted
+     */
+    @After
+    public void tearDown() throws IOException
+    {
+        for (final String name : m_names)
+        {
+            Files.delete(m_dir.resolve(name));
+        }
+
+        Files.delete(m_dir);
+    }
+
+    /**
+     * Returns the lines of the test logs that a filter selects
+     *
+     * @param text The text of the filter
+     * @return Each selected line as "a:line" or "b:line", in merged order
+     */
+    private String[] select(final String text)
+    {
+        final List<String> lines = new ArrayList<String>();
+
+        for (final int row : FieldFilter.parse(text).evaluate(m_index, m_fileNums, m_names, m_files))
+        {
+            lines.add(((m_index.getFileNum(row) == 0) ? "a:" : "b:") + m_index.getLineNum(row));
+        }
+
+        return lines.toArray(new String[0]);
+    }
+
+    /**
+     * Terms on the level, the thread and the file select the lines they name,
+     * with level words mapped to their level
+     */
+    @Test
+    public void testTerms()
+    {
+        assertArrayEquals(new String[] { "a:1", "b:1" }, select("level=ERROR"));
+        assertArrayEquals(new String[] { "a:3" }, select("level = warn"));
+        assertArrayEquals(new String[] { "a:0", "b:0", "b:2" }, select("level=INFO,DEBUG"));
+        assertArrayEquals(new String[] { "a:2", "a:1", "b:1", "a:3" }, select("level!=INFO,DEBUG"));
+        assertArrayEquals(new String[] { "a:0", "b:0", "a:3" }, select("thread=main"));
+        assertArrayEquals(new String[] { "a:2", "b:2" }, select("thread=\"\""));
+        assertArrayEquals(new String[] { "b:0", "b:1", "b:2" }, select("file=b.log"));
+        assertArrayEquals(new String[] { "a:2", "a:0", "a:1", "a:3" }, select("file=\"" + m_names[0] + "\""));
+    }
+
+    /**
+     * Terms combine with and, or, not and parentheses, and and binds more tightly
+     * than or
+     */
+    @Test
+    public void testOperators()
+    {
+        assertArrayEquals(new String[] { "a:0" }, select("thread=main and level=INFO"));
+        assertArrayEquals(new String[] { "a:1", "b:1" }, select("level=ERROR or thread=worker-1"));
+        assertArrayEquals(new String[] { "a:2", "b:2" }, select("not (thread=main or level=ERROR)"));
+        assertArrayEquals(new String[] { "a:2", "b:2" }, select("!thread=main && !level=ERROR"));
+        assertArrayEquals(new String[] { "a:0", "a:1", "b:1", "b:2" },
+                select("level=ERROR or level=INFO and file=b.log or thread=main and level=INFO"));
+        assertArrayEquals(new String[] { "b:1", "b:2" },
+                select("(level=ERROR or level=INFO) and file=b.log and thread!=main"));
+    }
+
+    /**
+     * The FieldIndex of a file is only built once a filter on the level or a
+     * field is evaluated
+     */
+    @Test
+    public void testLazyFieldIndex()
+    {
+        assertArrayEquals(new String[] { "a:2", "a:0", "a:1", "a:3" }, select("file=a.log"));
+        assertNull(m_files[0].getFields());
+
+        select("file=a.log and level=ERROR");
+        assertNotNull(m_files[0].getFields());
+        assertNotNull(m_files[1].getFields());
+    }
+
+    /**
+     * Filters that are not valid are rejected
+     */
+    @Test
+    public void testParseErrors()
+    {
+        for (final String text : new String[] { "", "level", "level=", "colour=red", "level=LOUD", "(level=INFO",
+                "level=INFO)", "thread=\"main", "level=INFO and", "level=INFO level=ERROR" })
+        {
+            try
+            {
+                FieldFilter.parse(text);
+                fail(text);
+            }
+            catch (final IllegalArgumentException e)
+            {
+                assertNotNull(e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * A filter on a generated log selects the same lines as reading the level and
+     * thread from the text of each line
+     *
+     * @throws IOException If the log cannot be written or read
+     */
+    @Test
+    public void testGeneratedLog() throws IOException
+    {
+        final LogGenerator generator = new LogGenerator();
+        generator.setNumFiles(1);
+        generator.setFileSize(256 << 10);
+        generator.setTraces(0.1);
+
+        final Path path = generator.generate(m_dir, "generated").get(0);
+
+        try
+        {
+            final MappedLogFile file = MappedLogFile.open(path);
+            file.prepareRun(TimestampParser.compile("MMM dd HH:mm:ss"));
+
+            final int[] fileNums = { 0 };
+            final String[] names = { path.toString() };
+            final MappedLogFile[] files = { file };
+            final MergedIndex index = LogMerger.merge(fileNums, files, names, null);
+            final int[] rows = FieldFilter.parse("level=ERROR,WARN and not thread=4").evaluate(index, fileNums,
+                    names, files);
+
+            final Pattern entry = Pattern.compile("\\[([^\\]]+)\\]: (\\w+) ");
+            int n = 0;
+
+            for (int row = 0; row < index.getSize(); ++row)
+            {
+                final Matcher m = entry.matcher(file.getLine(index.getLineNum(row)));
+                final boolean expected = m.find() && (m.group(2).equals("ERROR") || m.group(2).equals("WARN"))
+                        && !m.group(1).equals("4");
+
+                if (expected)
+                {
+                    assertTrue(row + " not selected", (n < rows.length) && (rows[n] == row));
+                    ++n;
+                }
+            }
+
+            assertEquals(n, rows.length);
+            assertTrue(n > 0);
+        }
+        finally
+        {
+            Files.delete(path);
+        }
+    }
+}
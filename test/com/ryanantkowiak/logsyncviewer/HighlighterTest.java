@@ -0,0 +1,225 @@
+package com.ryanantkowiak.logsyncviewer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks the runs that the Highlighter's automaton finds against matching each
+ * rule on its own, and the parsing of highlight rules
+ *
+ * @author Ryan Antkowiak
+ *
+ */
+public class HighlighterTest
+{
+    /**
+     * Returns the runs of a line found by matching every rule at every position,
+     * in the form getRuns() returns
+     *
+     * @param rules The rules, in order of priority
+     * @param text  The text of the line
+     * @return The highlighted runs
+     */
+    private static int[] bruteForceRuns(final List<HighlightRule> rules, final String text)
+    {
+        final int[] ruleAt = new int[text.length()];
+        Arrays.fill(ruleAt, Integer.MAX_VALUE);
+
+        for (int r = 0; r < rules.size(); ++r)
+        {
+            final HighlightRule rule = rules.get(r);
+            final int length = rule.getText().length();
+
+            for (int start = 0; start + length <= text.length(); ++start)
+            {
+                if (text.regionMatches(!rule.isMatchCase(), start, rule.getText(), 0, length))
+                {
+                    for (int p = start; p < start + length; ++p)
+                    {
+                        ruleAt[p] = Math.min(ruleAt[p], r);
+                    }
+                }
+            }
+        }
+
+        final List<Integer> runs = new ArrayList<Integer>();
+
+        for (int start = 0; start < ruleAt.length;)
+        {
+            int end = start + 1;
+
+            while ((end < ruleAt.length) && (ruleAt[end] == ruleAt[start]))
+            {
+                ++end;
+            }
+
+            if (ruleAt[start] != Integer.MAX_VALUE)
+            {
+                runs.addAll(Arrays.asList(start, end, ruleAt[start]));
+            }
+
+            start = end;
+        }
+
+        return runs.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Returns a rule with no colors or font style
+     *
+     * @param text      The text to highlight
+     * @param matchCase True if the text must match case
+     * @return The rule
+     */
+    private static HighlightRule rule(final String text, final boolean matchCase)
+    {
+        return new HighlightRule(text, matchCase, null, null, Font.PLAIN);
+    }
+
+    /**
+     * Returns a random string of the characters a, b, A and B
+     *
+     * @param random The source of randomness
+     * @param length The length of the string
+     * @return The string
+     */
+    private static String randomText(final Random random, final int length)
+    {
+        final StringBuilder sb = new StringBuilder();
+
+        for (int i = 0; i < length; ++i)
+        {
+            sb.append("abAB".charAt(random.nextInt(4)));
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Where matches overlap, the earlier rule wins, and a later rule only
+     * highlights what is left
+     */
+    @Test
+    public void testOverlaps()
+    {
+        final Highlighter highlighter = new Highlighter(Arrays.asList(rule("error", false), rule("or", false),
+                rule("ab", false), rule("abcd", false)));
+
+        assertArrayEquals(new int[] { 3, 8, 0, 9, 11, 1 },
+                highlighter.getRuns(new LogSyncListItem(0, 0, 0), "an ERROR or"));
+        assertArrayEquals(new int[] { 0, 2, 2, 2, 4, 3 }, highlighter.getRuns(new LogSyncListItem(0, 1, 0), "abcd"));
+        assertArrayEquals(new int[] { 0, 4, 2 }, highlighter.getRuns(new LogSyncListItem(0, 2, 0), "abab"));
+        assertArrayEquals(new int[0], highlighter.getRuns(new LogSyncListItem(0, 3, 0), "nothing here"));
+    }
+
+    /**
+     * Rules that match case only highlight text in the same case
+     */
+    @Test
+    public void testMatchCase()
+    {
+        final Highlighter highlighter = new Highlighter(HighlightRule.parseRules("red case : ERROR\nblue : error"));
+
+        assertArrayEquals(new int[] { 0, 5, 0, 6, 11, 1 },
+                highlighter.getRuns(new LogSyncListItem(0, 0, 0), "ERROR error"));
+        assertArrayEquals(new int[] { 0, 5, 1 }, highlighter.getRuns(new LogSyncListItem(0, 1, 0), "Error"));
+    }
+
+    /**
+     * A row whose text has changed is matched again rather than taken from the
+     * cache
+     */
+    @Test
+    public void testChangedText()
+    {
+        final Highlighter highlighter = new Highlighter(Collections.singletonList(rule("warn", false)));
+        final LogSyncListItem item = new LogSyncListItem(3, 7, 0);
+
+        assertArrayEquals(new int[] { 0, 4, 0 }, highlighter.getRuns(item, "WARN x"));
+        assertArrayEquals(new int[] { 2, 6, 0 }, highlighter.getRuns(item, "x warn"));
+        assertArrayEquals(new int[0], new Highlighter(new ArrayList<HighlightRule>()).getRuns(item, "warn"));
+    }
+
+    /**
+     * The automaton finds the same runs as matching each rule on its own, for
+     * random rules that share prefixes and suffixes
+     */
+    @Test
+    public void testMatchesBruteForce()
+    {
+        final Random random = new Random(11);
+
+        for (int trial = 0; trial < 2000; ++trial)
+        {
+            final List<HighlightRule> rules = new ArrayList<HighlightRule>();
+
+            for (int r = random.nextInt(6); r >= 0; --r)
+            {
+                rules.add(rule(randomText(random, 1 + random.nextInt(4)), random.nextBoolean()));
+            }
+
+            final Highlighter highlighter = new Highlighter(rules);
+            final String text = randomText(random, random.nextInt(20));
+
+            assertArrayEquals(rules + " in " + text, bruteForceRuns(rules, text),
+                    highlighter.getRuns(new LogSyncListItem(0, trial, 0), text));
+        }
+    }
+
+    /**
+     * Rules are parsed with their colors, font style and case option
+     */
+    @Test
+    public void testParseRules()
+    {
+        final List<HighlightRule> rules = HighlightRule
+                .parseRules("red bold : ERROR\r\n\n  bg=#00ff00 italic case : Warn : x\n");
+
+        assertEquals(2, rules.size());
+        assertEquals("ERROR", rules.get(0).getText());
+        assertEquals(Color.RED, rules.get(0).getForeground());
+        assertEquals(Font.BOLD, rules.get(0).getFontStyle());
+        assertFalse(rules.get(0).isMatchCase());
+        assertEquals("Warn : x", rules.get(1).getText());
+        assertNull(rules.get(1).getForeground());
+        assertEquals(new Color(0x00ff00), rules.get(1).getBackground());
+        assertEquals(Font.ITALIC, rules.get(1).getFontStyle());
+        assertTrue(rules.get(1).isMatchCase());
+    }
+
+    /**
+     * Rules with an unknown color, no colon or no text are rejected with their
+     * line number
+     */
+    @Test
+    public void testParseErrors()
+    {
+        for (final String text : new String[] { "red : ERROR\nmauve : x", "red : ERROR\nno colon",
+                "red : ERROR\nred :" })
+        {
+            try
+            {
+                HighlightRule.parseRules(text);
+                fail(text);
+            }
+            catch (final IllegalArgumentException e)
+            {
+                assertTrue(e.getMessage(), e.getMessage().startsWith("Line 2: "));
+            }
+        }
+    }
+}
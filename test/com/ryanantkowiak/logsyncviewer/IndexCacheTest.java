@@ -0,0 +1,194 @@
+package com.ryanantkowiak.logsyncviewer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Checks that an index saved by IndexCache is restored exactly, and is not used
+ * once its log file changes. The cache is kept in a temporary directory.
+ *
+ * @author Ryan Antkowiak
+ *
+ */
+public class IndexCacheTest
+{
+    /**
+     * The date format of the test logs
+     */
+    private static final TimestampParser PARSER = TimestampParser.compile("yyyy-MM-dd HH:mm:ss.SSS");
+
+    /**
+     * The directory the test logs and the cache are written in
+     */
+    private static Path s_dir;
+
+    /**
+     * Deletes a directory and everything in it
+     *
+     * @param dir The directory
+     * @throws IOException If a file cannot be deleted
+     */
+    private static void deleteAll(final Path dir) throws IOException
+    {
+        try (final Stream<Path> paths = Files.walk(dir))
+        {
+            for (final Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator)
+            {
+                Files.delete(path);
+            }
+        }
+    }
+
+    /**
+     * Writes a log that is large enough to be cached
+     *
+     * @param prefix The start of the file name
+     * @return The path of the log
+     * @throws IOException If the log cannot be written
+     */
+    private static Path writeLog(final String prefix) throws IOException
+    {
+        final LogGenerator generator = new LogGenerator();
+        generator.setNumFiles(1);
+        generator.setFileSize(3 << 20);
+        generator.setDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+        generator.setUnordered(0.05);
+        generator.setTraces(0.1);
+
+        return generator.generate(s_dir, prefix).get(0);
+    }
+
+    /**
+     * Opens a log with its run prepared
+     *
+     * @param path The path of the log
+     * @return The opened file
+     * @throws IOException If the log cannot be read
+     */
+    private static MappedLogFile open(final Path path) throws IOException
+    {
+        final MappedLogFile file = MappedLogFile.open(path);
+        file.prepareRun(PARSER);
+        return file;
+    }
+
+    /**
+     * Points the cache at a temporary directory before IndexCache is first used
+     *
+     * @throws IOException If the directory cannot be created
+     */
+    @BeforeClass
+    public static void setUpClass() throws IOException
+    {
+        s_dir = Files.createTempDirectory("indexcache");
+        System.setProperty("logsyncviewer.index.dir", s_dir.resolve("index").toString());
+    }
+
+    /**
+     * Deletes the test logs and the cache
+     *
+     * @throws IOException If a file cannot be deleted
+     */
+    @AfterClass
+    public static void tearDownClass() throws IOException
+    {
+        deleteAll(s_dir);
+    }
+
+    /**
+     * A restored index has the same lines, time-stamps, sort order and trigrams as
+     * the file it was saved from
+     *
+     * @throws IOException If the log cannot be written or read
+     */
+    @Test
+    public void testRoundTrip() throws IOException
+    {
+        final Path path = writeLog("roundtrip");
+        final MappedLogFile file = open(path);
+        file.setTrigrams(TrigramIndex.build(file, null));
+        assertNotNull(file.getTrigrams());
+        assertNotNull(file.getRunOrder());
+
+        IndexCache.store(path, file);
+        final MappedLogFile restored = IndexCache.load(path);
+
+        assertNotNull(restored);
+        assertEquals(file.getNumLines(), restored.getNumLines());
+        assertEquals(file.getMaxLineLength(), restored.getMaxLineLength());
+        assertArrayEquals(file.getLineStarts(), restored.getLineStarts());
+        assertArrayEquals(file.getTimestamps(), restored.getTimestamps());
+        assertArrayEquals(file.getRunOrder(), restored.getRunOrder());
+        assertEquals(file.getRunPattern(), restored.getRunPattern());
+        assertArrayEquals(file.getTrigrams().getCounts(), restored.getTrigrams().getCounts());
+        assertArrayEquals(file.getTrigrams().getOffsets(), restored.getTrigrams().getOffsets());
+        assertArrayEquals(file.getTrigrams().getPostings(), restored.getTrigrams().getPostings());
+
+        for (int line = 0; line < file.getNumLines(); line += 97)
+        {
+            assertEquals(file.getLine(line), restored.getLine(line));
+        }
+    }
+
+    /**
+     * An index is not used once the file grows, or once its contents change
+     * without its size or modification time changing
+     *
+     * @throws IOException If the log cannot be written or read
+     */
+    @Test
+    public void testModifiedFile() throws IOException
+    {
+        final Path path = writeLog("modified");
+        final MappedLogFile file = open(path);
+
+        IndexCache.store(path, file);
+        assertNotNull(IndexCache.load(path));
+
+        final FileTime modified = Files.getLastModifiedTime(path);
+        final byte[] first = new byte[1];
+        file.readBytes(0, first, 0, 1);
+        first[0] ^= 1;
+        Files.write(path, first, StandardOpenOption.WRITE);
+        Files.setLastModifiedTime(path, modified);
+        assertNull(IndexCache.load(path));
+
+        first[0] ^= 1;
+        Files.write(path, first, StandardOpenOption.WRITE);
+        Files.setLastModifiedTime(path, modified);
+        assertNotNull(IndexCache.load(path));
+
+        Files.write(path, "2020-01-01 00:00:00.000 one more line\n".getBytes(), StandardOpenOption.APPEND);
+        assertNull(IndexCache.load(path));
+    }
+
+    /**
+     * Files too small to be worth caching are not saved
+     *
+     * @throws IOException If the log cannot be written or read
+     */
+    @Test
+    public void testSmallFile() throws IOException
+    {
+        final Path path = s_dir.resolve("small.log");
+        Files.write(path, "2020-01-01 00:00:00.000 a line\n2020-01-01 00:00:01.000 another\n".getBytes());
+
+        IndexCache.store(path, open(path));
+
+        assertNull(IndexCache.load(path));
+    }
+}
@@ -0,0 +1,244 @@
+package com.ryanantkowiak.logsyncviewer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that LogMerger produces the same order as sorting every line by
+ * time-stamp, file name and line number, on corpora written by the LogGenerator
+ *
+ * @author Ryan Antkowiak
+ *
+ */
+public class LogMergerTest
+{
+    /**
+     * The directory the test corpus is written in
+     */
+    private Path m_dir;
+
+    /**
+     * Returns the merged order that sorting every line gives
+     *
+     * @param fileNums The FileMap index of each file
+     * @param files    The data of each file
+     * @param names    The name of each file
+     * @return The file number and line number of each row, packed by MergedIndex
+     */
+    private static long[] sortedOrder(final int[] fileNums, final MappedLogFile[] files, final String[] names)
+    {
+        final List<long[]> lines = new ArrayList<long[]>();
+
+        for (int f = 0; f < files.length; ++f)
+        {
+            final long[] timestamps = files[f].getTimestamps();
+
+            for (int line = 0; line < files[f].getNumLines(); ++line)
+            {
+                lines.add(new long[] { timestamps[line], f, line });
+            }
+        }
+
+        lines.sort(Comparator.<long[]> comparingLong(l -> l[0])
+                .thenComparing(l -> names[(int) l[1]])
+                .thenComparingLong(l -> l[2]));
+
+        final long[] order = new long[lines.size()];
+
+        for (int i = 0; i < order.length; ++i)
+        {
+            order[i] = MergedIndex.pack(fileNums[(int) lines.get(i)[1]], (int) lines.get(i)[2]);
+        }
+
+        return order;
+    }
+
+    /**
+     * Returns the packed file and line number of every row of a merged index
+     *
+     * @param index The merged index
+     * @return The entry of each row
+     */
+    private static long[] entries(final MergedIndex index)
+    {
+        final long[] entries = new long[index.getSize()];
+
+        for (int row = 0; row < entries.length; ++row)
+        {
+            entries[row] = index.getEntry(row);
+        }
+
+        return entries;
+    }
+
+    /**
+     * Creates the directory for the test corpus
+     *
+     * @throws IOException If the directory cannot be created
+     */
+    @Before
+    public void setUp() throws IOException
+    {
+        m_dir = Files.createTempDirectory("logmerger");
+    }
+
+    /**
+     * Deletes the test corpus
+     *
+     * @throws IOException If a file cannot be deleted
+     */
+    @After
+    public void tearDown() throws IOException
+    {
+        for (final Path path : Files.newDirectoryStream(m_dir))
+        {
+            Files.delete(path);
+        }
+
+        Files.delete(m_dir);
+    }
+
+    /**
+     * Writes a corpus and opens its files with their runs prepared
+     *
+     * @param generator The generator to write the corpus with
+     * @param parser    The parser for the generator's date format
+     * @return The opened files
+     * @throws IOException If the corpus cannot be written or read
+     */
+    private MappedLogFile[] open(final LogGenerator generator, final TimestampParser parser) throws IOException
+    {
+        final List<Path> paths = generator.generate(m_dir, "log");
+        final MappedLogFile[] files = new MappedLogFile[paths.size()];
+
+        for (int f = 0; f < files.length; ++f)
+        {
+            files[f] = MappedLogFile.open(paths.get(f));
+            files[f].prepareRun(parser);
+        }
+
+        return files;
+    }
+
+    /**
+     * Merging files with clock skew, out-of-order entries, repeated time-stamps
+     * and stack traces gives the fully sorted order
+     *
+     * @throws IOException If the corpus cannot be written or read
+     */
+    @Test
+    public void testMergeMatchesSort() throws IOException
+    {
+        final LogGenerator generator = new LogGenerator();
+        generator.setNumFiles(5);
+        generator.setFileSize(200 << 10);
+        generator.setSkew(3000);
+        generator.setUnordered(0.05);
+        generator.setDuplicates(0.2);
+        generator.setTraces(0.2);
+
+        final MappedLogFile[] files = open(generator, TimestampParser.compile("MMM dd HH:mm:ss"));
+        final int[] fileNums = { 7, 3, 0, 12, 5 };
+        final String[] names = { "e.log", "b.log", "d.log", "a.log", "c.log" };
+
+        final MergedIndex merged = LogMerger.merge(fileNums, files, names, null);
+
+        assertArrayEquals(sortedOrder(fileNums, files, names), entries(merged));
+    }
+
+    /**
+     * Merging in new rows gives the same order as merging everything at once, and
+     * reports where each new row was placed
+     *
+     * @throws IOException If the corpus cannot be written or read
+     */
+    @Test
+    public void testMergeInto() throws IOException
+    {
+        final LogGenerator generator = new LogGenerator();
+        generator.setNumFiles(4);
+        generator.setFileSize(100 << 10);
+        generator.setDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+        generator.setUnordered(0.1);
+
+        final MappedLogFile[] files = open(generator, TimestampParser.compile("yyyy-MM-dd HH:mm:ss.SSS"));
+        final int[] fileNums = { 0, 1, 2, 3 };
+        final String[] names = { "a.log", "b.log", "c.log", "d.log" };
+
+        final MergedIndex base = LogMerger.merge(new int[] { 0, 2 }, new MappedLogFile[] { files[0], files[2] },
+                new String[] { names[0], names[2] }, null);
+        final MergedIndex added = LogMerger.merge(new int[] { 1, 3 }, new MappedLogFile[] { files[1], files[3] },
+                new String[] { names[1], names[3] }, null);
+        final int[] inserted = new int[added.getSize()];
+        final MergedIndex merged = LogMerger.mergeInto(base, added, fileNums, names, inserted);
+
+        assertArrayEquals(entries(LogMerger.merge(fileNums, files, names, null)), entries(merged));
+
+        for (int i = 0; i < inserted.length; ++i)
+        {
+            assertEquals(added.getEntry(i), merged.getEntry(inserted[i]));
+        }
+
+        final int[] baseRows = new int[base.getSize()];
+
+        for (int row = 0; row < baseRows.length; ++row)
+        {
+            baseRows[row] = row;
+        }
+
+        final int[] shifted = LogMerger.shiftRows(baseRows, inserted);
+
+        for (int row = 0; row < baseRows.length; ++row)
+        {
+            assertEquals(base.getEntry(row), merged.getEntry(shifted[row]));
+        }
+
+        assertArrayEquals(entries(base), entries(LogMerger.remove(merged, new int[] { 1, 3 })));
+    }
+
+    /**
+     * The union of two lists of rows is sorted and has no duplicates
+     */
+    @Test
+    public void testUnionRows()
+    {
+        assertArrayEquals(new int[] { 1, 2, 3, 5, 8, 9 },
+                LogMerger.unionRows(new int[] { 1, 3, 5, 9 }, new int[] { 2, 3, 8, 9 }));
+        assertArrayEquals(new int[] { 4 }, LogMerger.unionRows(new int[0], new int[] { 4 }));
+        assertArrayEquals(new int[0], LogMerger.unionRows(new int[0], new int[0]));
+    }
+
+    /**
+     * A file in time order needs no sort, and a file with out-of-order stretches
+     * is sorted stably
+     */
+    @Test
+    public void testSortRun()
+    {
+        assertNull(LogMerger.sortRun(new long[] { 1, 2, 2, 5 }));
+
+        final long[] timestamps = { 5, 6, 1, 6, 2, 2, 9, 0 };
+        final Integer[] expected = { 0, 1, 2, 3, 4, 5, 6, 7 };
+        Arrays.sort(expected, Comparator.comparingLong(i -> timestamps[i]));
+
+        final int[] order = LogMerger.sortRun(timestamps);
+
+        for (int i = 0; i < order.length; ++i)
+        {
+            assertEquals((int) expected[i], order[i]);
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.ryanantkowiak.logsyncviewer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.regex.PatternSyntaxException;
+
+import org.junit.Test;
+
+/**
+ * Checks that SearchQuery finds the same lines from their bytes as from their
+ * decoded text, and which queries refine others
+ *
+ * @author Ryan Antkowiak
+ *
+ */
+public class SearchQueryTest
+{
+    /**
+     * The characters random lines and search texts are made of, including
+     * non-ASCII characters that ignoring case matches to ASCII letters
+     */
+    private static final String ALPHABET = "abkKsS \u00E9\u00C9\u0131\u212A\u017F";
+
+    /**
+     * Returns true if a line matches a query when matched through its bytes
+     *
+     * @param query The query
+     * @param line  The text of the line
+     * @return true if the line matches
+     */
+    private static boolean matchesBytes(final SearchQuery query, final String line)
+    {
+        final byte[] bytes = ("<<" + line + ">>").getBytes(StandardCharsets.UTF_8);
+        return query.matches(bytes, 2, bytes.length - 4);
+    }
+
+    /**
+     * Returns a random string of characters from ALPHABET
+     *
+     * @param random The source of randomness
+     * @param length The length of the string
+     * @return The string
+     */
+    private static String randomText(final Random random, final int length)
+    {
+        final StringBuilder sb = new StringBuilder();
+
+        for (int i = 0; i < length; ++i)
+        {
+            sb.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Plain text is found at the start and end of a line, when it repeats, and
+     * not when the line is too short
+     */
+    @Test
+    public void testPlainText()
+    {
+        final SearchQuery query = new SearchQuery("aab", true, false);
+
+        assertTrue(matchesBytes(query, "aab"));
+        assertTrue(matchesBytes(query, "aabxyz"));
+        assertTrue(matchesBytes(query, "xyzaab"));
+        assertTrue(matchesBytes(query, "aaaab"));
+        assertFalse(matchesBytes(query, "aa"));
+        assertFalse(matchesBytes(query, "abab"));
+        assertFalse(matchesBytes(query, "AAB"));
+        assertFalse(matchesBytes(query, ""));
+
+        assertTrue(matchesBytes(new SearchQuery("x", true, false), "abcx"));
+        assertTrue(matchesBytes(new SearchQuery("", true, false), "anything"));
+    }
+
+    /**
+     * Ignoring case matches ASCII and non-ASCII letters in either case, and the
+     * non-ASCII characters that fold to ASCII letters
+     */
+    @Test
+    public void testIgnoreCase()
+    {
+        final SearchQuery query = new SearchQuery("Error", false, false);
+
+        assertTrue(matchesBytes(query, "an ERROR here"));
+        assertTrue(matchesBytes(query, "an error here"));
+        assertFalse(matchesBytes(query, "an err0r here"));
+
+        assertTrue(matchesBytes(new SearchQuery("\u00C9chec", false, false), "\u00E9CHEC de connexion"));
+        assertTrue(matchesBytes(new SearchQuery("unknown", false, false), "an un\u212Anown host"));
+        assertFalse(matchesBytes(new SearchQuery("unknown", true, false), "an un\u212Anown host"));
+    }
+
+    /**
+     * Matching the bytes of random lines gives the same answer as matching their
+     * text, with and without case
+     */
+    @Test
+    public void testBytesMatchText()
+    {
+        final Random random = new Random(7);
+
+        for (int i = 0; i < 20000; ++i)
+        {
+            final String text = randomText(random, 1 + random.nextInt(3));
+            final String line = randomText(random, random.nextInt(12));
+            final SearchQuery matchCase = new SearchQuery(text, true, false);
+            final SearchQuery ignoreCase = new SearchQuery(text, false, false);
+
+            assertEquals(text + " in " + line, line.contains(text), matchesBytes(matchCase, line));
+            assertEquals(text + " in " + line, ignoreCase.matches(line), matchesBytes(ignoreCase, line));
+        }
+    }
+
+    /**
+     * Lines read from a file match as their text does
+     *
+     * @throws IOException If the file cannot be written or read
+     */
+    @Test
+    public void testFileLines() throws IOException
+    {
+        final Path path = Files.createTempFile("searchquery", ".log");
+
+        try
+        {
+            final String text = "first ERROR line\r\nsecond line\nthird error\n\u00E9chec\n";
+            Files.write(path, text.getBytes(StandardCharsets.UTF_8));
+
+            final MappedLogFile file = MappedLogFile.open(path);
+            final SearchQuery[] queries = { new SearchQuery("error", false, false),
+                    new SearchQuery("line", true, false), new SearchQuery("\u00C9CHEC", false, false),
+                    new SearchQuery("e$", true, true) };
+
+            for (final SearchQuery query : queries)
+            {
+                for (int line = 0; line < file.getNumLines(); ++line)
+                {
+                    assertEquals(query.getText(), query.matches(file.getLine(line)), query.matches(file, line));
+                }
+            }
+
+            assertTrue(queries[3].matches(file, 0));
+            assertFalse(queries[3].matches(file, 2));
+        }
+        finally
+        {
+            Files.delete(path);
+        }
+    }
+
+    /**
+     * Regular expressions are found anywhere in a line, honouring case
+     */
+    @Test
+    public void testRegex()
+    {
+        final SearchQuery query = new SearchQuery("id=\\d{3}\\b", true, true);
+
+        assertTrue(matchesBytes(query, "INFO id=123 done"));
+        assertFalse(matchesBytes(query, "INFO id=1234 done"));
+        assertFalse(matchesBytes(query, "INFO ID=123 done"));
+        assertTrue(matchesBytes(new SearchQuery("id=\\d{3}\\b", false, true), "INFO ID=123 done"));
+    }
+
+    /**
+     * Regular expressions that do not compile are rejected
+     */
+    @Test(expected = PatternSyntaxException.class)
+    public void testInvalidRegex()
+    {
+        new SearchQuery("(unclosed", false, true);
+    }
+
+    /**
+     * A query refines an earlier one when its text contains the earlier text and
+     * it is at least as strict about case
+     */
+    @Test
+    public void testRefines()
+    {
+        final SearchQuery err = new SearchQuery("err", false, false);
+
+        assertTrue(new SearchQuery("error", false, false).refines(err));
+        assertTrue(new SearchQuery("an ERR", false, false).refines(err));
+        assertTrue(new SearchQuery("Error", true, false).refines(err));
+        assertFalse(new SearchQuery("erase", false, false).refines(err));
+        assertFalse(new SearchQuery("error", false, false).refines(new SearchQuery("err", true, false)));
+        assertFalse(new SearchQuery("Error", true, false).refines(new SearchQuery("err", true, false)));
+        assertFalse(new SearchQuery("error", false, true).refines(err));
+        assertFalse(new SearchQuery("error", false, false).refines(new SearchQuery("err", false, true)));
+    }
+}
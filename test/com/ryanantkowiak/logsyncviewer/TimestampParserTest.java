@@ -0,0 +1,154 @@
+package com.ryanantkowiak.logsyncviewer;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Random;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+/**
+ * Checks the compiled TimestampParser against SimpleDateFormat, and the places
+ * where it deliberately differs from it
+ *
+ * @author Ryan Antkowiak
+ *
+ */
+public class TimestampParserTest
+{
+    /**
+     * Patterns the parser compiles itself
+     */
+    private static final String[] PATTERNS = { "yyyy-MM-dd HH:mm:ss.SSS", "MMM dd HH:mm:ss", "MMM d HH:mm:ss",
+            "yyyy/MM/dd hh:mm:ss a", "dd MMMM yyyy kk:mm:ss", "yyyyMMddHHmmssSSS", "EEE MMM dd HH:mm:ss yyyy",
+            "'['dd/MMM/yyyy:HH:mm:ss']'", "yyyy-MM-dd'T'HH:mm:ss,SSS", "K:mm a, dd-MM-yyyy" };
+
+    /**
+     * Returns a SimpleDateFormat for a pattern that works in UTC
+     *
+     * @param pattern The pattern
+     * @return The SimpleDateFormat
+     */
+    private static SimpleDateFormat utcFormat(final String pattern)
+    {
+        final SimpleDateFormat sdf = new SimpleDateFormat(pattern);
+        sdf.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return sdf;
+    }
+
+    /**
+     * Time-stamps written by SimpleDateFormat are read back as the same time by
+     * SimpleDateFormat and by the parser, from text and from bytes
+     *
+     * @throws ParseException If SimpleDateFormat cannot read its own output
+     */
+    @Test
+    public void testMatchesSimpleDateFormat() throws ParseException
+    {
+        final Random random = new Random(42);
+
+        for (final String pattern : PATTERNS)
+        {
+            final SimpleDateFormat sdf = utcFormat(pattern);
+            final TimestampParser parser = TimestampParser.compile(pattern);
+
+            for (int i = 0; i < 1000; ++i)
+            {
+                final long time = 631152000000L + (long) (random.nextDouble() * 1262304000000L);
+                final String text = sdf.format(new Date(time));
+                final String line = text + " host app[12]: INFO some words";
+                final byte[] bytes = ("xx" + line).getBytes(StandardCharsets.UTF_8);
+
+                assertEquals(pattern + " " + text, sdf.parse(text).getTime(), parser.parse(line));
+                assertEquals(pattern + " " + text, parser.parse(line), parser.parse(bytes, 2, bytes.length - 2));
+            }
+        }
+    }
+
+    /**
+     * Two-digit years are placed in the same century as SimpleDateFormat places
+     * them
+     *
+     * @throws ParseException If SimpleDateFormat cannot read the text
+     */
+    @Test
+    public void testTwoDigitYear() throws ParseException
+    {
+        final TimestampParser parser = TimestampParser.compile("yy-MM-dd HH:mm");
+        final SimpleDateFormat sdf = utcFormat("yy-MM-dd HH:mm");
+
+        assertEquals(sdf.parse("24-02-29 13:45").getTime(), parser.parse("24-02-29 13:45"));
+        assertEquals(sdf.parse("99-12-31 23:59").getTime(), parser.parse("99-12-31 23:59"));
+    }
+
+    /**
+     * Fractional seconds are read as a fraction: micro-seconds are truncated to
+     * ms and a single digit is tenths of a second
+     */
+    @Test
+    public void testFraction()
+    {
+        final long noon = 12 * 3600000L;
+
+        assertEquals(noon + 123, TimestampParser.compile("HH:mm:ss.SSSSSS").parse("12:00:00.123456"));
+        assertEquals(noon + 500, TimestampParser.compile("HH:mm:ss.S").parse("12:00:00.5"));
+        assertEquals(noon + 50, TimestampParser.compile("HH:mm:ss.SS").parse("12:00:00.05"));
+        assertEquals(noon + 7, TimestampParser.compile("HH:mm:ss.SSS").parse("12:00:00.007"));
+    }
+
+    /**
+     * Hours from the 1-24 and 1-12 fields wrap to midnight as in SimpleDateFormat
+     *
+     * @throws ParseException If SimpleDateFormat cannot read the text
+     */
+    @Test
+    public void testHourFields() throws ParseException
+    {
+        assertEquals(utcFormat("kk:mm").parse("24:30").getTime(), TimestampParser.compile("kk:mm").parse("24:30"));
+        assertEquals(utcFormat("hh:mm a").parse("12:30 AM").getTime(),
+                TimestampParser.compile("hh:mm a").parse("12:30 AM"));
+        assertEquals(utcFormat("hh:mm a").parse("12:30 PM").getTime(),
+                TimestampParser.compile("hh:mm a").parse("12:30 pm"));
+    }
+
+    /**
+     * Text that does not start with a time-stamp gives NONE
+     */
+    @Test
+    public void testNone()
+    {
+        final TimestampParser parser = TimestampParser.compile("MMM dd HH:mm:ss");
+
+        assertEquals(TimestampParser.NONE, parser.parse("\tat com.example.Foo.bar(Foo.java:12)"));
+        assertEquals(TimestampParser.NONE, parser.parse(""));
+        assertEquals(TimestampParser.NONE, parser.parse("Sep 05 12:"));
+        assertEquals(TimestampParser.NONE, parser.parse("Sep 05 12-00-00"));
+        assertEquals(TimestampParser.NONE, TimestampParser.compile("'['HH:mm']'").parse("(12:00)"));
+    }
+
+    /**
+     * Patterns with letters the parser does not handle fall back to
+     * SimpleDateFormat in UTC
+     */
+    @Test
+    public void testFallback()
+    {
+        final TimestampParser parser = TimestampParser.compile("yyyy-MM-dd HH:mm:ss Z");
+
+        assertEquals(1577934245000L, parser.parse("2020-01-02 04:04:05 +0100 rest of line"));
+        assertEquals(TimestampParser.NONE, parser.parse("not a time"));
+    }
+
+    /**
+     * Patterns SimpleDateFormat rejects are rejected
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidPattern()
+    {
+        TimestampParser.compile("yyyy-MM-dd Q");
+    }
+}
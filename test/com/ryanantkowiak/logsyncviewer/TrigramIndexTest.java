@@ -0,0 +1,172 @@
+package com.ryanantkowiak.logsyncviewer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Checks that the candidates a TrigramIndex returns for a search hold every
+ * line that matches it
+ *
+ * @author Ryan Antkowiak
+ *
+ */
+public class TrigramIndexTest
+{
+    /**
+     * Lines with rare words, added to the end of a generated log
+     */
+    private static final String RARE_LINES = "Sep 30 23:59:58 host0 app[1]: ERROR zebra quagga fjord\n"
+            + "Sep 30 23:59:59 host0 app[1]: WARN Quagga seen near the ZEBRA\n"
+            + "Sep 30 23:59:59 host0 app[1]: INFO an un\u212Anown host\n"
+            + "Sep 30 23:59:59 host0 app[1]: INFO \u00E9clair id=1234567\n";
+
+    /**
+     * The searches checked against the index
+     */
+    private static final String[] TEXTS = { "zebra", "ZEBRA", "quagga fjord", "Quagga", "unknown", "id=1234567",
+            "id=12", "ERROR", "timeout", "connection opened", "app[4]: DEBUG" };
+
+    /**
+     * The path of the test log
+     */
+    private static Path s_path;
+
+    /**
+     * The test log
+     */
+    private static MappedLogFile s_file;
+
+    /**
+     * The trigram index of the test log
+     */
+    private static TrigramIndex s_index;
+
+    /**
+     * Writes and indexes a log that is large enough to be indexed
+     *
+     * @throws IOException If the log cannot be written or read
+     */
+    @BeforeClass
+    public static void setUpClass() throws IOException
+    {
+        final LogGenerator generator = new LogGenerator();
+        generator.setNumFiles(1);
+        generator.setFileSize(2 << 20);
+        generator.setTraces(0.05);
+
+        s_path = generator.generate(Files.createTempDirectory("trigramindex"), "log").get(0);
+        Files.write(s_path, RARE_LINES.getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        s_file = MappedLogFile.open(s_path);
+        s_index = TrigramIndex.build(s_file, null);
+    }
+
+    /**
+     * Deletes the test log
+     *
+     * @throws IOException If the log cannot be deleted
+     */
+    @AfterClass
+    public static void tearDownClass() throws IOException
+    {
+        Files.delete(s_path);
+        Files.delete(s_path.getParent());
+    }
+
+    /**
+     * Every line that matches a search is among its candidates, which are in
+     * ascending order
+     */
+    @Test
+    public void testCandidatesHoldMatches()
+    {
+        assertNotNull(s_index);
+
+        for (final String text : TEXTS)
+        {
+            for (final boolean matchCase : new boolean[] { false, true })
+            {
+                final int[] candidates = s_index.candidates(text, matchCase);
+
+                if (candidates == null)
+                {
+                    continue;
+                }
+
+                for (int i = 1; i < candidates.length; ++i)
+                {
+                    assertTrue(text, candidates[i - 1] < candidates[i]);
+                }
+
+                final SearchQuery query = new SearchQuery(text, matchCase, false);
+
+                for (int line = 0; line < s_file.getNumLines(); ++line)
+                {
+                    if (query.matches(s_file, line))
+                    {
+                        assertTrue(text + " at line " + line, Arrays.binarySearch(candidates, line) >= 0);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Rare words narrow a search to a few lines, found in either case since the
+     * index ignores case
+     */
+    @Test
+    public void testNarrows()
+    {
+        final int last = s_file.getNumLines() - 1;
+
+        assertArrayEquals(new int[] { last - 3 }, s_index.candidates("quagga fjord", true));
+        assertArrayEquals(new int[] { last - 3, last - 2 }, s_index.candidates("zebra", false));
+        assertArrayEquals(new int[] { last - 3, last - 2 }, s_index.candidates("ZEBRA", true));
+    }
+
+    /**
+     * Searches with no trigram that can be looked up check every line
+     */
+    @Test
+    public void testNoKeys()
+    {
+        assertNull(s_index.candidates("ab", false));
+        assertNull(s_index.candidates("\u00E9clair", false));
+        assertNull(s_index.candidates("sik", false));
+    }
+
+    /**
+     * Small files are not indexed
+     *
+     * @throws IOException If the file cannot be written or read
+     */
+    @Test
+    public void testSmallFile() throws IOException
+    {
+        final Path path = Files.createTempFile("trigramindex", ".log");
+
+        try
+        {
+            Files.write(path, RARE_LINES.getBytes(StandardCharsets.UTF_8));
+            assertNull(TrigramIndex.build(MappedLogFile.open(path), null));
+        }
+        finally
+        {
+            Files.delete(path);
+        }
+    }
+}